@@ -0,0 +1,23 @@
+import java.util.Hashtable;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The operations of Item in a form that returns straight away. each future completes once the
+ * backends have answered, so a caller in the same process does not hold a thread per request.
+ * a future completes exceptionally if the backends failed or did not answer in time.
+ */
+public interface AsyncItem {
+    public CompletableFuture<AuctionItem> getSpecAsync(int itemId);
+    public CompletableFuture<Integer> createItemAsync(int startingPrice, String description, int minimumPrice, String clientId);
+    public CompletableFuture<Integer> createItemAsync(int startingPrice, String description, int minimumPrice, String clientId, long duration);
+    public CompletableFuture<Hashtable<Integer, AuctionItem>> getListingsAsync();
+    public CompletableFuture<ListingsPage> getListingsPageAsync(int afterId, int limit, ListingsFilter filter);
+    public CompletableFuture<ListingsPage> searchAsync(String query, ListingsFilter filter, int limit);
+    public CompletableFuture<ListingsPage> getClientItemsAsync(String clientId, int views, int afterId, int limit);
+    public CompletableFuture<AuctionItem> getClosedAuctionAsync(int itemId);
+    public CompletableFuture<ListingsPage> getClosedAuctionsAsync(String clientId, int views, int afterId, int limit);
+    public CompletableFuture<Boolean> checkClientIdAsync(String id);
+    public CompletableFuture<Boolean> bidAsync(int id, int price, String name, String email, String buyerId);
+    public CompletableFuture<AuctionItem> closeItemAsync(int key);
+    public CompletableFuture<Boolean> checkItemNonExistentAsync(int id);
+}
@@ -0,0 +1,551 @@
+import java.io.*;
+import java.nio.file.Files;
+import java.rmi.registry.LocateRegistry;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import org.jgroups.Address;
+import org.jgroups.JChannel;
+import org.jgroups.blocks.RequestOptions;
+import org.jgroups.blocks.ResponseMode;
+import org.jgroups.blocks.RpcDispatcher;
+import org.jgroups.util.Buffer;
+import org.jgroups.util.Util;
+
+/**
+ * This class is the benchmark suite of the auction system. run without arguments it runs every benchmark,
+ * each in a JVM of its own, and with a prefix such as "backend.bid" only the benchmarks whose name starts with it.
+ * the backend benchmarks call a Backend kept out of the cluster, filled with 1k to 1M items.
+ * the end to end benchmarks run a Frontend and 1 or 3 Backends in one JVM over a loopback JGroups stack,
+ * and the transport benchmarks two bare members over each stack profile of GroupUtils.
+ * the gateway benchmarks call the Frontend of such a cluster over TCP, through RMI and through its BinaryGateway.
+ * writes are logged to a temporary directory without fsync so the disk does not set the pace,
+ * and what the backends print is discarded while they are measured.
+ * "BENCH_THREADS" sets the threads of the contended and end to end benchmarks (default one per core).
+ */
+public class AuctionBenchmarks {
+    private static final int[] SIZES = { 1000, 10000, 100000, 1000000 }; // catalogue sizes of the backend benchmarks
+    private static final int THREADS = System.getenv("BENCH_THREADS") == null
+            ? Runtime.getRuntime().availableProcessors() : Integer.parseInt(System.getenv("BENCH_THREADS"));
+    private static final String ORIGIN = "bench";         // origin of the writes sent to a Backend directly
+    private static final int E2E_ITEMS = 1000;            // items created before the end to end benchmarks
+    private static final AtomicLong sequence = new AtomicLong(); // sequence of the writes sent to a Backend directly
+    private static final String[] COLOURS = { "red", "blue", "green", "black", "white", "brass", "oak", "vintage" }; // words of the backend item descriptions
+    private static final String[] THINGS = { "lamp", "chair", "table", "guitar", "clock", "mirror", "camera", "radio",
+            "bicycle", "teapot", "rug", "desk", "piano", "vase", "sofa", "globe" };
+    private static final int PAYLOAD = 1000;              // bytes of each message of the transport benchmarks
+    private static final int IN_FLIGHT = 10000;           // multicasts sent but not delivered yet, at most
+    private static final int PIPELINE = 64;               // requests the pipelined gateway benchmarks keep in flight
+    private static final String[] QUERIES = { "red", "oak guitar", "cam*", "vintage piano 12*", "item 99999" }; // searches cycled through
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 2 && args[0].equals("--run")) {
+            run(args[1]);
+            System.exit(0);
+        }
+        String prefix = args.length == 0 ? "" : args[0];
+        System.out.println(BenchmarkRunner.environment());
+        System.out.println(String.format("%-44s %3s %31s %15s %17s", "benchmark", "thr", "throughput", "allocation", "gc"));
+        for (String name : names()) {
+            if (name.startsWith(prefix) && BenchmarkRunner.fork(AuctionBenchmarks.class, name) != 0) {
+                System.err.println(name + " failed");
+            }
+        }
+    }
+
+    /**
+     * @return the names of every benchmark, in the order they run
+     */
+    static List<String> names() {
+        List<String> names = new ArrayList<String>();
+        for (int size : SIZES) {
+            for (String kind : new String[] { "createItem", "bid.uncontended", "bid.contended", "bid.parallel",
+                    "checkItemNonExistent", "checkClientId", "getListings", "search" }) {
+                names.add("backend." + kind + "." + label(size));
+            }
+        }
+        for (int size : new int[] { 100000, 1000000 }) {
+            for (String engine : new String[] { "objects", "columnar" }) {
+                names.add("store." + engine + "." + label(size));
+            }
+        }
+        for (String payload : new String[] { "auctionItem", "page20", "filter", "listings.1k", "listings.10k", "listings.100k", "bidBatch128" }) {
+            for (String format : new String[] { "java", "jgroups" }) {
+                // a filter is only sent by RMI clients, a batch of writes only on the channel
+                if (!(payload.equals("filter") && format.equals("jgroups") || payload.startsWith("bidBatch") && format.equals("java"))) {
+                    names.add("serialization." + payload + "." + format + ".encode");
+                    names.add("serialization." + payload + "." + format + ".decode");
+                }
+            }
+        }
+        names.add("frontend.verifyresults.ids");
+        names.add("frontend.verifyresults.pages");
+        for (int backends : new int[] { 1, 3 }) {
+            for (String kind : new String[] { "createItem", "bid", "getSpec", "getListingsPage" }) {
+                names.add("e2e." + kind + "." + backends + "backends");
+            }
+        }
+        for (String profile : GroupUtils.PROFILES) {
+            names.add("transport." + profile + ".rpc");
+            names.add("transport." + profile + ".multicast");
+        }
+        for (String kind : new String[] { "getSpec", "bid" }) {
+            for (String client : new String[] { "rmi", "binary", "pipelined" }) {
+                names.add("gateway." + client + "." + kind);
+            }
+        }
+        return names;
+    }
+
+    // runs a single benchmark in this JVM and prints its result
+    private static void run(String name) throws Exception {
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        File directory = Files.createTempDirectory("auction-bench").toFile();
+        try {
+            out.println(benchmark(name, directory));
+        } finally {
+            delete(directory);
+        }
+    }
+
+    private static BenchmarkRunner.Result benchmark(String name, File directory) throws Exception {
+        String[] parts = name.split("\\.");
+        SplittableRandom[] randoms = new SplittableRandom[Math.max(THREADS, 1)];
+        for (int t = 0; t < randoms.length; t++) {
+            randoms[t] = new SplittableRandom(42 + t);
+        }
+        if (parts[0].equals("backend")) {
+            int size = parse(parts[parts.length - 1]);
+            Backend backend = backend(directory, size);
+            switch (name.substring("backend.".length(), name.lastIndexOf('.'))) {
+                case "createItem":
+                    return BenchmarkRunner.measure(name, 1, (thread, i) ->
+                            backend.createItem(ORIGIN, sequence.incrementAndGet(), 10, "item", 5, "seller" + (i % 1000)));
+                case "bid.uncontended":
+                    return BenchmarkRunner.measure(name, 1, (thread, i) ->
+                            bid(backend, 1 + randoms[thread].nextInt(size), (int) i + 20));
+                case "bid.contended":
+                    // every thread bids on the same item
+                    return BenchmarkRunner.measure(name, THREADS, (thread, i) -> bid(backend, 1, (int) i + 20));
+                case "bid.parallel":
+                    return BenchmarkRunner.measure(name, THREADS, (thread, i) ->
+                            bid(backend, 1 + randoms[thread].nextInt(size), (int) i + 20));
+                case "checkItemNonExistent":
+                    // half of the ids asked for do not exist
+                    return BenchmarkRunner.measure(name, 1, (thread, i) ->
+                            backend.checkItemNonExistent(1 + randoms[thread].nextInt(size * 2)) ? 1 : 0);
+                case "checkClientId":
+                    return BenchmarkRunner.measure(name, 1, (thread, i) ->
+                            backend.checkClientId("seller" + randoms[thread].nextInt(2000)) ? 1 : 0);
+                case "getListings":
+                    return BenchmarkRunner.measure(name, 1, (thread, i) -> backend.getListings().size());
+                case "search":
+                    // one word, two words, a prefix, words with a prefix and a single match, the newest 20 that fit a price range
+                    ListingsFilter filter = new ListingsFilter();
+                    filter.setPriceRange(0, 1000);
+                    return BenchmarkRunner.measure(name, 1, (thread, i) ->
+                            backend.search(QUERIES[(int) (i % QUERIES.length)], filter, 20).getItems().size());
+            }
+        } else if (parts[0].equals("store")) {
+            return store(name, parts[1], parse(parts[2]));
+        } else if (parts[0].equals("serialization")) {
+            return serialization(name, directory);
+        } else if (parts[0].equals("frontend")) {
+            profile("loopback");
+            Frontend frontend = new Frontend();
+            List<Object> results = new ArrayList<Object>();
+            if (parts[2].equals("ids")) {
+                // ids above 127 are not cached by Integer, so every answer is its own object as it is off the wire
+                for (int i = 0; i < 3; i++) {
+                    results.add(Integer.valueOf(new String("1000")));
+                }
+            } else {
+                ListingsPage page = backend(directory, E2E_ITEMS).getListingsPage(0, 20, null);
+                for (int i = 0; i < 3; i++) {
+                    results.add(deserialize(serialize(page)));
+                }
+            }
+            return BenchmarkRunner.measure(name, 1, (thread, i) -> frontend.verifyresults(results) ? 1 : 0);
+        } else if (parts[0].equals("transport")) {
+            return transport(name, parts[1], parts[2]);
+        } else if (parts[0].equals("gateway")) {
+            return gateway(name, parts[1], parts[2], cluster(directory, 1), randoms);
+        } else if (parts[0].equals("e2e")) {
+            Frontend frontend = cluster(directory, parse(parts[2]));
+            switch (parts[1]) {
+                case "createItem":
+                    return BenchmarkRunner.measure(name, THREADS, (thread, i) ->
+                            frontend.createItem(10, "item", 5, "seller" + thread));
+                case "bid":
+                    return BenchmarkRunner.measure(name, THREADS, (thread, i) ->
+                            frontend.bid(1 + randoms[thread].nextInt(E2E_ITEMS), (int) i + 20, "name", "email", "buyer" + thread) ? 1 : 0);
+                case "getSpec":
+                    return BenchmarkRunner.measure(name, THREADS, (thread, i) -> {
+                        AuctionItem item = frontend.getSpec(1 + randoms[thread].nextInt(E2E_ITEMS));
+                        return item == null ? 0 : item.getItemId();
+                    });
+                case "getListingsPage":
+                    return BenchmarkRunner.measure(name, THREADS, (thread, i) -> {
+                        ListingsPage page = frontend.getListingsPage(randoms[thread].nextInt(E2E_ITEMS - 20), 20);
+                        return page == null ? 0 : page.getItems().size();
+                    });
+            }
+        }
+        throw new IllegalArgumentException("unknown benchmark: " + name);
+    }
+
+    /**
+     * fills a store of the engine given with items that have a bid, then measures bids on random items with a read
+     * of one item in 8. the heap the items take and the time a full collection takes with them live are
+     * reported with the result
+     */
+    private static BenchmarkRunner.Result store(String name, String engine, int size) throws Exception {
+        long before = usedHeap();
+        AuctionStore store = engine.equals("columnar") ? new ColumnarItemStore(size) : new ItemStore(size);
+        for (int i = 0; i < size; i++) {
+            store.put(bidItem(i));
+        }
+        long bytes = usedHeap() - before;
+        long start = System.nanoTime();
+        System.gc();
+        long pause = (System.nanoTime() - start) / 1000000;
+        // the same buyers bid again and again, as they do in bidItem
+        String[] buyers = new String[500];
+        for (int i = 0; i < buyers.length; i++) {
+            buyers[i] = "Buyer" + i;
+        }
+        SplittableRandom random = new SplittableRandom(42);
+        BenchmarkRunner.Result result = BenchmarkRunner.measure(name, 1, (thread, i) -> {
+            int itemId = 1 + random.nextInt(size);
+            if ((i & 7) == 0) {
+                return store.get(itemId).getCurrentHighestBid();
+            }
+            String buyerId = buyers[(int) (i % buyers.length)];
+            return store.placeBidIfHigher(itemId, size + (int) i, buyerId, buyerId + "@example.com", buyerId) == null ? 0 : 1;
+        });
+        result.note = bytes / size + " B/listing, full gc " + pause + " ms";
+        return result;
+    }
+
+    // return the bytes of the heap in use once the garbage is collected
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
+    }
+
+    /**
+     * measures writing or reading one payload in java serialization, as RMI sends it, or the way the channel
+     * sends it, as an answer of a backend or for a batch of writes as an argument. the bytes of the payload
+     * are reported with the result, and a read payload is checked against the one written
+     */
+    private static BenchmarkRunner.Result serialization(String name, File directory) throws Exception {
+        String[] parts = name.split("\\.");
+        boolean java = parts[parts.length - 2].equals("java");
+        Object payload;
+        if (parts[1].equals("auctionItem")) {
+            payload = bidItem(7);
+        } else if (parts[1].equals("page20")) {
+            ArrayList<AuctionItem> items = new ArrayList<AuctionItem>();
+            for (int i = 0; i < 20; i++) {
+                items.add(bidItem(i));
+            }
+            payload = new ListingsPage(items, 20, true);
+        } else if (parts[1].equals("filter")) {
+            ListingsFilter filter = new ListingsFilter();
+            filter.setSellerId("Seller3");
+            filter.setPriceRange(100, 500);
+            payload = filter;
+        } else if (parts[1].equals("listings")) {
+            Hashtable<Integer, AuctionItem> listings = new Hashtable<Integer, AuctionItem>();
+            for (int i = 0; i < parse(parts[2]); i++) {
+                listings.put(i + 1, bidItem(i));
+            }
+            payload = listings;
+        } else {
+            ArrayList<WriteRecord> records = new ArrayList<WriteRecord>();
+            for (int i = 0; i < 128; i++) {
+                String buyerId = "Buyer" + i % 50;
+                records.add(WriteRecord.bid("frontend-1234", 1000 + i, i % 300 + 1, 200 + i, buyerId, buyerId + "@example.com", buyerId));
+            }
+            payload = new WriteBatch(records);
+        }
+        WireFormat.register();
+        RpcDispatcher.Marshaller marshaller = payload instanceof WriteBatch ? null : new WireFormat.ResponseMarshaller();
+        byte[] bytes = java ? serialize(payload) : marshal(marshaller, payload);
+        Object read = java ? deserialize(bytes) : unmarshal(marshaller, bytes);
+        if (!describe(read).equals(describe(payload))) {
+            throw new IllegalStateException(name + " read back a different payload");
+        }
+        BenchmarkRunner.Result result = name.endsWith("encode")
+                ? BenchmarkRunner.measure(name, 1, (thread, i) -> (java ? serialize(payload) : marshal(marshaller, payload)).length)
+                : BenchmarkRunner.measure(name, 1, (thread, i) -> (java ? deserialize(bytes) : unmarshal(marshaller, bytes)).hashCode());
+        result.note = bytes.length + " B";
+        return result;
+    }
+
+    // return the bytes the channel sends for the value, with the marshaller given or as JGroups writes it if null
+    private static byte[] marshal(RpcDispatcher.Marshaller marshaller, Object value) throws Exception {
+        if (marshaller == null) {
+            return Util.objectToByteBuffer(value);
+        }
+        Buffer buffer = marshaller.objectToBuffer(value);
+        return Arrays.copyOfRange(buffer.getBuf(), buffer.getOffset(), buffer.getOffset() + buffer.getLength());
+    }
+
+    private static Object unmarshal(RpcDispatcher.Marshaller marshaller, byte[] bytes) throws Exception {
+        return marshaller == null ? Util.objectFromByteBuffer(bytes) : marshaller.objectFromBuffer(bytes, 0, bytes.length);
+    }
+
+    // return a timed item with a bid, the sellers and buyers repeating across items as they do in real listings
+    private static AuctionItem bidItem(int i) {
+        AuctionItem item = new AuctionItem(10 + i % 90, "item of Seller" + i % 100, 20 + i % 90, "Seller" + i % 100);
+        item.setItemId(i + 1);
+        item.setEndTime(1700000000000L + i * 1000L);
+        String buyerId = "Buyer" + i % 500;
+        item.placeBid(200 + i, buyerId, buyerId + "@example.com", buyerId);
+        return item;
+    }
+
+    // return every field of a payload as text, to compare a payload read back with the one written
+    private static String describe(Object payload) {
+        StringBuilder text = new StringBuilder();
+        if (payload instanceof AuctionItem) {
+            AuctionItem item = (AuctionItem) payload;
+            text.append(item.getItemId()).append('|').append(item.getItemStartingPrice()).append('|')
+                    .append(item.getItemDescription()).append('|').append(item.getItemMinimumPrice()).append('|')
+                    .append(item.getClientId()).append('|').append(item.getCurrentHighestBid()).append('|')
+                    .append(item.getName()).append('|').append(item.getEmail()).append('|')
+                    .append(item.getEndTime()).append('|').append(item.getBuyerId()).append(';');
+        } else if (payload instanceof ListingsPage) {
+            ListingsPage page = (ListingsPage) payload;
+            for (AuctionItem item : page.getItems()) {
+                text.append(describe(item));
+            }
+            text.append(page.getNextCursor()).append('|').append(page.hasMore());
+        } else if (payload instanceof Hashtable) {
+            for (Object item : new TreeMap<Object, Object>((Hashtable<?, ?>) payload).values()) {
+                text.append(describe(item));
+            }
+        } else if (payload instanceof WriteBatch) {
+            for (WriteRecord record : ((WriteBatch) payload).getRecords()) {
+                text.append(record).append('|').append(record.price).append('|').append(record.name).append('|')
+                        .append(record.email).append('|').append(record.clientId).append(';');
+            }
+        } else {
+            text.append(payload);
+        }
+        return text.toString();
+    }
+
+    // return 1 if the bid was accepted
+    private static long bid(Backend backend, int itemId, int price) throws Exception {
+        return backend.bid(ORIGIN, sequence.incrementAndGet(), itemId, price, "name", "email", "buyer" + (price % 1000)) ? 1 : 0;
+    }
+
+    /**
+     * @return a Backend outside the cluster holding the number of items given, logging to a fresh directory
+     */
+    private static Backend backend(File directory, int size) {
+        Backend backend = new Backend(AuctionLog.open(new File(directory, "standalone").getPath(), false, Integer.MAX_VALUE), false);
+        for (int i = 0; i < size; i++) {
+            backend.createItem(ORIGIN, sequence.incrementAndGet(), 10,
+                    "item " + i + " " + COLOURS[i % COLOURS.length] + " " + THINGS[i / COLOURS.length % THINGS.length], 5, "seller" + (i % 1000));
+        }
+        return backend;
+    }
+
+    /**
+     * starts Backends and a Frontend in this JVM over the loopback stack and creates the items read and bid on
+     * @return the Frontend
+     */
+    private static Frontend cluster(File directory, int backends) throws Exception {
+        profile("loopback");
+        for (int i = 0; i < backends; i++) {
+            new Backend(AuctionLog.open(new File(directory, "backend" + i).getPath(), false, Integer.MAX_VALUE), true);
+        }
+        Frontend frontend = new Frontend();
+        for (int i = 0; i < E2E_ITEMS; i++) {
+            frontend.createItem(10, "item " + i, 5, "seller" + (i % 100));
+        }
+        return frontend;
+    }
+
+    /**
+     * calls the Frontend given over TCP, the way a client in another process would: "rmi" through a stub looked up
+     * in its registry and "binary" through a BinaryClient of its gateway, each thread making one call at a time,
+     * and "pipelined" through a BinaryClient from one thread that keeps PIPELINE requests in flight.
+     * "getSpec" mostly reads the cache of the frontend, so it shows the cost of the connection itself,
+     * "bid" goes to the backend. the percentiles of the time to an answer are printed with the result
+     */
+    private static BenchmarkRunner.Result gateway(String name, String client, String kind, Frontend frontend,
+            SplittableRandom[] randoms) throws Exception {
+        LatencyHistogram latencies = new LatencyHistogram();
+        BenchmarkRunner.Result result;
+        if (client.equals("rmi")) {
+            String endpoint = frontend.getFrontends()[0];
+            int colon = endpoint.lastIndexOf(':');
+            Item rmi = (Item) LocateRegistry.getRegistry(endpoint.substring(0, colon), Integer.parseInt(endpoint.substring(colon + 1))).lookup("myserver");
+            result = BenchmarkRunner.measure(name, THREADS, (thread, i) -> {
+                int itemId = 1 + randoms[thread].nextInt(E2E_ITEMS);
+                long start = System.nanoTime();
+                Object answer = kind.equals("bid") ? rmi.bid(itemId, (int) i + 20, "name", "email", "buyer" + thread) : rmi.getSpec(itemId);
+                latencies.record((System.nanoTime() - start) / 1000);
+                return value(answer);
+            });
+        } else {
+            BinaryClient binary = new BinaryClient("127.0.0.1", frontend.getGatewayPort());
+            if (client.equals("binary")) {
+                result = BenchmarkRunner.measure(name, THREADS, (thread, i) -> {
+                    long start = System.nanoTime();
+                    Object answer = call(binary, kind, randoms[thread], thread, i).get();
+                    latencies.record((System.nanoTime() - start) / 1000);
+                    return value(answer);
+                });
+            } else {
+                CompletableFuture<?>[] window = new CompletableFuture<?>[PIPELINE];
+                result = BenchmarkRunner.measure(name, 1, (thread, i) -> {
+                    int slot = (int) (i % PIPELINE);
+                    long answered = window[slot] == null ? 0 : value(window[slot].get());
+                    long start = System.nanoTime();
+                    window[slot] = call(binary, kind, randoms[thread], thread, i)
+                            .whenComplete((answer, failure) -> latencies.record((System.nanoTime() - start) / 1000));
+                    return answered;
+                });
+            }
+            binary.close();
+        }
+        result.note = String.format("p50 %d us, p99 %d us, p99.9 %d us", latencies.percentile(50), latencies.percentile(99),
+                latencies.percentile(99.9));
+        return result;
+    }
+
+    // starts one request of the gateway benchmarks on a random item
+    private static CompletableFuture<?> call(AsyncItem item, String kind, SplittableRandom random, int thread, long i) {
+        int itemId = 1 + random.nextInt(E2E_ITEMS);
+        return kind.equals("bid") ? item.bidAsync(itemId, (int) i + 20, "name", "email", "buyer" + thread) : item.getSpecAsync(itemId);
+    }
+
+    // return a number out of an answer so it is used: 1 for an accepted bid, the id of an item
+    private static long value(Object answer) {
+        if (answer instanceof Boolean) {
+            return (Boolean) answer ? 1 : 0;
+        }
+        return answer instanceof AuctionItem ? ((AuctionItem) answer).getItemId() : 0;
+    }
+
+    // makes the members this JVM starts use the profile given, whatever "JGROUPS_CONFIG" says
+    private static void profile(String profile) {
+        GroupUtils.config = null;
+        GroupUtils.profile = profile;
+    }
+
+    /**
+     * the methods the members of the transport benchmarks call on each other
+     */
+    public static class Transport {
+        final AtomicLong delivered = new AtomicLong(); // multicasts received
+
+        public byte[] echo(byte[] payload) {
+            return payload;
+        }
+
+        public void deliver(byte[] payload) {
+            delivered.incrementAndGet();
+        }
+    }
+
+    /**
+     * connects two members in this JVM over the profile given, with the tuning env vars of GroupUtils applied.
+     * "rpc" measures the round trip of a call from one to the other and prints its percentiles, "multicast"
+     * measures the multicasts of one member the other delivers, keeping at most IN_FLIGHT of them undelivered
+     */
+    private static BenchmarkRunner.Result transport(String name, String profile, String kind) throws Exception {
+        profile(profile);
+        Transport sender = new Transport();
+        Transport receiver = new Transport();
+        JChannel[] channels = { GroupUtils.channel(), GroupUtils.channel() };
+        RpcDispatcher from = new RpcDispatcher(channels[0], sender);
+        new RpcDispatcher(channels[1], receiver);
+        for (JChannel channel : channels) {
+            channel.setDiscardOwnMessages(true);
+            channel.connect("transport-bench");
+        }
+        long deadline = System.currentTimeMillis() + 30000;
+        while (channels[0].getView().size() < 2 || channels[1].getView().size() < 2) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new IllegalStateException("the members of " + profile + " did not find each other");
+            }
+            Thread.sleep(10);
+        }
+        Address to = channels[1].getAddress();
+        byte[] payload = new byte[PAYLOAD];
+        Class<?>[] types = { byte[].class };
+        BenchmarkRunner.Result result;
+        if (kind.equals("rpc")) {
+            LatencyHistogram latencies = new LatencyHistogram();
+            RequestOptions options = new RequestOptions(ResponseMode.GET_ALL, 10000);
+            result = BenchmarkRunner.measure(name, 1, (thread, i) -> {
+                long start = System.nanoTime();
+                byte[] echoed = from.callRemoteMethod(to, "echo", new Object[] { payload }, types, options);
+                latencies.record((System.nanoTime() - start) / 1000);
+                return echoed.length;
+            });
+            result.note = String.format("p50 %d us, p99 %d us, p99.9 %d us", latencies.percentile(50), latencies.percentile(99),
+                    latencies.percentile(99.9));
+        } else {
+            RequestOptions options = new RequestOptions(ResponseMode.GET_NONE, 0);
+            long[] sent = new long[1];
+            result = BenchmarkRunner.measure(name, 1, (thread, i) -> {
+                while (sent[0] - receiver.delivered.get() >= IN_FLIGHT) {
+                    Thread.yield();
+                }
+                from.callRemoteMethods(null, "deliver", new Object[] { payload }, types, options);
+                return ++sent[0];
+            });
+            result.note = String.format("%.1f MB/s of %d B messages", result.mean() * PAYLOAD / 1e6, PAYLOAD);
+        }
+        for (JChannel channel : channels) {
+            channel.close();
+        }
+        return result;
+    }
+
+    private static byte[] serialize(Object value) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(value);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Object deserialize(byte[] bytes) throws Exception {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return in.readObject();
+        }
+    }
+
+    // return "1k", "10k", "1m" ... for a catalogue size
+    private static String label(int size) {
+        return size >= 1000000 ? size / 1000000 + "m" : size / 1000 + "k";
+    }
+
+    // return the size a label stands for, "3backends" gives 3
+    private static int parse(String label) {
+        String digits = label.replaceAll("[^0-9]", "");
+        int value = Integer.parseInt(digits);
+        return label.endsWith("m") ? value * 1000000 : label.endsWith("k") ? value * 1000 : value;
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
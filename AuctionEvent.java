@@ -0,0 +1,122 @@
+import java.io.*;
+
+/**
+ * A change to an auction pushed to the clients that subscribed to it, so they can keep their view of
+ * the listings current without polling. backends send PRICE and CLOSED events to the frontends as they
+ * apply bids and closes, and the frontend turns a PRICE event into an OUTBID event for the buyer whose
+ * bid was beaten. it is written in the compact WireFormat, to RMI clients and between members alike.
+ */
+public class AuctionEvent implements Externalizable {
+    private static final long serialVersionUID = 1L;
+
+    public static final byte PRICE = 1;   // a bid above the highest one was accepted
+    public static final byte OUTBID = 2;  // the highest bid of the subscriber was beaten
+    public static final byte CLOSED = 3;  // the auction was closed by its seller or ended
+
+    private byte type;               // kind of event
+    private int itemId;              // the item that changed
+    private int price;               // highest bid of the item after the change
+    private String buyerId;          // client with the highest bid after the change, null if nobody bid
+    private String previousBuyerId;  // client whose bid was beaten by a PRICE event, null if none
+    private String sellerId;         // client that sells the item
+    private boolean sold;            // true if a CLOSED item reached its minimum price and goes to buyerId
+
+    // used when an event is read from the wire
+    public AuctionEvent() {
+    }
+
+    AuctionEvent(byte type, int itemId, int price, String buyerId, String previousBuyerId, String sellerId, boolean sold) {
+        this.type = type;
+        this.itemId = itemId;
+        this.price = price;
+        this.buyerId = buyerId;
+        this.previousBuyerId = previousBuyerId;
+        this.sellerId = sellerId;
+        this.sold = sold;
+    }
+
+    // return the event of a bid of the buyer given accepted on an item of the seller given, replacing the highest bid of previousBuyerId
+    static AuctionEvent price(int itemId, int price, String buyerId, String previousBuyerId, String sellerId) {
+        return new AuctionEvent(PRICE, itemId, price, buyerId, previousBuyerId, sellerId, false);
+    }
+
+    // return the event of the item being closed
+    static AuctionEvent closed(AuctionItem item) {
+        boolean sold = item.getBuyerId() != null && item.getCurrentHighestBid() >= item.getItemMinimumPrice();
+        return new AuctionEvent(CLOSED, item.getItemId(), item.getCurrentHighestBid(), item.getBuyerId(), null, item.getClientId(), sold);
+    }
+
+    // return the OUTBID event the buyer beaten by this PRICE event is told
+    AuctionEvent outbid() {
+        return new AuctionEvent(OUTBID, itemId, price, buyerId, previousBuyerId, sellerId, false);
+    }
+
+    // return the kind of event, PRICE, OUTBID or CLOSED
+    public byte getType() {
+        return type;
+    }
+
+    // return the id of the item that changed
+    public int getItemId() {
+        return itemId;
+    }
+
+    // return the highest bid of the item after the change
+    public int getPrice() {
+        return price;
+    }
+
+    // return the client with the highest bid after the change, null if nobody bid
+    public String getBuyerId() {
+        return buyerId;
+    }
+
+    // return the client whose bid was beaten, null if none
+    public String getPreviousBuyerId() {
+        return previousBuyerId;
+    }
+
+    // return the client that sells the item
+    public String getSellerId() {
+        return sellerId;
+    }
+
+    // return true if a closed item reached its minimum price and goes to the buyer
+    public boolean isSold() {
+        return sold;
+    }
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        out.writeByte(type);
+        WireFormat.writeVarInt(out, itemId);
+        WireFormat.writeVarInt(out, price);
+        WireFormat.writeString(out, buyerId);
+        WireFormat.writeString(out, previousBuyerId);
+        WireFormat.writeString(out, sellerId);
+        out.writeBoolean(sold);
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException {
+        type = in.readByte();
+        itemId = WireFormat.readVarInt(in);
+        price = WireFormat.readVarInt(in);
+        buyerId = WireFormat.readString(in);
+        previousBuyerId = WireFormat.readString(in);
+        sellerId = WireFormat.readString(in);
+        sold = in.readBoolean();
+    }
+
+    @Override
+    public String toString() {
+        switch (type) {
+            case PRICE:
+                return "item " + itemId + " has a new highest bid of " + price;
+            case OUTBID:
+                return "you were outbid on item " + itemId + ", the highest bid is now " + price;
+            default:
+                return "item " + itemId + " closed at " + price + (sold ? ", sold to " + buyerId : ", not sold");
+        }
+    }
+}
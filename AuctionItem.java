@@ -1,20 +1,44 @@
-import java.io.Serializable;
-
-public class AuctionItem implements Serializable{
+import java.io.*;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * An auction item. it is written in the compact WireFormat both to RMI clients (Externalizable)
+ * and between the frontend and the backends (WireFormat.ResponseMarshaller), so clients do not need JGroups.
+ */
+public class AuctionItem implements Externalizable{
     private int itemId;                     // item id
     private int itemStartingPrice;          // item starting price
     private String itemDescription;         // item description
     private int itemMinimumPrice;           // item minimum price
-    private String name;                    // buyer's name
-    private String email;                   // buyer's email
-    private int currentHighestBid;          // item's current highest bid
+    private final AtomicReference<HighestBid> highestBid; // item's current highest bid with the buyer's name, email and id
     private String clientId;                // seller id
+    private volatile long endTime;          // when the auction closes by itself in cluster time (ms), 0 if only the seller closes it
+
+    // the highest bid of an item, replaced as a whole so the price, name, email and buyer always match
+    static class HighestBid {
+        final int price;      // the price of the bid
+        final String name;    // buyer's name
+        final String email;   // buyer's email
+        final String buyerId; // buyer's client id, null for the starting price
+
+        HighestBid(int price, String name, String email, String buyerId) {
+            this.price = price;
+            this.name = name;
+            this.email = email;
+            this.buyerId = buyerId;
+        }
+    }
+
+    // used when an item is read from the wire
+    public AuctionItem() {
+        this(0, null, 0, null);
+    }
 
     public AuctionItem(int startingPrice, String description, int minimumPrice, String ownerId){
         this.itemStartingPrice = startingPrice;
         this.itemDescription = description;
         this.itemMinimumPrice = minimumPrice;
-        this.currentHighestBid = startingPrice;
+        this.highestBid = new AtomicReference<HighestBid>(new HighestBid(startingPrice, null, null, null));
         this.clientId = ownerId;
     }
 
@@ -40,17 +64,27 @@ public class AuctionItem implements Serializable{
 
     // return the item's buyer email
     public String getEmail() {
-        return email;
+        return highestBid.get().email;
     }
 
     // return the item's buyer name
     public String getName() {
-        return name;
+        return highestBid.get().name;
     }
 
     // return the item's current highest bid
     public int getCurrentHighestBid() {
-        return currentHighestBid;
+        return highestBid.get().price;
+    }
+
+    // return the client id of the buyer with the highest bid, null if nobody bid
+    public String getBuyerId() {
+        return highestBid.get().buyerId;
+    }
+
+    // return the highest bid with its buyer, the fields of one bid even while other bids land
+    HighestBid getHighestBid() {
+        return highestBid.get();
     }
 
     // return the owner/seller id
@@ -58,6 +92,16 @@ public class AuctionItem implements Serializable{
         return clientId;
     }
 
+    // return when the auction closes by itself, 0 if it does not
+    public long getEndTime() {
+        return endTime;
+    }
+
+    // set when the auction closes by itself, 0 to leave it to the seller
+    public void setEndTime(long endTime) {
+        this.endTime = endTime;
+    }
+
     // set the item starting price to the value specified  in case the seller wants to change it 
     public void setItemStartingPrice(int itemStartingPrice) {
         this.itemStartingPrice = itemStartingPrice;
@@ -80,17 +124,129 @@ public class AuctionItem implements Serializable{
 
     // set the buyer email to the value specified
     public void setEmail(String email) {
-        this.email = email;
+        highestBid.updateAndGet(bid -> new HighestBid(bid.price, bid.name, email, bid.buyerId));
     }
 
     // set the buyer name to the value specified
     public void setName(String name) {
-        this.name = name;
+        highestBid.updateAndGet(bid -> new HighestBid(bid.price, name, bid.email, bid.buyerId));
     }
 
     // set the item current highest price to the value specified
     public void setCurrentHighestBid(int currentPrice) {
-        this.currentHighestBid = currentPrice;
+        highestBid.updateAndGet(bid -> new HighestBid(currentPrice, bid.name, bid.email, bid.buyerId));
+    }
+
+    // replace the highest bid with the price, name and email of a new bid in one step
+    public void placeBid(int price, String name, String email) {
+        placeBid(price, name, email, null);
+    }
+
+    // replace the highest bid with the price, name, email and buyer id of a new bid in one step
+    public void placeBid(int price, String name, String email, String buyerId) {
+        highestBid.set(new HighestBid(price, name, email, buyerId));
+    }
+
+    // replace the highest bid only if the price is above it, return the bid replaced or null if the bid was turned down
+    HighestBid placeBidIfHigher(int price, String name, String email, String buyerId) {
+        HighestBid bid = new HighestBid(price, name, email, buyerId);
+        while (true) {
+            HighestBid current = highestBid.get();
+            if (price <= current.price) {
+                return null;
+            }
+            if (highestBid.compareAndSet(current, bid)) {
+                return current;
+            }
+        }
+    }
+
+    // return a copy of the item that does not change when this one does
+    public AuctionItem copy() {
+        AuctionItem copy = new AuctionItem(itemStartingPrice, itemDescription, itemMinimumPrice, clientId);
+        copy.itemId = itemId;
+        copy.endTime = endTime;
+        copy.highestBid.set(highestBid.get());
+        return copy;
+    }
+
+    /**
+     * writes the item, the ids and names that repeat across the items of a message go through the table given
+     * @param out where to write
+     * @param strings the strings already written in this message, or null to write every string in full
+     */
+    void write(DataOutput out, WireFormat.StringTable strings) throws IOException {
+        HighestBid bid = highestBid.get();
+        WireFormat.writeVarInt(out, itemId);
+        WireFormat.writeVarInt(out, itemStartingPrice);
+        WireFormat.writeVarInt(out, itemMinimumPrice);
+        WireFormat.writeVarInt(out, bid.price);
+        WireFormat.writeString(out, itemDescription);
+        if (strings == null) {
+            WireFormat.writeString(out, clientId);
+            WireFormat.writeString(out, bid.name);
+            WireFormat.writeString(out, bid.email);
+        } else {
+            strings.write(out, clientId);
+            strings.write(out, bid.name);
+            strings.write(out, bid.email);
+        }
+        WireFormat.writeVarLong(out, endTime);
+        if (strings == null) {
+            WireFormat.writeString(out, bid.buyerId);
+        } else {
+            strings.write(out, bid.buyerId);
+        }
+    }
+
+    /**
+     * reads the fields of an item written by write
+     * @param in where to read from
+     * @param strings the strings already read in this message, or null if every string was written in full
+     */
+    void read(DataInput in, WireFormat.StringTable strings) throws IOException {
+        itemId = WireFormat.readVarInt(in);
+        itemStartingPrice = WireFormat.readVarInt(in);
+        itemMinimumPrice = WireFormat.readVarInt(in);
+        int price = WireFormat.readVarInt(in);
+        itemDescription = WireFormat.readString(in);
+        String name;
+        String email;
+        if (strings == null) {
+            clientId = WireFormat.readString(in);
+            name = WireFormat.readString(in);
+            email = WireFormat.readString(in);
+        } else {
+            clientId = strings.read(in);
+            name = strings.read(in);
+            email = strings.read(in);
+        }
+        endTime = WireFormat.readVarLong(in);
+        String buyerId = strings == null ? WireFormat.readString(in) : strings.read(in);
+        highestBid.set(new HighestBid(price, name, email, buyerId));
+    }
+
+    // return the bytes write takes
+    int size(WireFormat.StringTable strings) {
+        HighestBid bid = highestBid.get();
+        int size = WireFormat.varIntSize(itemId) + WireFormat.varIntSize(itemStartingPrice)
+                + WireFormat.varIntSize(itemMinimumPrice) + WireFormat.varIntSize(bid.price)
+                + WireFormat.stringSize(itemDescription) + WireFormat.varLongSize(endTime);
+        if (strings == null) {
+            return size + WireFormat.stringSize(clientId) + WireFormat.stringSize(bid.name) + WireFormat.stringSize(bid.email)
+                    + WireFormat.stringSize(bid.buyerId);
+        }
+        return size + strings.size(clientId) + strings.size(bid.name) + strings.size(bid.email) + strings.size(bid.buyerId);
+    }
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        write(out, null);
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException {
+        read(in, null);
     }
 
 }
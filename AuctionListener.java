@@ -0,0 +1,13 @@
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+
+/**
+ * The callback a client exports and registers with Item.subscribeItem or Item.subscribeClient to be
+ * told about changes instead of polling for them. events of a burst on the same item are coalesced,
+ * so a call carries the latest change of each item and a listener can fall behind without missing
+ * the current state. a listener that falls too far behind, or fails, is unsubscribed.
+ */
+public interface AuctionListener extends Remote {
+    public void onEvents(ArrayList<AuctionEvent> events) throws RemoteException;
+}
@@ -0,0 +1,753 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.zip.CRC32C;
+
+/**
+ * This class keeps a durable copy of the auction data of a backend on the local disk.
+ * every createItem, bid, closeItem and tick is appended to a log segment, a single flusher thread
+ * writes and fsyncs the appended records so that concurrent requests share one fsync (group commit),
+ * and compact snapshots are written in the background so older log segments can be deleted.
+ * On startup the backend is rebuilt from the latest snapshot plus the log records written after it.
+ * if writing or fsyncing fails, the records stay unacknowledged: the requests waiting for them fail, new writes
+ * are turned away (checkWritable), and the flusher writes them again every RETRY_MS until the disk takes them.
+ */
+public class AuctionLog {
+    private static final int SNAPSHOT_MAGIC = 0x41554354;  // marks a snapshot file ("AUCT")
+    private static final int SNAPSHOT_VERSION = 1;         // format of the snapshot file
+    private static final String SNAPSHOT_FILE = "snapshot.dat";
+    private static final String SEGMENT_PREFIX = "auction-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final int IO_BUFFER = 1 << 20;           // buffer size used to read and write snapshots
+    private static final long RETRY_MS = 1000;              // time between two attempts to write records after a failure
+
+    private final File directory;           // directory holding the snapshot and the log segments
+    private final FileChannel lockChannel;  // keeps the directory locked while the backend is running
+    private final FileLock directoryLock;   // prevents two backends on one machine from sharing a directory
+    private final boolean syncCommit;       // true if requests wait for their records to be fsynced
+    private final int snapshotEvery;        // number of records appended before a new snapshot is due
+
+    private final Object writeLock = new Object(); // serializes writes, fsyncs and segment rollovers
+    private FileChannel segment;            // the log segment currently appended to
+    private int segmentNumber;              // number of the current log segment
+    private long segmentSize;               // bytes of the current segment known to be on disk
+    private ByteBuffer pending = ByteBuffer.allocate(1 << 16); // records appended but not yet written
+    private ByteBuffer writing = ByteBuffer.allocate(1 << 16); // records being written by the flusher
+    private long appended;                  // logical position after the last appended record
+    private long durable;                   // logical position known to be on disk
+    private IOException failure;            // why the last write to disk failed, null while the log is healthy
+    private int recordsSinceSnapshot;       // records appended since the last snapshot was started
+    private boolean snapshotRunning;        // true while a snapshot is being written
+    private final CRC32C crc = new CRC32C(); // checksum of each record, used to find a torn tail
+    private Thread flusher;                 // thread writing the pending records to disk
+    private volatile boolean closed;
+
+    /**
+     * a copy of the backend state taken at a segment boundary, written to disk in the background
+     */
+    static class Snapshot {
+        final int segmentNumber;                                // first log segment not covered by the snapshot
+        final int id;                                           // the item id counter
+        final long clock;                                       // the cluster time of the last tick
+        final SequenceTracker applied;                          // copy of the writes applied
+        final Map<Integer, AuctionItem> items;            // copy of the live items
+        final Map<String, ClientIndex.Record> clients;    // copy of the activity of the clients
+
+        Snapshot(int segmentNumber, int id, long clock, SequenceTracker applied, Map<Integer, AuctionItem> items, Map<String, ClientIndex.Record> clients) {
+            this.segmentNumber = segmentNumber;
+            this.id = id;
+            this.clock = clock;
+            this.applied = applied;
+            this.items = items;
+            this.clients = clients;
+        }
+    }
+
+    private AuctionLog(File directory, FileChannel lockChannel, FileLock directoryLock, boolean syncCommit, int snapshotEvery) {
+        this.directory = directory;
+        this.lockChannel = lockChannel;
+        this.directoryLock = directoryLock;
+        this.syncCommit = syncCommit;
+        this.snapshotEvery = snapshotEvery;
+    }
+
+    /**
+     * opens the log stored under the directory named by the "DATA_DIR" env var (or "backend-data"),
+     * if that directory is locked by another backend on this machine the next free
+     * "<dir>-1", "<dir>-2" ... is used instead.
+     * "LOG_SYNC=false" acknowledges requests before their records are fsynced, and
+     * "SNAPSHOT_EVERY" sets how many records are appended between two snapshots.
+     * @return the opened log, or null if no directory could be used
+     */
+    public static AuctionLog open() {
+        String base = System.getenv("DATA_DIR") == null ? "backend-data" : System.getenv("DATA_DIR");
+        boolean syncCommit = !"false".equalsIgnoreCase(System.getenv("LOG_SYNC"));
+        int snapshotEvery = System.getenv("SNAPSHOT_EVERY") == null ? 100000 : Integer.parseInt(System.getenv("SNAPSHOT_EVERY"));
+        return open(base, syncCommit, snapshotEvery);
+    }
+
+    /**
+     * same as open() with the settings given instead of the env vars
+     * @param base the directory to use, or the name the numbered directories start with if it is locked
+     * @param syncCommit false to acknowledge requests before their records are fsynced
+     * @param snapshotEvery records appended between two snapshots
+     * @return the opened log, or null if no directory could be used
+     */
+    public static AuctionLog open(String base, boolean syncCommit, int snapshotEvery) {
+        for (int attempt = 0; attempt < 100; attempt++) {
+            File directory = new File(attempt == 0 ? base : base + "-" + attempt);
+            try {
+                directory.mkdirs();
+                FileChannel lockChannel = FileChannel.open(new File(directory, "lock").toPath(),
+                        StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                FileLock lock = lockChannel.tryLock();
+                if (lock == null) {
+                    lockChannel.close();
+                    continue;
+                }
+                System.out.println("    auction log directory: " + directory);
+                return new AuctionLog(directory, lockChannel, lock, syncCommit, snapshotEvery);
+            } catch (IOException | OverlappingFileLockException e) {
+                // the directory is already in use by this process, try the next one
+            }
+        }
+        System.err.println("    could not open an auction log directory under: " + base);
+        return null;
+    }
+
+    /**
+     * @return the directory holding the snapshot and the log segments
+     */
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * rebuilds the state of the backend from the latest snapshot and the log segments written after it,
+     * then starts a fresh segment and the flusher thread
+     * @param backend the backend whose items, clients and id are restored
+     * @return the number of log records replayed on top of the snapshot
+     * @throws IOException if the snapshot or a segment cannot be read
+     */
+    public int recover(Backend backend) throws IOException {
+        int firstSegment = readSnapshot(backend);
+        // the replayed writes go into the ring, the ones in the snapshot cannot be served from it
+        backend.writeRing.startAt(backend.applied);
+        int replayed = 0;
+        int lastSegment = firstSegment - 1;
+        for (int number : segmentNumbers()) {
+            if (number < firstSegment) {
+                // already covered by the snapshot
+                new File(directory, segmentName(number)).delete();
+                continue;
+            }
+            File file = new File(directory, segmentName(number));
+            if (file.length() == 0) {
+                file.delete();
+                continue;
+            }
+            replayed += replaySegment(number, backend);
+            lastSegment = number;
+        }
+        // always append to a new segment so a torn tail of the old one is never extended
+        openSegment(lastSegment + 1);
+        this.flusher = new Thread(this::flushLoop, "auction-log-flusher");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+        return replayed;
+    }
+
+    /**
+     * appends the record of a write, the record keeps the origin and sequence number
+     * of the write so the backend knows which writes it has after a restart
+     * @param record the write applied by the backend
+     * @return the log position to pass to awaitDurable
+     */
+    public synchronized long append(WriteRecord record) {
+        byte[] originBytes = bytes(record.origin);
+        int start;
+        switch (record.type) {
+            case WriteRecord.CREATE:
+                byte[] descriptionBytes = bytes(record.description);
+                byte[] sellerBytes = bytes(record.clientId);
+                start = beginRecord(record, originBytes, 16 + sizeOf(descriptionBytes) + sizeOf(sellerBytes));
+                pending.putInt(record.price);
+                putBytes(descriptionBytes);
+                pending.putInt(record.minimumPrice);
+                putBytes(sellerBytes);
+                pending.putLong(record.time);
+                break;
+            case WriteRecord.BID:
+                byte[] nameBytes = bytes(record.name);
+                byte[] emailBytes = bytes(record.email);
+                byte[] buyerBytes = bytes(record.clientId);
+                start = beginRecord(record, originBytes, 4 + sizeOf(nameBytes) + sizeOf(emailBytes) + sizeOf(buyerBytes));
+                pending.putInt(record.price);
+                putBytes(nameBytes);
+                putBytes(emailBytes);
+                putBytes(buyerBytes);
+                break;
+            case WriteRecord.TICK:
+                start = beginRecord(record, originBytes, 8);
+                pending.putLong(record.time);
+                break;
+            default:
+                start = beginRecord(record, originBytes, 0);
+        }
+        return endRecord(start);
+    }
+
+    /**
+     * blocks until every record up to the position given has been fsynced,
+     * returns immediately if LOG_SYNC is disabled
+     * @param position the position returned when the record was appended
+     */
+    public synchronized void awaitDurable(long position) {
+        if (!syncCommit) {
+            return;
+        }
+        while (durable < position && !closed) {
+            if (failure != null) {
+                throw new UncheckedIOException("the log could not be written, the write may not be durable", failure);
+            }
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * called by the backend before it applies a write, so no write is applied while its record cannot be saved
+     * @throws UncheckedIOException if the last write to disk failed and no retry has succeeded since
+     */
+    public synchronized void checkWritable() {
+        if (failure != null) {
+            throw new UncheckedIOException("the log cannot be written: " + failure, failure);
+        }
+    }
+
+    /**
+     * @return true if enough records were appended since the last snapshot and none is running
+     */
+    public synchronized boolean snapshotDue() {
+        return !snapshotRunning && recordsSinceSnapshot >= snapshotEvery;
+    }
+
+    /**
+     * starts a new log segment and copies the state, has to be called while the backend
+     * holds the write lock that keeps out its writes so the copy matches the segment boundary.
+     * the items are not copied, so a bid that lands after the boundary, while the snapshot is written, may show
+     * in it. each item is written with one highest bid read as a whole, so a bid shows completely or not at all,
+     * and replaying the log after the snapshot leaves the same values: the bid that shows is rejected as not above itself.
+     * @return the snapshot to pass to writeSnapshot
+     */
+    public Snapshot beginSnapshot(int id, long clock, SequenceTracker applied, AuctionStore items, ClientIndex clients) throws IOException {
+        synchronized (this) {
+            snapshotRunning = true;
+            recordsSinceSnapshot = 0;
+        }
+        int next;
+        try {
+            next = rollover();
+        } catch (IOException e) {
+            synchronized (this) {
+                snapshotRunning = false;
+            }
+            throw e;
+        }
+        Map<Integer, AuctionItem> itemsCopy = new HashMap<Integer, AuctionItem>(items.size() * 4 / 3 + 16);
+        items.copyTo(itemsCopy);
+        return new Snapshot(next, id, clock, applied.copy(), itemsCopy, clients.records());
+    }
+
+    /**
+     * writes the snapshot to a temporary file, moves it in place of the previous one
+     * and deletes the log segments it covers
+     * @param snapshot the copy returned by beginSnapshot
+     */
+    public void writeSnapshot(Snapshot snapshot) {
+        long start = System.currentTimeMillis();
+        File temporary = new File(directory, SNAPSHOT_FILE + ".tmp");
+        try {
+            try (FileOutputStream file = new FileOutputStream(temporary);
+                 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file, IO_BUFFER))) {
+                out.writeInt(SNAPSHOT_MAGIC);
+                out.writeInt(SNAPSHOT_VERSION);
+                out.writeInt(snapshot.segmentNumber);
+                out.writeInt(snapshot.id);
+                out.writeLong(snapshot.clock);
+                out.writeInt(snapshot.applied.getOrigins().size());
+                for (String origin : snapshot.applied.getOrigins()) {
+                    writeString(out, origin);
+                    out.writeLong(snapshot.applied.getContiguous(origin));
+                    SortedSet<Long> ahead = snapshot.applied.getAhead(origin);
+                    out.writeInt(ahead.size());
+                    for (long sequence : ahead) {
+                        out.writeLong(sequence);
+                    }
+                }
+                out.writeInt(snapshot.items.size());
+                for (AuctionItem item : snapshot.items.values()) {
+                    writeItem(out, item);
+                }
+                out.writeInt(snapshot.clients.size());
+                for (Map.Entry<String, ClientIndex.Record> client : snapshot.clients.entrySet()) {
+                    writeString(out, client.getKey());
+                    // open items are stored once in the items section, the client only has their ids
+                    writeIds(out, client.getValue().selling);
+                    writeIds(out, client.getValue().bidding);
+                    out.writeInt(client.getValue().history.length);
+                    for (ClientIndex.ClosedAuction auction : client.getValue().history) {
+                        writeClosed(out, auction);
+                    }
+                }
+                out.flush();
+                file.getFD().sync();
+            }
+            Files.move(temporary.toPath(), new File(directory, SNAPSHOT_FILE).toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            for (int number : segmentNumbers()) {
+                if (number < snapshot.segmentNumber) {
+                    new File(directory, segmentName(number)).delete();
+                }
+            }
+            System.out.println("    snapshot of " + snapshot.items.size() + " items written in "
+                    + (System.currentTimeMillis() - start) + " ms");
+        } catch (IOException e) {
+            System.err.println("snapshot exception:");
+            e.printStackTrace();
+        } finally {
+            synchronized (this) {
+                snapshotRunning = false;
+            }
+        }
+    }
+
+    /**
+     * flushes the pending records and stops the flusher thread
+     */
+    public void close() {
+        flush();
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        try {
+            synchronized (writeLock) {
+                segment.close();
+            }
+            directoryLock.release();
+            lockChannel.close();
+        } catch (IOException e) {
+            System.err.println("log close exception:");
+            e.printStackTrace();
+        }
+    }
+
+    // body of the flusher thread, every pass writes and fsyncs all the records appended so far
+    private void flushLoop() {
+        while (true) {
+            boolean failed;
+            synchronized (this) {
+                while (pending.position() == 0 && failure == null && !closed) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (closed) {
+                    return;
+                }
+                failed = failure != null;
+            }
+            if (failed) {
+                // give the disk time before the records are written again
+                try {
+                    Thread.sleep(RETRY_MS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+            flush();
+        }
+    }
+
+    /**
+     * writes and fsyncs the pending records, then wakes up the requests waiting for them.
+     * the records of a write that failed are kept and written again in front of the ones appended since,
+     * over whatever part of them reached the segment, so each record is in the log once
+     */
+    private void flush() {
+        synchronized (writeLock) {
+            long target;
+            boolean retry;
+            synchronized (this) {
+                if (pending.position() == 0 && failure == null) {
+                    return;
+                }
+                if (writing.position() == 0) {
+                    ByteBuffer swap = writing;
+                    writing = pending;
+                    pending = swap;
+                } else if (pending.position() > 0) {
+                    // writing still holds the records of the failed write
+                    if (writing.remaining() < pending.position()) {
+                        ByteBuffer larger = ByteBuffer.allocate(writing.position() + pending.position());
+                        writing.flip();
+                        larger.put(writing);
+                        writing = larger;
+                    }
+                    pending.flip();
+                    writing.put(pending);
+                    pending.clear();
+                }
+                target = appended;
+                retry = failure != null;
+            }
+            try {
+                if (retry) {
+                    segment.truncate(segmentSize);
+                }
+                ByteBuffer records = writing.duplicate();
+                records.flip();
+                segment.position(segmentSize);
+                while (records.hasRemaining()) {
+                    segment.write(records);
+                }
+                segment.force(false);
+            } catch (IOException e) {
+                synchronized (this) {
+                    if (failure == null) {
+                        System.err.println("log write exception, writes are turned away until the log can be written:");
+                        e.printStackTrace();
+                    }
+                    failure = e;
+                    notifyAll();
+                }
+                return;
+            }
+            segmentSize += writing.position();
+            writing.clear();
+            synchronized (this) {
+                if (failure != null) {
+                    System.err.println("    the log can be written again");
+                    failure = null;
+                }
+                durable = target;
+                notifyAll();
+            }
+        }
+    }
+
+    // flushes the current segment and continues in the next one, returns the new segment number
+    private int rollover() throws IOException {
+        synchronized (writeLock) {
+            flush();
+            synchronized (this) {
+                if (failure != null) {
+                    throw new IOException("the log segment could not be written", failure);
+                }
+            }
+            segment.close();
+            openSegment(segmentNumber + 1);
+            return segmentNumber;
+        }
+    }
+
+    private void openSegment(int number) throws IOException {
+        this.segmentNumber = number;
+        this.segmentSize = 0;
+        this.segment = FileChannel.open(new File(directory, segmentName(number)).toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    // reserves room for a record with the payload size given and writes the fields every record has
+    private int beginRecord(WriteRecord record, byte[] originBytes, int payloadSize) {
+        payloadSize += sizeOf(originBytes) + 8 + 4;
+        int size = 4 + 1 + payloadSize + 4;
+        if (pending.remaining() < size) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + size));
+            pending.flip();
+            larger.put(pending);
+            pending = larger;
+        }
+        int start = pending.position();
+        pending.putInt(1 + payloadSize);
+        pending.put(record.type);
+        putBytes(originBytes);
+        pending.putLong(record.sequence);
+        pending.putInt(record.itemId);
+        return start;
+    }
+
+    // appends the checksum of the record started at the position given and wakes up the flusher
+    private long endRecord(int start) {
+        crc.reset();
+        crc.update(pending.array(), start + 4, pending.position() - start - 4);
+        pending.putInt((int) crc.getValue());
+        appended += pending.position() - start;
+        recordsSinceSnapshot++;
+        notifyAll();
+        return appended;
+    }
+
+    private void putBytes(byte[] value) {
+        if (value == null) {
+            pending.putInt(-1);
+        } else {
+            pending.putInt(value.length);
+            pending.put(value);
+        }
+    }
+
+    // applies the records of a segment to the backend, stops at the first torn or corrupt record
+    private int replaySegment(int number, Backend backend) throws IOException {
+        int replayed = 0;
+        try (FileChannel channel = FileChannel.open(new File(directory, segmentName(number)).toPath(), StandardOpenOption.READ)) {
+            if (channel.size() == 0) {
+                return 0;
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            CRC32C check = new CRC32C();
+            while (buffer.remaining() >= 9) {
+                int start = buffer.position();
+                int length = buffer.getInt();
+                if (length <= 0 || length + 4 > buffer.remaining()) {
+                    break;
+                }
+                ByteBuffer record = buffer.slice(start + 4, length);
+                check.reset();
+                check.update(record.duplicate());
+                if (buffer.getInt(start + 4 + length) != (int) check.getValue()) {
+                    System.err.println("    corrupt log record in " + segmentName(number) + " at " + start);
+                    break;
+                }
+                applyRecord(record, backend);
+                buffer.position(start + 4 + length + 4);
+                replayed++;
+            }
+        }
+        return replayed;
+    }
+
+    private void applyRecord(ByteBuffer buffer, Backend backend) {
+        byte type = buffer.get();
+        String origin = getString(buffer);
+        long sequence = buffer.getLong();
+        int itemId = buffer.getInt();
+        WriteRecord record;
+        switch (type) {
+            case WriteRecord.CREATE:
+                int startingPrice = buffer.getInt();
+                String description = getString(buffer);
+                int minimumPrice = buffer.getInt();
+                String sellerId = getString(buffer);
+                record = WriteRecord.create(origin, sequence, itemId, startingPrice, description, minimumPrice, sellerId, buffer.getLong());
+                break;
+            case WriteRecord.BID:
+                int price = buffer.getInt();
+                String name = getString(buffer);
+                String email = getString(buffer);
+                record = WriteRecord.bid(origin, sequence, itemId, price, name, email, getString(buffer));
+                break;
+            case WriteRecord.CLOSE:
+                record = WriteRecord.close(origin, sequence, itemId);
+                break;
+            case WriteRecord.TICK:
+                record = WriteRecord.tick(origin, sequence, buffer.getLong());
+                break;
+            default:
+                System.err.println("    unknown log record type: " + type);
+                return;
+        }
+        backend.applyWrite(record);
+    }
+
+    // loads the snapshot into the backend, returns the first segment that has to be replayed
+    private int readSnapshot(Backend backend) throws IOException {
+        File file = new File(directory, SNAPSHOT_FILE);
+        if (!file.exists()) {
+            List<Integer> numbers = segmentNumbers();
+            return numbers.isEmpty() ? 0 : numbers.get(0);
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            int version = in.getInt() == SNAPSHOT_MAGIC ? in.getInt() : -1;
+            if (version != SNAPSHOT_VERSION) {
+                throw new IOException("not an auction snapshot: " + file);
+            }
+            int firstSegment = in.getInt();
+            backend.id.set(in.getInt());
+            backend.clock = in.getLong();
+            backend.deadlines = new TimingWheel(backend.clock);
+            backend.search = new SearchIndex();
+            backend.clients = new ClientIndex();
+            int origins = in.getInt();
+            for (int i = 0; i < origins; i++) {
+                String origin = getString(in);
+                backend.applied.skipTo(origin, in.getLong());
+                int ahead = in.getInt();
+                for (int j = 0; j < ahead; j++) {
+                    backend.applied.add(origin, in.getLong());
+                }
+            }
+            int itemCount = in.getInt();
+            // size the table once instead of rehashing it while a million items are added
+            backend.items = AuctionStore.create(itemCount);
+            // seller and buyer ids repeat across items, keep a single copy of each
+            Map<String, String> identities = new HashMap<String, String>();
+            for (int i = 0; i < itemCount; i++) {
+                AuctionItem item = readItem(in, identities);
+                backend.items.put(item);
+                backend.track(item);
+            }
+            int clientCount = in.getInt();
+            for (int i = 0; i < clientCount; i++) {
+                String clientId = identity(getString(in), identities);
+                int[] selling = readIds(in);
+                int[] bidding = readIds(in);
+                ClientIndex.ClosedAuction[] history = new ClientIndex.ClosedAuction[in.getInt()];
+                for (int j = 0; j < history.length; j++) {
+                    history[j] = readClosed(in, identities);
+                }
+                ClientIndex.Record record = new ClientIndex.Record(selling, bidding, history);
+                backend.clients.restore(clientId, record, backend.items);
+            }
+            return firstSegment;
+        }
+    }
+
+    private List<Integer> segmentNumbers() {
+        List<Integer> numbers = new ArrayList<Integer>();
+        String[] names = directory.list();
+        if (names != null) {
+            for (String name : names) {
+                if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+                    numbers.add(Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())));
+                }
+            }
+        }
+        Collections.sort(numbers);
+        return numbers;
+    }
+
+    private static String segmentName(int number) {
+        return String.format("%s%08d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX);
+    }
+
+    private static void writeIds(DataOutputStream out, int[] ids) throws IOException {
+        out.writeInt(ids.length);
+        for (int id : ids) {
+            out.writeInt(id);
+        }
+    }
+
+    private static int[] readIds(ByteBuffer in) {
+        int[] ids = new int[in.getInt()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = in.getInt();
+        }
+        return ids;
+    }
+
+    private static void writeClosed(DataOutputStream out, ClientIndex.ClosedAuction auction) throws IOException {
+        out.writeInt(auction.itemId);
+        out.writeInt(auction.startingPrice);
+        out.writeInt(auction.minimumPrice);
+        out.writeInt(auction.price);
+        writeString(out, auction.description);
+        writeString(out, auction.sellerId);
+        writeString(out, auction.buyerId);
+        writeString(out, auction.name);
+        writeString(out, auction.email);
+    }
+
+    private static ClientIndex.ClosedAuction readClosed(ByteBuffer in, Map<String, String> identities) {
+        int itemId = in.getInt();
+        int startingPrice = in.getInt();
+        int minimumPrice = in.getInt();
+        int price = in.getInt();
+        String description = getString(in);
+        return new ClientIndex.ClosedAuction(itemId, startingPrice, minimumPrice, price, description, identity(getString(in), identities),
+                identity(getString(in), identities), identity(getString(in), identities), identity(getString(in), identities));
+    }
+
+    // writes an item that bids may still land on, its price, name, email and buyer are read from one bid
+    private static void writeItem(DataOutputStream out, AuctionItem item) throws IOException {
+        AuctionItem.HighestBid bid = item.getHighestBid();
+        out.writeInt(item.getItemId());
+        out.writeInt(item.getItemStartingPrice());
+        writeString(out, item.getItemDescription());
+        out.writeInt(item.getItemMinimumPrice());
+        writeString(out, bid.name);
+        writeString(out, bid.email);
+        out.writeInt(bid.price);
+        writeString(out, item.getClientId());
+        out.writeLong(item.getEndTime());
+        writeString(out, bid.buyerId);
+    }
+
+    private static AuctionItem readItem(ByteBuffer in, Map<String, String> identities) {
+        int itemId = in.getInt();
+        int startingPrice = in.getInt();
+        String description = getString(in);
+        int minimumPrice = in.getInt();
+        String name = identity(getString(in), identities);
+        String email = identity(getString(in), identities);
+        int currentHighestBid = in.getInt();
+        AuctionItem item = new AuctionItem(startingPrice, description, minimumPrice, identity(getString(in), identities));
+        item.setItemId(itemId);
+        item.setEndTime(in.getLong());
+        item.placeBid(currentHighestBid, name, email, identity(getString(in), identities));
+        return item;
+    }
+
+    // returns the copy of the string already loaded, if any
+    private static String identity(String value, Map<String, String> identities) {
+        if (value == null) {
+            return null;
+        }
+        String known = identities.putIfAbsent(value, value);
+        return known == null ? value : known;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] encoded = bytes(value);
+        if (encoded == null) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(encoded.length);
+            out.write(encoded);
+        }
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] encoded = new byte[length];
+        buffer.get(encoded);
+        return new String(encoded, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] bytes(String value) {
+        return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int sizeOf(byte[] value) {
+        return 4 + (value == null ? 0 : value.length);
+    }
+}
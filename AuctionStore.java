@@ -0,0 +1,107 @@
+import java.util.Map;
+
+/**
+ * The store of the open auction items of a backend, keyed by their id. "STORE" picks the engine:
+ * "objects" (default) keeps each item as a live AuctionItem in an ItemStore, "columnar" keeps the
+ * fields of the items in arrays in a ColumnarItemStore and only builds an AuctionItem when one is read.
+ * bids and end times are changed through the store and not on the items it returns, which may be copies.
+ */
+public interface AuctionStore {
+
+    /**
+     * @param expected the number of items the store should hold without growing
+     * @return an empty store of the engine "STORE" names
+     */
+    static AuctionStore create(int expected) {
+        String engine = System.getenv("STORE") == null ? "objects" : System.getenv("STORE");
+        switch (engine) {
+            case "objects":
+                return new ItemStore(expected);
+            case "columnar":
+                return new ColumnarItemStore(expected);
+            default:
+                throw new IllegalArgumentException("unknown STORE: " + engine + ", expected objects or columnar");
+        }
+    }
+
+    /**
+     * @param itemId the id of the item
+     * @return the item, or null if there is no open item with this id
+     */
+    AuctionItem get(int itemId);
+
+    /**
+     * @param itemId the id of the item
+     * @return true if there is an open item with this id
+     */
+    boolean contains(int itemId);
+
+    /**
+     * adds the item under its id, replacing the item that had the same id
+     * @param item the item to add
+     */
+    void put(AuctionItem item);
+
+    /**
+     * @param itemId the id of the item to remove
+     * @return the item removed, or null if there was none
+     */
+    AuctionItem remove(int itemId);
+
+    /**
+     * places a bid if it is above the highest one, the price, name, email and buyer change together
+     * @param itemId the id of the item
+     * @param price the price of the bid
+     * @param name the name of the buyer
+     * @param email the email of the buyer
+     * @param buyerId the client id of the buyer
+     * @return the bid replaced, or null if the bid was turned down or there is no open item with this id
+     */
+    AuctionItem.HighestBid placeBidIfHigher(int itemId, int price, String name, String email, String buyerId);
+
+    /**
+     * @param itemId the id of the item
+     * @return when the auction closes by itself, 0 if it does not or there is no open item with this id
+     */
+    long getEndTime(int itemId);
+
+    /**
+     * moves the end of a timed auction to the time given, unless it already ends later
+     * @param itemId the id of the item
+     * @param endTime the earliest the auction should end
+     * @return the end of the auction now
+     */
+    long extendEndTime(int itemId, long endTime);
+
+    /**
+     * @param itemId the id of the item
+     * @return the client id of the seller, or null if there is no open item with this id
+     */
+    String getSellerId(int itemId);
+
+    // return the number of items
+    int size();
+
+    /**
+     * removes every item, the caller has to keep writes out while it runs
+     */
+    void clear();
+
+    /**
+     * @param afterId the id to start after
+     * @return the lowest item id above afterId, or -1 if there is none
+     */
+    int nextId(int afterId);
+
+    /**
+     * @return the ids of the items in increasing order
+     */
+    int[] ids();
+
+    /**
+     * adds every item to the map given, keyed by its id. the caller keeps writes out if it needs the copy
+     * to match one point in time
+     * @param map the map to fill
+     */
+    void copyTo(Map<Integer, AuctionItem> map);
+}
@@ -1,73 +1,340 @@
+import java.io.IOException;
 import java.rmi.RemoteException;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
+import org.jgroups.Address;
 import org.jgroups.JChannel;
+import org.jgroups.MembershipListener;
+import org.jgroups.MergeView;
+import org.jgroups.Message;
+import org.jgroups.View;
+import org.jgroups.blocks.MethodCall;
 import org.jgroups.blocks.RequestOptions;
 import org.jgroups.blocks.ResponseMode;
 import org.jgroups.blocks.RpcDispatcher;
+import org.jgroups.util.NotifyingFuture;
+import org.jgroups.util.Rsp;
 import org.jgroups.util.RspList;
+import org.jgroups.util.UUID;
 
 /**
  * this class is responsible for processing the requests received from the frontend 
- * it also syncs with the auction data in other backends if they are present
+ * it also syncs with the auction data in other backends if they are present.
+ * it holds the items of the buckets its shard owns, with the other backends of the shard as replicas
  */
-public class Backend {
+public class Backend implements MembershipListener {
 
     private JChannel groupChannel; // the cluster to connect to
     private RpcDispatcher dispatcher; // allows to invoke remote methods in all cluster members
-    private int requestCount; // stores the number of requests processed by a backend 
+    private Metrics metrics; // time taken by each remote method, bytes sent and store sizes
+    private LongAdder gapSyncs;    // syncs started because writes of a frontend waited too long behind a missing one
+    private LongAdder missedServed; // writes sent from the ring to lagging backends
+    private LongAdder transfersServed; // state transfers this backend was the donor of
+    private LongAdder itemsCopied;  // open items copied from other shards for the buckets this one gained
+    private LongAdder itemsDropped; // open items dropped for the buckets other shards gained
+    private LongAdder auctionsEnded; // timed auctions closed by the ticks sent to this backend
+    private LongAdder gapsSkipped; // missing writes given up on because no other backend had them
+    private final AtomicBoolean gapSync = new AtomicBoolean(); // true while a sync asked for by a gap is waiting or running
+    private volatile EventPublisher events; // sends the bids and closes applied to the frontends, null while the log is replayed
+    private final AtomicInteger requestCount = new AtomicInteger(); // stores the number of requests processed by a backend 
     private final int DISPATCHER_TIMEOUT = 1000; // amount of time the dispatcher waits before timing out
+    private AuctionLog auctionLog; // durable log and snapshots of the auction data
+    private final ExecutorService snapshotWriter = Executors.newSingleThreadExecutor(); // writes snapshots in the background
+    private final int TRANSFER_CHUNK = System.getenv("TRANSFER_CHUNK") == null ? 1000 : Integer.parseInt(System.getenv("TRANSFER_CHUNK")); // items sent per state chunk
+    private final int TRANSFER_ATTEMPTS = 5; // donors tried before a joining backend gives up on copying the state
+
+    private final int RING_SIZE = System.getenv("RING_SIZE") == null ? 100000 : Integer.parseInt(System.getenv("RING_SIZE")); // recent writes kept for replicas that fall behind
+    private final ExecutorService resync = Executors.newSingleThreadExecutor(); // catches up after a partition heals, away from the view thread
+
+    private final int shard = System.getenv("SHARD") == null ? 0 : Integer.parseInt(System.getenv("SHARD")); // shard of this backend, shared with its replicas
+    private volatile ShardMap shardMap = new ShardMap(Collections.singletonList(shard)); // shard that owns each bucket of item ids in the current view
+    private volatile ShardMap routing = shardMap; // map of the last create a frontend routed here
+    private final long HANDOFF_GRACE = System.getenv("HANDOFF_GRACE") == null ? 30000 : Long.parseLong(System.getenv("HANDOFF_GRACE")); // ms the items of buckets that moved away are kept
+    private final ScheduledExecutorService handoffs = Executors.newSingleThreadScheduledExecutor(); // drops the items of buckets that moved away
+    // a bid on a timed auction less than SNIPE_WINDOW ms before its end pushes the end to SNIPE_EXTENSION ms after the bid,
+    // both are part of how writes are applied so every backend has to be started with the same values
+    private final long SNIPE_WINDOW = System.getenv("SNIPE_WINDOW") == null ? 30000 : Long.parseLong(System.getenv("SNIPE_WINDOW"));
+    private final long SNIPE_EXTENSION = System.getenv("SNIPE_EXTENSION") == null ? SNIPE_WINDOW : Long.parseLong(System.getenv("SNIPE_EXTENSION"));
+
+    private volatile boolean syncing; // true while this backend is catching up with a donor, writes are queued meanwhile
+    private volatile boolean copying; // true while the data is being copied from scratch, so it cannot serve as a donor
+    private final List<Runnable> queuedWrites = Collections.synchronizedList(new ArrayList<Runnable>()); // writes received while syncing, applied once the sync is done
+    private boolean replaying; // true while the queued writes are applied under the write lock, their events are not published
+    private final Map<Integer, TransferSession> transfers = new ConcurrentHashMap<Integer, TransferSession>(); // transfers this backend is serving as a donor
+    private final AtomicInteger nextTransfer = new AtomicInteger(); // id of the next transfer session
+
+    // writes to different items hold the read lock together and only change the item they write to.
+    // each write is applied and appended to the log under the lock of its item (itemLock), so the log and the
+    // write ring have the writes to one item in the order they were applied, and replaying them picks the same winners.
+    // the write lock is taken when the whole state has to be seen at one point (snapshots, transfers, syncing)
+    private final ReentrantReadWriteLock stateLock = new ReentrantReadWriteLock();
 
     
     AuctionItem auctionItem;
-    Hashtable<Integer, AuctionItem> items = new Hashtable<Integer, AuctionItem>(); // hashtable to store the items using their ids
-    Hashtable<String, List<AuctionItem>> clients = new Hashtable<String, List<AuctionItem>>(); // hashtable to store clientIds and their items that are either for auctioning or bought
-    int id = 0;                      // item id
+    volatile AuctionStore items = AuctionStore.create(0); // store of the open items keyed by their ids, of the engine "STORE" names
+    private final Object[] itemLocks = new Object[64]; // writes to the same item take the same one, so they are applied and logged in one order
+    volatile ClientIndex clients = new ClientIndex(); // items each client sells, bid on, sold and won
+    final AtomicInteger id = new AtomicInteger(); // item id
+    volatile SequenceTracker applied = new SequenceTracker(); // writes from the frontends that are part of the data
+    volatile long clock; // cluster time of the last tick applied (ms), timed auctions end by it and not by the local clock
+    volatile TimingWheel deadlines = new TimingWheel(0); // end times of the open timed auctions
+    volatile SearchIndex search = new SearchIndex(); // words of the descriptions of the open items
+    private ClosedAuctionArchive archive; // every auction closed here, in files next to the log
+    WriteRing writeRing = new WriteRing(RING_SIZE);  // the most recent writes applied, in order
+    private final int MAX_PAGE = 500; // most items returned in one page of listings
+
+    /**
+     * the items and clients a donor listed when a joining backend asked for its data,
+     * the joining backend then fetches them chunk by chunk
+     */
+    private static class TransferSession {
+        Address requester;   // the joining backend
+        int[] itemIds;       // ids of the items when the transfer started, in increasing order
+        String[] clientIds;  // ids of the clients when the transfer started
+    }
 
     /**
-     * Constructor that connects to the cluster and processes requests recieved from frontend
+     * Constructor that restores the auction data saved on disk, connects to the cluster
+     * and processes requests recieved from frontend
      */
     public Backend() {
-        this.requestCount = 0;
+        this(AuctionLog.open(), true);
+    }
+
+    /**
+     * @param auctionLog the log to restore the auction data from and to append writes to
+     * @param join false to keep the backend out of the cluster, used by the benchmarks to call its methods directly
+     */
+    Backend(AuctionLog auctionLog, boolean join) {
+        for (int i = 0; i < itemLocks.length; i++) {
+            itemLocks[i] = new Object();
+        }
+        // rebuild the auction data from the local snapshot and log before talking to the cluster
+        this.auctionLog = auctionLog;
+        if (this.auctionLog == null) {
+            System.exit(1); // error to be printed by the 'open' function
+        }
+        try {
+            // the closes replayed from the log find their auctions already archived
+            this.archive = ClosedAuctionArchive.open(this.auctionLog.getDirectory());
+            long start = System.currentTimeMillis();
+            int replayed = this.auctionLog.recover(this);
+            System.out.println("Restored " + items.size() + " items (" + replayed + " log records) in "
+                    + (System.currentTimeMillis() - start) + " ms");
+        } catch (IOException e) {
+            System.err.println("recovery exception:");
+            e.printStackTrace();
+            System.exit(1);
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(this.auctionLog::close));
+        if (!join) {
+            return;
+        }
 
         // Connect to the group (channel)
-        this.groupChannel = GroupUtils.connect();
+        this.groupChannel = GroupUtils.connect(ShardMap.role(this.shard));
         if (this.groupChannel == null) {
         System.exit(1); // error to be printed by the 'connect' function
         }
 
-        // Make this instance of Backend a dispatcher in the channel (group)
-        this.dispatcher = new RpcDispatcher(this.groupChannel, this);
-        // sync the data with other backends
-        syncData(findRecentAuctions(), findRecentId());
+        // writes received before this backend has caught up with the others are held back until it has
+        this.syncing = true;
+        this.copying = this.items.size() == 0;
+        this.metrics = new Metrics("Backend", this.groupChannel.getName());
+        // the fields are read each time as a state transfer replaces the stores
+        this.metrics.gauge("store.items", () -> this.items.size());
+        this.metrics.gauge("store.clients", () -> this.clients.size());
+        this.metrics.gauge("requests", this.requestCount::get);
+        // the index is reported on its own, apart from the items it points to
+        this.metrics.gauge("search.words", () -> this.search.words());
+        this.metrics.gauge("search.bytes", () -> this.search.bytes());
+        // the archive is off the heap, its size is what it takes on disk
+        this.metrics.gauge("archive.auctions", () -> this.archive.size());
+        this.metrics.gauge("archive.bytes", () -> this.archive.bytes());
+        this.gapSyncs = this.metrics.counter("sync.gaps");
+        this.gapsSkipped = this.metrics.counter("sync.gaps.skipped");
+        this.missedServed = this.metrics.counter("sync.missed.served");
+        this.transfersServed = this.metrics.counter("sync.transfers.served");
+        this.itemsCopied = this.metrics.counter("rebalance.items.copied");
+        this.itemsDropped = this.metrics.counter("rebalance.items.dropped");
+        this.auctionsEnded = this.metrics.counter("ticks.auctions.closed");
+        // Make this instance of Backend a dispatcher in the channel (group),
+        // items, pages and listings are answered in the compact format
+        this.dispatcher = new MeteredDispatcher(this.groupChannel, this, this.metrics, new WireFormat.ResponseMarshaller());
+        this.dispatcher.setMembershipListener(this);
+        this.events = new EventPublisher(this.dispatcher, this.shard, this.groupChannel.getAddress());
+        this.events.viewAccepted(this.groupChannel.getView());
+        // sync the data with other backends, only the missed writes if something was restored from disk
+        syncData(Collections.<Address>emptySet());
+        // take over the buckets this shard wins from the shards that owned them before it was here
+        View view = this.groupChannel.getView();
+        ShardMap before = ShardMap.of(view, this.groupChannel.getAddress());
+        this.shardMap = ShardMap.of(view);
+        System.out.println("Backend of shard " + this.shard + ", " + this.shardMap);
+        ShardMap after = this.shardMap;
+        resync.execute(() -> rebalance(before, after));
+    }
+
+    /**
+     * this methods syncs the data between the current backend and others if they exist.
+     * one donor backend is picked and asked for the writes this backend has not applied yet, which it
+     * can answer from its ring of recent writes if the gap is small. otherwise its data is streamed in bounded
+     * chunks that are applied as they arrive. writes received in the meantime are queued and applied afterwards
+     * unless the donor already sent them
+     * @param exclude members that cannot be used as donors
+     */
+    public void syncData(Set<Address> exclude){
+        for (int attempt = 0; attempt < TRANSFER_ATTEMPTS; attempt++) {
+            Address donor = findDonor(exclude);
+            if (donor == null) {
+                // this is the first backend, there is nothing to copy
+                break;
+            }
+            System.out.println("Syncing data with backend " + donor);
+            try {
+                long start = System.currentTimeMillis();
+                if (!copying && catchUp(donor)) {
+                    break;
+                }
+                copying = true;
+                copyState(donor);
+                System.out.println("Copied " + items.size() + " items from " + donor + " in "
+                        + (System.currentTimeMillis() - start) + " ms");
+                break;
+            } catch (Exception e) {
+                System.err.println("state transfer from " + donor + " failed, trying again:");
+                e.printStackTrace();
+                stateLock.writeLock().lock();
+                try {
+                    if (copying) {
+                        items.clear();
+                        clients = new ClientIndex();
+                        id.set(0);
+                        applied = new SequenceTracker();
+                        clock = 0;
+                        deadlines = new TimingWheel(0);
+                        search = new SearchIndex();
+                    }
+                } finally {
+                    stateLock.writeLock().unlock();
+                }
+            }
+        }
+        stateLock.writeLock().lock();
+        try {
+            syncing = false;
+            // apply the writes that arrived during the sync, in the order they arrived
+            applyQueuedWrites();
+            // the donor had no write left to fill a long gap, so no backend of the shard applied the missing ones
+            long skipped = applied.skipStaleGaps();
+            if (skipped > 0) {
+                gapsSkipped.add(skipped);
+                System.out.println("Skipped " + skipped + " writes no backend of the shard has");
+            }
+            if (copying) {
+                copying = false;
+                // the copied data is not in the log, so save it in a snapshot straight away
+                takeSnapshot();
+            }
+        } finally {
+            stateLock.writeLock().unlock();
+        }
+        System.out.println("Current Auction data: "+ items.size() + " items");
+    }
+
+    // applies the writes received while syncing, a write that fails (the log cannot be written) does not stop the others
+    // the subscribers were not told about them when they happened, and are not told now
+    private void applyQueuedWrites() {
+        replaying = true;
+        try {
+            for (Runnable write : queuedWrites) {
+                try {
+                    write.run();
+                } catch (Exception e) {
+                    System.err.println("queued write exception:");
+                    e.printStackTrace();
+                }
+            }
+            queuedWrites.clear();
+        } finally {
+            replaying = false;
+        }
     }
 
     /**
-     * this methods syncs the data between the current backend and others if they exist
-     * @param data the current auction data of the backend 
-     * @param id the current id value 
+     * asks the donor for the writes this backend missed and applies them
+     * @param donor the backend to ask
+     * @return true if the donor still had every missed write in its ring, false if the data has to be copied
+     * @throws Exception if the donor fails or does not answer in time
      */
-    public void syncData(Hashtable<Integer, AuctionItem> data, int id){
-        if(this.items.isEmpty() && data != null){
-            System.out.println("Backend started! Syncing data with other backends");
-            this.items = data;
-            this.id = id;
-            System.out.println("Current Auction data: "+ items);
+    private boolean catchUp(Address donor) throws Exception {
+        long start = System.currentTimeMillis();
+        SequenceTracker have = applied.copy();
+        WriteBatch batch = this.dispatcher.callRemoteMethod(donor, "getMissedWrites",
+                new Object[] { have }, new Class<?>[] { SequenceTracker.class },
+                new RequestOptions(ResponseMode.GET_FIRST, this.DISPATCHER_TIMEOUT).setFlags(Message.Flag.OOB));
+        if (batch == null) {
+            System.out.println("Missed writes are no longer kept by " + donor + ", copying all of its data");
+            return false;
         }
+        ArrayList<WriteRecord> missed = batch.getRecords();
+        long logPosition = 0;
+        stateLock.writeLock().lock();
+        try {
+            auctionLog.checkWritable();
+            for (WriteRecord record : missed) {
+                if (!applied.contains(record.origin, record.sequence)) {
+                    applyWrite(record);
+                    logPosition = auctionLog.append(record);
+                    scheduleSnapshotIfDue();
+                }
+            }
+        } finally {
+            stateLock.writeLock().unlock();
+        }
+        auctionLog.awaitDurable(logPosition);
+        System.out.println("Caught up with " + donor + ": " + missed.size() + " missed writes in "
+                + (System.currentTimeMillis() - start) + " ms");
+        return true;
     }
 
     /**
-     * this method returns the auction items hashtable from other backends 
-     * to use it for new backends
-     * @return the hashtable of the auction items
+     * asks the other members how many transfers they are serving and picks the least busy backend of this shard
+     * @param exclude members that cannot be used as donors
+     * @return the address of the donor or null if there is no other backend
      */
-    public Hashtable<Integer, AuctionItem> findRecentAuctions(){
+    private Address findDonor(Set<Address> exclude) {
         try {
-            RspList<Hashtable<Integer, AuctionItem>> responses = this.dispatcher.callRemoteMethods(null, "getListings",
+            RspList<Integer> responses = this.dispatcher.callRemoteMethods(null, "getTransferLoad",
             new Object[] {}, new Class[] {},
             new RequestOptions(ResponseMode.GET_ALL, this.DISPATCHER_TIMEOUT));
-            return responses.getFirst();
+            Address donor = null;
+            int lowestLoad = Integer.MAX_VALUE;
+            for (Map.Entry<Address, Rsp<Integer>> response : responses.entrySet()) {
+                Rsp<Integer> rsp = response.getValue();
+                String name = UUID.get(response.getKey());
+                if (exclude.contains(response.getKey()) || response.getKey().equals(this.groupChannel.getAddress())
+                        || !ShardMap.isBackend(name) || ShardMap.shardOf(name) != this.shard) {
+                    continue;
+                }
+                // frontends answer with an exception and backends that are joining themselves with -1
+                if (rsp.wasReceived() && !rsp.hasException() && rsp.getValue() != null
+                        && rsp.getValue() >= 0 && rsp.getValue() < lowestLoad) {
+                    lowestLoad = rsp.getValue();
+                    donor = response.getKey();
+                }
+            }
+            return donor;
         } catch (Exception e) {
             System.err.println("dispatcher exception:");
             e.printStackTrace();
@@ -76,29 +343,341 @@ public class Backend {
     }
 
     /**
-     * this method gets the recent id count
-     * @return int the current id count
+     * streams the data of the donor chunk by chunk, the next chunk is requested
+     * while the current one is applied
+     * @param donor the backend to copy the data from
+     * @throws Exception if the donor fails or does not answer in time
      */
-    public int findRecentId() {
+    private void copyState(Address donor) throws Exception {
+        RequestOptions options = new RequestOptions(ResponseMode.GET_FIRST, this.DISPATCHER_TIMEOUT).setFlags(Message.Flag.OOB);
+        StateChunk header = this.dispatcher.callRemoteMethod(donor, "beginTransfer",
+                new Object[] { this.groupChannel.getAddress() }, new Class<?>[] { Address.class }, options);
+        if (header == null) {
+            throw new IllegalStateException("no answer from " + donor);
+        }
         try {
-            int initialId = 0;
-            RspList<Integer> responses = this.dispatcher.callRemoteMethods(null, "getId",
-            new Object[] {}, new Class[] {},
-            new RequestOptions(ResponseMode.GET_ALL, this.DISPATCHER_TIMEOUT));
-            // if this is the first backend
-            if(responses.getFirst() == null){
-                return initialId;
-            } else{
-                return responses.getFirst();
-            }    
-        } catch (Exception e) {
-            System.err.println("dispatcher exception: ");
-            e.printStackTrace();
+            stateLock.writeLock().lock();
+            try {
+                this.id.set(header.id);
+                this.applied = header.applied;
+                this.clock = header.clock;
+                this.deadlines = new TimingWheel(header.clock);
+                this.search = new SearchIndex();
+                this.items = AuctionStore.create(header.totalItems);
+                this.clients = new ClientIndex();
+                this.writeRing.startAt(header.applied);
+            } finally {
+                stateLock.writeLock().unlock();
+            }
+            int offset = 0;
+            NotifyingFuture<StateChunk> next = requestChunk(donor, header.session, offset, options);
+            while (true) {
+                StateChunk chunk = next.get(this.DISPATCHER_TIMEOUT, java.util.concurrent.TimeUnit.MILLISECONDS);
+                if (chunk == null) {
+                    throw new IllegalStateException("transfer " + header.session + " was dropped by " + donor);
+                }
+                if (!chunk.last) {
+                    next = requestChunk(donor, header.session, chunk.nextOffset, options);
+                }
+                applyChunk(chunk);
+                if (chunk.last) {
+                    break;
+                }
+            }
+        } finally {
+            this.dispatcher.callRemoteMethod(donor, "endTransfer", new Object[] { header.session }, new Class<?>[] { int.class },
+                    new RequestOptions(ResponseMode.GET_NONE, this.DISPATCHER_TIMEOUT).setFlags(Message.Flag.OOB));
         }
-        return 0;
     }
 
-  
+    private NotifyingFuture<StateChunk> requestChunk(Address donor, int session, int offset, RequestOptions options) throws Exception {
+        return this.dispatcher.callRemoteMethodWithFuture(donor,
+                new MethodCall("getStateChunk", new Object[] { session, offset, TRANSFER_CHUNK }, new Class<?>[] { int.class, int.class, int.class }),
+                options);
+    }
+
+    /**
+     * adds the items and clients of a chunk to the data of this backend
+     * @param chunk the chunk received from the donor
+     */
+    private void applyChunk(StateChunk chunk) {
+        stateLock.writeLock().lock();
+        try {
+            for (AuctionItem item : chunk.items) {
+                items.put(item);
+                track(item);
+            }
+            for (Map.Entry<String, ClientIndex.Record> client : chunk.clients.entrySet()) {
+                // the open items of the client point at the items copied
+                clients.restore(client.getKey(), client.getValue(), items);
+            }
+        } finally {
+            stateLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * return how busy this backend is as a donor, so joining backends can pick the least busy one
+     * @return the number of transfers being served, or -1 if this backend is copying its own data
+     */
+    public int getTransferLoad() {
+        return copying ? -1 : transfers.size();
+    }
+
+    /**
+     * return the writes a lagging backend has not applied, taken from the ring of recent writes
+     * @param have the writes the lagging backend has applied
+     * @return the missed writes in the order they were applied here, or null if the ring no longer has all of them
+     */
+    public WriteBatch getMissedWrites(SequenceTracker have) {
+        ArrayList<WriteRecord> missed;
+        stateLock.writeLock().lock();
+        try {
+            missed = writeRing.missedBy(have, applied);
+        } finally {
+            stateLock.writeLock().unlock();
+        }
+        if (missed != null) {
+            missedServed.add(missed.size());
+        }
+        return missed == null ? null : new WriteBatch(missed);
+    }
+
+    /**
+     * starts a transfer of the data of this backend by listing the ids of its items and clients,
+     * the data itself is copied when the chunks are requested so the lock is only held briefly
+     * @param requester the joining backend
+     * @return the first chunk, describing the transfer
+     */
+    public StateChunk beginTransfer(Address requester) {
+        stateLock.writeLock().lock();
+        try {
+            return listTransfer(requester);
+        } finally {
+            stateLock.writeLock().unlock();
+        }
+    }
+
+    private StateChunk listTransfer(Address requester) {
+        TransferSession session = new TransferSession();
+        session.requester = requester;
+        session.itemIds = items.ids();
+        session.clientIds = clients.clientIds();
+        int sessionId = nextTransfer.getAndIncrement();
+        transfers.put(sessionId, session);
+
+        StateChunk header = new StateChunk();
+        header.session = sessionId;
+        header.id = id.get();
+        header.applied = applied.copy();
+        header.clock = clock;
+        header.totalItems = session.itemIds.length;
+        header.totalClients = session.clientIds.length;
+        transfersServed.increment();
+        return header;
+    }
+
+    /**
+     * copies the next part of a transfer, items first and then clients
+     * @param session the id returned by beginTransfer
+     * @param offset the position in the transfer to start from
+     * @param limit the maximum number of items and clients to copy
+     * @return the chunk, or null if the transfer is unknown
+     */
+    public StateChunk getStateChunk(int session, int offset, int limit) {
+        TransferSession transfer = transfers.get(session);
+        if (transfer == null) {
+            return null;
+        }
+        StateChunk chunk = new StateChunk();
+        int end = Math.min(offset + limit, transfer.itemIds.length + transfer.clientIds.length);
+        for (int position = offset; position < end; position++) {
+            if (position < transfer.itemIds.length) {
+                // copy the item so bids applied while the chunk is sent do not change it half way
+                AuctionItem item = items.get(transfer.itemIds[position]);
+                if (item != null) {
+                    chunk.items.add(item.copy());
+                }
+            } else {
+                String clientId = transfer.clientIds[position - transfer.itemIds.length];
+                ClientIndex.Record record = clients.record(clientId);
+                if (record != null) {
+                    chunk.clients.put(clientId, record);
+                }
+            }
+        }
+        chunk.nextOffset = end;
+        chunk.last = end == transfer.itemIds.length + transfer.clientIds.length;
+        return chunk;
+    }
+
+    /**
+     * forgets a transfer once the joining backend has all of its chunks
+     * @param session the id returned by beginTransfer
+     */
+    public void endTransfer(int session) {
+        transfers.remove(session);
+    }
+
+    /**
+     * copies the items of the buckets this shard gained from the backends of the shards that owned them,
+     * writes received in the meantime are queued as during a sync. the items of the buckets that moved
+     * to other shards are dropped once those shards had HANDOFF_GRACE ms to copy them
+     * @param before the map before the view changed
+     * @param after the map of the new view
+     */
+    private void rebalance(ShardMap before, ShardMap after) {
+        Map<Integer, List<Integer>> gained = after.gainedFrom(before, this.shard);
+        if (!gained.isEmpty()) {
+            stateLock.writeLock().lock();
+            try {
+                syncing = true;
+            } finally {
+                stateLock.writeLock().unlock();
+            }
+            try {
+                for (Map.Entry<Integer, List<Integer>> previous : gained.entrySet()) {
+                    int[] buckets = previous.getValue().stream().mapToInt(Integer::intValue).toArray();
+                    if (!copyBuckets(previous.getKey(), buckets)) {
+                        System.err.println("no backend of shard " + previous.getKey() + " is left to copy "
+                                + buckets.length + " buckets from, they start empty here");
+                    }
+                }
+            } finally {
+                stateLock.writeLock().lock();
+                try {
+                    syncing = false;
+                    applyQueuedWrites();
+                    // the copied items are not in the log, so save them in a snapshot straight away
+                    takeSnapshot();
+                } finally {
+                    stateLock.writeLock().unlock();
+                }
+            }
+        }
+        handoffs.schedule(this::dropMovedItems, HANDOFF_GRACE, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * copies the items of the buckets given from one of the backends of the shard that owned them
+     * @param previous the shard that owned the buckets
+     * @param buckets the buckets to copy
+     * @return false if no backend of the shard could send them
+     */
+    private boolean copyBuckets(int previous, int[] buckets) {
+        for (Address donor : this.groupChannel.getView().getMembers()) {
+            String name = UUID.get(donor);
+            if (!ShardMap.isBackend(name) || ShardMap.shardOf(name) != previous || donor.equals(this.groupChannel.getAddress())) {
+                continue;
+            }
+            try {
+                RequestOptions options = new RequestOptions(ResponseMode.GET_FIRST, this.DISPATCHER_TIMEOUT).setFlags(Message.Flag.OOB);
+                int afterId = 0;
+                while (true) {
+                    StateChunk chunk = this.dispatcher.callRemoteMethod(donor, "getBucketItems",
+                            new Object[] { buckets, afterId, TRANSFER_CHUNK }, new Class<?>[] { int[].class, int.class, int.class }, options);
+                    if (chunk == null) {
+                        throw new IllegalStateException("no answer from " + donor);
+                    }
+                    applyBucketChunk(chunk);
+                    itemsCopied.add(chunk.items.size());
+                    if (chunk.last) {
+                        break;
+                    }
+                    afterId = chunk.nextOffset;
+                }
+                return true;
+            } catch (Exception e) {
+                System.err.println("copying buckets from " + donor + " failed, trying another backend:");
+                e.printStackTrace();
+            }
+        }
+        return false;
+    }
+
+    /**
+     * adds the items of a chunk copied from the shard that owned them, each one to the activity of its seller and bidders
+     * @param chunk the chunk received from the other shard
+     */
+    private void applyBucketChunk(StateChunk chunk) {
+        stateLock.writeLock().lock();
+        try {
+            for (AuctionItem item : chunk.items) {
+                items.put(item);
+                // an end the clock of this shard has already passed closes on its next tick
+                track(item);
+                clients.listed(item);
+                for (String buyerId : chunk.bidders.getOrDefault(item.getItemId(), new String[0])) {
+                    clients.bid(item.getItemId(), buyerId);
+                }
+            }
+            // ids in the buckets copied are only given out above those the other shard gave out
+            id.accumulateAndGet(chunk.id, Math::max);
+        } finally {
+            stateLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * copies the open items of some buckets for a shard that now owns them, in increasing id order
+     * @param buckets the buckets to copy
+     * @param afterId the id to start after, 0 for the first chunk or the nextOffset of the previous one
+     * @param limit the maximum number of items to copy
+     * @return the chunk, with the item id counter of this backend
+     */
+    public StateChunk getBucketItems(int[] buckets, int afterId, int limit) {
+        boolean[] wanted = new boolean[ShardMap.BUCKETS];
+        for (int bucket : buckets) {
+            wanted[bucket] = true;
+        }
+        StateChunk chunk = new StateChunk();
+        chunk.id = id.get();
+        int cursor = afterId;
+        int next = items.nextId(afterId);
+        while (next >= 0 && chunk.items.size() < limit) {
+            cursor = next;
+            AuctionItem item = wanted[ShardMap.bucketOf(next)] ? items.get(next) : null;
+            if (item != null) {
+                chunk.items.add(item.copy());
+                chunk.bidders.put(next, clients.bidders(next));
+            }
+            next = items.nextId(next);
+        }
+        chunk.nextOffset = cursor;
+        chunk.last = next < 0;
+        return chunk;
+    }
+
+    /**
+     * drops the open items of the buckets other shards own now, they have copied them by now.
+     * the history of the clients keeps the auctions that closed here. a snapshot is taken straight after
+     */
+    private void dropMovedItems() {
+        ShardMap map = this.shardMap;
+        int moved = 0;
+        stateLock.writeLock().lock();
+        try {
+            for (int itemId : items.ids()) {
+                if (map.shardOfItem(itemId) != this.shard) {
+                    AuctionItem item = items.remove(itemId);
+                    deadlines.cancel(itemId);
+                    if (item != null) {
+                        search.remove(item);
+                        clients.moved(item);
+                        moved++;
+                    }
+                }
+            }
+            if (moved > 0) {
+                // the drop is not a write of the log, a snapshot saves it so a restart does not bring the items back
+                takeSnapshot();
+            }
+        } finally {
+            stateLock.writeLock().unlock();
+        }
+        itemsDropped.add(moved);
+    }
+
     /**
      * this methods returns the auction item using the id passed
      * @param itemId the id of the auction item to be returned
@@ -111,6 +690,8 @@ public class Backend {
     /** 
      * This method create the auction item with the parameters provided 
      * then adds it to the hashTable with the key being the id
+     * @param origin id of the frontend that sent the request
+     * @param sequence sequence number of the request in its frontend
      * @param startingPrice starting price of the auction item
      * @param description description of the auction item
      * @param minimumPrice minimum price required to reserve the auction item
@@ -118,29 +699,179 @@ public class Backend {
      * @return int return the id of the item created
      * @throws RemoteException
      */
-    public synchronized int createItem(int startingPrice, String description, int minimumPrice, String sellerId){
-        // increase the value of requestCount 
-        requestCount++;
+    public int createItem(String origin, long sequence, int startingPrice, String description, int minimumPrice, String sellerId){
+        return createItem(origin, sequence, null, 0, 0, startingPrice, description, minimumPrice, sellerId);
+    }
+
+    /**
+     * same as createItem but the id is picked in a bucket this shard owns in the map the frontend
+     * routed the request with, so every replica of the shard picks the same id whatever view it has
+     * @param shards the shards the frontend knew of, null for the map of this backend
+     * @param sentAt the time (ms) of the frontend when it sent the create, used only before the first tick
+     * @param duration ms the auction runs for by the cluster clock, 0 if only the seller closes it
+     */
+    public int createItem(String origin, long sequence, int[] shards, long sentAt, long duration, int startingPrice, String description, int minimumPrice, String sellerId){
+        int itemId;
+        long logPosition;
+        stateLock.readLock().lock();
+        try {
+            if (syncing) {
+                queuedWrites.add(() -> createItem(origin, sequence, shards, sentAt, duration, startingPrice, description, minimumPrice, sellerId));
+                return 0;
+            }
+            if (applied.contains(origin, sequence)) {
+                // already part of the data copied from another backend
+                return 0;
+            }
+            // a write is not applied while its record cannot be saved
+            auctionLog.checkWritable();
+            // increase the value of requestCount 
+            requestCount.incrementAndGet();
+            // take the next id, starting from 1, that falls in a bucket of this shard
+            itemId = nextItemId(shards);
+            // the end is counted from the cluster clock, which ticks only move under the write lock, so a skewed
+            // frontend clock does not move it. before the first tick the time of the frontend stands in for it
+            long endTime = duration > 0 ? (clock > 0 ? clock : sentAt) + duration : 0;
+            WriteRecord record = WriteRecord.create(origin, sequence, itemId, startingPrice, description, minimumPrice, sellerId, endTime);
+            synchronized (itemLock(itemId)) {
+                applyWrite(record, !replaying);
+                logPosition = auctionLog.append(record);
+            }
+        } finally {
+            stateLock.readLock().unlock();
+        }
+        scheduleSnapshotIfDue();
+        // wait for the record to reach the disk outside the lock so other requests share the fsync
+        auctionLog.awaitDurable(logPosition);
+        return itemId;
+    }
+
+    /**
+     * @param shards the shards the frontend routed a create with, null for the map of this backend
+     * @return the lowest id above every id used so far that falls in a bucket of this shard
+     */
+    private int nextItemId(int[] shards) {
+        ShardMap map = this.shardMap;
+        if (shards != null) {
+            map = this.routing;
+            if (!map.hasShards(shards)) {
+                map = ShardMap.of(shards);
+                this.routing = map;
+            }
+        }
+        while (true) {
+            int current = id.get();
+            int next = map.nextOwnedId(this.shard, current);
+            if (id.compareAndSet(current, next)) {
+                return next;
+            }
+        }
+    }
+
+    /**
+     * applies a write that happened before, when catching up with another backend and when replaying the log,
+     * without publishing its events again
+     * @param record the write to apply
+     * @return false if the write changed nothing, a bid that was not above the highest one or on a closed item
+     */
+    boolean applyWrite(WriteRecord record) {
+        return applyWrite(record, false);
+    }
+
+    /**
+     * applies a write and remembers it as applied
+     * @param record the write to apply
+     * @param publish true to publish the events of the write, only for writes applied as they arrive
+     * @return false if the write changed nothing, a bid that was not above the highest one or on a closed item
+     */
+    private boolean applyWrite(WriteRecord record, boolean publish) {
+        boolean changed = true;
+        switch (record.type) {
+            case WriteRecord.CREATE:
+                applyCreate(record.itemId, record.price, record.description, record.minimumPrice, record.clientId, record.time);
+                break;
+            case WriteRecord.BID:
+                changed = applyBid(record.itemId, record.price, record.name, record.email, record.clientId, publish);
+                break;
+            case WriteRecord.CLOSE:
+                changed = applyClose(record.itemId, publish) != null;
+                break;
+            case WriteRecord.TICK:
+                changed = applyTick(record.time, publish).length > 0;
+                break;
+        }
+        remember(record);
+        return changed;
+    }
+
+    // marks a write applied and keeps it in the ring for the replicas that missed it
+    private void remember(WriteRecord record) {
+        if (applied.add(record.origin, record.sequence)) {
+            requestGapSync();
+        }
+        writeRing.add(record);
+    }
+
+    /**
+     * syncs with another backend of the shard in the background when too many writes of a frontend wait behind
+     * one that never arrived, so the missing write is fetched instead of being taken as applied. while the log is
+     * replayed nothing is asked, the sync that follows joining the cluster fills the gap
+     */
+    private void requestGapSync() {
+        if (this.dispatcher == null || !gapSync.compareAndSet(false, true)) {
+            return;
+        }
+        resync.execute(() -> {
+            try {
+                stateLock.writeLock().lock();
+                try {
+                    if (syncing) {
+                        // the sync running already ends with the gap filled or skipped
+                        return;
+                    }
+                    syncing = true;
+                } finally {
+                    stateLock.writeLock().unlock();
+                }
+                gapSyncs.increment();
+                syncData(Collections.<Address>emptySet());
+            } finally {
+                gapSync.set(false);
+            }
+        });
+    }
+
+    /**
+     * adds a new auction item with the id given, used by createItem and when replaying the log
+     * @param itemId the id of the new item
+     * @param startingPrice starting price of the auction item
+     * @param description description of the auction item
+     * @param minimumPrice minimum price required to reserve the auction item
+     * @param sellerId id of the client that added the auction item
+     * @param endTime the cluster time the auction closes at by itself, 0 if only the seller closes it
+     */
+    void applyCreate(int itemId, int startingPrice, String description, int minimumPrice, String sellerId, long endTime) {
         AuctionItem auctionItem = new AuctionItem(startingPrice, description, minimumPrice, sellerId);
-        // increase the id in order to provide ids starting from 1
-        id++;
-        // print the details 
-        System.out.println("item created with id: "+ id +" by seller: "+ sellerId);
-        auctionItem.setItemId(id);
-        // add the item to the hashtable that stores all the items
-        items.put(id, auctionItem);
-        System.out.println("Hashtable after creation is: " + items);
-        // check if a client id is already taken otherwise its a new client
-        if (clients.containsKey(sellerId)) {
-            // add the item to the client's corresponding list of items
-            clients.get(sellerId).add(auctionItem);
-        } else {
-            // create a list to store each client's items
-            List<AuctionItem> sellerItems = new ArrayList<AuctionItem>();
-            sellerItems.add(auctionItem);
-            clients.put(sellerId, sellerItems);
-        }
-        return id;
+        auctionItem.setItemId(itemId);
+        auctionItem.setEndTime(endTime);
+        track(auctionItem);
+        id.accumulateAndGet(itemId, Math::max);
+        // add the item to the store of open items
+        items.put(auctionItem);
+        // add the item to the items the client sells
+        clients.listed(auctionItem);
+    }
+
+    /**
+     * indexes the description of an open item and schedules the end of a timed auction on the wheel,
+     * items without an end time are left off the wheel
+     * @param item an open item
+     */
+    void track(AuctionItem item) {
+        search.add(item);
+        if (item.getEndTime() > 0) {
+            deadlines.schedule(item.getItemId(), item.getEndTime());
+        }
     }
 
 
@@ -150,7 +881,106 @@ public class Backend {
      * @throws RemoteException
      */
     public Hashtable<Integer, AuctionItem> getListings(){
-        return items;
+        Hashtable<Integer, AuctionItem> listings = new Hashtable<Integer, AuctionItem>(items.size() * 4 / 3 + 16);
+        items.copyTo(listings);
+        return listings;
+    }
+
+    /**
+     * this method returns the items after the cursor given that match the filter, in increasing id order
+     * @param afterId the cursor, 0 for the first page or the next cursor of the previous page
+     * @param limit the maximum number of items to return
+     * @param filter the conditions the items must meet, null for all open items
+     * @return the page of items
+     */
+    public ListingsPage getListingsPage(int afterId, int limit, ListingsFilter filter) {
+        limit = Math.max(1, Math.min(limit, MAX_PAGE));
+        if (filter != null && filter.getSellerId() != null) {
+            return getSellerPage(afterId, limit, filter);
+        }
+        ArrayList<AuctionItem> page = new ArrayList<AuctionItem>(limit);
+        int cursor = afterId;
+        // walk the open ids in order and stop as soon as the page is full
+        for (int itemId = items.nextId(afterId); itemId >= 0; itemId = items.nextId(itemId)) {
+            if (page.size() == limit) {
+                return new ListingsPage(page, cursor, true);
+            }
+            AuctionItem item = items.get(itemId);
+            cursor = itemId;
+            // the item may have been closed since its id was listed
+            if (item != null && (filter == null || filter.matches(item))) {
+                page.add(item);
+            }
+        }
+        return new ListingsPage(page, cursor, false);
+    }
+
+    /**
+     * this method returns the newest open items whose description has every word of the query, from the
+     * index instead of a scan of the items
+     * @param query the words to look for, a word ending with '*' matches every word it starts
+     * @param filter the conditions the items must also meet, such as a price range, null for none
+     * @param limit the maximum number of items to return
+     * @return the matching items in decreasing id order, the cursor is the lowest id returned
+     */
+    public ListingsPage search(String query, ListingsFilter filter, int limit) {
+        int max = Math.max(1, Math.min(limit, MAX_PAGE));
+        ArrayList<AuctionItem> page = new ArrayList<AuctionItem>();
+        boolean[] more = new boolean[1];
+        search.query(query, itemId -> {
+            AuctionItem item = items.get(itemId);
+            // the item may have been closed since the query started
+            if (item == null || (filter != null && !filter.matches(item))) {
+                return true;
+            }
+            if (page.size() == max) {
+                more[0] = true;
+                return false;
+            }
+            page.add(item);
+            return true;
+        });
+        return new ListingsPage(page, page.isEmpty() ? 0 : page.get(page.size() - 1).getItemId(), more[0]);
+    }
+
+    /**
+     * lists the items of one seller from the client index, with the latest ones that closed unless only open items are asked for
+     */
+    private ListingsPage getSellerPage(int afterId, int limit, ListingsFilter filter) {
+        return clients.page(filter.getSellerId(), filter.isOpenOnly() ? Item.SELLING : Item.SELLING | Item.CLOSED, afterId, limit, filter, items);
+    }
+
+    /**
+     * this method returns the items a client sells, bid on, won or closed, one page at a time
+     * @param clientId the id of the client
+     * @param views Item.SELLING, Item.BIDDING, Item.WON, Item.CLOSED, or several of them or-ed together
+     * @param afterId the cursor, 0 for the first page or the next cursor of the previous page
+     * @param limit the maximum number of items to return
+     * @return the page of items in increasing id order
+     */
+    public ListingsPage getClientItems(String clientId, int views, int afterId, int limit) {
+        return clients.page(clientId, views, afterId, Math.max(1, Math.min(limit, MAX_PAGE)), null, items);
+    }
+
+    /**
+     * this method returns an auction that closed on this backend, from the archive
+     * @param itemId the id of the auction item
+     * @return the item as it closed, its end time the cluster time it closed at, null if it did not close here
+     */
+    public AuctionItem getClosedAuction(int itemId) {
+        return archive.get(itemId);
+    }
+
+    /**
+     * this method returns the archived auctions a client sold or won on this backend, one page at a time
+     * @param clientId the id of the client
+     * @param views Item.CLOSED for the auctions it sold or not, Item.WON for those it won, or both or-ed together
+     * @param afterId the cursor, 0 for the first page or the next cursor of the previous page
+     * @param limit the maximum number of items to return
+     * @return the page of items in increasing id order
+     */
+    public ListingsPage getClosedAuctions(String clientId, int views, int afterId, int limit) {
+        return archive.page(clientId, views, afterId, Math.max(1, Math.min(limit, MAX_PAGE)));
     }
 
     /** 
@@ -160,11 +990,10 @@ public class Backend {
      * @throws RemoteException
      */
     public Boolean checkClientId(String id){
-        for (String clientId : clients.keySet()) {
-            if(id.equals(clientId)) {
-                System.out.println("found match!");
-                return true;
-            }
+        // clients are keyed by their id, so look the id up directly instead of scanning them
+        if (clients.contains(id)) {
+            System.out.println("found match!");
+            return true;
         }
         System.out.println("New Client Login!");
         return false;
@@ -172,49 +1001,305 @@ public class Backend {
 
     /** 
      * this method allows the user to bid for a specific auction item 
+     * @param origin id of the frontend that sent the request
+     * @param sequence sequence number of the request in its frontend
      * @param id the id of the auction item to bid for
      * @param price the price to bid on the item
      * @param name the name of the Buyer
      * @param email the email of the Buyer
      * @param buyerId the id of the Buyer
+     * @return true if the bid was above the highest bid of an open item and replaced it
      * @throws RemoteException
      */
-    public synchronized void bid(int id, int price, String name, String email, String buyerId) throws RemoteException {
-        // increase the value of requestCount 
-        requestCount++;
-        AuctionItem itemToBid = null;
-        // check the list for a matching auction item
-        for(AuctionItem auction: items.values()){
-            // check if the returned id matches the parameter id
-            if(auction.getItemId() == id){
-                itemToBid = auction;
-                break;
+    public boolean bid(String origin, long sequence, int id, int price, String name, String email, String buyerId) throws RemoteException {
+        boolean accepted;
+        long logPosition;
+        stateLock.readLock().lock();
+        try {
+            if (syncing) {
+                queuedWrites.add(() -> {
+                    try {
+                        bid(origin, sequence, id, price, name, email, buyerId);
+                    } catch (RemoteException e) {
+                        e.printStackTrace();
+                    }
+                });
+                return false;
+            }
+            if (applied.contains(origin, sequence)) {
+                return false;
             }
+            // a write is not applied while its record cannot be saved
+            auctionLog.checkWritable();
+            // increase the value of requestCount 
+            requestCount.incrementAndGet();
+            WriteRecord record = WriteRecord.bid(origin, sequence, id, price, name, email, buyerId);
+            // rejected bids are logged too, so replaying the log evaluates every bid against the same state
+            synchronized (itemLock(id)) {
+                accepted = applyWrite(record, !replaying);
+                logPosition = auctionLog.append(record);
+            }
+        } finally {
+            stateLock.readLock().unlock();
         }
-        // check if a client id already exists 
-        if (clients.containsKey(buyerId)) {
-            clients.get(buyerId).add(itemToBid);
-        } else {
-            // create a list to store each buyer's items they bid for
-            List<AuctionItem> buyerItems = new ArrayList<AuctionItem>();
-            buyerItems.add(itemToBid);
-            clients.put(buyerId, buyerItems);
+        scheduleSnapshotIfDue();
+        auctionLog.awaitDurable(logPosition);
+        return accepted;
+    }
+
+    /**
+     * this method applies a batch of bids sent by a frontend in order, taking the lock once and waiting for the disk once
+     * @param batch the bids, stamped with the frontend and their sequence numbers
+     * @return for each bid true if it was above the highest bid of an open item, or null while this backend is syncing
+     */
+    public boolean[] bidBatch(WriteBatch batch) {
+        ArrayList<WriteRecord> bids = batch.getRecords();
+        boolean[] outcomes = new boolean[bids.size()];
+        long logPosition = 0;
+        stateLock.readLock().lock();
+        try {
+            if (syncing) {
+                queuedWrites.add(() -> bidBatch(batch));
+                return null;
+            }
+            auctionLog.checkWritable();
+            for (int i = 0; i < bids.size(); i++) {
+                WriteRecord record = bids.get(i);
+                if (applied.contains(record.origin, record.sequence)) {
+                    continue;
+                }
+                // increase the value of requestCount 
+                requestCount.incrementAndGet();
+                synchronized (itemLock(record.itemId)) {
+                    outcomes[i] = applyWrite(record, !replaying);
+                    logPosition = auctionLog.append(record);
+                }
+            }
+        } finally {
+            stateLock.readLock().unlock();
+        }
+        scheduleSnapshotIfDue();
+        auctionLog.awaitDurable(logPosition);
+        return outcomes;
+    }
+
+    /**
+     * records the bid on the item given if it is above the current highest bid, used by bid and when replaying the log.
+     * replicas that apply bids in the same order accept the same ones
+     * @param id the id of the auction item to bid for
+     * @param price the price to bid on the item
+     * @param name the name of the Buyer
+     * @param email the email of the Buyer
+     * @param buyerId the id of the Buyer
+     * @param publish true to tell the subscribers about the new price
+     * @return true if the bid was accepted
+     */
+    private boolean applyBid(int id, int price, String name, String email, String buyerId, boolean publish) {
+        // the whole bid holds the lock of the item, so a close comes before or after all of it: the end is never
+        // moved and the price event never published once the item is closed
+        synchronized (itemLock(id)) {
+            // list the item among those the buyer bid on, unless a close got to it first
+            String sellerId = items.getSellerId(id);
+            if (sellerId == null) {
+                // the item was closed before the bid arrived
+                return false;
+            }
+            clients.bid(id, buyerId);
+            // items are keyed by their id, so the store bids on the item directly instead of scanning them.
+            // price, name, email and buyer change together so readers never see half of a bid,
+            // and a bid that is not above the current highest one is turned down
+            AuctionItem.HighestBid replaced = items.placeBidIfHigher(id, price, name, email, buyerId);
+            if (replaced == null) {
+                return false;
+            }
+            // a bid close to the end of a timed auction gives the other bidders time to answer it. the end only
+            // depends on the clock of the ticks applied before the bid, so every replica extends it the same way
+            long endTime = items.getEndTime(id);
+            if (endTime > 0 && endTime - clock < SNIPE_WINDOW) {
+                deadlines.schedule(id, items.extendEndTime(id, clock + SNIPE_EXTENSION));
+            }
+            if (publish) {
+                publish(AuctionEvent.price(id, price, buyerId, replaced.buyerId, sellerId));
+            }
+            return true;
         }
-        items.get(id).setCurrentHighestBid(price);
-        items.get(id).setName(name);
-        items.get(id).setEmail(email);
     }
 
     /** 
      * this method closes the auction item using the id provided
+     * @param origin id of the frontend that sent the request
+     * @param sequence sequence number of the request in its frontend
      * @param key the id of the auction item to close
      * @return AuctionItem the auction item closed
      * @throws RemoteException
      */
-    public AuctionItem closeItem(int id) throws RemoteException {
-        // increase the value of requestCount 
-        requestCount++;
-        return items.remove(id);
+    public AuctionItem closeItem(String origin, long sequence, int id) throws RemoteException {
+        AuctionItem closed;
+        long logPosition;
+        stateLock.readLock().lock();
+        try {
+            if (syncing) {
+                queuedWrites.add(() -> {
+                    try {
+                        closeItem(origin, sequence, id);
+                    } catch (RemoteException e) {
+                        e.printStackTrace();
+                    }
+                });
+                return null;
+            }
+            if (applied.contains(origin, sequence)) {
+                return null;
+            }
+            // a write is not applied while its record cannot be saved
+            auctionLog.checkWritable();
+            // increase the value of requestCount 
+            requestCount.incrementAndGet();
+            WriteRecord record = WriteRecord.close(origin, sequence, id);
+            synchronized (itemLock(id)) {
+                // the item removed is the one archived, with the winner of the last bid applied before the close
+                closed = applyClose(id, !replaying);
+                remember(record);
+                logPosition = auctionLog.append(record);
+            }
+        } finally {
+            stateLock.readLock().unlock();
+        }
+        scheduleSnapshotIfDue();
+        auctionLog.awaitDurable(logPosition);
+        return closed;
+    }
+
+    /**
+     * removes the item given, used by closeItem and when replaying the log
+     * @param id the id of the auction item to close
+     * @param publish true to tell the subscribers about the close
+     * @return the auction item closed
+     */
+    private AuctionItem applyClose(int id, boolean publish) {
+        // a bid that found the item open is done, event included, by the time this gets the item
+        synchronized (itemLock(id)) {
+            deadlines.cancel(id);
+            AuctionItem closed = items.remove(id);
+            if (closed != null) {
+                clients.closed(closed);
+                search.remove(closed);
+                archive.append(closed, clock);
+                if (publish) {
+                    publish(AuctionEvent.closed(closed));
+                }
+            }
+            return closed;
+        }
+    }
+
+    // return the lock the writes to the item take around applying and logging them
+    private Object itemLock(int itemId) {
+        return itemLocks[itemId & (itemLocks.length - 1)];
+    }
+
+    /**
+     * passes the event of a write to the frontends, once this backend is in the cluster
+     * @param event the event of the write just applied
+     */
+    private void publish(AuctionEvent event) {
+        EventPublisher publisher = this.events;
+        if (publisher != null) {
+            publisher.publish(event);
+        }
+    }
+
+    /**
+     * moves the clock of this shard to the time a frontend read from its own clock and closes the
+     * timed auctions that ended by then. only the oldest frontend sends ticks, and they are ordered with
+     * the other writes by the write lock and logged like them, so every replica and every replay of the log
+     * closes the same auctions between the same writes
+     * @param origin id of the frontend that sent the tick
+     * @param sequence sequence number of the tick in its frontend
+     * @param time the cluster time in ms, a time that is not after the clock changes nothing
+     * @return the ids of the auctions closed, or null while this backend is syncing
+     */
+    public int[] tick(String origin, long sequence, long time) {
+        int[] closed;
+        long logPosition;
+        stateLock.writeLock().lock();
+        try {
+            if (syncing) {
+                queuedWrites.add(() -> tick(origin, sequence, time));
+                return null;
+            }
+            if (applied.contains(origin, sequence)) {
+                return new int[0];
+            }
+            auctionLog.checkWritable();
+            WriteRecord record = WriteRecord.tick(origin, sequence, time);
+            closed = applyTick(time, !replaying);
+            auctionsEnded.add(closed.length);
+            remember(record);
+            logPosition = auctionLog.append(record);
+        } finally {
+            stateLock.writeLock().unlock();
+        }
+        scheduleSnapshotIfDue();
+        auctionLog.awaitDurable(logPosition);
+        return closed;
+    }
+
+    /**
+     * moves the clock forward and closes the auctions whose end it reached, used by tick and when replaying the log
+     * @param time the cluster time of the tick
+     * @param publish true to tell the subscribers about the auctions closed
+     * @return the ids of the auctions closed, in increasing order
+     */
+    private int[] applyTick(long time, boolean publish) {
+        if (time <= clock) {
+            return new int[0];
+        }
+        clock = time;
+        int[] ended = deadlines.advance(time);
+        for (int itemId : ended) {
+            AuctionItem closed = items.remove(itemId);
+            if (closed != null) {
+                search.remove(closed);
+                clients.closed(closed);
+                archive.append(closed, time);
+                if (publish) {
+                    publish(AuctionEvent.closed(closed));
+                }
+            }
+        }
+        return ended;
+    }
+
+    /**
+     * starts a snapshot in the background once enough records have been logged since the last one
+     */
+    private void scheduleSnapshotIfDue() {
+        if (auctionLog.snapshotDue()) {
+            stateLock.writeLock().lock();
+            try {
+                // another write may have started it while this one waited for the lock
+                if (auctionLog.snapshotDue()) {
+                    takeSnapshot();
+                }
+            } finally {
+                stateLock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * copies the state at a log segment boundary and writes it to disk in the background,
+     * the caller has to hold the write lock of this backend
+     */
+    private void takeSnapshot() {
+        try {
+            AuctionLog.Snapshot snapshot = auctionLog.beginSnapshot(id.get(), clock, applied, items, clients);
+            snapshotWriter.execute(() -> auctionLog.writeSnapshot(snapshot));
+        } catch (IOException e) {
+            System.err.println("snapshot exception:");
+            e.printStackTrace();
+        }
     }
 
     /** 
@@ -224,13 +1309,8 @@ public class Backend {
      * @throws RemoteException
      */
     public boolean checkItemNonExistent(int id){
-        for(AuctionItem item: items.values()){
-            if(item.getItemId()==id){
-                return false;
-            }
-        }
         // if the item does not exist return true
-        return true;
+        return !items.contains(id);
     }
 
     /**
@@ -238,16 +1318,88 @@ public class Backend {
      * @return the current id
      */
     public int getId(){
-        return id;
+        return id.get();
     }
 
 
+    /**
+     * return the version of the auction data, which grows by one with every write applied,
+     * so frontends can tell whether what they have cached is still current
+     * @return the number of writes applied
+     */
+    public long getStateVersion() {
+        return applied.count();
+    }
+
     /**
      * return the current requests processed by a backend
      * @return the current request count 
      */
     public int getRequestCount() {
-        return requestCount;
+        return requestCount.get();
+    }
+
+    /**
+     * this method is called as an indication that the member should stop sending messages
+     */
+    @Override
+    public void block() {
+    }
+
+    /** 
+     * this method is called when a member is suspected of crashing
+     * @param suspectedMember the address of the suspected member 
+     */
+    @Override
+    public void suspect(Address suspectedMember) {
+    }
+
+    /**
+     * this method is called after the FLUSH protocol has unblocked previously blocked senders, 
+     * and messages can be sent again.
+     */
+    @Override
+    public void unblock() {
+    }
+
+    /** 
+     * Called when a change in membership has occurred, drops the transfers of backends that left.
+     * when a shard is added or removed, the buckets that moved are copied by their new owners.
+     * when a partition heals, this backend fetches the writes the other side applied while they were apart
+     * @param v the view after the the change in members of the cluster
+     */
+    @Override
+    public void viewAccepted(View v) {
+        if (this.events != null) {
+            this.events.viewAccepted(v);
+        }
+        ShardMap before = this.shardMap;
+        ShardMap after = ShardMap.of(v);
+        this.shardMap = after;
+        if (!after.sameShards(before)) {
+            System.out.println("Shards changed: " + after);
+            resync.execute(() -> rebalance(before, after));
+        }
+        stateLock.writeLock().lock();
+        try {
+            transfers.values().removeIf(transfer -> !v.containsMember(transfer.requester));
+            if (!(v instanceof MergeView) || syncing) {
+                return;
+            }
+            syncing = true;
+        } finally {
+            stateLock.writeLock().unlock();
+        }
+        // the members that were on this side of the partition have the same writes, ask one from the other side
+        Set<Address> sameSide = new HashSet<Address>();
+        for (View subgroup : ((MergeView) v).getSubgroups()) {
+            if (subgroup.containsMember(this.groupChannel.getAddress())) {
+                sameSide.addAll(subgroup.getMembers());
+            }
+        }
+        System.out.println("Partition healed: " + v);
+        // remote calls cannot be made from the view thread
+        resync.execute(() -> syncData(sameSide));
     }
 
   public static void main(String args[]) {
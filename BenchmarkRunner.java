@@ -0,0 +1,192 @@
+import java.io.File;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * This class measures benchmarks the way a JMH run would, without any library on the classpath.
+ * every benchmark runs in a JVM of its own with a fixed heap, is warmed up before it is measured,
+ * and reports the operations per second of each iteration together with the bytes allocated
+ * and the time spent in garbage collection per operation.
+ * "WARMUP_ITERATIONS" (default 3), "ITERATIONS" (default 5), "ITERATION_MS" (default 1000)
+ * and "BENCH_HEAP" (default 2g) change how long and where they run.
+ */
+public class BenchmarkRunner {
+    static final int WARMUP_ITERATIONS = System.getenv("WARMUP_ITERATIONS") == null ? 3 : Integer.parseInt(System.getenv("WARMUP_ITERATIONS"));
+    static final int ITERATIONS = System.getenv("ITERATIONS") == null ? 5 : Integer.parseInt(System.getenv("ITERATIONS"));
+    static final long ITERATION_MS = System.getenv("ITERATION_MS") == null ? 1000 : Long.parseLong(System.getenv("ITERATION_MS"));
+    static final String HEAP = System.getenv("BENCH_HEAP") == null ? "2g" : System.getenv("BENCH_HEAP");
+
+    private static volatile long sink; // results of the operations end up here so the JIT cannot drop them
+
+    /**
+     * one call of the code being measured
+     */
+    interface Operation {
+        /**
+         * @param thread the number of the thread calling, from 0
+         * @param i the number of the call on this thread, from 0
+         * @return a value taken from the result of the call, consumed so the call cannot be optimised away
+         */
+        long run(int thread, long i) throws Exception;
+    }
+
+    /**
+     * the measurement of one benchmark
+     */
+    static class Result {
+        final String name;           // the benchmark measured
+        final int threads;           // threads calling the operation together
+        final double[] opsPerSecond; // throughput of each measured iteration
+        final double bytesPerOp;     // bytes allocated per operation by the calling threads
+        final double gcMsPerKOp;     // ms of garbage collection per thousand operations
+        String note;                 // anything else measured, printed after the rest
+
+        Result(String name, int threads, double[] opsPerSecond, double bytesPerOp, double gcMsPerKOp) {
+            this.name = name;
+            this.threads = threads;
+            this.opsPerSecond = opsPerSecond;
+            this.bytesPerOp = bytesPerOp;
+            this.gcMsPerKOp = gcMsPerKOp;
+        }
+
+        // return the mean throughput of the measured iterations
+        double mean() {
+            double sum = 0;
+            for (double value : opsPerSecond) {
+                sum += value;
+            }
+            return sum / opsPerSecond.length;
+        }
+
+        // return the standard deviation of the throughput of the measured iterations
+        double deviation() {
+            double mean = mean();
+            double sum = 0;
+            for (double value : opsPerSecond) {
+                sum += (value - mean) * (value - mean);
+            }
+            return opsPerSecond.length < 2 ? 0 : Math.sqrt(sum / (opsPerSecond.length - 1));
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-44s %3d %14.1f +- %10.1f ops/s %12.1f B/op %8.3f gc ms/kop",
+                    name, threads, mean(), deviation(), bytesPerOp, gcMsPerKOp) + (note == null ? "" : "  " + note);
+        }
+    }
+
+    /**
+     * runs the operation on the threads given for the warmup iterations, then measures it
+     * @param name the name of the benchmark
+     * @param threads the number of threads calling the operation together
+     * @param operation the code to measure
+     * @return the measurement
+     */
+    static Result measure(String name, int threads, Operation operation) throws Exception {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            iteration(threads, operation);
+        }
+        double[] opsPerSecond = new double[ITERATIONS];
+        long operations = 0;
+        long allocated = 0;
+        long gcBefore = gcMillis();
+        for (int i = 0; i < ITERATIONS; i++) {
+            long[] counts = iteration(threads, operation);
+            opsPerSecond[i] = counts[0] * 1000.0 / counts[2];
+            operations += counts[0];
+            allocated += counts[1];
+        }
+        long gc = gcMillis() - gcBefore;
+        return new Result(name, threads, opsPerSecond,
+                operations == 0 ? 0 : (double) allocated / operations,
+                operations == 0 ? 0 : gc * 1000.0 / operations);
+    }
+
+    // runs one iteration, return the operations, bytes allocated and elapsed ms
+    private static long[] iteration(int threads, Operation operation) throws Exception {
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        AtomicBoolean running = new AtomicBoolean(true);
+        CyclicBarrier start = new CyclicBarrier(threads + 1);
+        long[] operations = new long[threads];
+        long[] allocated = new long[threads];
+        Exception[] failures = new Exception[threads];
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            workers[t] = new Thread(() -> {
+                try {
+                    start.await();
+                    long bytes = bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+                    long i = 0;
+                    long local = 0;
+                    while (running.get()) {
+                        local += operation.run(thread, i++);
+                    }
+                    allocated[thread] = bean.getThreadAllocatedBytes(Thread.currentThread().getId()) - bytes;
+                    operations[thread] = i;
+                    sink += local;
+                } catch (Exception e) {
+                    failures[thread] = e;
+                }
+            }, "bench-" + t);
+            workers[t].start();
+        }
+        start.await();
+        long begin = System.nanoTime();
+        Thread.sleep(ITERATION_MS);
+        running.set(false);
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        long elapsed = Math.max(1, (System.nanoTime() - begin) / 1000000);
+        for (Exception failure : failures) {
+            if (failure != null) {
+                throw failure;
+            }
+        }
+        long total = 0;
+        long bytes = 0;
+        for (int t = 0; t < threads; t++) {
+            total += operations[t];
+            bytes += allocated[t];
+        }
+        return new long[] { total, bytes, elapsed };
+    }
+
+    // return the ms spent in garbage collection so far
+    private static long gcMillis() {
+        long total = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            total += Math.max(0, gc.getCollectionTime());
+        }
+        return total;
+    }
+
+    /**
+     * runs one benchmark of the class given in a fresh JVM, with the same classpath and a fixed heap
+     * @param main the class whose main method runs a single benchmark when passed "--run" and its name
+     * @param name the benchmark to run
+     * @return the exit code of the JVM
+     */
+    static int fork(Class<?> main, String name) throws Exception {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        ProcessBuilder builder = new ProcessBuilder(java, "-Xms" + HEAP, "-Xmx" + HEAP, "-XX:+UseParallelGC",
+                "-Djava.net.preferIPv4Stack=true", "-cp", System.getProperty("java.class.path"),
+                main.getName(), "--run", name);
+        builder.inheritIO();
+        return builder.start().waitFor();
+    }
+
+    /**
+     * @return a line describing the machine and JVM the benchmarks ran on
+     */
+    static String environment() {
+        return String.format("%s %s, %s %s, %d cores, heap %s, %d warmup and %d measured iterations of %d ms",
+                System.getProperty("java.vm.name"), System.getProperty("java.version"),
+                System.getProperty("os.name"), System.getProperty("os.version"),
+                Runtime.getRuntime().availableProcessors(), HEAP, WARMUP_ITERATIONS, ITERATIONS, ITERATION_MS);
+    }
+}
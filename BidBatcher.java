@@ -0,0 +1,188 @@
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * This class collects the bids a frontend receives at the same time and sends them to the
+ * backends as one batch, instead of one multicast per bid. the bids are split into lanes, one per shard,
+ * and each lane has at most one batch in flight: the next batch of a lane is sent once the window has passed
+ * since its first bid or once it is full, and not before the batch before it is answered, so its bids keep
+ * collecting meanwhile. the lanes do not wait for each other, a slow shard only holds back its own bids.
+ * every caller gets a future that completes with the outcome of its own bid once its batch is answered.
+ * a bid followed in the same batch by a higher bid of the same buyer on the same item is not sent,
+ * as bids are only accepted above the highest one it could never have been the bid that wins.
+ */
+public class BidBatcher {
+    private final long window;        // ms a batch waits for more bids after its first one
+    private final int maxBatch;       // most bids sent in one batch
+    private final IntUnaryOperator laneOf; // gives the lane of an item
+    private final Sender sender;      // sends a batch to the backends
+    private final Map<Integer, Lane> lanes = new HashMap<Integer, Lane>(); // bids waiting for the next batch of each lane
+
+    /**
+     * sends the bids of a batch in order
+     */
+    interface Sender {
+        /**
+         * @param bids the bids to send
+         * @return the future of the outcome of each bid, in the same order, it fails if the batch could not be sent
+         */
+        CompletableFuture<boolean[]> send(List<PendingBid> bids);
+    }
+
+    /**
+     * the bids of one lane waiting for their batch
+     */
+    private static class Lane {
+        final ArrayList<PendingBid> pending = new ArrayList<PendingBid>(); // bids waiting for the next batch
+        long firstAt;            // ms the first of the pending bids was received
+        boolean sending;         // true while a batch of the lane is waiting for its answer
+    }
+
+    /**
+     * a bid waiting for its batch to be sent
+     */
+    static class PendingBid {
+        final int id;            // the id of the auction item to bid for
+        final int price;         // the price to bid on the item
+        final String name;       // the name of the Buyer
+        final String email;      // the email of the Buyer
+        final String buyerId;    // the id of the Buyer
+        boolean outcome;         // true if the backends applied the bid
+        PendingBid supersededBy; // the later bid in the batch that made this one unnecessary
+        final CompletableFuture<Boolean> done = new CompletableFuture<Boolean>(); // completed once the batch is answered
+
+        PendingBid(int id, int price, String name, String email, String buyerId) {
+            this.id = id;
+            this.price = price;
+            this.name = name;
+            this.email = email;
+            this.buyerId = buyerId;
+        }
+    }
+
+    /**
+     * @param window ms a batch waits for more bids after its first one
+     * @param maxBatch most bids sent in one batch
+     * @param laneOf gives the lane of an item, the bids of one lane have a single batch in flight
+     * @param sender sends a batch to the backends
+     */
+    public BidBatcher(long window, int maxBatch, IntUnaryOperator laneOf, Sender sender) {
+        this.window = window;
+        this.maxBatch = Math.max(1, maxBatch);
+        this.laneOf = laneOf;
+        this.sender = sender;
+        Thread thread = new Thread(this::sendBatches, "bid-batcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * adds a bid to the next batch of its lane without waiting for the batch to be sent
+     * @return the future of true if the backends applied the bid
+     */
+    public CompletableFuture<Boolean> submit(int id, int price, String name, String email, String buyerId) {
+        PendingBid bid = new PendingBid(id, price, name, email, buyerId);
+        int lane = laneOf.applyAsInt(id);
+        synchronized (this) {
+            Lane waiting = lanes.computeIfAbsent(lane, key -> new Lane());
+            if (waiting.pending.isEmpty()) {
+                waiting.firstAt = System.currentTimeMillis();
+            }
+            waiting.pending.add(bid);
+            notify();
+        }
+        return bid.done;
+    }
+
+    /**
+     * the loop of the sending thread, takes the next batch, coalesces it and sends it,
+     * the callers are answered and the lane freed from the future of the batch
+     */
+    private void sendBatches() {
+        while (true) {
+            Lane lane;
+            ArrayList<PendingBid> batch;
+            synchronized (this) {
+                try {
+                    lane = nextLane();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                int size = Math.min(lane.pending.size(), maxBatch);
+                batch = new ArrayList<PendingBid>(lane.pending.subList(0, size));
+                // the bids left over have waited already and go out as soon as the lane is free
+                lane.pending.subList(0, size).clear();
+                lane.sending = true;
+            }
+            List<PendingBid> sent = coalesce(batch);
+            sender.send(sent).whenComplete((outcomes, failure) -> {
+                synchronized (this) {
+                    lane.sending = false;
+                    notify();
+                }
+                if (failure != null) {
+                    System.err.println("dispatcher exception:");
+                    failure.printStackTrace();
+                }
+                for (int i = 0; i < sent.size(); i++) {
+                    sent.get(i).outcome = outcomes != null && i < outcomes.length && outcomes[i];
+                }
+                for (PendingBid bid : batch) {
+                    if (bid.supersededBy != null) {
+                        bid.outcome = bid.supersededBy.outcome;
+                    }
+                    bid.done.complete(bid.outcome);
+                }
+            });
+        }
+    }
+
+    /**
+     * waits for a lane without a batch in flight whose bids fill a batch or whose first bid
+     * has waited for the window
+     * @return the lane to send the next batch of
+     */
+    private Lane nextLane() throws InterruptedException {
+        while (true) {
+            long now = System.currentTimeMillis();
+            long wait = 0; // ms until the first lane is due, 0 if no lane can be sent
+            for (Lane lane : lanes.values()) {
+                if (lane.sending || lane.pending.isEmpty()) {
+                    continue;
+                }
+                long left = lane.firstAt + window - now;
+                if (lane.pending.size() >= maxBatch || left <= 0) {
+                    return lane;
+                }
+                wait = wait == 0 ? left : Math.min(wait, left);
+            }
+            wait(wait);
+        }
+    }
+
+    /**
+     * drops the bids that a later, higher bid of the same buyer on the same item makes unnecessary,
+     * bids of different buyers are all kept as each one adds the item to its buyer's items
+     * and a later bid that is not higher may be turned down where the earlier one is not
+     * @param batch the bids in the order they arrived
+     * @return the bids to send, in the same order
+     */
+    private List<PendingBid> coalesce(ArrayList<PendingBid> batch) {
+        Map<String, PendingBid> highest = new HashMap<String, PendingBid>(); // highest bid sent after the one looked at
+        ArrayList<PendingBid> sent = new ArrayList<PendingBid>(batch.size());
+        for (int i = batch.size() - 1; i >= 0; i--) {
+            PendingBid bid = batch.get(i);
+            String key = bid.id + ":" + bid.buyerId;
+            PendingBid later = highest.get(key);
+            if (later != null && later.price > bid.price) {
+                bid.supersededBy = later;
+            } else {
+                sent.add(bid);
+                highest.put(key, bid);
+            }
+        }
+        Collections.reverse(sent);
+        return sent;
+    }
+}
@@ -0,0 +1,273 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.Hashtable;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class is a client of the BinaryGateway of a Frontend. it keeps one connection and sends every request
+ * on it as soon as it is made, with an id of its own, so any number of threads can have requests in flight
+ * at once and each future completes when the answer with its id comes back, in whatever order they come.
+ * the requests made while another thread is writing are written by that thread in the same flush.
+ * a reader thread completes the futures, so what is chained on them should not block.
+ * it needs no JGroups jar, and no RMI: subscriptions and the cache stats are only offered by RMI.
+ */
+public class BinaryClient implements AsyncItem, Closeable {
+    private final Socket socket;                      // the connection to the gateway
+    private final DataOutputStream out;               // writes to the socket, only while writing is held
+    private final Map<Integer, CompletableFuture<Object>> pending = new ConcurrentHashMap<Integer, CompletableFuture<Object>>(); // requests not answered, by id
+    private final ConcurrentLinkedQueue<ByteBuffer> unsent = new ConcurrentLinkedQueue<ByteBuffer>(); // requests not written yet
+    private final AtomicBoolean writing = new AtomicBoolean(); // true while a thread writes the unsent requests
+    private final AtomicInteger nextId = new AtomicInteger(); // id of the next request
+    private volatile IOException failure;              // why the connection ended, null while it is open
+
+    /**
+     * connects to the gateway and starts the thread that reads the answers
+     * @param host the host of the frontend
+     * @param port the port of its gateway
+     * @throws IOException if the gateway cannot be reached
+     */
+    public BinaryClient(String host, int port) throws IOException {
+        socket = new Socket();
+        socket.setTcpNoDelay(true);
+        socket.connect(new InetSocketAddress(host, port));
+        out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 64 * 1024));
+        Thread reader = new Thread(this::readAnswers, "binary-client-" + host + ":" + port);
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * @param endpoint the host:port of the gateway
+     * @return a client connected to it
+     */
+    public static BinaryClient connect(String endpoint) throws IOException {
+        int colon = endpoint.lastIndexOf(':');
+        return new BinaryClient(endpoint.substring(0, colon), Integer.parseInt(endpoint.substring(colon + 1)));
+    }
+
+    // return the requests sent and not answered yet
+    public int inFlight() {
+        return pending.size();
+    }
+
+    @Override
+    public CompletableFuture<AuctionItem> getSpecAsync(int itemId) {
+        return send(BinaryProtocol.GET_SPEC, frame -> WireFormat.writeVarInt(frame, itemId));
+    }
+
+    @Override
+    public CompletableFuture<Integer> createItemAsync(int startingPrice, String description, int minimumPrice, String clientId) {
+        return createItemAsync(startingPrice, description, minimumPrice, clientId, 0);
+    }
+
+    @Override
+    public CompletableFuture<Integer> createItemAsync(int startingPrice, String description, int minimumPrice, String clientId, long duration) {
+        return send(BinaryProtocol.CREATE_ITEM, frame -> {
+            WireFormat.writeVarInt(frame, startingPrice);
+            WireFormat.writeString(frame, description);
+            WireFormat.writeVarInt(frame, minimumPrice);
+            WireFormat.writeString(frame, clientId);
+            WireFormat.writeVarLong(frame, duration);
+        });
+    }
+
+    @Override
+    public CompletableFuture<Hashtable<Integer, AuctionItem>> getListingsAsync() {
+        return send(BinaryProtocol.GET_LISTINGS, frame -> { });
+    }
+
+    @Override
+    public CompletableFuture<ListingsPage> getListingsPageAsync(int afterId, int limit, ListingsFilter filter) {
+        return send(BinaryProtocol.GET_LISTINGS_PAGE, frame -> {
+            WireFormat.writeVarInt(frame, afterId);
+            WireFormat.writeVarInt(frame, limit);
+            BinaryProtocol.writeFilter(frame, filter);
+        });
+    }
+
+    @Override
+    public CompletableFuture<ListingsPage> searchAsync(String query, ListingsFilter filter, int limit) {
+        return send(BinaryProtocol.SEARCH, frame -> {
+            WireFormat.writeString(frame, query);
+            BinaryProtocol.writeFilter(frame, filter);
+            WireFormat.writeVarInt(frame, limit);
+        });
+    }
+
+    @Override
+    public CompletableFuture<ListingsPage> getClientItemsAsync(String clientId, int views, int afterId, int limit) {
+        return send(BinaryProtocol.GET_CLIENT_ITEMS, frame -> writeClientPage(frame, clientId, views, afterId, limit));
+    }
+
+    @Override
+    public CompletableFuture<AuctionItem> getClosedAuctionAsync(int itemId) {
+        return send(BinaryProtocol.GET_CLOSED_AUCTION, frame -> WireFormat.writeVarInt(frame, itemId));
+    }
+
+    @Override
+    public CompletableFuture<ListingsPage> getClosedAuctionsAsync(String clientId, int views, int afterId, int limit) {
+        return send(BinaryProtocol.GET_CLOSED_AUCTIONS, frame -> writeClientPage(frame, clientId, views, afterId, limit));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> checkClientIdAsync(String id) {
+        return send(BinaryProtocol.CHECK_CLIENT_ID, frame -> WireFormat.writeString(frame, id));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> bidAsync(int id, int price, String name, String email, String buyerId) {
+        return send(BinaryProtocol.BID, frame -> {
+            WireFormat.writeVarInt(frame, id);
+            WireFormat.writeVarInt(frame, price);
+            WireFormat.writeString(frame, name);
+            WireFormat.writeString(frame, email);
+            WireFormat.writeString(frame, buyerId);
+        });
+    }
+
+    @Override
+    public CompletableFuture<AuctionItem> closeItemAsync(int key) {
+        return send(BinaryProtocol.CLOSE_ITEM, frame -> WireFormat.writeVarInt(frame, key));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> checkItemNonExistentAsync(int id) {
+        return send(BinaryProtocol.CHECK_ITEM_NON_EXISTENT, frame -> WireFormat.writeVarInt(frame, id));
+    }
+
+    // the arguments of getClientItems and getClosedAuctions
+    private static void writeClientPage(DataOutputStream frame, String clientId, int views, int afterId, int limit) throws IOException {
+        WireFormat.writeString(frame, clientId);
+        WireFormat.writeVarInt(frame, views);
+        WireFormat.writeVarInt(frame, afterId);
+        WireFormat.writeVarInt(frame, limit);
+    }
+
+    /**
+     * writes the arguments of a request into its frame
+     */
+    private interface Arguments {
+        void write(DataOutputStream frame) throws IOException;
+    }
+
+    /**
+     * sends one request
+     * @param operation the operation of the request
+     * @param arguments writes its arguments
+     * @return the future of the answer, it fails if the gateway answers with an error or the connection ends first
+     */
+    @SuppressWarnings("unchecked")
+    private <T> CompletableFuture<T> send(byte operation, Arguments arguments) {
+        CompletableFuture<Object> future = new CompletableFuture<Object>();
+        int requestId = nextId.getAndIncrement();
+        try {
+            BinaryProtocol.Frame frame = new BinaryProtocol.Frame(requestId, operation);
+            arguments.write(frame.out);
+            pending.put(requestId, future);
+            if (failure != null) {
+                throw failure;
+            }
+            unsent.add(frame.finish());
+            flush();
+        } catch (IOException e) {
+            pending.remove(requestId);
+            future.completeExceptionally(e);
+        }
+        return (CompletableFuture<T>) future;
+    }
+
+    /**
+     * writes the requests not sent yet, unless another thread is writing them. that thread looks again once it is
+     * done, so a request is never left behind, and the requests made meanwhile go out in one flush
+     */
+    private void flush() throws IOException {
+        while (!unsent.isEmpty() && writing.compareAndSet(false, true)) {
+            try {
+                for (ByteBuffer frame; (frame = unsent.poll()) != null; ) {
+                    out.write(frame.array(), 0, frame.limit());
+                }
+                out.flush();
+            } catch (IOException e) {
+                fail(e);
+                throw e;
+            } finally {
+                writing.set(false);
+            }
+        }
+    }
+
+    // the reader thread, completes the future of each answer until the connection ends
+    private void readAnswers() {
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 64 * 1024));
+            while (true) {
+                int length = in.readInt();
+                if (length < BinaryProtocol.HEADER - 4 || length > BinaryProtocol.MAX_FRAME) {
+                    throw new IOException("bad frame length " + length);
+                }
+                int requestId = in.readInt();
+                byte status = in.readByte();
+                byte[] body = new byte[length - 5];
+                in.readFully(body);
+                CompletableFuture<Object> future = pending.remove(requestId);
+                if (future == null) {
+                    continue;
+                }
+                DataInputStream value = new DataInputStream(new ByteArrayInputStream(body));
+                try {
+                    if (status == BinaryProtocol.OK) {
+                        future.complete(BinaryProtocol.readValue(value));
+                    } else {
+                        future.completeExceptionally(new IOException("gateway: " + WireFormat.readString(value)));
+                    }
+                } catch (IOException e) {
+                    future.completeExceptionally(e);
+                }
+            }
+        } catch (EOFException e) {
+            fail(new EOFException("the gateway closed the connection"));
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    // ends the connection and fails every request not answered
+    private void fail(IOException cause) {
+        if (failure == null) {
+            failure = cause;
+        }
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // already closed
+        }
+        for (Integer requestId : pending.keySet()) {
+            CompletableFuture<Object> future = pending.remove(requestId);
+            if (future != null) {
+                future.completeExceptionally(failure);
+            }
+        }
+    }
+
+    /**
+     * closes the connection, the requests not answered yet fail
+     */
+    @Override
+    public void close() {
+        fail(new IOException("client closed"));
+    }
+}
@@ -0,0 +1,380 @@
+import java.io.ByteArrayInputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.BindException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class is a second way into a Frontend, beside RMI, for clients that keep many requests going at once
+ * such as automated bidders. it listens on TCP and speaks the BinaryProtocol: a request is handed to its
+ * AsyncItem method as soon as it is read and answered when the future completes, so one connection can have
+ * many requests in flight and the answers go back in the order they are ready in, with the id of their request.
+ * one thread runs a selector over every connection. the answers are encoded by the thread that completes the
+ * future and written by the selector thread, several in one write. a connection with MAX_IN_FLIGHT requests
+ * unanswered is not read from until some are answered, so TCP holds back a client that sends faster than the
+ * backends answer. there are no subscriptions, clients that want events use RMI.
+ */
+public class BinaryGateway implements Runnable {
+    static final int MAX_IN_FLIGHT = System.getenv("GATEWAY_MAX_IN_FLIGHT") == null ? 1024 : Integer.parseInt(System.getenv("GATEWAY_MAX_IN_FLIGHT")); // unanswered requests a connection may have
+    private static final int READ_BUFFER = 64 * 1024; // bytes read at once, a longer frame grows the buffer of its connection
+    private static final int WRITE_BATCH = 64;        // answers written in one call, at most
+    private static final int MIN_FRAME = BinaryProtocol.HEADER - 4; // length of a request without arguments, the id and the operation
+
+    private final AsyncItem item;                    // the frontend the requests are passed to
+    private final ServerSocketChannel server;        // accepts the connections
+    private final Selector selector;                 // tells the gateway thread which connections can be read and written
+    private final int port;                          // port the gateway listens on
+    private final ConcurrentLinkedQueue<Connection> ready = new ConcurrentLinkedQueue<Connection>(); // connections with answers to write
+    private final AtomicBoolean woken = new AtomicBoolean(); // true if the selector was woken and has not looked at ready yet
+    private final Set<Connection> connections = ConcurrentHashMap.newKeySet(); // connections open
+    private final LongAdder requests;                // requests read
+    private final LongAdder errors;                  // requests answered with an error
+
+    /**
+     * opens the gateway on the first free port from the one given and starts its thread
+     * @param item where the requests are sent
+     * @param port the first port tried
+     * @param ports the number of ports tried from it
+     * @param metrics where the requests, errors and connections are counted
+     * @return the gateway, running
+     * @throws IOException if none of the ports is free
+     */
+    static BinaryGateway open(AsyncItem item, int port, int ports, Metrics metrics) throws IOException {
+        for (int p = port; p < port + ports; p++) {
+            ServerSocketChannel server = ServerSocketChannel.open();
+            try {
+                server.bind(new InetSocketAddress(p));
+            } catch (BindException e) {
+                // another frontend has this port
+                server.close();
+                continue;
+            }
+            BinaryGateway gateway = new BinaryGateway(item, server, p, metrics);
+            Thread thread = new Thread(gateway, "binary-gateway");
+            thread.setDaemon(true);
+            thread.start();
+            return gateway;
+        }
+        throw new BindException("no free gateway port from " + port + " to " + (port + ports - 1));
+    }
+
+    private BinaryGateway(AsyncItem item, ServerSocketChannel server, int port, Metrics metrics) throws IOException {
+        this.item = item;
+        this.server = server;
+        this.port = port;
+        this.selector = Selector.open();
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+        this.requests = metrics.counter("gateway.requests");
+        this.errors = metrics.counter("gateway.errors");
+        metrics.gauge("gateway.connections", () -> connections.size());
+    }
+
+    // return the port the gateway listens on
+    int getPort() {
+        return port;
+    }
+
+    /**
+     * the state of one client connection, the input and paused are only touched by the gateway thread
+     */
+    private final class Connection {
+        private final SocketChannel channel;
+        private SelectionKey key;
+        private ByteBuffer input = ByteBuffer.allocate(READ_BUFFER);        // bytes read and not handled yet
+        private final ConcurrentLinkedQueue<ByteBuffer> output = new ConcurrentLinkedQueue<ByteBuffer>(); // answers not written yet
+        private final ByteBuffer[] batch = new ByteBuffer[WRITE_BATCH];     // answers of one write
+        private final AtomicInteger inFlight = new AtomicInteger();         // requests read and not answered
+        private final AtomicBoolean queued = new AtomicBoolean();           // true while the connection is in ready
+        private boolean paused;                                             // true if reading stopped at MAX_IN_FLIGHT
+        private volatile boolean closed;
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+    }
+
+    /**
+     * the gateway thread, accepts connections, reads requests and writes answers until the gateway is closed
+     */
+    @Override
+    public void run() {
+        System.out.println("Binary gateway listening on port " + port);
+        while (server.isOpen()) {
+            try {
+                selector.select();
+                woken.set(false);
+                for (Connection connection; (connection = ready.poll()) != null; ) {
+                    update(connection);
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (key.attachment() == null) {
+                        accept();
+                        continue;
+                    }
+                    Connection connection = (Connection) key.attachment();
+                    try {
+                        if (key.isValid() && key.isReadable()) {
+                            read(connection);
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            write(connection);
+                        }
+                    } catch (IOException e) {
+                        // the client left or sent something that is not a frame
+                        close(connection);
+                    }
+                }
+            } catch (Exception e) {
+                System.err.println("gateway exception:");
+                e.printStackTrace();
+            }
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            // nothing left to release
+        }
+    }
+
+    // accepts every connection waiting
+    private void accept() throws IOException {
+        for (SocketChannel channel; (channel = server.accept()) != null; ) {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            Connection connection = new Connection(channel);
+            connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+            connections.add(connection);
+        }
+    }
+
+    // reads what the client sent and handles the complete requests
+    private void read(Connection connection) throws IOException {
+        if (connection.channel.read(connection.input) < 0) {
+            close(connection);
+            return;
+        }
+        handle(connection);
+    }
+
+    /**
+     * starts every complete request in the input of the connection, stops reading it if it has MAX_IN_FLIGHT
+     * requests unanswered. the requests left are started when answers bring it below
+     */
+    private void handle(Connection connection) throws IOException {
+        ByteBuffer input = connection.input;
+        input.flip();
+        int needed = 0;
+        while (input.remaining() >= 4) {
+            if (connection.inFlight.get() >= MAX_IN_FLIGHT) {
+                connection.paused = true;
+                connection.key.interestOps(connection.key.interestOps() & ~SelectionKey.OP_READ);
+                break;
+            }
+            int length = input.getInt(input.position());
+            if (length < MIN_FRAME || length > BinaryProtocol.MAX_FRAME) {
+                throw new IOException("bad frame length " + length);
+            }
+            if (input.remaining() < 4 + length) {
+                needed = 4 + length;
+                break;
+            }
+            int start = input.position() + 4;
+            int requestId = input.getInt(start);
+            byte operation = input.get(start + 4);
+            DataInput arguments = new DataInputStream(new ByteArrayInputStream(input.array(), start + 5, length - 5));
+            input.position(start + length);
+            start(connection, requestId, operation, arguments);
+        }
+        input.compact();
+        if (needed > input.capacity()) {
+            ByteBuffer larger = ByteBuffer.allocate(needed);
+            input.flip();
+            larger.put(input);
+            connection.input = larger;
+        }
+    }
+
+    // passes one request to the frontend, it is answered when the future completes
+    private void start(Connection connection, int requestId, byte operation, DataInput arguments) {
+        requests.increment();
+        connection.inFlight.incrementAndGet();
+        CompletableFuture<?> future;
+        try {
+            future = call(operation, arguments);
+        } catch (Exception e) {
+            future = CompletableFuture.failedFuture(e);
+        }
+        future.whenComplete((result, failure) -> answer(connection, requestId, result, failure));
+    }
+
+    /**
+     * reads the arguments of a request and calls the AsyncItem method of its operation
+     * @return the future of the method
+     */
+    private CompletableFuture<?> call(byte operation, DataInput in) throws IOException {
+        switch (operation) {
+            case BinaryProtocol.GET_SPEC:
+                return item.getSpecAsync(WireFormat.readVarInt(in));
+            case BinaryProtocol.CREATE_ITEM:
+                return item.createItemAsync(WireFormat.readVarInt(in), WireFormat.readString(in), WireFormat.readVarInt(in),
+                        WireFormat.readString(in), WireFormat.readVarLong(in));
+            case BinaryProtocol.GET_LISTINGS:
+                return item.getListingsAsync();
+            case BinaryProtocol.GET_LISTINGS_PAGE:
+                return item.getListingsPageAsync(WireFormat.readVarInt(in), WireFormat.readVarInt(in), BinaryProtocol.readFilter(in));
+            case BinaryProtocol.SEARCH:
+                return item.searchAsync(WireFormat.readString(in), BinaryProtocol.readFilter(in), WireFormat.readVarInt(in));
+            case BinaryProtocol.GET_CLIENT_ITEMS:
+                return item.getClientItemsAsync(WireFormat.readString(in), WireFormat.readVarInt(in), WireFormat.readVarInt(in),
+                        WireFormat.readVarInt(in));
+            case BinaryProtocol.GET_CLOSED_AUCTION:
+                return item.getClosedAuctionAsync(WireFormat.readVarInt(in));
+            case BinaryProtocol.GET_CLOSED_AUCTIONS:
+                return item.getClosedAuctionsAsync(WireFormat.readString(in), WireFormat.readVarInt(in), WireFormat.readVarInt(in),
+                        WireFormat.readVarInt(in));
+            case BinaryProtocol.CHECK_CLIENT_ID:
+                return item.checkClientIdAsync(WireFormat.readString(in));
+            case BinaryProtocol.BID:
+                return item.bidAsync(WireFormat.readVarInt(in), WireFormat.readVarInt(in), WireFormat.readString(in),
+                        WireFormat.readString(in), WireFormat.readString(in));
+            case BinaryProtocol.CLOSE_ITEM:
+                return item.closeItemAsync(WireFormat.readVarInt(in));
+            case BinaryProtocol.CHECK_ITEM_NON_EXISTENT:
+                return item.checkItemNonExistentAsync(WireFormat.readVarInt(in));
+            default:
+                throw new IOException("unknown operation " + operation);
+        }
+    }
+
+    // encodes the answer of a request and hands it to the gateway thread to write, runs on the thread that completed it
+    private void answer(Connection connection, int requestId, Object result, Throwable failure) {
+        connection.inFlight.decrementAndGet();
+        if (connection.closed) {
+            return;
+        }
+        ByteBuffer frame;
+        try {
+            if (failure == null) {
+                BinaryProtocol.Frame ok = new BinaryProtocol.Frame(requestId, BinaryProtocol.OK);
+                BinaryProtocol.writeValue(ok.out, result);
+                frame = ok.finish();
+            } else {
+                frame = error(requestId, failure);
+            }
+        } catch (IOException e) {
+            frame = error(requestId, e);
+        }
+        connection.output.add(frame);
+        if (connection.queued.compareAndSet(false, true)) {
+            ready.add(connection);
+            if (woken.compareAndSet(false, true)) {
+                selector.wakeup();
+            }
+        }
+    }
+
+    // return an ERROR answer with the message of the failure
+    private ByteBuffer error(int requestId, Throwable failure) {
+        errors.increment();
+        Throwable cause = failure instanceof CompletionException && failure.getCause() != null ? failure.getCause() : failure;
+        try {
+            BinaryProtocol.Frame frame = new BinaryProtocol.Frame(requestId, BinaryProtocol.ERROR);
+            WireFormat.writeString(frame.out, cause.toString());
+            return frame.finish();
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // writing to memory does not fail
+        }
+    }
+
+    // writes the answers of a connection and starts the requests that waited for answers, on the gateway thread
+    private void update(Connection connection) {
+        connection.queued.set(false);
+        if (connection.closed) {
+            return;
+        }
+        try {
+            write(connection);
+            if (connection.paused && connection.inFlight.get() < MAX_IN_FLIGHT) {
+                connection.paused = false;
+                connection.key.interestOps(connection.key.interestOps() | SelectionKey.OP_READ);
+                handle(connection);
+            }
+        } catch (IOException e) {
+            close(connection);
+        }
+    }
+
+    /**
+     * writes as many answers of the connection as the socket takes, and asks the selector to tell
+     * when it can take more if some are left
+     */
+    private void write(Connection connection) throws IOException {
+        ByteBuffer[] batch = connection.batch;
+        while (true) {
+            int count = 0;
+            for (ByteBuffer frame : connection.output) {
+                batch[count++] = frame;
+                if (count == batch.length) {
+                    break;
+                }
+            }
+            if (count == 0) {
+                break;
+            }
+            connection.channel.write(batch, 0, count);
+            while (!connection.output.isEmpty() && !connection.output.peek().hasRemaining()) {
+                connection.output.poll();
+            }
+            boolean full = batch[count - 1].hasRemaining();
+            Arrays.fill(batch, 0, count, null);
+            if (full) {
+                break;
+            }
+        }
+        int ops = connection.key.interestOps();
+        connection.key.interestOps(connection.output.isEmpty() ? ops & ~SelectionKey.OP_WRITE : ops | SelectionKey.OP_WRITE);
+    }
+
+    // closes a connection, the answers of its requests still running are dropped
+    private void close(Connection connection) {
+        connection.closed = true;
+        connections.remove(connection);
+        connection.key.cancel();
+        try {
+            connection.channel.close();
+        } catch (IOException e) {
+            // already closed
+        }
+    }
+
+    /**
+     * stops accepting requests and closes every connection
+     */
+    void close() throws IOException {
+        server.close();
+        for (Connection connection : connections) {
+            close(connection);
+        }
+        selector.wakeup();
+    }
+}
@@ -0,0 +1,155 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Hashtable;
+
+/**
+ * This class holds the frames and values of the binary protocol spoken between a BinaryClient and the
+ * BinaryGateway of a Frontend. every frame starts with its length in 4 bytes, not counting them, then the
+ * id of the request in 4 bytes and one byte: the operation in a request, the status in an answer.
+ * the arguments of a request follow in the order of the AsyncItem method, ints and longs as varints and strings
+ * and filters as WireFormat writes them. an OK answer is followed by a value, which starts with a byte that
+ * says what it is, an ERROR answer by the message of the failure.
+ * the ids are chosen by the client, the gateway only sends them back, so answers can come in any order.
+ */
+public class BinaryProtocol {
+    // operations, one per AsyncItem method
+    static final byte GET_SPEC = 1;
+    static final byte CREATE_ITEM = 2;
+    static final byte GET_LISTINGS = 3;
+    static final byte GET_LISTINGS_PAGE = 4;
+    static final byte SEARCH = 5;
+    static final byte GET_CLIENT_ITEMS = 6;
+    static final byte GET_CLOSED_AUCTION = 7;
+    static final byte GET_CLOSED_AUCTIONS = 8;
+    static final byte CHECK_CLIENT_ID = 9;
+    static final byte BID = 10;
+    static final byte CLOSE_ITEM = 11;
+    static final byte CHECK_ITEM_NON_EXISTENT = 12;
+
+    // status of an answer
+    static final byte OK = 0;
+    static final byte ERROR = 1;
+
+    // first byte of a value
+    private static final byte NULL = 0;
+    private static final byte FALSE = 1;
+    private static final byte TRUE = 2;
+    private static final byte INT = 3;
+    private static final byte ITEM = 4;
+    private static final byte PAGE = 5;
+    private static final byte LISTINGS = 6;
+
+    static final int HEADER = 9;                 // bytes of the length, id and operation or status
+    static final int MAX_FRAME = 64 << 20;       // longest frame either side accepts, the full listings are the largest
+
+    /**
+     * the bytes of one frame as it is written, the length is filled in by finish
+     */
+    static final class Frame extends ByteArrayOutputStream {
+        final DataOutputStream out = new DataOutputStream(this); // where the arguments or the value are written
+
+        Frame(int requestId, byte code) throws IOException {
+            super(64);
+            out.writeInt(0);
+            out.writeInt(requestId);
+            out.writeByte(code);
+        }
+
+        // return the frame ready to be sent, without copying it
+        ByteBuffer finish() {
+            ByteBuffer frame = ByteBuffer.wrap(buf, 0, count);
+            frame.putInt(0, count - 4);
+            return frame;
+        }
+    }
+
+    /**
+     * writes an answer the client can read without knowing the operation
+     * @param out where to write
+     * @param value an AuctionItem, ListingsPage, listings hashtable, Boolean, Integer or null
+     */
+    static void writeValue(DataOutput out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(NULL);
+        } else if (value instanceof Boolean) {
+            out.writeByte((Boolean) value ? TRUE : FALSE);
+        } else if (value instanceof Integer) {
+            out.writeByte(INT);
+            WireFormat.writeVarInt(out, (Integer) value);
+        } else if (value instanceof AuctionItem) {
+            out.writeByte(ITEM);
+            ((AuctionItem) value).write(out, null);
+        } else if (value instanceof ListingsPage) {
+            out.writeByte(PAGE);
+            ((ListingsPage) value).write(out);
+        } else if (value instanceof Hashtable) {
+            @SuppressWarnings("unchecked")
+            Hashtable<Integer, AuctionItem> listings = (Hashtable<Integer, AuctionItem>) value;
+            WireFormat.StringTable strings = new WireFormat.StringTable();
+            out.writeByte(LISTINGS);
+            WireFormat.writeVarInt(out, listings.size());
+            for (AuctionItem item : listings.values()) {
+                item.write(out, strings);
+            }
+        } else {
+            throw new IOException("cannot write a " + value.getClass().getName());
+        }
+    }
+
+    // reads a value written by writeValue
+    static Object readValue(DataInput in) throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+            case NULL:
+                return null;
+            case FALSE:
+                return Boolean.FALSE;
+            case TRUE:
+                return Boolean.TRUE;
+            case INT:
+                return WireFormat.readVarInt(in);
+            case ITEM:
+                AuctionItem item = new AuctionItem();
+                item.read(in, null);
+                return item;
+            case PAGE:
+                ListingsPage page = new ListingsPage();
+                page.read(in);
+                return page;
+            case LISTINGS:
+                WireFormat.StringTable strings = new WireFormat.StringTable();
+                int count = WireFormat.readVarInt(in);
+                Hashtable<Integer, AuctionItem> listings = new Hashtable<Integer, AuctionItem>(Math.max(11, count * 4 / 3 + 1));
+                for (int i = 0; i < count; i++) {
+                    AuctionItem listed = new AuctionItem();
+                    listed.read(in, strings);
+                    listings.put(listed.getItemId(), listed);
+                }
+                return listings;
+            default:
+                throw new IOException("unknown value type " + type);
+        }
+    }
+
+    // writes a filter that may be null
+    static void writeFilter(DataOutput out, ListingsFilter filter) throws IOException {
+        out.writeBoolean(filter != null);
+        if (filter != null) {
+            filter.write(out);
+        }
+    }
+
+    // reads a filter written by writeFilter
+    static ListingsFilter readFilter(DataInput in) throws IOException {
+        if (!in.readBoolean()) {
+            return null;
+        }
+        ListingsFilter filter = new ListingsFilter();
+        filter.read(in);
+        return filter;
+    }
+}
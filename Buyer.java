@@ -1,18 +1,47 @@
-import java.rmi.registry.LocateRegistry;
-import java.rmi.registry.Registry;
+import java.rmi.RemoteException;
+import java.rmi.server.UnicastRemoteObject;
 import java.util.*;
 import java.util.Scanner;
 
 /**
  * Buyer program that implements an application to deal with client requests
- * such as viewing auction items and bidding on them.
+ * such as viewing auction items and bidding on them. the page shown is kept current
+ * by the events the frontend pushes, it is only read again to move to another page.
  */
 public class Buyer{
+    private static final int PAGE_SIZE = 20; // number of items shown at once
+
+    /**
+     * applies the changes the frontend pushes to the items of the page shown, the next prompt prints them
+     */
+    private static class PageListener extends UnicastRemoteObject implements AuctionListener {
+        private static final long serialVersionUID = 1L;
+
+        private final Map<Integer, AuctionItem> shown; // the items of the page shown, by id
+
+        PageListener(Map<Integer, AuctionItem> shown) throws RemoteException {
+            super();
+            this.shown = shown;
+        }
+
+        public void onEvents(ArrayList<AuctionEvent> events) {
+            for (AuctionEvent event : events) {
+                if (event.getType() == AuctionEvent.CLOSED) {
+                    shown.remove(event.getItemId());
+                } else {
+                    AuctionItem item = shown.get(event.getItemId());
+                    if (item != null) {
+                        item.setCurrentHighestBid(event.getPrice());
+                    }
+                }
+            }
+        }
+    }
+
     public Buyer(){
         try {
-            String name = "myserver";
-            Registry registry = LocateRegistry.getRegistry("127.0.0.1");
-            Item server = (Item) registry.lookup(name);
+            // the frontends of the "FRONTENDS" env var and the others of their cluster, each call goes to the least busy
+            Item server = ItemProxy.connect();
 
             Random r = new Random();
             // assign the buyer an id which is composed of Buyer string and a number
@@ -30,21 +59,47 @@ public class Buyer{
             System.out.println("Email");
             String clienEmail = scanner.nextLine();
 
+            // id after which the page shown starts, 0 for the first page
+            int pageStart = 0;
+            ListingsPage page = null;
+            // the items of the page shown, kept current by the events of the frontend
+            Map<Integer, AuctionItem> shown = Collections.synchronizedMap(new LinkedHashMap<Integer, AuctionItem>());
+            PageListener listener = new PageListener(shown);
             // continue asking the user for input on what they want to perform next
             while(true){
-                // accessing the current listings and store them in a list
-                List<AuctionItem> items = new ArrayList<AuctionItem>(server.getListings().values());
+                if (page == null) {
+                    // accessing one page of the current listings instead of all of them, then following its items
+                    page = server.getListingsPage(pageStart, PAGE_SIZE);
+                    server.unsubscribe(listener);
+                    server.subscribeClient(buyerId, listener);
+                    shown.clear();
+                    for (AuctionItem item : page.getItems()) {
+                        shown.put(item.getItemId(), item);
+                        server.subscribeItem(item.getItemId(), listener);
+                    }
+                }
+                List<AuctionItem> items;
+                synchronized (shown) {
+                    items = new ArrayList<AuctionItem>(shown.values());
+                }
                 System.out.println("here are the available items for bidding: ");
                 // print the current available auctions to the buyer
                 System.out.println("Item id    //    Item description    //   Current highest bid");
                 for(int i=0; i< items.size(); i++) {
                     System.out.println(items.get(i).getItemId() + "         //        "+items.get(i).getItemDescription()+"       //         "+ items.get(i).getCurrentHighestBid());
                 }
-                System.out.println("If you would like to place a bet on a certain item type bid"+
+                System.out.println((page.hasMore() ? "type next to see more items\n" : "") +
+                                    "If you would like to place a bet on a certain item type bid, to see your bids type mybids,"+
+                                    "\nto see how a closed auction ended type result"+
                                     "\notherwise type exit to leave the page! Thanks for stopping by <3");
                 // if the answer is provided in upper case, force lower case
                 String answer = new Scanner(System.in).nextLine().toLowerCase();
                 switch (answer) {
+                    case("next"):
+                        // show the following page, or go back to the first one after the last page
+                        pageStart = page.hasMore() ? page.getNextCursor() : 0;
+                        page = null;
+                        break;
                     case("bid"):
                         // ask the Buyer to specify the item id to bid for
                         System.out.println("Enter the id of the item you want to bid for");
@@ -58,17 +113,43 @@ public class Buyer{
                             // specify the price you want to bid for
                             int biddingPrice = scanner.nextInt();
                             // check if the price provided is higher than the current highest
-                            while(biddingPrice <= server.getListings().get(biddingItemId).getCurrentHighestBid()){
+                            while(biddingPrice <= server.getSpec(biddingItemId).getCurrentHighestBid()){
                                 System.out.println("Please enter a price that is higher than the current highest :)");
                                 biddingPrice = scanner.nextInt();
                             }
-                            // add the bidding price to the specfied item
-                            server.bid(biddingItemId, biddingPrice, clientName, clienEmail, buyerId);
+                            // add the bidding price to the specfied item, another buyer may have bid higher in the meantime
+                            if(!server.bid(biddingItemId, biddingPrice, clientName, clienEmail, buyerId)){
+                                System.out.println("your bid was not accepted, the item was closed or someone bid higher first");
+                                break;
+                            }
                             // confirm bid
                             System.out.println("bidding confirmed for item with id: " + biddingItemId + 
-                                            "\nwith a price of: "+ server.getListings().get(biddingItemId).getCurrentHighestBid());
+                                            "\nwith a price of: "+ server.getSpec(biddingItemId).getCurrentHighestBid());
                             break;
                         }
+                    case("mybids"):
+                        // the open items the buyer bid on, then the latest ones the buyer won
+                        ListingsPage bids = server.getClientItems(buyerId, Item.BIDDING, 0, PAGE_SIZE);
+                        for (AuctionItem item : bids.getItems()) {
+                            System.out.println(item.getItemId() + "  //  " + item.getItemDescription() + "  //  " + item.getCurrentHighestBid()
+                                    + (buyerId.equals(item.getBuyerId()) ? "  //  you lead" : "  //  outbid"));
+                        }
+                        for (AuctionItem item : server.getClientItems(buyerId, Item.WON, 0, PAGE_SIZE).getItems()) {
+                            System.out.println(item.getItemId() + "  //  " + item.getItemDescription() + "  //  won at " + item.getCurrentHighestBid());
+                        }
+                        break;
+                    case("result"):
+                        // closed auctions are read from the archive of the backends, however long ago they closed
+                        System.out.println("Enter the id of the closed item");
+                        AuctionItem result = server.getClosedAuction(scanner.nextInt());
+                        if (result == null) {
+                            System.out.println("This item has not closed or does not exist!");
+                        } else {
+                            boolean sold = result.getBuyerId() != null && result.getCurrentHighestBid() >= result.getItemMinimumPrice();
+                            System.out.println(result.getItemId() + "  //  " + result.getItemDescription() + "  //  " + (sold ? "sold at "
+                                    + result.getCurrentHighestBid() + (buyerId.equals(result.getBuyerId()) ? " to you" : "") : "not sold"));
+                        }
+                        break;
                     case("exit"):
                         // stop the program if the user wants to exit
                         System.exit(1);
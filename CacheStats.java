@@ -0,0 +1,38 @@
+import java.io.Serializable;
+
+/**
+ * This class holds the counters of the read cache of a frontend, so its size and
+ * staleness can be tuned.
+ */
+public class CacheStats implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    long hits;            // reads answered from the cache
+    long misses;          // reads sent to the backends
+    long evictions;       // entries dropped because the cache was full
+    long invalidations;   // entries dropped because a write changed their items
+    long flushes;         // times every entry was dropped because other frontends wrote
+    long versionChecks;   // times the state version was asked from the backends
+    long totalHitAgeMs;   // sum of the ages of the entries served, in ms
+    long maxHitAgeMs;     // age of the oldest entry served, in ms
+    int size;             // entries in the cache
+    int capacity;         // most entries kept
+
+    // return the share of reads answered from the cache
+    public double getHitRate() {
+        return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+    }
+
+    // return the average age of the entries served, in ms
+    public double getAverageHitAgeMs() {
+        return hits == 0 ? 0 : (double) totalHitAgeMs / hits;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("hit rate %.1f%% (%d hits, %d misses), %d/%d entries, %d evictions, %d invalidations, "
+                + "%d flushes, %d version checks, served entries %.1f ms old on average and %d ms at most",
+                getHitRate() * 100, hits, misses, size, capacity, evictions, invalidations,
+                flushes, versionChecks, getAverageHitAgeMs(), maxHitAgeMs);
+    }
+}
@@ -0,0 +1,368 @@
+import java.io.Serializable;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * This class indexes the activity of each client of a backend: the open items it sells, the open items
+ * it bid on and the latest auctions it closed or won. an item is listed once per client however many
+ * times the client bids on it, and an item leaves the open views as soon as it closes, so the index
+ * grows with the live auctions and not with the bids. a closed auction is kept as a compact ClosedAuction
+ * in the history of its seller, and of its buyer if it was sold, and only the "CLIENT_HISTORY" latest ones
+ * (default 100) of each client are kept. the clients that lost an auction keep nothing of it, and a client
+ * left with no open item and no history is taken out of the index.
+ * the open views only keep the ids of the items, which are read from the store of the backend for a page.
+ */
+public class ClientIndex {
+    private static final int HISTORY = System.getenv("CLIENT_HISTORY") == null ? 100 : Integer.parseInt(System.getenv("CLIENT_HISTORY"));
+    private static final String[] NONE = new String[0];
+
+    private final ConcurrentHashMap<String, Activity> clients = new ConcurrentHashMap<String, Activity>(); // activity of each client id
+    private final ConcurrentHashMap<Integer, String[]> bidders = new ConcurrentHashMap<Integer, String[]>(); // clients that bid on each open item, to drop it from their views once it closes
+
+    /**
+     * the activity of one client, guarded by itself
+     */
+    private static final class Activity {
+        final TreeSet<Integer> selling = new TreeSet<Integer>();                    // ids of the open items the client sells
+        final TreeSet<Integer> bidding = new TreeSet<Integer>();                    // ids of the open items the client bid on
+        final ArrayDeque<ClosedAuction> history = new ArrayDeque<ClosedAuction>(); // auctions it closed or won, oldest first
+        boolean removed;                                                            // true once taken out of the index, the client gets a new one if it comes back
+
+        boolean isEmpty() {
+            return selling.isEmpty() && bidding.isEmpty() && history.isEmpty();
+        }
+
+        synchronized void closed(ClosedAuction auction) {
+            while (history.size() >= HISTORY) {
+                history.removeFirst();
+            }
+            history.addLast(auction);
+        }
+    }
+
+    /**
+     * what is kept of an auction once it closed, the fields of the item without its bid history
+     */
+    static final class ClosedAuction implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        final int itemId;
+        final int startingPrice;
+        final int minimumPrice;
+        final int price;             // the highest bid it closed at
+        final String description;
+        final String sellerId;
+        final String buyerId;        // the client with the highest bid, null if nobody bid
+        final String name;           // name and email of the buyer, for the seller to reach them
+        final String email;
+
+        ClosedAuction(int itemId, int startingPrice, int minimumPrice, int price, String description, String sellerId,
+                String buyerId, String name, String email) {
+            this.itemId = itemId;
+            this.startingPrice = startingPrice;
+            this.minimumPrice = minimumPrice;
+            this.price = price;
+            this.description = description;
+            this.sellerId = sellerId;
+            this.buyerId = buyerId;
+            this.name = name;
+            this.email = email;
+        }
+
+        ClosedAuction(AuctionItem item) {
+            this(item.getItemId(), item.getItemStartingPrice(), item.getItemMinimumPrice(), item.getCurrentHighestBid(),
+                    item.getItemDescription(), item.getClientId(), item.getBuyerId(), item.getName(), item.getEmail());
+        }
+
+        // return true if the auction reached its minimum price with a buyer
+        boolean sold() {
+            return buyerId != null && price >= minimumPrice;
+        }
+
+        // return the auction as a closed item, for the pages of its clients
+        AuctionItem toItem() {
+            AuctionItem item = new AuctionItem(startingPrice, description, minimumPrice, sellerId);
+            item.setItemId(itemId);
+            item.placeBid(price, name, email, buyerId);
+            return item;
+        }
+    }
+
+    /**
+     * the activity of one client as it is written to a snapshot or sent to a joining backend:
+     * the ids of its open items, which point at the items of the receiving backend, and its history
+     */
+    static final class Record implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        final int[] selling;
+        final int[] bidding;
+        final ClosedAuction[] history;  // oldest first
+
+        Record(int[] selling, int[] bidding, ClosedAuction[] history) {
+            this.selling = selling;
+            this.bidding = bidding;
+            this.history = history;
+        }
+    }
+
+    /**
+     * applies a change to the activity of a client under its lock, adding the client if it is unknown.
+     * an activity taken out of the index meanwhile is not changed, the client is added again instead
+     * @param clientId the id of the client
+     * @param change the change, its result is returned
+     */
+    private boolean change(String clientId, Predicate<Activity> change) {
+        while (true) {
+            Activity activity = clients.computeIfAbsent(clientId, key -> new Activity());
+            synchronized (activity) {
+                if (!activity.removed) {
+                    return change.test(activity);
+                }
+            }
+        }
+    }
+
+    // takes a client out of the index once it has nothing left, the caller holds the lock of the activity
+    private void removeIfEmpty(String clientId, Activity activity) {
+        if (activity.isEmpty()) {
+            activity.removed = true;
+            clients.remove(clientId, activity);
+        }
+    }
+
+    /**
+     * @param item an item put up for auction, or copied from another backend
+     */
+    public void listed(AuctionItem item) {
+        change(item.getClientId(), seller -> seller.selling.add(item.getItemId()));
+    }
+
+    /**
+     * lists an open item among the items a client bid on, once however many times the client bids.
+     * the caller has to make sure the item is still open and is not closed meanwhile
+     * @param itemId the id of the item bid on
+     * @param buyerId the client that bid, whether or not the bid was accepted
+     */
+    public void bid(int itemId, String buyerId) {
+        if (buyerId == null) {
+            return;
+        }
+        if (!change(buyerId, buyer -> buyer.bidding.add(itemId))) {
+            return;
+        }
+        bidders.merge(itemId, new String[] { buyerId }, (known, added) -> {
+            String[] all = Arrays.copyOf(known, known.length + 1);
+            all[known.length] = added[0];
+            return all;
+        });
+    }
+
+    /**
+     * takes a closed item out of the open views of its clients and keeps it in the history of its seller,
+     * and of its buyer if it was sold
+     * @param item the item just closed
+     */
+    public void closed(AuctionItem item) {
+        // the history is added first, so a seller or buyer keeping the auction is not taken out of the index by the drop
+        ClosedAuction auction = new ClosedAuction(item);
+        change(auction.sellerId, seller -> {
+            seller.closed(auction);
+            return true;
+        });
+        if (auction.sold() && !auction.buyerId.equals(auction.sellerId)) {
+            change(auction.buyerId, buyer -> {
+                buyer.closed(auction);
+                return true;
+            });
+        }
+        drop(item);
+    }
+
+    /**
+     * takes an item out of the open views of its clients without keeping anything of it,
+     * for an item whose bucket another shard owns now
+     * @param item the item moved
+     */
+    public void moved(AuctionItem item) {
+        drop(item);
+    }
+
+    // takes an item out of the open views of its clients, and the clients left with nothing out of the index
+    private void drop(AuctionItem item) {
+        Activity seller = clients.get(item.getClientId());
+        if (seller != null) {
+            synchronized (seller) {
+                seller.selling.remove(item.getItemId());
+                removeIfEmpty(item.getClientId(), seller);
+            }
+        }
+        String[] buyers = bidders.remove(item.getItemId());
+        for (String buyerId : buyers == null ? NONE : buyers) {
+            Activity buyer = clients.get(buyerId);
+            if (buyer != null) {
+                synchronized (buyer) {
+                    buyer.bidding.remove(item.getItemId());
+                    removeIfEmpty(buyerId, buyer);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the clients that bid on an open item, to copy with the item to another shard
+     */
+    public String[] bidders(int itemId) {
+        return bidders.getOrDefault(itemId, NONE);
+    }
+
+    /**
+     * @param clientId the id of a client
+     * @return true if the client has open items, bids on open items or closed auctions here
+     */
+    public boolean contains(String clientId) {
+        return clients.containsKey(clientId);
+    }
+
+    /**
+     * @return the number of clients known
+     */
+    public int size() {
+        return clients.size();
+    }
+
+    /**
+     * returns a page of the activity of a client, in increasing id order
+     * @param clientId the id of the client
+     * @param views Item.SELLING, Item.BIDDING, Item.WON, Item.CLOSED, or several of them or-ed together
+     * @param afterId the cursor, 0 for the first page or the next cursor of the previous page
+     * @param limit the maximum number of items to return
+     * @param filter the conditions the items must also meet, null for none
+     * @param items the open items of the backend
+     * @return the page of items, the closed ones rebuilt from what their history keeps
+     */
+    public ListingsPage page(String clientId, int views, int afterId, int limit, ListingsFilter filter, AuctionStore items) {
+        ArrayList<AuctionItem> page = new ArrayList<AuctionItem>(Math.min(limit, 64));
+        Activity activity = clients.get(clientId);
+        if (activity == null) {
+            return new ListingsPage(page, afterId, false);
+        }
+        synchronized (activity) {
+            // the open views are walked in place, the closed auctions of the history slot in between by id
+            Iterator<Integer> selling = (views & Item.SELLING) != 0 ? activity.selling.tailSet(afterId, false).iterator() : null;
+            Iterator<Integer> bidding = (views & Item.BIDDING) != 0 ? activity.bidding.tailSet(afterId, false).iterator() : null;
+            TreeMap<Integer, AuctionItem> closed = new TreeMap<Integer, AuctionItem>();
+            if ((views & (Item.WON | Item.CLOSED)) != 0) {
+                for (ClosedAuction auction : activity.history) {
+                    boolean sold = clientId.equals(auction.sellerId) ? (views & Item.CLOSED) != 0
+                            : (views & Item.WON) != 0 && auction.sold();
+                    if (sold && auction.itemId > afterId) {
+                        closed.put(auction.itemId, auction.toItem());
+                    }
+                }
+            }
+            int nextSelling = next(selling);
+            int nextBidding = next(bidding);
+            while (true) {
+                // the lowest id left among the open views and the history
+                int itemId = Math.min(Math.min(nextSelling, nextBidding), closed.isEmpty() ? Integer.MAX_VALUE : closed.firstKey());
+                if (itemId == Integer.MAX_VALUE) {
+                    break;
+                }
+                if (itemId == nextSelling) {
+                    nextSelling = next(selling);
+                }
+                if (itemId == nextBidding) {
+                    nextBidding = next(bidding);
+                }
+                AuctionItem item = closed.remove(itemId);
+                if (item == null) {
+                    // null if the store has just let the item go and its close has not reached this index yet
+                    item = items.get(itemId);
+                }
+                if (item == null || filter != null && !filter.matches(item)) {
+                    continue;
+                }
+                if (page.size() == limit) {
+                    return new ListingsPage(page, page.get(limit - 1).getItemId(), true);
+                }
+                page.add(item);
+            }
+        }
+        return new ListingsPage(page, page.isEmpty() ? afterId : page.get(page.size() - 1).getItemId(), false);
+    }
+
+    /**
+     * @return the ids of every client known, in no particular order
+     */
+    public String[] clientIds() {
+        return clients.keySet().toArray(new String[0]);
+    }
+
+    /**
+     * @param clientId the id of a client
+     * @return a copy of the activity of the client, null if it is unknown
+     */
+    public Record record(String clientId) {
+        Activity activity = clients.get(clientId);
+        if (activity == null) {
+            return null;
+        }
+        synchronized (activity) {
+            return new Record(ids(activity.selling), ids(activity.bidding), activity.history.toArray(new ClosedAuction[0]));
+        }
+    }
+
+    // return the next id of the view, MAX_VALUE once it is done or if the view was not asked for
+    private static int next(Iterator<Integer> view) {
+        return view != null && view.hasNext() ? view.next() : Integer.MAX_VALUE;
+    }
+
+    private static int[] ids(TreeSet<Integer> items) {
+        int[] ids = new int[items.size()];
+        int i = 0;
+        for (int itemId : items) {
+            ids[i++] = itemId;
+        }
+        return ids;
+    }
+
+    /**
+     * sets the activity of a client from a snapshot or a transfer, its open items are looked up in the store given
+     * @param clientId the id of the client
+     * @param record the activity written by record
+     * @param items the open items, the ids no longer in it are left out
+     */
+    public void restore(String clientId, Record record, AuctionStore items) {
+        Activity activity = new Activity();
+        for (int itemId : record.selling) {
+            if (items.contains(itemId)) {
+                activity.selling.add(itemId);
+            }
+        }
+        clients.put(clientId, activity);
+        for (int itemId : record.bidding) {
+            if (items.contains(itemId)) {
+                bid(itemId, clientId);
+            }
+        }
+        synchronized (activity) {
+            for (ClosedAuction auction : record.history) {
+                activity.closed(auction);
+            }
+            removeIfEmpty(clientId, activity);
+        }
+    }
+
+    /**
+     * @return a copy of the activity of every client, for a snapshot
+     */
+    public Map<String, Record> records() {
+        Map<String, Record> records = new HashMap<String, Record>(clients.size() * 4 / 3 + 16);
+        for (String clientId : clients.keySet()) {
+            records.put(clientId, record(clientId));
+        }
+        return records;
+    }
+}
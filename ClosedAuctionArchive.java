@@ -0,0 +1,349 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * This class keeps every auction a backend closed in memory-mapped files next to its log, so a result can
+ * still be read long after the item left the store while the heap stays the same size however many auctions
+ * closed. an auction is a fixed-size record in "closed.records", appended in the order the auctions closed,
+ * whose strings (description, seller, buyer, name and email) are in "closed.strings". "closed.index" has the
+ * record of each item id at id * 4, and "closed.heads" the latest record of each of BUCKETS buckets of seller
+ * ids and of buyer ids. each record points at the previous record of its seller bucket, and of its buyer
+ * bucket if it was sold, so the auctions of a client are found by walking its chains from the newest.
+ * the files are not forced to disk: a crash of the process loses nothing, a crash of the machine can lose
+ * the latest records. an auction is archived once, so replaying the log after a restart adds nothing.
+ */
+public class ClosedAuctionArchive {
+    private static final int MAGIC = 0x41524348;     // first int of closed.records
+    private static final int HEADER = 16;            // magic, version and the number of records
+    private static final int RECORD = 80;            // bytes of a record, longs in it stay 8 byte aligned
+    private static final int BUCKETS = 1 << 18;      // buckets the sellers and the buyers are each hashed to
+    private static final long CHUNK = 1 << 26;       // bytes mapped at a time, a power of two so no int or long spans two
+    private static final int RECENT_STRINGS = 4096;  // strings whose offset is remembered, to write a seller or buyer once while they are active
+
+    // offsets of the fields in a record, strings are offsets in closed.strings, -1 for null
+    private static final int ITEM_ID = 0;
+    private static final int STARTING_PRICE = 4;
+    private static final int MINIMUM_PRICE = 8;
+    private static final int PRICE = 12;
+    private static final int CLOSED_AT = 16;
+    private static final int DESCRIPTION = 24;
+    private static final int SELLER_ID = 32;
+    private static final int BUYER_ID = 40;
+    private static final int NAME = 48;
+    private static final int EMAIL = 56;
+    private static final int PREVIOUS_SOLD = 64;  // record + 1 of the previous auction of the seller bucket, 0 if none
+    private static final int PREVIOUS_WON = 68;   // record + 1 of the previous auction won in the buyer bucket, 0 if none
+
+    private final MappedFile records; // header then one record per closed auction
+    private final MappedFile strings; // end of the strings then each string as an int length and its UTF-8 bytes
+    private final MappedFile index;   // record + 1 of each item id, 0 if it is not archived
+    private final MappedFile heads;   // latest record + 1 of each seller bucket, then of each buyer bucket
+    private volatile long count;      // number of records
+    private long stringsEnd;          // where the next string goes, guarded by this
+    private final Map<String, Long> recent = new LinkedHashMap<String, Long>(RECENT_STRINGS * 4 / 3, 0.75f, true) {
+        protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+            return size() > RECENT_STRINGS;
+        }
+    }; // offset of the strings written lately, guarded by this
+
+    /**
+     * a file mapped CHUNK bytes at a time. writes map the chunks they reach, growing the file,
+     * reads past the mapped chunks see zeros
+     */
+    private static final class MappedFile {
+        private final FileChannel channel;
+        private volatile MappedByteBuffer[] chunks = new MappedByteBuffer[0];
+
+        MappedFile(File file) throws IOException {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            long size = channel.size();
+            if (size > 0) {
+                chunk(size - 1, true);
+            }
+        }
+
+        // return the chunk holding the position, null if a read is past the mapped chunks
+        private MappedByteBuffer chunk(long position, boolean write) {
+            int number = (int) (position / CHUNK);
+            MappedByteBuffer[] mapped = chunks;
+            if (number < mapped.length) {
+                return mapped[number];
+            }
+            if (!write) {
+                return null;
+            }
+            synchronized (this) {
+                mapped = chunks;
+                if (number >= mapped.length) {
+                    MappedByteBuffer[] grown = Arrays.copyOf(mapped, number + 1);
+                    try {
+                        for (int i = mapped.length; i <= number; i++) {
+                            grown[i] = channel.map(FileChannel.MapMode.READ_WRITE, i * CHUNK, CHUNK);
+                        }
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    chunks = grown;
+                }
+                return chunks[number];
+            }
+        }
+
+        int getInt(long position) {
+            MappedByteBuffer chunk = chunk(position, false);
+            return chunk == null ? 0 : chunk.getInt((int) (position % CHUNK));
+        }
+
+        long getLong(long position) {
+            MappedByteBuffer chunk = chunk(position, false);
+            return chunk == null ? 0 : chunk.getLong((int) (position % CHUNK));
+        }
+
+        void putInt(long position, int value) {
+            chunk(position, true).putInt((int) (position % CHUNK), value);
+        }
+
+        void putLong(long position, long value) {
+            chunk(position, true).putLong((int) (position % CHUNK), value);
+        }
+
+        // bytes can span two chunks, they are copied a chunk at a time
+        void put(long position, byte[] bytes) {
+            for (int done = 0; done < bytes.length; ) {
+                int offset = (int) ((position + done) % CHUNK);
+                int length = (int) Math.min(bytes.length - done, CHUNK - offset);
+                chunk(position + done, true).put(offset, bytes, done, length);
+                done += length;
+            }
+        }
+
+        byte[] get(long position, int size) {
+            byte[] bytes = new byte[size];
+            for (int done = 0; done < size; ) {
+                int offset = (int) ((position + done) % CHUNK);
+                int length = (int) Math.min(size - done, CHUNK - offset);
+                chunk(position + done, false).get(offset, bytes, done, length);
+                done += length;
+            }
+            return bytes;
+        }
+
+        long size() throws IOException {
+            return channel.size();
+        }
+    }
+
+    private ClosedAuctionArchive(File directory) throws IOException {
+        records = new MappedFile(new File(directory, "closed.records"));
+        strings = new MappedFile(new File(directory, "closed.strings"));
+        index = new MappedFile(new File(directory, "closed.index"));
+        heads = new MappedFile(new File(directory, "closed.heads"));
+        if (records.size() == 0) {
+            records.putInt(0, MAGIC);
+            records.putInt(4, 1);
+            strings.putLong(0, 8);
+        } else if (records.getInt(0) != MAGIC) {
+            throw new IOException("not an archive of closed auctions: " + new File(directory, "closed.records"));
+        }
+        count = records.getLong(8);
+        stringsEnd = strings.getLong(0);
+        // a crash of the machine can keep a head written after a record that did not count, the next record would take its place
+        for (long head = 0; head < 2L * BUCKETS; head++) {
+            if ((heads.getInt(head * 4) & 0xFFFFFFFFL) > count) {
+                heads.putInt(head * 4, 0);
+            }
+        }
+    }
+
+    /**
+     * @param directory the directory of the log of the backend
+     * @return the archive kept in the directory, created empty if there is none
+     */
+    public static ClosedAuctionArchive open(File directory) throws IOException {
+        return new ClosedAuctionArchive(directory);
+    }
+
+    // return the position of a record in closed.records
+    private static long position(long record) {
+        return HEADER + record * RECORD;
+    }
+
+    // spreads the client ids over the buckets, String.hashCode is the same in every JVM so the heads stay valid across restarts
+    private static int bucket(String clientId) {
+        int hash = clientId.hashCode() * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & (BUCKETS - 1);
+    }
+
+    // return true if the record counts. the index and the heads are written after the count, so a record
+    // past it is one a reader saw before the count, and taking the lock waits for the append to end
+    private boolean counted(long record) {
+        if (record < count) {
+            return true;
+        }
+        synchronized (this) {
+            return record < count;
+        }
+    }
+
+    // return the record of the item, -1 if it is not archived. an index entry left by a crash points at another item or past the records
+    private long find(int itemId) {
+        long record = (index.getInt(itemId * 4L) & 0xFFFFFFFFL) - 1;
+        return record >= 0 && counted(record) && records.getInt(position(record) + ITEM_ID) == itemId ? record : -1;
+    }
+
+    /**
+     * adds a closed auction, unless it is already archived
+     * @param item the item as it closed
+     * @param closedAt the cluster time it closed at
+     */
+    public synchronized void append(AuctionItem item, long closedAt) {
+        int itemId = item.getItemId();
+        if (find(itemId) >= 0) {
+            return;
+        }
+        long record = count;
+        long position = position(record);
+        String sellerId = item.getClientId();
+        String buyerId = item.getBuyerId();
+        boolean sold = buyerId != null && item.getCurrentHighestBid() >= item.getItemMinimumPrice();
+        records.putInt(position + ITEM_ID, itemId);
+        records.putInt(position + STARTING_PRICE, item.getItemStartingPrice());
+        records.putInt(position + MINIMUM_PRICE, item.getItemMinimumPrice());
+        records.putInt(position + PRICE, item.getCurrentHighestBid());
+        records.putLong(position + CLOSED_AT, closedAt);
+        records.putLong(position + DESCRIPTION, write(item.getItemDescription()));
+        records.putLong(position + SELLER_ID, write(sellerId));
+        records.putLong(position + BUYER_ID, write(buyerId));
+        records.putLong(position + NAME, write(item.getName()));
+        records.putLong(position + EMAIL, write(item.getEmail()));
+        long sellerHead = sellerId == null ? -1 : bucket(sellerId) * 4L;
+        long buyerHead = sold ? (BUCKETS + bucket(buyerId)) * 4L : -1;
+        records.putInt(position + PREVIOUS_SOLD, sellerHead < 0 ? 0 : heads.getInt(sellerHead));
+        records.putInt(position + PREVIOUS_WON, buyerHead < 0 ? 0 : heads.getInt(buyerHead));
+        // the record counts once it is complete, the index and the chains only point at counted records
+        records.putLong(8, record + 1);
+        count = record + 1;
+        index.putInt(itemId * 4L, (int) (record + 1));
+        if (sellerHead >= 0) {
+            heads.putInt(sellerHead, (int) (record + 1));
+        }
+        if (buyerHead >= 0) {
+            heads.putInt(buyerHead, (int) (record + 1));
+        }
+    }
+
+    // return the offset of the string in closed.strings, writing it unless it was written lately
+    private long write(String value) {
+        if (value == null) {
+            return -1;
+        }
+        Long known = recent.get(value);
+        if (known != null) {
+            return known;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        // the length is an int at a multiple of 4, so it never spans two chunks
+        long offset = (stringsEnd + 3) & ~3L;
+        strings.putInt(offset, bytes.length);
+        strings.put(offset + 4, bytes);
+        stringsEnd = offset + 4 + bytes.length;
+        strings.putLong(0, stringsEnd);
+        recent.put(value, offset);
+        return offset;
+    }
+
+    private String read(long offset) {
+        if (offset < 0) {
+            return null;
+        }
+        return new String(strings.get(offset + 4, strings.getInt(offset)), StandardCharsets.UTF_8);
+    }
+
+    // return the auction of a record as a closed item, its end time is the cluster time it closed at
+    private AuctionItem item(long record) {
+        long position = position(record);
+        AuctionItem item = new AuctionItem(records.getInt(position + STARTING_PRICE), read(records.getLong(position + DESCRIPTION)),
+                records.getInt(position + MINIMUM_PRICE), read(records.getLong(position + SELLER_ID)));
+        item.setItemId(records.getInt(position + ITEM_ID));
+        item.setEndTime(records.getLong(position + CLOSED_AT));
+        item.placeBid(records.getInt(position + PRICE), read(records.getLong(position + NAME)),
+                read(records.getLong(position + EMAIL)), read(records.getLong(position + BUYER_ID)));
+        return item;
+    }
+
+    /**
+     * @param itemId the id of an item
+     * @return the item as it closed, null if it did not close on this backend
+     */
+    public AuctionItem get(int itemId) {
+        long record = find(itemId);
+        return record < 0 ? null : item(record);
+    }
+
+    /**
+     * returns the archived auctions of a client in increasing id order. the chains of the client are walked
+     * from the newest record to the oldest, as they are in closing order and not in id order, and only
+     * the limit + 1 lowest ids after the cursor are kept on the way
+     * @param clientId the id of the client
+     * @param views Item.CLOSED for the auctions it sold or not, Item.WON for those it won, or both or-ed together
+     * @param afterId the cursor, 0 for the first page or the next cursor of the previous page
+     * @param limit the maximum number of items to return
+     * @return the page of items
+     */
+    public ListingsPage page(String clientId, int views, int afterId, int limit) {
+        TreeMap<Integer, Long> lowest = new TreeMap<Integer, Long>(); // record of each id kept so far
+        if ((views & Item.CLOSED) != 0) {
+            walk(heads.getInt(bucket(clientId) * 4L), PREVIOUS_SOLD, SELLER_ID, clientId, afterId, limit, lowest);
+        }
+        if ((views & Item.WON) != 0) {
+            walk(heads.getInt((BUCKETS + bucket(clientId)) * 4L), PREVIOUS_WON, BUYER_ID, clientId, afterId, limit, lowest);
+        }
+        ArrayList<AuctionItem> items = new ArrayList<AuctionItem>(Math.min(lowest.size(), limit));
+        for (long record : lowest.values()) {
+            if (items.size() == limit) {
+                return new ListingsPage(items, items.get(limit - 1).getItemId(), true);
+            }
+            items.add(item(record));
+        }
+        return new ListingsPage(items, items.isEmpty() ? afterId : items.get(items.size() - 1).getItemId(), false);
+    }
+
+    // follows one chain from its head and keeps the records of the client with the lowest ids after the cursor
+    private void walk(int head, int previous, int field, String clientId, int afterId, int limit, TreeMap<Integer, Long> lowest) {
+        for (long record = (head & 0xFFFFFFFFL) - 1; record >= 0 && counted(record);
+                record = (records.getInt(position(record) + previous) & 0xFFFFFFFFL) - 1) {
+            long position = position(record);
+            int itemId = records.getInt(position + ITEM_ID);
+            // the id is checked before the client, which has to be read from the strings
+            if (itemId <= afterId || lowest.size() > limit && itemId >= lowest.lastKey() || lowest.containsKey(itemId)) {
+                continue;
+            }
+            if (clientId.equals(read(records.getLong(position + field)))) {
+                lowest.put(itemId, record);
+                if (lowest.size() > limit + 1) {
+                    lowest.pollLastEntry();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the number of auctions archived
+     */
+    public long size() {
+        return count;
+    }
+
+    /**
+     * @return the bytes of the records and strings written
+     */
+    public synchronized long bytes() {
+        return position(count) + stringsEnd;
+    }
+}
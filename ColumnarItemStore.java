@@ -0,0 +1,477 @@
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * This class holds the open auction items of a backend as columns instead of objects: one array per field,
+ * indexed by the slot of the item, so a million items are a few arrays the garbage collector scans in one go
+ * instead of millions of objects it has to trace. ids, prices and end times are int and long columns, the
+ * description is kept as its UTF-8 bytes, and the seller and the highest bidder are handles into dictionaries
+ * that keep each seller id and each buyer (id, name and email together) once, however many items share them.
+ * an AuctionItem is only built when an item is read, for the answer of a call or a transfer, and it does not
+ * change with the store afterwards. a read write lock guards the shape of the columns: reads and bids share it,
+ * while adding and removing items, which may grow the columns or move the id table, take it alone.
+ * the price, highest bidder and end time of a slot are changed by bids under the read lock, so they are
+ * also guarded by one of STRIPES locks picked by the slot, and bids on items of different stripes run in parallel.
+ */
+public class ColumnarItemStore implements AuctionStore {
+    private static final float LOAD_FACTOR = 0.75f; // share of the id table used before it grows
+    private static final int NONE = -1;             // buyer handle of an item nobody bid on
+    private static final int STRIPES = 64;          // number of locks the slots are spread over, a power of two
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock(); // reads and bids take the read lock, other writes the write lock
+    private final Object[] stripes = new Object[STRIPES]; // guard the price, bidder and end time of the slots, slot modulo STRIPES picks one
+
+    private int[] itemIds;          // id of the item in each slot, 0 if the slot is free
+    private int[] startingPrices;   // starting price of each item
+    private int[] minimumPrices;    // minimum price of each item
+    private int[] prices;           // price of the highest bid, the starting price until someone bids, under the stripe
+    private int[] sellers;          // handle of the seller in sellerIds
+    private int[] buyers;           // handle of the highest bidder in bidders, NONE until someone bids, under the stripe
+    private long[] endTimes;        // when the auction closes by itself, 0 if only the seller closes it, under the stripe
+    private byte[][] descriptions;  // UTF-8 bytes of the description
+    private int used;               // slots handed out so far, those of removed items are in freeSlots
+    private int[] freeSlots;        // slots of removed items, reused before new ones
+    private int freeCount;          // number of slots in freeSlots
+
+    private int[] table;            // slot + 1 of the item of each id, by open addressing on the id, 0 if free
+    private int mask;               // table length minus one, the length is a power of two
+    private int resizeAt;           // size at which the table is doubled
+    private int size;               // number of items
+
+    private final BitSet ids = new BitSet();                         // ids of the items, for pages and transfers in id order
+    private Dictionary<String> sellerIds = new Dictionary<String>(); // seller ids of the items
+    private Dictionary<Bidder> bidders = new Dictionary<Bidder>();   // buyers with the highest bid on an item
+
+    /**
+     * the id, name and email of a buyer, which always go together
+     */
+    private static final class Bidder {
+        final String buyerId;
+        final String name;
+        final String email;
+
+        Bidder(String buyerId, String name, String email) {
+            this.buyerId = buyerId;
+            this.name = name;
+            this.email = email;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Bidder)) {
+                return false;
+            }
+            Bidder bidder = (Bidder) other;
+            return Objects.equals(buyerId, bidder.buyerId) && Objects.equals(name, bidder.name) && Objects.equals(email, bidder.email);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(buyerId, name, email);
+        }
+    }
+
+    /**
+     * values kept once each and referred to by an int handle, with the number of items using each value.
+     * the handle of a value no item uses any more is given to the next new value.
+     * bids on different stripes use the bidders at the same time, so every method is synchronized
+     */
+    private static final class Dictionary<K> {
+        private final HashMap<K, Integer> handles = new HashMap<K, Integer>(); // handle of each value
+        private Object[] values = new Object[16];  // value of each handle
+        private int[] references = new int[16];    // items using each handle
+        private int[] free = new int[16];          // handles no item uses
+        private int freeCount;                     // number of handles in free
+        private int used;                          // handles given out so far
+
+        // return the handle of the value, counting one more item using it
+        synchronized int acquire(K value) {
+            Integer handle = handles.get(value);
+            if (handle == null) {
+                handle = freeCount > 0 ? free[--freeCount] : used++;
+                if (handle == values.length) {
+                    values = Arrays.copyOf(values, handle * 2);
+                    references = Arrays.copyOf(references, handle * 2);
+                }
+                values[handle] = value;
+                handles.put(value, handle);
+            }
+            references[handle]++;
+            return handle;
+        }
+
+        // counts one item less using the handle, and frees it if it was the last
+        synchronized void release(int handle) {
+            if (--references[handle] > 0) {
+                return;
+            }
+            handles.remove(values[handle]);
+            values[handle] = null;
+            if (freeCount == free.length) {
+                free = Arrays.copyOf(free, freeCount * 2);
+            }
+            free[freeCount++] = handle;
+        }
+
+        @SuppressWarnings("unchecked")
+        synchronized K get(int handle) {
+            return (K) values[handle];
+        }
+    }
+
+    public ColumnarItemStore() {
+        this(0);
+    }
+
+    /**
+     * @param expected the number of items the store should hold without growing
+     */
+    public ColumnarItemStore(int expected) {
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Object();
+        }
+        allocate(Math.max(16, expected));
+    }
+
+    // the lock of the price, bidder and end time of a slot
+    private Object stripe(int slot) {
+        return stripes[slot & (STRIPES - 1)];
+    }
+
+    private void allocate(int capacity) {
+        itemIds = new int[capacity];
+        startingPrices = new int[capacity];
+        minimumPrices = new int[capacity];
+        prices = new int[capacity];
+        sellers = new int[capacity];
+        buyers = new int[capacity];
+        endTimes = new long[capacity];
+        descriptions = new byte[capacity][];
+        freeSlots = new int[16];
+        used = 0;
+        freeCount = 0;
+        int tableSize = 8;
+        while (tableSize * LOAD_FACTOR < capacity) {
+            tableSize <<= 1;
+        }
+        table = new int[tableSize];
+        mask = tableSize - 1;
+        resizeAt = (int) (tableSize * LOAD_FACTOR);
+        size = 0;
+    }
+
+    // spreads ids that only differ in their high bits over the table
+    private static int home(int itemId, int mask) {
+        int hash = itemId * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    // return the slot of the item, or -1 if there is no item with this id
+    private int slotOf(int itemId) {
+        for (int i = home(itemId, mask); table[i] != 0; i = (i + 1) & mask) {
+            if (itemIds[table[i] - 1] == itemId) {
+                return table[i] - 1;
+            }
+        }
+        return -1;
+    }
+
+    // return a slot for a new item, growing the columns if every slot is taken
+    private int newSlot(int itemId) {
+        int slot;
+        if (freeCount > 0) {
+            slot = freeSlots[--freeCount];
+        } else {
+            if (used == itemIds.length) {
+                int capacity = used + (used >> 1);
+                itemIds = Arrays.copyOf(itemIds, capacity);
+                startingPrices = Arrays.copyOf(startingPrices, capacity);
+                minimumPrices = Arrays.copyOf(minimumPrices, capacity);
+                prices = Arrays.copyOf(prices, capacity);
+                sellers = Arrays.copyOf(sellers, capacity);
+                buyers = Arrays.copyOf(buyers, capacity);
+                endTimes = Arrays.copyOf(endTimes, capacity);
+                descriptions = Arrays.copyOf(descriptions, capacity);
+            }
+            slot = used++;
+        }
+        itemIds[slot] = itemId;
+        if (++size > resizeAt) {
+            rehash(table.length * 2);
+        }
+        int i = home(itemId, mask);
+        while (table[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        table[i] = slot + 1;
+        return slot;
+    }
+
+    private void rehash(int capacity) {
+        int[] old = table;
+        table = new int[capacity];
+        mask = capacity - 1;
+        resizeAt = (int) (capacity * LOAD_FACTOR);
+        for (int entry : old) {
+            if (entry != 0) {
+                int i = home(itemIds[entry - 1], mask);
+                while (table[i] != 0) {
+                    i = (i + 1) & mask;
+                }
+                table[i] = entry;
+            }
+        }
+    }
+
+    // takes the item out of the id table, the entries after it in the probe sequence are shifted back
+    private void unlink(int itemId) {
+        int free = home(itemId, mask);
+        while (itemIds[table[free] - 1] != itemId) {
+            free = (free + 1) & mask;
+        }
+        for (int next = (free + 1) & mask; table[next] != 0; next = (next + 1) & mask) {
+            int home = home(itemIds[table[next] - 1], mask);
+            if (((next - home) & mask) >= ((next - free) & mask)) {
+                table[free] = table[next];
+                free = next;
+            }
+        }
+        table[free] = 0;
+    }
+
+    // return the item in the slot as a new AuctionItem
+    private AuctionItem item(int slot) {
+        AuctionItem item = new AuctionItem(startingPrices[slot],
+                descriptions[slot] == null ? null : new String(descriptions[slot], StandardCharsets.UTF_8),
+                minimumPrices[slot], sellerIds.get(sellers[slot]));
+        item.setItemId(itemIds[slot]);
+        synchronized (stripe(slot)) {
+            item.setEndTime(endTimes[slot]);
+            Bidder bidder = buyers[slot] == NONE ? null : bidders.get(buyers[slot]);
+            if (bidder != null) {
+                item.placeBid(prices[slot], bidder.name, bidder.email, bidder.buyerId);
+            } else if (prices[slot] != startingPrices[slot]) {
+                item.setCurrentHighestBid(prices[slot]);
+            }
+        }
+        return item;
+    }
+
+    public AuctionItem get(int itemId) {
+        lock.readLock().lock();
+        try {
+            int slot = slotOf(itemId);
+            return slot < 0 ? null : item(slot);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public boolean contains(int itemId) {
+        lock.readLock().lock();
+        try {
+            return slotOf(itemId) >= 0;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public void put(AuctionItem item) {
+        int itemId = item.getItemId();
+        Bidder bidder = item.getBuyerId() == null && item.getName() == null && item.getEmail() == null ? null
+                : new Bidder(item.getBuyerId(), item.getName(), item.getEmail());
+        byte[] description = item.getItemDescription() == null ? null : item.getItemDescription().getBytes(StandardCharsets.UTF_8);
+        lock.writeLock().lock();
+        try {
+            int slot = slotOf(itemId);
+            if (slot >= 0) {
+                release(slot);
+            } else {
+                slot = newSlot(itemId);
+                ids.set(itemId);
+            }
+            startingPrices[slot] = item.getItemStartingPrice();
+            minimumPrices[slot] = item.getItemMinimumPrice();
+            prices[slot] = item.getCurrentHighestBid();
+            sellers[slot] = sellerIds.acquire(item.getClientId());
+            buyers[slot] = bidder == null ? NONE : bidders.acquire(bidder);
+            endTimes[slot] = item.getEndTime();
+            descriptions[slot] = description;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // gives back the dictionary entries the item in the slot uses
+    private void release(int slot) {
+        sellerIds.release(sellers[slot]);
+        if (buyers[slot] != NONE) {
+            bidders.release(buyers[slot]);
+        }
+    }
+
+    public AuctionItem remove(int itemId) {
+        lock.writeLock().lock();
+        try {
+            int slot = slotOf(itemId);
+            if (slot < 0) {
+                return null;
+            }
+            AuctionItem removed = item(slot);
+            release(slot);
+            unlink(itemId);
+            itemIds[slot] = 0;
+            descriptions[slot] = null;
+            if (freeCount == freeSlots.length) {
+                freeSlots = Arrays.copyOf(freeSlots, freeCount * 2);
+            }
+            freeSlots[freeCount++] = slot;
+            size--;
+            ids.clear(itemId);
+            return removed;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public AuctionItem.HighestBid placeBidIfHigher(int itemId, int price, String name, String email, String buyerId) {
+        Bidder bidder = new Bidder(buyerId, name, email);
+        lock.readLock().lock();
+        try {
+            int slot = slotOf(itemId);
+            if (slot < 0) {
+                return null;
+            }
+            synchronized (stripe(slot)) {
+                if (price <= prices[slot]) {
+                    return null;
+                }
+                Bidder previous = buyers[slot] == NONE ? null : bidders.get(buyers[slot]);
+                AuctionItem.HighestBid replaced = previous == null ? new AuctionItem.HighestBid(prices[slot], null, null, null)
+                        : new AuctionItem.HighestBid(prices[slot], previous.name, previous.email, previous.buyerId);
+                // the new bidder is taken before the old one is let go, so a buyer outbidding itself keeps its handle
+                int buyer = bidders.acquire(bidder);
+                if (buyers[slot] != NONE) {
+                    bidders.release(buyers[slot]);
+                }
+                buyers[slot] = buyer;
+                prices[slot] = price;
+                return replaced;
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public long getEndTime(int itemId) {
+        lock.readLock().lock();
+        try {
+            int slot = slotOf(itemId);
+            if (slot < 0) {
+                return 0;
+            }
+            synchronized (stripe(slot)) {
+                return endTimes[slot];
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public long extendEndTime(int itemId, long endTime) {
+        lock.readLock().lock();
+        try {
+            int slot = slotOf(itemId);
+            if (slot < 0) {
+                return 0;
+            }
+            synchronized (stripe(slot)) {
+                endTimes[slot] = Math.max(endTimes[slot], endTime);
+                return endTimes[slot];
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public String getSellerId(int itemId) {
+        lock.readLock().lock();
+        try {
+            int slot = slotOf(itemId);
+            return slot < 0 ? null : sellerIds.get(sellers[slot]);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // return the number of items
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * removes every item and shrinks the columns back to their smallest size
+     */
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            allocate(16);
+            ids.clear();
+            sellerIds = new Dictionary<String>();
+            bidders = new Dictionary<Bidder>();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int nextId(int afterId) {
+        lock.readLock().lock();
+        try {
+            return ids.nextSetBit(Math.max(afterId + 1, 0));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int[] ids() {
+        lock.readLock().lock();
+        try {
+            int[] result = new int[size];
+            int i = 0;
+            for (int itemId = ids.nextSetBit(0); itemId >= 0; itemId = ids.nextSetBit(itemId + 1)) {
+                result[i++] = itemId;
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * builds every item and adds it to the map given, keyed by its id
+     * @param map the map to fill
+     */
+    public void copyTo(Map<Integer, AuctionItem> map) {
+        lock.readLock().lock();
+        try {
+            for (int slot = 0; slot < used; slot++) {
+                if (itemIds[slot] != 0) {
+                    map.put(itemIds[slot], item(slot));
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return size() + " items";
+    }
+}
@@ -0,0 +1,105 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.jgroups.Address;
+import org.jgroups.View;
+import org.jgroups.blocks.RequestOptions;
+import org.jgroups.blocks.ResponseMode;
+import org.jgroups.blocks.RpcDispatcher;
+import org.jgroups.util.UUID;
+
+/**
+ * This class sends the PRICE and CLOSED events of the writes a backend applies to the frontends, which
+ * pass them on to the clients that subscribed. every backend of a shard applies the same writes, so only
+ * the oldest backend of the shard in the view publishes and the others drop their events. events are
+ * gathered for "EVENT_WINDOW" ms (default 10) and sent to every frontend in one message, without waiting
+ * for an answer. events gathered but not sent when the publishing backend leaves are lost, a client
+ * catches up by reading the item again.
+ */
+public class EventPublisher {
+    private static final long WINDOW = System.getenv("EVENT_WINDOW") == null ? 10 : Long.parseLong(System.getenv("EVENT_WINDOW"));
+
+    private final RpcDispatcher dispatcher;  // the dispatcher of the backend
+    private final int shard;                 // shard of the backend
+    private final Address self;              // address of the backend
+    private volatile boolean active;         // true if this is the oldest backend of its shard
+    private volatile List<Address> frontends = Collections.emptyList(); // frontends in the current view
+    private ArrayList<AuctionEvent> pending = new ArrayList<AuctionEvent>(); // events not sent yet, guarded by this
+
+    /**
+     * @param dispatcher the dispatcher of the backend
+     * @param shard the shard of the backend
+     * @param self the address of the backend
+     */
+    EventPublisher(RpcDispatcher dispatcher, int shard, Address self) {
+        this.dispatcher = dispatcher;
+        this.shard = shard;
+        this.self = self;
+        ScheduledExecutorService sender = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "event-publisher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sender.scheduleWithFixedDelay(this::flush, WINDOW, WINDOW, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * queues an event to send with the next batch, if this backend publishes and a frontend listens
+     * @param event the event of a write just applied
+     */
+    void publish(AuctionEvent event) {
+        if (!active || frontends.isEmpty()) {
+            return;
+        }
+        synchronized (this) {
+            pending.add(event);
+        }
+    }
+
+    /**
+     * picks up the frontends of the view and whether this backend is the oldest of its shard
+     * @param view the current view of the cluster
+     */
+    void viewAccepted(View view) {
+        List<Address> members = new ArrayList<Address>();
+        Address oldest = null;
+        for (Address member : view.getMembers()) {
+            String name = UUID.get(member);
+            if (name != null && name.startsWith("frontend")) {
+                members.add(member);
+            } else if (oldest == null && ShardMap.isBackend(name) && ShardMap.shardOf(name) == shard) {
+                oldest = member;
+            }
+        }
+        boolean publishing = self.equals(oldest);
+        if (publishing && !active) {
+            System.out.println("Publishing the events of shard " + shard + " to the frontends");
+        }
+        frontends = members;
+        active = publishing;
+    }
+
+    // sends the events gathered since the last batch
+    private void flush() {
+        ArrayList<AuctionEvent> events;
+        synchronized (this) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            events = pending;
+            pending = new ArrayList<AuctionEvent>();
+        }
+        try {
+            this.dispatcher.callRemoteMethods(frontends, "receiveEvents",
+                    new Object[] { events.toArray(new AuctionEvent[0]) }, new Class<?>[] { AuctionEvent[].class },
+                    new RequestOptions(ResponseMode.GET_NONE, 0));
+        } catch (Exception e) {
+            System.err.println("dispatcher exception:");
+            e.printStackTrace();
+        }
+    }
+}
@@ -1,30 +1,97 @@
 import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
+import java.rmi.server.ExportException;
 import java.rmi.server.UnicastRemoteObject;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.jgroups.Address;
 import org.jgroups.JChannel;
 import org.jgroups.MembershipListener;
 import org.jgroups.View;
+import org.jgroups.blocks.GroupRequest;
+import org.jgroups.blocks.MethodCall;
 import org.jgroups.blocks.RequestOptions;
 import org.jgroups.blocks.ResponseMode;
 import org.jgroups.blocks.RpcDispatcher;
+import org.jgroups.blocks.RspFilter;
+import org.jgroups.util.NotifyingFuture;
+import org.jgroups.util.Rsp;
 import org.jgroups.util.RspList;
+import org.jgroups.util.UUID;
 
 /**
  * This class is responsible for dealing with both Seller and Buyer requests by sending these 
  * requests to the backends to process them and return whats needed, 
  * it also makes sure the replicas/backends have the same data stored in them and
  * it checks if a general consensus is present when processing requests.
+ * every request is sent to the backends without waiting for them, the answers are handled by a small
+ * pool of threads, and the Item methods only wait for the result of the AsyncItem method they call.
+ * the items are split between shards of backends (see ShardMap): a request about one item only goes to
+ * the backends of the shard that owns it, new items are spread round robin over the shards, and the
+ * listings and client ids are gathered from every shard.
+ * several frontends can join the same cluster, each binds its own registry and lists the others in getFrontends
+ * so an ItemProxy can spread the calls of a client over them.
+ * next to RMI each frontend runs a BinaryGateway (see BinaryClient) for clients that keep many requests in flight.
  */
-public class Frontend extends UnicastRemoteObject implements Item, MembershipListener{
+public class Frontend extends UnicastRemoteObject implements Item, AsyncItem, MembershipListener{
     private JChannel groupChannel; // the cluster to connect to
     private RpcDispatcher dispatcher; // allows to invoke remote methods in all cluster members
 
     private final int DISPATCHER_TIMEOUT = 1000; // amount of time the dispatcher waits before timing out
+    private String origin; // id of this frontend, sent with every write so backends can tell writes apart
+    private final Map<Integer, AtomicLong> sequences = new ConcurrentHashMap<Integer, AtomicLong>(); // sequence number of the last write sent to each shard
+    private volatile List<Address> backends = new ArrayList<Address>(); // backends in the current view
+    private volatile String[] frontends = new String[0]; // host:port of the registry of each frontend in the current view
+    private static final int REGISTRY_PORT = System.getenv("REGISTRY_PORT") == null ? 1099 : Integer.parseInt(System.getenv("REGISTRY_PORT")); // first port tried for the registry
+    private static final int REGISTRY_PORTS = 16; // ports tried from REGISTRY_PORT on, one per frontend on a machine
+    private static final Pattern ENDPOINT = Pattern.compile("^frontend@(.*?:\\d+)-"); // the registry in a name, frontend@<host>:<port>-<random part>
+    private static final int GATEWAY_PORT = System.getenv("GATEWAY_PORT") == null ? 9099 : Integer.parseInt(System.getenv("GATEWAY_PORT")); // first port tried for the binary gateway, 0 for none
+    private BinaryGateway gateway; // the binary entry point for clients that pipeline their requests, null if there is none
+    private static final String FRONTEND_HOST = System.getenv("FRONTEND_HOST") == null ? "127.0.0.1" : System.getenv("FRONTEND_HOST"); // host the clients reach the registry on
+    private volatile ShardMap shardMap = new ShardMap(Collections.singletonList(0)); // shard that owns each item in the current view
+    private volatile Map<Integer, List<Address>> shardBackends = new HashMap<Integer, List<Address>>(); // backends of each shard in the current view
+    private final AtomicInteger nextShard = new AtomicInteger(); // round robin position for the shard of a new item
+    private final long TICK_MS = System.getenv("TICK_MS") == null ? 1000 : Long.parseLong(System.getenv("TICK_MS")); // ms between two ticks of the cluster clock, 0 for none
+    private volatile boolean ticking; // true if this is the oldest frontend in the view, the one that sends the ticks
+    private final Map<String, ReadMode> readModes = new ConcurrentHashMap<String, ReadMode>(); // read mode of each read method
+    private final boolean leastLoaded = "LEAST_LOADED".equalsIgnoreCase(System.getenv("READ_BALANCE")); // how ONE reads pick a backend, round robin by default
+    private final AtomicInteger nextReplica = new AtomicInteger(); // round robin position for ONE reads
+    private final Map<Address, AtomicInteger> pendingReads = new ConcurrentHashMap<Address, AtomicInteger>(); // ONE reads waiting on each backend
+    private final ListingsCache cache = new ListingsCache( // specs and listings read recently
+            System.getenv("CACHE_SIZE") == null ? 1000 : Integer.parseInt(System.getenv("CACHE_SIZE")),
+            System.getenv("CACHE_STALENESS") == null ? 100 : Long.parseLong(System.getenv("CACHE_STALENESS")));
+    private final BidBatcher bidBatcher = new BidBatcher( // sends concurrent bids as one batch
+            System.getenv("BID_WINDOW") == null ? 2 : Long.parseLong(System.getenv("BID_WINDOW")),
+            System.getenv("BID_BATCH") == null ? 128 : Integer.parseInt(System.getenv("BID_BATCH")),
+            id -> shardMap.shardOfItem(id), this::sendBids);
+    private final ExecutorService completions = Executors.newFixedThreadPool( // handles the answers of the backends
+            System.getenv("ASYNC_THREADS") == null ? Runtime.getRuntime().availableProcessors() : Integer.parseInt(System.getenv("ASYNC_THREADS")));
+    private final ScheduledExecutorService timeouts = Executors.newSingleThreadScheduledExecutor(); // ends calls the backends do not answer in time
+
+    private Metrics metrics; // latency of each operation and backend, timeouts and consensus failures
+    private Notifier notifier; // passes the events the backends publish to the clients that subscribed
+    private LatencyHistogram getSpecLatency, createItemLatency, getListingsLatency, getListingsPageLatency, // time each AsyncItem
+            searchLatency, getClientItemsLatency, checkClientIdLatency, bidLatency, closeItemLatency,      // operation takes
+            checkItemNonExistentLatency, getClosedAuctionLatency, getClosedAuctionsLatency;
+    private final Map<Address, LatencyHistogram> backendLatency = new ConcurrentHashMap<Address, LatencyHistogram>(); // time each backend takes to answer
+    private LongAdder dispatcherTimeouts; // calls that were not answered by every member in time
+    private LongAdder consensusFailures;  // answers the backends did not agree on
+    private LongAdder fallbacks;          // times the most reliable backend was asked for
 
     /**
      * Constructor that connects to the cluster and allows invoking remote methods
@@ -32,25 +99,71 @@ public class Frontend extends UnicastRemoteObject implements Item, MembershipLis
      */
     public Frontend() throws RemoteException{
         super();
-        // Connect to the group (channel)
-        this.groupChannel = GroupUtils.connect();
+        // prepare the object for remote access, on the first free port so several frontends can run on one machine
+        Registry registry = null;
+        int port = REGISTRY_PORT;
+        for (; registry == null && port < REGISTRY_PORT + REGISTRY_PORTS; port++) {
+            try {
+                registry = LocateRegistry.createRegistry(port);
+            } catch (ExportException e) {
+                // another frontend has this port
+            }
+        }
+        String endpoint = registry == null ? null : FRONTEND_HOST + ":" + (port - 1);
+        // Connect to the group (channel), the name tells the clients of the other frontends where this one is
+        this.groupChannel = GroupUtils.connect(endpoint == null ? "frontend" : "frontend@" + endpoint);
         if (this.groupChannel == null) {
             System.exit(1); // error to be printed by the 'connect' function
         }
+        this.origin = this.groupChannel.getAddressAsUUID();
         try {
             String name = "myserver";
-            // prepare the object for remote access
-            Registry registry = LocateRegistry.createRegistry(1099);
+            if (registry == null) {
+                throw new ExportException("no free registry port from " + REGISTRY_PORT + " to " + (REGISTRY_PORT + REGISTRY_PORTS - 1));
+            }
             // bind the remote object to the server with a specific name
             registry.rebind(name, this);
-            System.out.println("Server ready and running!");
+            System.out.println("Server ready and running on " + endpoint + "!");
         } catch (Exception e) {
             System.err.println("Exception:");
             e.printStackTrace();
         }
-        // Make this instance of Frontend a dispatcher in the channel (group)
-        this.dispatcher = new RpcDispatcher(groupChannel, this);
+        this.metrics = new Metrics("Frontend", this.groupChannel.getName());
+        this.getSpecLatency = metrics.latency("op.getSpec");
+        this.createItemLatency = metrics.latency("op.createItem");
+        this.getListingsLatency = metrics.latency("op.getListings");
+        this.getListingsPageLatency = metrics.latency("op.getListingsPage");
+        this.searchLatency = metrics.latency("op.search");
+        this.getClientItemsLatency = metrics.latency("op.getClientItems");
+        this.getClosedAuctionLatency = metrics.latency("op.getClosedAuction");
+        this.getClosedAuctionsLatency = metrics.latency("op.getClosedAuctions");
+        this.checkClientIdLatency = metrics.latency("op.checkClientId");
+        this.bidLatency = metrics.latency("op.bid");
+        this.closeItemLatency = metrics.latency("op.closeItem");
+        this.checkItemNonExistentLatency = metrics.latency("op.checkItemNonExistent");
+        this.dispatcherTimeouts = metrics.counter("dispatcher.timeouts");
+        this.consensusFailures = metrics.counter("consensus.failures");
+        this.fallbacks = metrics.counter("consensus.fallbacks");
+        metrics.gauge("backends", () -> this.backends.size());
+        metrics.gauge("frontends", () -> this.frontends.length);
+        this.notifier = new Notifier(this.metrics);
+        // Make this instance of Frontend a dispatcher in the channel (group),
+        // the backends answer items, pages and listings in the compact format
+        this.dispatcher = new MeteredDispatcher(groupChannel, this, this.metrics, new WireFormat.ResponseMarshaller());
         this.dispatcher.setMembershipListener(this);
+        updateBackends(this.groupChannel.getView());
+        if (GATEWAY_PORT > 0) {
+            // the second way in, next to RMI, on the first free port so several frontends can run on one machine
+            try {
+                this.gateway = BinaryGateway.open(this, GATEWAY_PORT, REGISTRY_PORTS, this.metrics);
+            } catch (Exception e) {
+                System.err.println("Exception:");
+                e.printStackTrace();
+            }
+        }
+        if (TICK_MS > 0) {
+            timeouts.scheduleAtFixedRate(this::tick, TICK_MS, TICK_MS, TimeUnit.MILLISECONDS);
+        }
     }
 
 
@@ -60,18 +173,29 @@ public class Frontend extends UnicastRemoteObject implements Item, MembershipLis
      * @return the auction item specified by the id provided
      */
     public AuctionItem getSpec(int itemId) throws RemoteException{
-        try {
-            // Call the "getSpec" function on all the group members, passing 
+        return await(getSpecAsync(itemId), null);
+    }
+
+    /**
+     * this method returns the auction item using the id passed without waiting for the backends
+     * @param itemId the id of the auction item to be returned
+     * @return the future of the auction item specified by the id provided
+     */
+    public CompletableFuture<AuctionItem> getSpecAsync(int itemId) {
+        long start = System.nanoTime();
+        String key = "spec:" + itemId;
+        return timed(getSpecLatency, start, lookup(key).thenCompose(cached -> {
+            if (cached != null) {
+                return CompletableFuture.completedFuture((AuctionItem) cached.value);
+            }
+            long token = cache.begin();
+            // Call the "getSpec" function on the backends picked by the read mode, passing 
             // param of object class integer
-            RspList<AuctionItem> responses = this.dispatcher.callRemoteMethods(null, "getSpec",
-            new Object[] { itemId }, new Class[] { int.class},
-            new RequestOptions(ResponseMode.GET_ALL, this.DISPATCHER_TIMEOUT));
-                return responses.getFirst();
-        } catch (Exception e) {
-            System.err.println("dispatcher exception:");
-            e.printStackTrace();
-        }
-        return null;        
+            return this.<AuctionItem>read(shardMap.shardOfItem(itemId), "getSpec", new Object[] { itemId }, new Class<?>[] { int.class}, false).thenApply(item -> {
+                cache.put(key, item, itemId, itemId, token);
+                return item;
+            });
+        }));
     }
 
 
@@ -87,29 +211,60 @@ public class Frontend extends UnicastRemoteObject implements Item, MembershipLis
      * @throws RemoteException
      */
     public int createItem(int startingPrice, String description, int minimumPrice, String clientId) throws RemoteException {
-        try {
-            RspList<Integer> responses = this.dispatcher.callRemoteMethods(null, "createItem",
-            new Object[] { startingPrice, description, minimumPrice, clientId }, new Class[] { int.class, String.class, int.class, String.class},
-            new RequestOptions(ResponseMode.GET_ALL, this.DISPATCHER_TIMEOUT));
+        return createItem(startingPrice, description, minimumPrice, clientId, 0);
+    }
+
+    /**
+     * same as createItem but the auction closes by itself once the duration has passed
+     * @param duration ms the auction runs for, 0 if only the seller closes it
+     */
+    public int createItem(int startingPrice, String description, int minimumPrice, String clientId, long duration) throws RemoteException {
+        Integer itemId = await(createItemAsync(startingPrice, description, minimumPrice, clientId, duration), 0);
+        return itemId == null ? 0 : itemId;
+    }
+
+    /**
+     * this method creates the auction item without waiting for the backends
+     * @return the future of the id of the item created
+     */
+    public CompletableFuture<Integer> createItemAsync(int startingPrice, String description, int minimumPrice, String clientId) {
+        return createItemAsync(startingPrice, description, minimumPrice, clientId, 0);
+    }
+
+    /**
+     * this method creates the auction item without waiting for the backends, the auction
+     * closes by itself once the cluster clock passes the duration from now
+     * @param duration ms the auction runs for, 0 if only the seller closes it
+     * @return the future of the id of the item created
+     */
+    public CompletableFuture<Integer> createItemAsync(int startingPrice, String description, int minimumPrice, String clientId, long duration) {
+        long start = System.nanoTime();
+        // the shard picks the id, in one of its buckets of the map sent along
+        ShardMap map = shardMap;
+        int[] shards = map.shards();
+        int shard = shards[Math.floorMod(nextShard.getAndIncrement(), shards.length)];
+        CompletableFuture<RspList<Integer>> call = call(backendsOf(shard), "createItem",
+        // the backends count the end from the cluster clock, so it does not depend on the clock of this frontend
+        new Object[] { origin, nextSequence(shard), shards, System.currentTimeMillis(), duration, startingPrice, description, minimumPrice, clientId },
+        new Class<?>[] { String.class, long.class, int[].class, long.class, long.class, int.class, String.class, int.class, String.class},
+        new RequestOptions(ResponseMode.GET_ALL, this.DISPATCHER_TIMEOUT));
+        return timed(createItemLatency, start, call.thenCompose(responses -> {
             // check if the values obtained from the backends are all the same i.e consensus achieved
             if(verifyresults(responses.getResults())){
-                return responses.getFirst();
+                return CompletableFuture.completedFuture(responses.getFirst());
             }
             // if no consensus achieved then process the request from the member with the highest 
             // number of requests / oldest member
-            else{
+            return mostReliableAddress(backendsOf(shard)).thenApply(reliableAddress -> {
                 for (Address member : responses.keySet()) {
-                    if(member.equals(getMostReliablAddress())){
+                    if(member.equals(reliableAddress)){
                         System.out.println("found the correct member/member with the highest requests processed: " + member);
-                        return responses.getValue(getMostReliablAddress());
+                        return responses.getValue(reliableAddress);
                     }
                 }
-            }
-        } catch (Exception e) {
-            System.err.println("dispatcher exception:");
-            e.printStackTrace();
-        }
-        return 0;
+                return 0;
+            });
+        }).whenComplete((itemId, failure) -> cache.created()));
     }
 
     
@@ -119,31 +274,225 @@ public class Frontend extends UnicastRemoteObject implements Item, MembershipLis
      * @throws RemoteException
      */
     public Hashtable<Integer, AuctionItem> getListings() throws RemoteException {
-        try {
-            RspList<Hashtable<Integer, AuctionItem>> responses = this.dispatcher.callRemoteMethods(null, "getListings",
-            new Object[] {}, new Class[] {},
-            new RequestOptions(ResponseMode.GET_ALL, this.DISPATCHER_TIMEOUT));
-            // check if the values obtained from the backends are all the same i.e consensus achieved
-            if(verifyresults(responses.getResults())){
-                return responses.getFirst();
+        return await(getListingsAsync(), null);
+    }
+
+    /**
+     * this method returns the current hashtable without waiting for the backends
+     * @return the future of the hashtable that stores the ids and the items
+     */
+    @SuppressWarnings("unchecked")
+    public CompletableFuture<Hashtable<Integer, AuctionItem>> getListingsAsync() {
+        long start = System.nanoTime();
+        return timed(getListingsLatency, start, lookup("listings").thenCompose(cached -> {
+            if (cached != null) {
+                return CompletableFuture.completedFuture((Hashtable<Integer, AuctionItem>) cached.value);
             }
-            // if no consensus achieved then process the request from the member with the highest 
-            // number of requests / oldest member
-            else{
-                for (Address member : responses.keySet()) {
-                    if(member.equals(getMostReliablAddress())){
-                        System.out.println("found the correct member/member with the highest requests processed: " + member);
-                        return responses.getValue(getMostReliablAddress());
-                    }
+            long token = cache.begin();
+            return this.<Hashtable<Integer, AuctionItem>>readShards("getListings", new Object[] {}, new Class<?>[] {}, true).thenApply(this::mergeListings).thenApply(listings -> {
+                if (listings != null) {
+                    cache.put("listings", listings, 0, Integer.MAX_VALUE, token);
+                }
+                return listings;
+            });
+        }));
+    }
+
+
+    /**
+     * this method returns one page of the open items in increasing id order
+     * @param afterId the cursor, 0 for the first page or the next cursor of the previous page
+     * @param limit the maximum number of items to return
+     * @return the page of items
+     * @throws RemoteException
+     */
+    public ListingsPage getListingsPage(int afterId, int limit) throws RemoteException {
+        return getListingsPage(afterId, limit, null);
+    }
+
+    /**
+     * this method returns one page of the items that match the filter in increasing id order,
+     * only the page is sent by the backends instead of the whole hashtable
+     * @param afterId the cursor, 0 for the first page or the next cursor of the previous page
+     * @param limit the maximum number of items to return
+     * @param filter the conditions the items must meet, null for all open items
+     * @return the page of items
+     * @throws RemoteException
+     */
+    public ListingsPage getListingsPage(int afterId, int limit, ListingsFilter filter) throws RemoteException {
+        return await(getListingsPageAsync(afterId, limit, filter), null);
+    }
+
+    /**
+     * this method returns one page of the items that match the filter without waiting for the backends
+     * @return the future of the page of items
+     */
+    public CompletableFuture<ListingsPage> getListingsPageAsync(int afterId, int limit, ListingsFilter filter) {
+        long start = System.nanoTime();
+        String key = "page:" + afterId + ":" + limit + ":" + filter;
+        return timed(getListingsPageLatency, start, lookup(key).thenCompose(cached -> {
+            if (cached != null) {
+                return CompletableFuture.completedFuture((ListingsPage) cached.value);
+            }
+            long token = cache.begin();
+            return this.<ListingsPage>readShards("getListingsPage", new Object[] { afterId, limit, filter },
+                    new Class<?>[] { int.class, int.class, ListingsFilter.class }, true)
+                    .thenApply(pages -> mergePages(pages, afterId, limit, filter != null && filter.getSellerId() != null)).thenApply(page -> {
+                if (page != null) {
+                    // the page covers the ids up to its cursor, or every higher id if it is the last one
+                    cache.put(key, page, afterId + 1, page.hasMore() ? page.getNextCursor() : Integer.MAX_VALUE, token);
                 }
+                return page;
+            });
+        }));
+    }
+
+    /**
+     * this method returns the newest open items whose description has every word of the query
+     * @param query the words to look for, a word ending with '*' matches every word it starts
+     * @param filter the conditions the items must also meet, such as a price range, null for none
+     * @param limit the maximum number of items to return
+     * @return the matching items in decreasing id order
+     * @throws RemoteException
+     */
+    public ListingsPage search(String query, ListingsFilter filter, int limit) throws RemoteException {
+        return await(searchAsync(query, filter, limit), null);
+    }
+
+    /**
+     * this method searches the descriptions of the open items without waiting for the backends
+     * @return the future of the matching items
+     */
+    public CompletableFuture<ListingsPage> searchAsync(String query, ListingsFilter filter, int limit) {
+        long start = System.nanoTime();
+        String key = "search:" + query + ":" + limit + ":" + filter;
+        return timed(searchLatency, start, lookup(key).thenCompose(cached -> {
+            if (cached != null) {
+                return CompletableFuture.completedFuture((ListingsPage) cached.value);
             }
-        } catch (Exception e) {
-            System.err.println("dispatcher exception:");
-            e.printStackTrace();
-        }
-        return null;
+            long token = cache.begin();
+            return this.<ListingsPage>readShards("search", new Object[] { query, filter, limit },
+                    new Class<?>[] { String.class, ListingsFilter.class, int.class }, true)
+                    .thenApply(results -> mergeSearch(results, limit)).thenApply(page -> {
+                if (page != null) {
+                    // any item created or changed may match, so the results cover every id
+                    cache.put(key, page, 0, Integer.MAX_VALUE, token);
+                }
+                return page;
+            });
+        }));
+    }
+
+    /**
+     * this method returns the items a client sells, bid on, won or closed, one page at a time
+     * @param clientId the id of the client
+     * @param views Item.SELLING, Item.BIDDING, Item.WON, Item.CLOSED, or several of them or-ed together
+     * @param afterId the cursor, 0 for the first page or the next cursor of the previous page
+     * @param limit the maximum number of items to return
+     * @return the page of items in increasing id order
+     * @throws RemoteException
+     */
+    public ListingsPage getClientItems(String clientId, int views, int afterId, int limit) throws RemoteException {
+        return await(getClientItemsAsync(clientId, views, afterId, limit), null);
+    }
+
+    /**
+     * this method returns a page of the activity of a client without waiting for the backends
+     * @return the future of the page of items
+     */
+    public CompletableFuture<ListingsPage> getClientItemsAsync(String clientId, int views, int afterId, int limit) {
+        long start = System.nanoTime();
+        String key = "client:" + clientId + ":" + views + ":" + afterId + ":" + limit;
+        return timed(getClientItemsLatency, start, lookup(key).thenCompose(cached -> {
+            if (cached != null) {
+                return CompletableFuture.completedFuture((ListingsPage) cached.value);
+            }
+            long token = cache.begin();
+            return this.<ListingsPage>readShards("getClientItems", new Object[] { clientId, views, afterId, limit },
+                    new Class<?>[] { String.class, int.class, int.class, int.class }, true)
+                    // an auction stays in the history of the shard it closed on after its bucket moves
+                    .thenApply(pages -> mergePages(pages, afterId, limit, (views & (Item.WON | Item.CLOSED)) != 0)).thenApply(page -> {
+                if (page != null) {
+                    cache.put(key, page, afterId + 1, page.hasMore() ? page.getNextCursor() : Integer.MAX_VALUE, token);
+                }
+                return page;
+            });
+        }));
     }
 
+    /**
+     * this method returns an auction that closed, from the archive of the backends that closed it
+     * @param itemId the id of the auction item
+     * @return the item as it closed, null if it has not closed
+     * @throws RemoteException
+     */
+    public AuctionItem getClosedAuction(int itemId) throws RemoteException {
+        return await(getClosedAuctionAsync(itemId), null);
+    }
+
+    /**
+     * this method returns a closed auction without waiting for the backends
+     * @return the future of the item as it closed
+     */
+    public CompletableFuture<AuctionItem> getClosedAuctionAsync(int itemId) {
+        long start = System.nanoTime();
+        String key = "closed:" + itemId;
+        return timed(getClosedAuctionLatency, start, lookup(key).thenCompose(cached -> {
+            if (cached != null) {
+                return CompletableFuture.completedFuture((AuctionItem) cached.value);
+            }
+            long token = cache.begin();
+            // the auction is archived by the shard that owned it when it closed, which may not own it any more
+            return this.<AuctionItem>readShards("getClosedAuction", new Object[] { itemId }, new Class<?>[] { int.class }, false).thenApply(found -> {
+                AuctionItem item = null;
+                for (AuctionItem archived : found.values()) {
+                    if (archived != null) {
+                        item = archived;
+                        break;
+                    }
+                }
+                cache.put(key, item, itemId, itemId, token);
+                return item;
+            });
+        }));
+    }
+
+    /**
+     * this method returns the archived auctions a client sold or won, one page at a time
+     * @param clientId the id of the client
+     * @param views Item.CLOSED for the auctions it sold or not, Item.WON for those it won, or both or-ed together
+     * @param afterId the cursor, 0 for the first page or the next cursor of the previous page
+     * @param limit the maximum number of items to return
+     * @return the page of items in increasing id order
+     * @throws RemoteException
+     */
+    public ListingsPage getClosedAuctions(String clientId, int views, int afterId, int limit) throws RemoteException {
+        return await(getClosedAuctionsAsync(clientId, views, afterId, limit), null);
+    }
+
+    /**
+     * this method returns a page of the archived auctions of a client without waiting for the backends
+     * @return the future of the page of items
+     */
+    public CompletableFuture<ListingsPage> getClosedAuctionsAsync(String clientId, int views, int afterId, int limit) {
+        long start = System.nanoTime();
+        String key = "closedBy:" + clientId + ":" + views + ":" + afterId + ":" + limit;
+        return timed(getClosedAuctionsLatency, start, lookup(key).thenCompose(cached -> {
+            if (cached != null) {
+                return CompletableFuture.completedFuture((ListingsPage) cached.value);
+            }
+            long token = cache.begin();
+            return this.<ListingsPage>readShards("getClosedAuctions", new Object[] { clientId, views, afterId, limit },
+                    new Class<?>[] { String.class, int.class, int.class, int.class }, true)
+                    // like the history, an archived auction stays on the shard it closed on
+                    .thenApply(pages -> mergePages(pages, afterId, limit, true)).thenApply(page -> {
+                if (page != null) {
+                    cache.put(key, page, afterId + 1, page.hasMore() ? page.getNextCursor() : Integer.MAX_VALUE, token);
+                }
+                return page;
+            });
+        }));
+    }
     
     /** 
      * this method checks if the client id generated already exists in the hashtable
@@ -152,29 +501,17 @@ public class Frontend extends UnicastRemoteObject implements Item, MembershipLis
      * @throws RemoteException
      */
     public Boolean checkClientId(String id) throws RemoteException {
-        try {
-            RspList<Boolean> responses = this.dispatcher.callRemoteMethods(null, "checkClientId",
-            new Object[] { id }, new Class[] { String.class},
-            new RequestOptions(ResponseMode.GET_ALL, this.DISPATCHER_TIMEOUT));
-            // check if the values obtained from the backends are all the same i.e consensus achieved
-            if(verifyresults(responses.getResults())){
-                return responses.getFirst();
-            }
-            // if no consensus achieved then process the request from the member with the highest 
-            // number of requests / oldest member
-            else{
-                for (Address member : responses.keySet()) {
-                    if(member.equals(getMostReliablAddress())){
-                        System.out.println("found the correct member/member with the highest requests processed: " + member);
-                        return responses.getValue(getMostReliablAddress());
-                    }
-                }
-            }
-        } catch (Exception e) {
-            System.err.println("dispatcher exception:");
-            e.printStackTrace();
-        }
-        return null;
+        return await(checkClientIdAsync(id), null);
+    }
+
+    /**
+     * this method checks if the client id exists without waiting for the backends
+     * @return the future of true if it exists else false
+     */
+    public CompletableFuture<Boolean> checkClientIdAsync(String id) {
+        // a client is known if any shard has items of theirs
+        return timed(checkClientIdLatency, System.nanoTime(), this.<Boolean>readShards("checkClientId", new Object[] { id }, new Class<?>[] { String.class}, true)
+                .thenApply(found -> found.containsValue(Boolean.TRUE)));
     }
 
     
@@ -185,17 +522,77 @@ public class Frontend extends UnicastRemoteObject implements Item, MembershipLis
      * @param name the name of the Buyer
      * @param email the email of the Buyer
      * @param buyerId the id of the Buyer
+     * @return true if the bid was above the highest bid of the item when the backends applied it
      * @throws RemoteException
      */
-    public void bid(int id, int price, String name, String email, String buyerId) throws RemoteException {
-            try {
-                this.dispatcher.callRemoteMethods(null, "bid",
-                new Object[] {id, price, name, email, buyerId}, new Class[] { int.class, int.class, String.class, String.class, String.class},
-                new RequestOptions(ResponseMode.GET_ALL, this.DISPATCHER_TIMEOUT));
-            } catch (Exception e) {
+    public boolean bid(int id, int price, String name, String email, String buyerId) throws RemoteException {
+        return Boolean.TRUE.equals(await(bidAsync(id, price, name, email, buyerId), false));
+    }
+
+    /**
+     * this method bids for an auction item without waiting for the backends
+     * @return the future of true if the bid was above the highest bid of the item when the backends applied it
+     */
+    public CompletableFuture<Boolean> bidAsync(int id, int price, String name, String email, String buyerId) {
+        long start = System.nanoTime();
+        // the bid is sent together with the other bids received at the same time
+        return timed(bidLatency, start, bidBatcher.submit(id, price, name, email, buyerId).handleAsync((accepted, failure) -> {
+            if (failure != null) {
                 System.err.println("dispatcher exception:");
-                e.printStackTrace();
+                failure.printStackTrace();
+                return false;
+            }
+            if (!accepted) {
+                System.out.println("bid on item " + id + " was not applied, the item is closed or the bid was not the highest");
+            }
+            return accepted;
+        }, completions));
+    }
+
+
+    /**
+     * this method sends a batch of bids to the backends, split by the shard of the items and each bid
+     * stamped with its own sequence number. the shards are sent their part at the same time
+     * and each one fills in the outcomes of its bids when it answers, without waiting for the others
+     * @param bids the bids in the order to apply them
+     * @return the future of true for each bid the backends applied, it fails if a shard could not be called
+     */
+    private CompletableFuture<boolean[]> sendBids(List<BidBatcher.PendingBid> bids) {
+        ShardMap map = shardMap;
+        Map<Integer, List<Integer>> positions = new TreeMap<Integer, List<Integer>>(); // positions of the bids of each shard
+        for (int i = 0; i < bids.size(); i++) {
+            positions.computeIfAbsent(map.shardOfItem(bids.get(i).id), shard -> new ArrayList<Integer>()).add(i);
+        }
+        boolean[] outcomes = new boolean[bids.size()];
+        List<CompletableFuture<Void>> calls = new ArrayList<CompletableFuture<Void>>(positions.size());
+        for (Map.Entry<Integer, List<Integer>> shard : positions.entrySet()) {
+            ArrayList<WriteRecord> records = new ArrayList<WriteRecord>(shard.getValue().size());
+            for (int i : shard.getValue()) {
+                BidBatcher.PendingBid bid = bids.get(i);
+                records.add(WriteRecord.bid(origin, nextSequence(shard.getKey()), bid.id, bid.price, bid.name, bid.email, bid.buyerId));
             }
+            List<Integer> sent = shard.getValue();
+            CompletableFuture<RspList<boolean[]>> call = call(backendsOf(shard.getKey()), "bidBatch",
+            new Object[] { new WriteBatch(records) }, new Class<?>[] { WriteBatch.class },
+            new RequestOptions(ResponseMode.GET_ALL, this.DISPATCHER_TIMEOUT));
+            calls.add(call.thenAccept(responses -> {
+                // every bid sent is a write the backends apply, accepted or not
+                for (int i : sent) {
+                    cache.written(bids.get(i).id);
+                }
+                // backends that are still syncing queue the batch and answer null
+                for (boolean[] shardOutcomes : responses.getResults()) {
+                    if (shardOutcomes != null) {
+                        // each shard writes the positions of its own bids only
+                        for (int i = 0; i < sent.size() && i < shardOutcomes.length; i++) {
+                            outcomes[sent.get(i)] = shardOutcomes[i];
+                        }
+                        break;
+                    }
+                }
+            }));
+        }
+        return CompletableFuture.allOf(calls.toArray(new CompletableFuture<?>[0])).thenApply(done -> outcomes);
     }
 
     
@@ -206,16 +603,20 @@ public class Frontend extends UnicastRemoteObject implements Item, MembershipLis
      * @throws RemoteException
      */
     public AuctionItem closeItem(int key) throws RemoteException {
-        try {
-            RspList<AuctionItem> responses = this.dispatcher.callRemoteMethods(null, "closeItem",
-            new Object[] { key }, new Class[] { int.class},
-            new RequestOptions(ResponseMode.GET_ALL, this.DISPATCHER_TIMEOUT));
-            return responses.getFirst();
-        } catch (Exception e) {
-            System.err.println("dispatcher exception:");
-            e.printStackTrace();
-        }
-        return null;
+        return await(closeItemAsync(key), null);
+    }
+
+    /**
+     * this method closes the auction item without waiting for the backends
+     * @return the future of the auction item closed
+     */
+    public CompletableFuture<AuctionItem> closeItemAsync(int key) {
+        long start = System.nanoTime();
+        int shard = shardMap.shardOfItem(key);
+        CompletableFuture<RspList<AuctionItem>> call = call(backendsOf(shard), "closeItem",
+        new Object[] { origin, nextSequence(shard), key }, new Class<?>[] { String.class, long.class, int.class},
+        new RequestOptions(ResponseMode.GET_ALL, this.DISPATCHER_TIMEOUT));
+        return timed(closeItemLatency, start, call.thenApply(responses -> responses.getFirst()).whenComplete((closed, failure) -> cache.written(key)));
     }
 
     
@@ -226,29 +627,518 @@ public class Frontend extends UnicastRemoteObject implements Item, MembershipLis
      * @throws RemoteException
      */
     public boolean checkItemNonExistent(int id) throws RemoteException {
+        return Boolean.TRUE.equals(await(checkItemNonExistentAsync(id), false));
+    }
+
+    /**
+     * this method checks if the item doesnt exist or closed without waiting for the backends
+     * @return the future of true if it doesnt exist else false
+     */
+    public CompletableFuture<Boolean> checkItemNonExistentAsync(int id) {
+        return timed(checkItemNonExistentLatency, System.nanoTime(),
+                read(shardMap.shardOfItem(id), "checkItemNonExistent", new Object[] { id }, new Class<?>[] { int.class }, true));
+    }
+
+    /**
+     * this method returns the counters of the read cache
+     * @return the cache counters
+     */
+    public CacheStats getCacheStats() {
+        return cache.getStats();
+    }
+
+    /**
+     * this method lists the frontends of the cluster, for the clients to spread their calls over them
+     * @return the host:port of the registry of every frontend in the view, this one included
+     */
+    public String[] getFrontends() {
+        return frontends.clone();
+    }
+
+    /**
+     * @return the port of the binary gateway of this frontend, 0 if it has none
+     */
+    int getGatewayPort() {
+        return gateway == null ? 0 : gateway.getPort();
+    }
+
+    /**
+     * @param name the logical name of a member
+     * @return the host:port of the registry of the frontend, or null if the member is not a frontend that has one
+     */
+    static String endpointOf(String name) {
+        if (name == null || !name.startsWith("frontend@")) {
+            return null;
+        }
+        Matcher matcher = ENDPOINT.matcher(name);
+        return matcher.find() ? matcher.group(1) : null;
+    }
+
+    /**
+     * this method has the listener of a client called with every change to an item
+     * @param itemId the id of the item to follow
+     * @param listener the callback exported by the client
+     * @throws RemoteException
+     */
+    public void subscribeItem(int itemId, AuctionListener listener) throws RemoteException {
+        notifier.subscribeItem(itemId, listener);
+    }
+
+    /**
+     * this method has the listener of a client called with the changes to the items a client sells,
+     * when its bids are beaten and when it wins an item
+     * @param clientId the id of the client to follow
+     * @param listener the callback exported by the client
+     * @throws RemoteException
+     */
+    public void subscribeClient(String clientId, AuctionListener listener) throws RemoteException {
+        notifier.subscribeClient(clientId, listener);
+    }
+
+    /**
+     * this method stops calling the listener of a client for every item and client it follows
+     * @param listener the callback exported by the client
+     * @throws RemoteException
+     */
+    public void unsubscribe(AuctionListener listener) throws RemoteException {
+        notifier.unsubscribe(listener);
+    }
+
+    /**
+     * called by the backend that publishes the events of a shard with the bids and closes it applied
+     * @param events the events, in the order their writes were applied
+     */
+    public void receiveEvents(AuctionEvent[] events) {
+        notifier.dispatch(events);
+    }
+
+    /**
+     * this method checks the state version of the backends if the cache has not done so recently,
+     * then looks the read up in the cache
+     * @param key the key of the read
+     * @return the future of the cached entry, or of null if the read has to go to the backends
+     */
+    private CompletableFuture<ListingsCache.Entry> lookup(String key) {
+        if (!cache.needsCheck()) {
+            return CompletableFuture.completedFuture(cache.get(key));
+        }
+        return this.<Long>readShards("getStateVersion", new Object[] {}, new Class<?>[] {}, false).handle((versions, failure) -> {
+            if (failure != null) {
+                System.err.println("dispatcher exception:");
+                failure.printStackTrace();
+            }
+            // the version of the cluster is the sum of the versions of its shards
+            long clusterVersion = 0;
+            for (Long version : failure != null ? Collections.<Long>singletonList(null) : versions.values()) {
+                clusterVersion = version == null || clusterVersion < 0 ? -1 : clusterVersion + version;
+            }
+            cache.validate(clusterVersion);
+            return cache.get(key);
+        });
+    }
+
+    /**
+     * records how long an operation took once its future completes, whether it failed or not
+     * @param latency the histogram of the operation
+     * @param start when the operation started, from System.nanoTime
+     * @param future the future of the operation
+     * @return the future completed after the time is recorded
+     */
+    private <T> CompletableFuture<T> timed(LatencyHistogram latency, long start, CompletableFuture<T> future) {
+        return future.whenComplete((value, failure) -> latency.record((System.nanoTime() - start) / 1000));
+    }
+
+    /**
+     * waits for the result of a request, used by the Item methods that RMI calls
+     * @param future the future returned by the AsyncItem method
+     * @param failed the value to return if the request failed
+     * @return the result of the request
+     */
+    private <T> T await(CompletableFuture<T> future, T failed) {
         try {
-            RspList<Boolean> responses = this.dispatcher.callRemoteMethods(null, "checkItemNonExistent",
-            new Object[] { id }, new Class[] { int.class },
-            new RequestOptions(ResponseMode.GET_ALL, this.DISPATCHER_TIMEOUT));
+            return future.get();
+        } catch (ExecutionException e) {
+            System.err.println("dispatcher exception:");
+            e.getCause().printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return failed;
+    }
+
+    /**
+     * sends a call to the members given without waiting for them. the dispatcher does not time out
+     * calls made with a future, so once the timeout has passed the future completes with the answers
+     * received so far, as a blocking call would. the time each backend takes to answer is recorded as
+     * its answer arrives
+     * @param targets the members to call, null for every member
+     * @param method the name of the method
+     * @param args the arguments of the method
+     * @param types the types of the arguments
+     * @param options how many answers to wait for and for how long
+     * @return the future of the answers, completed on one of the completion threads
+     */
+    @SuppressWarnings("unchecked")
+    private <T> CompletableFuture<RspList<T>> call(Collection<Address> targets, String method, Object[] args, Class<?>[] types, RequestOptions options) {
+        CompletableFuture<RspList<T>> result = new CompletableFuture<RspList<T>>();
+        long start = System.nanoTime();
+        RspFilter filter = options.getRspFilter();
+        options.setRspFilter(new RspFilter() {
+            public boolean isAcceptable(Object response, Address sender) {
+                LatencyHistogram latency = backendLatency.get(sender);
+                if (latency != null) {
+                    latency.record((System.nanoTime() - start) / 1000);
+                }
+                return filter == null || filter.isAcceptable(response, sender);
+            }
+
+            public boolean needMoreResponses() {
+                return filter == null || filter.needMoreResponses();
+            }
+        });
+        try {
+            NotifyingFuture<RspList<T>> future = this.dispatcher.callRemoteMethodsWithFuture(targets,
+                    new MethodCall(method, args, types), options, done -> completions.execute(() -> {
+                        try {
+                            result.complete(done.get());
+                        } catch (Exception e) {
+                            result.completeExceptionally(e);
+                        }
+                    }));
+            timeouts.schedule(() -> completions.execute(() -> {
+                if (!future.isDone() && future instanceof GroupRequest) {
+                    dispatcherTimeouts.increment();
+                    result.complete(((GroupRequest<T>) future).getResults());
+                    future.cancel(true);
+                }
+            }), options.getTimeout(), TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    /**
+     * this method sends a read to the backends of a shard picked by the read mode of the method
+     * @param shard the shard to read from
+     * @param method the name of the backend method
+     * @param args the arguments of the method
+     * @param types the types of the arguments
+     * @param verify true if the backends that answer have to agree on the value
+     * @return the future of the value read, failed if the backends failed or did not answer in time
+     */
+    private <T> CompletableFuture<T> read(int shard, String method, Object[] args, Class<?>[] types, boolean verify) {
+        ReadMode mode = readModes.computeIfAbsent(method, ReadMode::forMethod);
+        List<Address> targets = shardBackends.getOrDefault(shard, Collections.<Address>emptyList());
+        // with no backend known by name, ask every member like ALL does
+        if (mode == ReadMode.ONE && !targets.isEmpty()) {
+            return readOne(method, args, types, targets);
+        }
+        RequestOptions options = new RequestOptions(ResponseMode.GET_ALL, this.DISPATCHER_TIMEOUT);
+        if (mode == ReadMode.QUORUM && !targets.isEmpty()) {
+            // stop waiting once a majority of the backends have answered
+            int majority = targets.size() / 2 + 1;
+            options.setRspFilter(new RspFilter() {
+                private int answers;
+
+                public boolean isAcceptable(Object response, Address sender) {
+                    answers++;
+                    return true;
+                }
+
+                public boolean needMoreResponses() {
+                    return answers < majority;
+                }
+            });
+        } else if (targets.isEmpty()) {
+            targets = null;
+        }
+        CompletableFuture<RspList<T>> call = call(targets, method, args, types, options);
+        return call.thenCompose(responses -> {
             // check if the values obtained from the backends are all the same i.e consensus achieved
-            if(verifyresults(responses.getResults())){
-                return responses.getFirst();
+            if(!verify || verifyresults(responses.getResults())){
+                return CompletableFuture.completedFuture(responses.getFirst());
             }
             // if no consensus achieved then process the request from the member with the highest 
             // number of requests / oldest member
-            else{
-                for (Address member : responses.keySet()) {
-                    if(member.equals(getMostReliablAddress())){
-                        System.out.println("found the correct member/member with the highest requests processed: " + member);
-                        return responses.getValue(getMostReliablAddress());
+            return mostReliableAddress(backendsOf(shard)).thenApply(reliableAddress -> {
+                if (reliableAddress != null && responses.containsKey(reliableAddress)) {
+                    System.out.println("found the correct member/member with the highest requests processed: " + reliableAddress);
+                    return responses.getValue(reliableAddress);
+                }
+                return null;
+            });
+        });
+    }
+
+    /**
+     * sends a read to every shard and gathers the answers
+     * @return the future of the value read from each shard, failed if any shard failed
+     */
+    private <T> CompletableFuture<Map<Integer, T>> readShards(String method, Object[] args, Class<?>[] types, boolean verify) {
+        int[] shards = shardMap.shards();
+        List<CompletableFuture<T>> reads = new ArrayList<CompletableFuture<T>>(shards.length);
+        for (int shard : shards) {
+            reads.add(read(shard, method, args, types, verify));
+        }
+        return CompletableFuture.allOf(reads.toArray(new CompletableFuture<?>[0])).thenApply(done -> {
+            Map<Integer, T> values = new TreeMap<Integer, T>();
+            for (int i = 0; i < shards.length; i++) {
+                values.put(shards[i], reads.get(i).join());
+            }
+            return values;
+        });
+    }
+
+    /**
+     * joins the listings of the shards. a shard that has just handed some buckets over still lists their
+     * items for a while, so each item is taken from the shard that owns it
+     * @param listings the listings of each shard
+     * @return the open items of every shard, null if a shard answered none
+     */
+    private Hashtable<Integer, AuctionItem> mergeListings(Map<Integer, Hashtable<Integer, AuctionItem>> listings) {
+        if (listings.size() == 1) {
+            return listings.values().iterator().next();
+        }
+        ShardMap map = shardMap;
+        Hashtable<Integer, AuctionItem> merged = new Hashtable<Integer, AuctionItem>();
+        for (Map.Entry<Integer, Hashtable<Integer, AuctionItem>> shard : listings.entrySet()) {
+            if (shard.getValue() == null) {
+                return null;
+            }
+            for (Map.Entry<Integer, AuctionItem> item : shard.getValue().entrySet()) {
+                if (map.shardOfItem(item.getKey()) == shard.getKey()) {
+                    merged.put(item.getKey(), item.getValue());
+                }
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * joins the pages the shards returned for the same cursor into one page in increasing id order.
+     * the joined page stops at the lowest cursor of the shards that have more, as the items after it are
+     * not known yet, and at the limit
+     * @param pages the page of each shard
+     * @param afterId the cursor the pages were asked for
+     * @param limit the maximum number of items
+     * @param sellerPage true if the pages list the items of a seller, which include the closed items a shard
+     * keeps after their bucket moved, so those are taken from any shard unless the owner has them
+     * @return the joined page, null if a shard answered none
+     */
+    private ListingsPage mergePages(Map<Integer, ListingsPage> pages, int afterId, int limit, boolean sellerPage) {
+        if (pages.size() == 1) {
+            return pages.values().iterator().next();
+        }
+        ShardMap map = shardMap;
+        int bound = Integer.MAX_VALUE; // highest id every shard has listed up to
+        boolean more = false;
+        for (ListingsPage page : pages.values()) {
+            if (page == null) {
+                return null;
+            }
+            if (page.hasMore()) {
+                bound = Math.min(bound, page.getNextCursor());
+                more = true;
+            }
+        }
+        TreeMap<Integer, AuctionItem> merged = new TreeMap<Integer, AuctionItem>();
+        for (Map.Entry<Integer, ListingsPage> shard : pages.entrySet()) {
+            for (AuctionItem item : shard.getValue().getItems()) {
+                if (item.getItemId() > bound) {
+                    continue;
+                }
+                if (map.shardOfItem(item.getItemId()) == shard.getKey()) {
+                    merged.put(item.getItemId(), item);
+                } else if (sellerPage) {
+                    merged.putIfAbsent(item.getItemId(), item);
+                }
+            }
+        }
+        ArrayList<AuctionItem> items = new ArrayList<AuctionItem>(Math.min(limit, merged.size()));
+        for (AuctionItem item : merged.values()) {
+            if (items.size() == limit) {
+                return new ListingsPage(items, items.get(limit - 1).getItemId(), true);
+            }
+            items.add(item);
+        }
+        if (more) {
+            return new ListingsPage(items, bound, true);
+        }
+        return new ListingsPage(items, items.isEmpty() ? afterId : items.get(items.size() - 1).getItemId(), false);
+    }
+
+    /**
+     * joins the search results of the shards. each shard returns its newest matches, so the newest of
+     * them all are the newest matches of the cluster. an item is taken from the shard that owns it
+     * @param results the matches of each shard in decreasing id order
+     * @param limit the maximum number of items
+     * @return the joined matches in decreasing id order, null if a shard answered none
+     */
+    private ListingsPage mergeSearch(Map<Integer, ListingsPage> results, int limit) {
+        if (results.size() == 1) {
+            return results.values().iterator().next();
+        }
+        ShardMap map = shardMap;
+        boolean more = false;
+        TreeMap<Integer, AuctionItem> merged = new TreeMap<Integer, AuctionItem>(Collections.reverseOrder());
+        for (Map.Entry<Integer, ListingsPage> shard : results.entrySet()) {
+            if (shard.getValue() == null) {
+                return null;
+            }
+            more |= shard.getValue().hasMore();
+            for (AuctionItem item : shard.getValue().getItems()) {
+                if (map.shardOfItem(item.getItemId()) == shard.getKey()) {
+                    merged.put(item.getItemId(), item);
+                }
+            }
+        }
+        ArrayList<AuctionItem> items = new ArrayList<AuctionItem>(Math.min(limit, merged.size()));
+        for (AuctionItem item : merged.values()) {
+            if (items.size() == limit) {
+                more = true;
+                break;
+            }
+            items.add(item);
+        }
+        return new ListingsPage(items, items.isEmpty() ? 0 : items.get(items.size() - 1).getItemId(), more);
+    }
+
+    /**
+     * sends the time of this frontend to every shard as the cluster clock, so they close the timed auctions
+     * that ended by then. only the oldest frontend in the view sends it, the next one takes over when it leaves
+     */
+    private void tick() {
+        if (!ticking) {
+            return;
+        }
+        long time = System.currentTimeMillis();
+        for (int shard : shardMap.shards()) {
+            List<Address> targets = backendsOf(shard);
+            if (targets == null) {
+                continue;
+            }
+            this.<int[]>call(targets, "tick", new Object[] { origin, nextSequence(shard), time },
+                    new Class<?>[] { String.class, long.class, long.class },
+                    new RequestOptions(ResponseMode.GET_ALL, this.DISPATCHER_TIMEOUT)).whenComplete((responses, failure) -> {
+                int[] closed = new int[0];
+                if (responses != null) {
+                    for (int[] ended : responses.getResults()) {
+                        if (ended != null) {
+                            closed = ended;
+                            break;
+                        }
                     }
                 }
+                cache.ticked(closed);
+            });
+        }
+    }
+
+    /**
+     * @param shard a shard
+     * @return the backends of the shard, or null to call every member when no backend is known by name
+     */
+    private List<Address> backendsOf(int shard) {
+        List<Address> targets = shardBackends.get(shard);
+        return targets == null || targets.isEmpty() ? null : targets;
+    }
+
+    /**
+     * @param shard the shard a write is sent to
+     * @return the sequence number of the write, the writes sent to each shard are numbered on their own
+     * so the backends of the shard see no gaps
+     */
+    private long nextSequence(int shard) {
+        return sequences.computeIfAbsent(shard, key -> new AtomicLong()).incrementAndGet();
+    }
+
+    /**
+     * sends a read to a single backend, picked round robin or by the fewest reads waiting on it,
+     * and tries the next backend if it fails or does not answer in time
+     */
+    private <T> CompletableFuture<T> readOne(String method, Object[] args, Class<?>[] types, List<Address> targets) {
+        int first = leastLoaded ? leastLoadedIndex(targets) : Math.floorMod(nextReplica.getAndIncrement(), targets.size());
+        return readFrom(method, args, types, targets, first, 0);
+    }
+
+    private <T> CompletableFuture<T> readFrom(String method, Object[] args, Class<?>[] types, List<Address> targets, int first, int attempt) {
+        Address backend = targets.get((first + attempt) % targets.size());
+        AtomicInteger pending = pendingReads.computeIfAbsent(backend, member -> new AtomicInteger());
+        pending.incrementAndGet();
+        CompletableFuture<RspList<T>> call = call(Collections.singletonList(backend), method, args, types,
+                new RequestOptions(ResponseMode.GET_FIRST, this.DISPATCHER_TIMEOUT));
+        return call.handle((responses, failure) -> {
+            pending.decrementAndGet();
+            Rsp<T> rsp = responses == null ? null : responses.get(backend);
+            if (failure == null && rsp != null && rsp.wasReceived() && !rsp.hasException()) {
+                return CompletableFuture.completedFuture(rsp.getValue());
             }
-        } catch (Exception e) {
-            System.err.println("dispatcher exception:");
-            e.printStackTrace();
+            System.err.println(method + " failed on " + backend + ", trying another backend");
+            if (attempt + 1 < targets.size()) {
+                return this.<T>readFrom(method, args, types, targets, first, attempt + 1);
+            }
+            if (failure == null) {
+                failure = rsp != null && rsp.hasException() ? rsp.getException() : new TimeoutException(method + " was not answered by any backend");
+            }
+            return CompletableFuture.<T>failedFuture(failure);
+        }).thenCompose(next -> next);
+    }
+
+    /**
+     * @return the position of the backend with the fewest reads waiting on it
+     */
+    private int leastLoadedIndex(List<Address> targets) {
+        int best = 0;
+        int fewest = Integer.MAX_VALUE;
+        for (int i = 0; i < targets.size(); i++) {
+            AtomicInteger pending = pendingReads.get(targets.get(i));
+            int waiting = pending == null ? 0 : pending.get();
+            if (waiting < fewest) {
+                fewest = waiting;
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * keeps the backends of the view given and the shard of each, they are told apart from frontends
+     * by their logical name, and the registry of each frontend. the oldest frontend of the view sends the ticks of the cluster clock
+     * @param v the current view of the cluster
+     */
+    private void updateBackends(View v) {
+        List<Address> members = new ArrayList<Address>();
+        Map<Integer, List<Address>> shards = new HashMap<Integer, List<Address>>();
+        List<String> endpoints = new ArrayList<String>();
+        Address oldestFrontend = null;
+        for (Address member : v.getMembers()) {
+            String name = UUID.get(member);
+            if (oldestFrontend == null && name != null && name.startsWith("frontend")) {
+                oldestFrontend = member;
+            }
+            if (endpointOf(name) != null) {
+                endpoints.add(endpointOf(name));
+            }
+            if (ShardMap.isBackend(name)) {
+                members.add(member);
+                shards.computeIfAbsent(ShardMap.shardOf(name), shard -> new ArrayList<Address>()).add(member);
+            }
+        }
+        shardBackends = shards;
+        frontends = endpoints.toArray(new String[0]);
+        shardMap = ShardMap.of(v);
+        boolean oldest = this.groupChannel.getAddress().equals(oldestFrontend);
+        if (oldest && !ticking) {
+            System.out.println("    this frontend sends the ticks of the cluster clock");
+        }
+        ticking = oldest;
+        backends = members;
+        pendingReads.keySet().retainAll(members);
+        backendLatency.keySet().retainAll(members);
+        for (Address member : members) {
+            backendLatency.computeIfAbsent(member, backend -> metrics.latency("backend." + UUID.get(backend)));
         }
-        return false;
     }
 
     /**
@@ -286,6 +1176,7 @@ public class Frontend extends UnicastRemoteObject implements Item, MembershipLis
     @Override
     public void viewAccepted(View v) {
         System.out.println("    jgroups view changed!\n    new view: " + v.toString() + "\n");
+        updateBackends(v);
     }
 
     
@@ -296,6 +1187,9 @@ public class Frontend extends UnicastRemoteObject implements Item, MembershipLis
      * @return Boolean return true if consensus is achieved otherwise return false
      */
     public Boolean verifyresults(List results){
+        if(results.isEmpty()){
+            return true;
+        }
         Object valuetoVerify = results.get(0);
         for(int i = 0; i<results.size(); i++){
             // terminate when reaching the end of the list 
@@ -303,15 +1197,19 @@ public class Frontend extends UnicastRemoteObject implements Item, MembershipLis
             if(i == results.size()-1){
                 return true;
             }
-            // check if two objects match
-            else if(valuetoVerify == results.get(i+1)){
+            // check if two objects match, by value as ids and flags come back boxed
+            else if(Objects.equals(valuetoVerify, results.get(i+1))){
                 valuetoVerify = results.get(i+1);
             } 
             else if(valuetoVerify instanceof Hashtable){
                 valuetoVerify = results.get(i+1);
             }
+            else if(valuetoVerify instanceof ListingsPage && ((ListingsPage) valuetoVerify).sameAs(results.get(i+1))){
+                valuetoVerify = results.get(i+1);
+            }
             else{
                 System.out.println("no consensus, values are not similar!");
+                consensusFailures.increment();
                 return false;
             }
         }
@@ -324,24 +1222,35 @@ public class Frontend extends UnicastRemoteObject implements Item, MembershipLis
      * @return Address the address of the member 
      */
     public Address getMostReliablAddress() {
-        try {
+        return await(mostReliableAddress(null), null);
+    }
+
+    /**
+     * @param targets the backends to pick from, null for every member
+     * @return the future of the address of the member that processed the most requests, or of null if none answered
+     */
+    private CompletableFuture<Address> mostReliableAddress(Collection<Address> targets) {
+        fallbacks.increment();
+        CompletableFuture<RspList<Integer>> call = call(targets, "getRequestCount",
+        new Object[] {}, new Class<?>[] {},
+        new RequestOptions(ResponseMode.GET_ALL, this.DISPATCHER_TIMEOUT));
+        return call.handle((responses, failure) -> {
+            if (failure != null) {
+                System.err.println("dispatcher exception:");
+                failure.printStackTrace();
+                return null;
+            }
             Address reliablAddress = null;
             int currentHighestCount = 0;
-            RspList<Integer> responses = this.dispatcher.callRemoteMethods(null, "getRequestCount",
-            new Object[] {}, new Class[] {},
-            new RequestOptions(ResponseMode.GET_ALL, this.DISPATCHER_TIMEOUT));
             for (Address member : responses.keySet()) {
-                if(responses.getValue(member) > currentHighestCount){
-                    currentHighestCount = responses.getValue(member);
+                Integer count = responses.getValue(member);
+                if(count != null && count > currentHighestCount){
+                    currentHighestCount = count;
                     reliablAddress = member;
                 }
             }
             return reliablAddress;
-        } catch (Exception e) {
-            System.err.println("dispatcher exception:");
-            e.printStackTrace();
-        }
-        return null;
+        });
     }
 
     public static void main(String[] args) {
@@ -1,30 +1,243 @@
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 import org.jgroups.JChannel;
+import org.jgroups.conf.ConfiguratorFactory;
+import org.jgroups.conf.ProtocolConfiguration;
+import org.jgroups.conf.ProtocolStackConfigurator;
+import org.jgroups.protocols.FRAG2;
+import org.jgroups.protocols.SEQUENCER;
+import org.jgroups.stack.ProtocolStack;
+import org.jgroups.util.Util;
 
 /**
- * This class establishes a connection by creating a JGroup channel if not created 
- * or returns it if it is already established
+ * This class establishes a connection by creating a JGroup channel if not created
+ * or returns it if it is already established.
+ * the protocol stack of the channel is the profile named by the "JGROUPS_PROFILE" env var:
+ * "udp" (default) is the JGroups default stack over IP multicast, "tcp" connects every pair of members over TCP
+ * and finds them through the "JGROUPS_HOSTS" list (default this machine), for networks that drop multicast, "local" is the tcp stack
+ * bound to 127.0.0.1 for processes on one machine, and "loopback" passes messages in memory between members
+ * of one JVM. these env vars tune any of them: "JGROUPS_BUNDLER" (how the transport bundles messages),
+ * "JGROUPS_BUNDLE_SIZE" (bytes a bundle is sent at), "JGROUPS_BUNDLE_TIMEOUT" (ms a bundle waits for more messages),
+ * "JGROUPS_FRAG_SIZE" (bytes larger messages are cut into), "JGROUPS_CREDITS" (bytes a member sends before the
+ * receivers ack them) and "JGROUPS_FD_TIMEOUT" (ms of silence before a member is suspected). the stack is checked
+ * before the channel is created, so settings that cannot work together fail at startup with their names.
  */
 public class GroupUtils {
+    static final String[] PROFILES = { "udp", "tcp", "local", "loopback" };
+    static final String[] BUNDLERS = { "transfer-queue", "simplified-transfer-queue", "sender-sends", "sender-sends-with-timer",
+            "ring-buffer", "ring-buffer-lockless", "ring-buffer-lockless2", "no-bundler" }; // bundler types the transport knows
+    private static final String LOOPBACK = // members in one JVM talking through memory
+            "SHARED_LOOPBACK:SHARED_LOOPBACK_PING:pbcast.NAKACK2:UNICAST3:pbcast.STABLE:pbcast.GMS:FRAG2";
+    private static final int LOCAL_PORTS = 16;          // members of the local profile, each takes the next port from 7800
+    private static final int MAX_DATAGRAM = 65535;      // largest bundle UDP can send in one datagram
+    private static final int FRAGMENT_HEADERS = 1024;   // room a bundle keeps for the headers of a fragment
+
+    // the stack configuration used by connect, taken from the "JGROUPS_CONFIG" env var (a file, a resource
+    // or a protocol string), the profile is used if it is null
+    static String config = System.getenv("JGROUPS_CONFIG");
+    // the profile used when there is no configuration
+    static String profile = System.getenv("JGROUPS_PROFILE") == null ? "udp" : System.getenv("JGROUPS_PROFILE");
 
   /**
    * Returns a JGroup Channel in which a connection has already been established.
    * The channel name is taken from the "GROUP" env var, or a default is used if
    * no var present. note: this channel will discard self messages.
-   * 
+   *
    * @return the connected jgroups channel or null if an error occurred.
    */
     public static JChannel connect() {
+        return connect(null);
+    }
+
+  /**
+   * Same as connect() but the logical name of the member starts with the role given,
+   * so other members can tell frontends and backends apart from the view.
+   * when the "TOTAL_ORDER" env var is true, SEQUENCER is added to the stack so every member
+   * delivers the multicasts of all members in the same order. all members have to set it alike.
+   *
+   * @param role "frontend" or "backend", or null to keep the default name
+   * @return the connected jgroups channel or null if an error occurred.
+   */
+    public static JChannel connect(String role) {
         // check if the value of the variable is null then channelName = DEFAULT_GROUP
         String channelName = System.getenv("GROUP") == null ? "DEFAULT_GROUP" : System.getenv("GROUP");
         try {
-            JChannel channel = new JChannel(); // use the default configuration
+            JChannel channel = channel();
+            if (role != null) {
+                channel.setName(role + "-" + Util.generateLocalName());
+            }
             channel.connect(channelName);
-            System.out.printf("    connected to jgroups channel: %s\n", channelName);
+            System.out.printf("    connected to jgroups channel: %s (%s)\n", channelName, config == null ? profile : config);
             channel.setDiscardOwnMessages(true);
             return channel;
         } catch (Exception e) {
-            System.err.printf("    could not connect to jgroups channel: %s\n", channelName);
+            System.err.printf("    could not connect to jgroups channel: %s: %s\n", channelName, e.getMessage());
         }
         return null;
     }
+
+  /**
+   * @return a channel with the stack of the profile, not connected yet
+   */
+    static JChannel channel() throws Exception {
+        // the messages written in the compact format are sent with short ids instead of class names
+        WireFormat.register();
+        JChannel channel = new JChannel(stack());
+        if (totalOrder()) {
+            // multicasts are forwarded to the coordinator, which sends them on in one order for everyone
+            channel.getProtocolStack().insertProtocol(new SEQUENCER(), ProtocolStack.BELOW, FRAG2.class);
+        }
+        return channel;
+    }
+
+  /**
+   * builds the stack of the configuration, or of the profile if there is none, and applies the tuning env vars to it
+   * @return the checked stack
+   * @throws IllegalArgumentException if the profile is unknown or the settings cannot work together
+   */
+    static ProtocolStackConfigurator stack() throws Exception {
+        ProtocolStackConfigurator stack = ConfiguratorFactory.getStackConfigurator(config != null ? config : base(profile));
+        List<ProtocolConfiguration> protocols = stack.getProtocolStack();
+        Map<String, String> transport = protocols.get(0).getProperties();
+        if (config == null && (profile.equals("tcp") || profile.equals("local"))) {
+            boolean local = profile.equals("local");
+            // members bind to the address given, or else to the first address of this machine that is not a loopback,
+            // and look for each other on it unless they are given the hosts of the cluster
+            String address = local ? "127.0.0.1" : System.getenv("JGROUPS_BIND_ADDR");
+            if (address == null) {
+                InetAddress found = Util.getNonLoopbackAddress();
+                address = (found == null ? Util.getLocalhost() : found).getHostAddress();
+            }
+            String hosts = local || System.getenv("JGROUPS_HOSTS") == null ? address + "[7800]" : System.getenv("JGROUPS_HOSTS");
+            transport.put("bind_addr", address);
+            set(protocols, "FD_SOCK", "bind_addr", address);
+            set(protocols, "TCPPING", "initial_hosts", hosts);
+            set(protocols, "TCPPING", "port_range", String.valueOf(local ? LOCAL_PORTS : 2));
+        }
+        String bundler = System.getenv("JGROUPS_BUNDLER");
+        Integer bundleSize = setting("JGROUPS_BUNDLE_SIZE", true);
+        Integer bundleTimeout = setting("JGROUPS_BUNDLE_TIMEOUT", false);
+        Integer fragSize = setting("JGROUPS_FRAG_SIZE", true);
+        Integer credits = setting("JGROUPS_CREDITS", true);
+        Integer fdTimeout = setting("JGROUPS_FD_TIMEOUT", false);
+        if (bundler != null) {
+            if (!Arrays.asList(BUNDLERS).contains(bundler)) {
+                throw new IllegalArgumentException("unknown JGROUPS_BUNDLER: " + bundler + ", expected one of " + Arrays.toString(BUNDLERS));
+            }
+            transport.put("bundler_type", bundler);
+        }
+        if (bundleSize != null) {
+            transport.put("max_bundle_size", String.valueOf(bundleSize));
+        }
+        if (bundleTimeout != null) {
+            transport.put("max_bundle_timeout", String.valueOf(bundleTimeout));
+        }
+        if (fragSize != null) {
+            set(protocols, "FRAG2", "frag_size", String.valueOf(fragSize));
+            set(protocols, "FRAG", "frag_size", String.valueOf(fragSize));
+        }
+        if (credits != null) {
+            set(protocols, "MFC", "max_credits", String.valueOf(credits));
+            set(protocols, "UFC", "max_credits", String.valueOf(credits));
+        }
+        if (fdTimeout != null) {
+            // FD_ALL sends a heartbeat 4 times per timeout, FD suspects a member after 3 missed pings
+            set(protocols, "FD_ALL", "timeout", String.valueOf(fdTimeout));
+            set(protocols, "FD_ALL", "interval", String.valueOf(Math.max(1, fdTimeout / 4)));
+            set(protocols, "FD", "timeout", String.valueOf(Math.max(1, fdTimeout / 3)));
+            set(protocols, "FD", "max_tries", "3");
+        }
+        check(protocols);
+        return stack;
+    }
+
+    // return the configuration of a profile, a resource of the jgroups jar or a protocol string
+    private static String base(String name) {
+        switch (name) {
+            case "udp":
+                return "udp.xml";
+            case "tcp":
+            case "local":
+                return "tcp.xml";
+            case "loopback":
+                return LOOPBACK;
+            default:
+                throw new IllegalArgumentException("unknown JGROUPS_PROFILE: " + name + ", expected one of " + Arrays.toString(PROFILES));
+        }
+    }
+
+    // checks the sizes against each other, a message must fit in a bundle once cut and the credits must let a fragment through
+    private static void check(List<ProtocolConfiguration> protocols) {
+        ProtocolConfiguration transport = protocols.get(0);
+        long bundle = bytes(transport, "max_bundle_size", 64000);
+        if (transport.getProtocolName().endsWith("UDP") && bundle > MAX_DATAGRAM) {
+            throw new IllegalArgumentException("max_bundle_size (JGROUPS_BUNDLE_SIZE) " + bundle + " is above the largest UDP datagram, " + MAX_DATAGRAM);
+        }
+        long fragment = 0;
+        for (ProtocolConfiguration protocol : protocols) {
+            String name = protocol.getProtocolName();
+            if (name.equals("FRAG2") || name.equals("FRAG")) {
+                fragment = bytes(protocol, "frag_size", 60000);
+                if (fragment + FRAGMENT_HEADERS > bundle) {
+                    throw new IllegalArgumentException("frag_size (JGROUPS_FRAG_SIZE) " + fragment + " leaves no room for headers in max_bundle_size " + bundle
+                            + ", it has to be at most " + (bundle - FRAGMENT_HEADERS));
+                }
+            }
+        }
+        for (ProtocolConfiguration protocol : protocols) {
+            String name = protocol.getProtocolName();
+            if ((name.equals("MFC") || name.equals("UFC")) && bytes(protocol, "max_credits", 500000) < Math.max(fragment, 1)) {
+                throw new IllegalArgumentException(name + " max_credits (JGROUPS_CREDITS) " + bytes(protocol, "max_credits", 500000)
+                        + " is below frag_size " + fragment + ", a fragment could never be sent");
+            }
+            if (name.equals("FD_ALL") && bytes(protocol, "interval", 8000) >= bytes(protocol, "timeout", 40000)) {
+                throw new IllegalArgumentException("FD_ALL interval has to be below its timeout (JGROUPS_FD_TIMEOUT)");
+            }
+        }
+    }
+
+    // sets a property of every protocol of the stack with the name given, does nothing if the stack has none
+    private static void set(List<ProtocolConfiguration> protocols, String name, String property, String value) {
+        for (ProtocolConfiguration protocol : protocols) {
+            String protocolName = protocol.getProtocolName();
+            if (protocolName.substring(protocolName.lastIndexOf('.') + 1).equals(name)) {
+                protocol.getProperties().put(property, value);
+            }
+        }
+    }
+
+    // return a size or time property of a protocol, "64K" is 64000, a ${variable:default} is read as its default
+    private static long bytes(ProtocolConfiguration protocol, String property, long defaultValue) {
+        String value = protocol.getProperties().get(property);
+        if (value != null && value.startsWith("${")) {
+            value = value.indexOf(':') < 0 ? null : value.substring(value.indexOf(':') + 1, value.length() - 1);
+        }
+        return value == null ? defaultValue : Util.readBytesLong(value.trim());
+    }
+
+    // return the positive number an env var is set to, null if it is not set. sizes may end in K or M
+    private static Integer setting(String name, boolean size) {
+        String value = System.getenv(name);
+        if (value == null) {
+            return null;
+        }
+        try {
+            int number = size ? Util.readBytesInteger(value.trim()) : Integer.parseInt(value.trim());
+            if (number > 0) {
+                return number;
+            }
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        throw new IllegalArgumentException(name + " has to be a positive " + (size ? "size" : "number") + ", not " + value);
+    }
+
+  /**
+   * @return true if the members deliver multicasts in total order, set by the "TOTAL_ORDER" env var
+   */
+    public static boolean totalOrder() {
+        return "true".equalsIgnoreCase(System.getenv("TOTAL_ORDER"));
+    }
 }
@@ -0,0 +1,165 @@
+import java.util.function.Consumer;
+
+/**
+ * This class maps int keys to objects with open addressing. the keys are kept in an int array
+ * next to the values, so no key is boxed and no entry object is allocated per mapping.
+ * key 0 marks a free slot and cannot be stored, which is fine for item ids as they start at 1.
+ * it is not thread safe, ItemStore guards each map with its own lock.
+ */
+public class IntObjectMap<V> {
+    private static final float LOAD_FACTOR = 0.75f; // share of the slots used before the table grows
+
+    private int[] keys;       // the key of each slot, 0 if the slot is free
+    private Object[] values;  // the value of each slot
+    private int mask;         // table length minus one, the length is a power of two
+    private int resizeAt;     // size at which the table is doubled
+    private int size;         // number of mappings
+
+    /**
+     * @param expected the number of mappings the map should hold without growing
+     */
+    public IntObjectMap(int expected) {
+        int capacity = 8;
+        while (capacity * LOAD_FACTOR < expected) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+        resizeAt = (int) (capacity * LOAD_FACTOR);
+    }
+
+    // spreads ids that only differ in their high bits over the table
+    private static int slotOf(int key, int mask) {
+        int hash = key * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    // return the slot holding the key, or -1 if the key is not mapped
+    private int find(int key) {
+        for (int slot = slotOf(key, mask); keys[slot] != 0; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param key the key to look up
+     * @return the value mapped to the key, or null if there is none
+     */
+    @SuppressWarnings("unchecked")
+    public V get(int key) {
+        int slot = find(key);
+        return slot < 0 ? null : (V) values[slot];
+    }
+
+    /**
+     * @param key the key to look up
+     * @return true if the key is mapped
+     */
+    public boolean containsKey(int key) {
+        return find(key) >= 0;
+    }
+
+    /**
+     * maps the key to the value, replacing the previous value
+     * @param key the key, anything but 0
+     * @param value the value
+     * @return the previous value, or null if the key was not mapped
+     */
+    @SuppressWarnings("unchecked")
+    public V put(int key, V value) {
+        if (key == 0) {
+            throw new IllegalArgumentException("key 0 marks free slots and cannot be stored");
+        }
+        int slot = slotOf(key, mask);
+        while (keys[slot] != 0) {
+            if (keys[slot] == key) {
+                V previous = (V) values[slot];
+                values[slot] = value;
+                return previous;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        if (++size > resizeAt) {
+            rehash(keys.length * 2);
+        }
+        return null;
+    }
+
+    /**
+     * removes the mapping of the key. the entries after it in the probe sequence are shifted back,
+     * so lookups never have to step over deleted slots
+     * @param key the key to remove
+     * @return the value that was mapped to the key, or null if there was none
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(int key) {
+        int free = find(key);
+        if (free < 0) {
+            return null;
+        }
+        V previous = (V) values[free];
+        for (int next = (free + 1) & mask; keys[next] != 0; next = (next + 1) & mask) {
+            // an entry can move into the free slot if the slot lies between its home slot and where it is now
+            int home = slotOf(keys[next], mask);
+            if (((next - home) & mask) >= ((next - free) & mask)) {
+                keys[free] = keys[next];
+                values[free] = values[next];
+                free = next;
+            }
+        }
+        keys[free] = 0;
+        values[free] = null;
+        size--;
+        return previous;
+    }
+
+    // return the number of mappings
+    public int size() {
+        return size;
+    }
+
+    // removes every mapping and shrinks the table back to its smallest size
+    public void clear() {
+        allocate(8);
+        size = 0;
+    }
+
+    /**
+     * passes every value to the action given, in no particular order
+     * @param action what to do with each value
+     */
+    @SuppressWarnings("unchecked")
+    public void forEachValue(Consumer<? super V> action) {
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (keys[slot] != 0) {
+                action.accept((V) values[slot]);
+            }
+        }
+    }
+
+    private void rehash(int capacity) {
+        int[] oldKeys = keys;
+        Object[] oldValues = values;
+        allocate(capacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != 0) {
+                int slot = slotOf(oldKeys[i], mask);
+                while (keys[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+}
@@ -3,11 +3,29 @@ import java.rmi.RemoteException;
 import java.util.Hashtable;
 
 public interface Item extends Remote{
+    // views of the activity of a client for getClientItems, several can be or-ed together
+    public static final int SELLING = 1; // open items the client sells
+    public static final int BIDDING = 2; // open items the client bid on
+    public static final int WON = 4;     // latest auctions the client won
+    public static final int CLOSED = 8;  // latest auctions of the client that closed, sold or not
+
     public AuctionItem getSpec(int itemId) throws RemoteException;
     public int createItem(int startingPrice, String description, int minimumPrice, String clienId) throws RemoteException;
+    public int createItem(int startingPrice, String description, int minimumPrice, String clienId, long duration) throws RemoteException;
     public Hashtable<Integer, AuctionItem> getListings() throws RemoteException;
+    public ListingsPage getListingsPage(int afterId, int limit) throws RemoteException;
+    public ListingsPage getListingsPage(int afterId, int limit, ListingsFilter filter) throws RemoteException;
+    public ListingsPage search(String query, ListingsFilter filter, int limit) throws RemoteException;
+    public ListingsPage getClientItems(String clientId, int views, int afterId, int limit) throws RemoteException;
+    public AuctionItem getClosedAuction(int itemId) throws RemoteException;
+    public ListingsPage getClosedAuctions(String clientId, int views, int afterId, int limit) throws RemoteException;
     public Boolean checkClientId(String id) throws RemoteException;
-    public void bid(int id, int price, String name, String email, String buyerId) throws RemoteException;
+    public boolean bid(int id, int price, String name, String email, String buyerId) throws RemoteException;
     public AuctionItem closeItem(int key) throws RemoteException;
     public boolean checkItemNonExistent(int id) throws RemoteException;
+    public CacheStats getCacheStats() throws RemoteException;
+    public String[] getFrontends() throws RemoteException;
+    public void subscribeItem(int itemId, AuctionListener listener) throws RemoteException;
+    public void subscribeClient(String clientId, AuctionListener listener) throws RemoteException;
+    public void unsubscribe(AuctionListener listener) throws RemoteException;
 }
\ No newline at end of file
@@ -0,0 +1,414 @@
+import java.rmi.ConnectException;
+import java.rmi.ConnectIOException;
+import java.rmi.NoSuchObjectException;
+import java.rmi.RemoteException;
+import java.rmi.ServerException;
+import java.rmi.UnknownHostException;
+import java.rmi.registry.LocateRegistry;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class is the Item of a client when several frontends serve the cluster. it starts from the frontends
+ * listed in the "FRONTENDS" env var (host:port of their registries, default 127.0.0.1:1099), learns the others
+ * from getFrontends every "DISCOVERY_MS" ms (default 2000), and sends each call to the frontend with the fewest
+ * calls of this client waiting on it, taking turns when they are even.
+ * a frontend that fails is left out until it can be looked up again. a read is then sent to another frontend.
+ * a write (createItem, bid, closeItem) is only sent again if the frontend was never reached, as it could
+ * otherwise be applied twice, and fails with the RemoteException if not. the subscriptions of a listener
+ * stay on one frontend and move to another one with it when it fails. it needs no JGroups jar.
+ */
+public class ItemProxy implements Item {
+    private static final long DISCOVERY_MS = System.getenv("DISCOVERY_MS") == null ? 2000 : Long.parseLong(System.getenv("DISCOVERY_MS"));
+
+    private final Set<String> seeds;                // the frontends given, always kept
+    private final Map<String, Endpoint> frontends = new ConcurrentHashMap<String, Endpoint>(); // the frontends known, by host:port
+    private volatile Endpoint[] ordered = new Endpoint[0]; // the frontends known, in the order turns are taken
+    private final AtomicInteger turn = new AtomicInteger(); // where the next pick starts among even frontends
+    private final Map<AuctionListener, Subscriptions> subscriptions = new ConcurrentHashMap<AuctionListener, Subscriptions>(); // what each listener follows
+    private final ScheduledExecutorService discovery = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "frontend-discovery");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * the registry of one frontend and the calls this client has waiting on it
+     */
+    private static final class Endpoint {
+        final String endpoint;      // host:port of its registry
+        volatile Item stub;         // null until it is looked up, and again once it failed
+        final AtomicInteger outstanding = new AtomicInteger(); // calls sent to it and not answered yet
+        final LongAdder calls = new LongAdder();               // calls it answered
+
+        Endpoint(String endpoint) {
+            this.endpoint = endpoint;
+        }
+    }
+
+    /**
+     * the items and clients a listener follows, and the frontend that calls it
+     */
+    private static final class Subscriptions {
+        final Set<Integer> items = new HashSet<Integer>();
+        final Set<String> clients = new HashSet<String>();
+        Endpoint frontend;          // null until it is subscribed somewhere, guarded by this object
+    }
+
+    /**
+     * a call of the Item interface on one frontend
+     */
+    private interface Call<T> {
+        T on(Item frontend) throws RemoteException;
+    }
+
+    /**
+     * @param endpoints the host:port of the registries of one or more frontends, separated by commas
+     */
+    public ItemProxy(String endpoints) {
+        this.seeds = new LinkedHashSet<String>();
+        for (String endpoint : endpoints.split(",")) {
+            if (!endpoint.trim().isEmpty()) {
+                seeds.add(endpoint.trim());
+            }
+        }
+        if (seeds.isEmpty()) {
+            throw new IllegalArgumentException("no frontend given: " + endpoints);
+        }
+        for (String endpoint : seeds) {
+            add(endpoint);
+        }
+        refresh();
+        discovery.scheduleWithFixedDelay(this::refresh, DISCOVERY_MS, DISCOVERY_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return a proxy of the frontends of the "FRONTENDS" env var
+     */
+    public static ItemProxy connect() {
+        return new ItemProxy(System.getenv("FRONTENDS") == null ? "127.0.0.1:1099" : System.getenv("FRONTENDS"));
+    }
+
+    private synchronized void add(String endpoint) {
+        if (!frontends.containsKey(endpoint)) {
+            Endpoint frontend = new Endpoint(endpoint);
+            frontends.put(endpoint, frontend);
+            ordered = frontends.values().toArray(new Endpoint[0]);
+        }
+    }
+
+    /**
+     * looks up the frontends that are not reachable yet, asks a reachable one for the frontends of the cluster,
+     * checks the ones it does not list and forgets those that do not answer
+     */
+    private synchronized void refresh() {
+        for (Endpoint frontend : ordered) {
+            if (frontend.stub == null) {
+                lookup(frontend);
+            }
+        }
+        for (Endpoint frontend : ordered) {
+            Item stub = frontend.stub;
+            if (stub == null) {
+                continue;
+            }
+            try {
+                Set<String> listed = new HashSet<String>(Arrays.asList(stub.getFrontends()));
+                for (String endpoint : listed) {
+                    if (!frontends.containsKey(endpoint)) {
+                        add(endpoint);
+                        lookup(frontends.get(endpoint));
+                    }
+                }
+                for (Endpoint known : ordered) {
+                    Item knownStub = known.stub;
+                    if (knownStub != null && known != frontend && !listed.contains(known.endpoint)) {
+                        // a frontend that left the cluster, or is known under another name, is kept only if it answers
+                        try {
+                            knownStub.getFrontends();
+                        } catch (RemoteException e) {
+                            failed(known);
+                        }
+                    }
+                    if (known.stub == null && !listed.contains(known.endpoint) && !seeds.contains(known.endpoint)) {
+                        frontends.remove(known.endpoint);
+                    }
+                }
+                ordered = frontends.values().toArray(new Endpoint[0]);
+                break;
+            } catch (RemoteException e) {
+                failed(frontend);
+            }
+        }
+        // the listeners of a frontend that failed are moved here when no call came to move them
+        for (Map.Entry<AuctionListener, Subscriptions> entry : subscriptions.entrySet()) {
+            Subscriptions subscribed = entry.getValue();
+            synchronized (subscribed) {
+                if (subscribed.frontend != null && subscribed.frontend.stub == null) {
+                    try {
+                        move(entry.getKey(), subscribed);
+                    } catch (RemoteException e) {
+                        // tried again on the next refresh
+                    }
+                }
+            }
+        }
+    }
+
+    private void lookup(Endpoint frontend) {
+        int colon = frontend.endpoint.lastIndexOf(':');
+        try {
+            String host = frontend.endpoint.substring(0, colon);
+            int port = Integer.parseInt(frontend.endpoint.substring(colon + 1));
+            frontend.stub = (Item) LocateRegistry.getRegistry(host, port).lookup("myserver");
+            System.out.println("    reached frontend " + frontend.endpoint);
+        } catch (Exception e) {
+            // not up, tried again on the next refresh
+        }
+    }
+
+    private void failed(Endpoint frontend) {
+        if (frontend.stub != null) {
+            frontend.stub = null;
+            System.err.println("    frontend " + frontend.endpoint + " failed, using the others");
+        }
+    }
+
+    /**
+     * @param exclude a frontend not to pick, null for none
+     * @return the reachable frontend with the fewest calls of this client waiting on it, null if none is reachable
+     */
+    private Endpoint pick(Endpoint exclude) {
+        Endpoint[] all = ordered;
+        Endpoint best = null;
+        int fewest = Integer.MAX_VALUE;
+        int start = all.length == 0 ? 0 : Math.floorMod(turn.getAndIncrement(), all.length);
+        for (int i = 0; i < all.length; i++) {
+            Endpoint frontend = all[(start + i) % all.length];
+            int waiting = frontend.outstanding.get();
+            if (frontend.stub != null && frontend != exclude && waiting < fewest) {
+                fewest = waiting;
+                best = frontend;
+            }
+        }
+        return best;
+    }
+
+    // return true if the call cannot have reached the frontend, so sending it again cannot apply it twice
+    private static boolean unsent(RemoteException e) {
+        return e instanceof ConnectException || e instanceof ConnectIOException || e instanceof NoSuchObjectException
+                || e instanceof UnknownHostException;
+    }
+
+    /**
+     * sends a call to the least busy frontend, and to the next one if it fails
+     * @param call the call
+     * @param idempotent true if the call can be sent again after it reached a frontend
+     * @return the result of the call
+     * @throws RemoteException the failure of the last frontend tried, or a ConnectException if none is reachable
+     */
+    private <T> T invoke(Call<T> call, boolean idempotent) throws RemoteException {
+        RemoteException failure = null;
+        for (int attempt = 0; attempt <= ordered.length; attempt++) {
+            Endpoint frontend = pick(null);
+            if (frontend == null) {
+                refresh();
+                frontend = pick(null);
+                if (frontend == null) {
+                    break;
+                }
+            }
+            Item stub = frontend.stub;
+            if (stub == null) {
+                continue;
+            }
+            frontend.outstanding.incrementAndGet();
+            try {
+                T result = call.on(stub);
+                frontend.calls.increment();
+                return result;
+            } catch (ServerException e) {
+                // the frontend is up, the call itself failed
+                throw e;
+            } catch (RemoteException e) {
+                failed(frontend);
+                if (!idempotent && !unsent(e)) {
+                    throw e;
+                }
+                failure = e;
+            } finally {
+                frontend.outstanding.decrementAndGet();
+            }
+        }
+        throw failure != null ? failure : new ConnectException("no frontend is reachable among " + frontends.keySet());
+    }
+
+    /**
+     * subscribes a listener to everything it follows on another frontend, the caller holds the lock of the subscriptions
+     */
+    private void move(AuctionListener listener, Subscriptions subscribed) throws RemoteException {
+        while (true) {
+            Endpoint frontend = pick(subscribed.frontend);
+            if (frontend == null) {
+                throw new ConnectException("no frontend is reachable to move the subscriptions to");
+            }
+            Item stub = frontend.stub;
+            if (stub == null) {
+                continue;
+            }
+            try {
+                for (int itemId : subscribed.items) {
+                    stub.subscribeItem(itemId, listener);
+                }
+                for (String clientId : subscribed.clients) {
+                    stub.subscribeClient(clientId, listener);
+                }
+                subscribed.frontend = frontend;
+                return;
+            } catch (RemoteException e) {
+                failed(frontend);
+            }
+        }
+    }
+
+    /**
+     * adds what a listener follows and subscribes it on its frontend, or moves all it follows to another one
+     */
+    private void subscribe(AuctionListener listener, Integer itemId, String clientId) throws RemoteException {
+        Subscriptions subscribed = subscriptions.computeIfAbsent(listener, key -> new Subscriptions());
+        synchronized (subscribed) {
+            if (itemId != null) {
+                subscribed.items.add(itemId);
+            } else {
+                subscribed.clients.add(clientId);
+            }
+            Endpoint frontend = subscribed.frontend;
+            Item stub = frontend == null ? null : frontend.stub;
+            if (stub != null) {
+                try {
+                    if (itemId != null) {
+                        stub.subscribeItem(itemId, listener);
+                    } else {
+                        stub.subscribeClient(clientId, listener);
+                    }
+                    return;
+                } catch (ServerException e) {
+                    throw e;
+                } catch (RemoteException e) {
+                    failed(frontend);
+                }
+            }
+            move(listener, subscribed);
+        }
+    }
+
+    /**
+     * @return the frontends known, whether each is reachable and the calls it answered
+     */
+    public String describe() {
+        StringBuilder text = new StringBuilder();
+        for (Endpoint frontend : ordered) {
+            text.append(text.length() == 0 ? "" : ", ").append(frontend.endpoint).append(frontend.stub == null ? " down " : " up ")
+                    .append(frontend.calls.sum()).append(" calls");
+        }
+        return text.toString();
+    }
+
+    public AuctionItem getSpec(int itemId) throws RemoteException {
+        return invoke(frontend -> frontend.getSpec(itemId), true);
+    }
+
+    public int createItem(int startingPrice, String description, int minimumPrice, String clientId) throws RemoteException {
+        return invoke(frontend -> frontend.createItem(startingPrice, description, minimumPrice, clientId), false);
+    }
+
+    public int createItem(int startingPrice, String description, int minimumPrice, String clientId, long duration) throws RemoteException {
+        return invoke(frontend -> frontend.createItem(startingPrice, description, minimumPrice, clientId, duration), false);
+    }
+
+    public Hashtable<Integer, AuctionItem> getListings() throws RemoteException {
+        return invoke(frontend -> frontend.getListings(), true);
+    }
+
+    public ListingsPage getListingsPage(int afterId, int limit) throws RemoteException {
+        return invoke(frontend -> frontend.getListingsPage(afterId, limit), true);
+    }
+
+    public ListingsPage getListingsPage(int afterId, int limit, ListingsFilter filter) throws RemoteException {
+        return invoke(frontend -> frontend.getListingsPage(afterId, limit, filter), true);
+    }
+
+    public ListingsPage search(String query, ListingsFilter filter, int limit) throws RemoteException {
+        return invoke(frontend -> frontend.search(query, filter, limit), true);
+    }
+
+    public ListingsPage getClientItems(String clientId, int views, int afterId, int limit) throws RemoteException {
+        return invoke(frontend -> frontend.getClientItems(clientId, views, afterId, limit), true);
+    }
+
+    public AuctionItem getClosedAuction(int itemId) throws RemoteException {
+        return invoke(frontend -> frontend.getClosedAuction(itemId), true);
+    }
+
+    public ListingsPage getClosedAuctions(String clientId, int views, int afterId, int limit) throws RemoteException {
+        return invoke(frontend -> frontend.getClosedAuctions(clientId, views, afterId, limit), true);
+    }
+
+    public Boolean checkClientId(String id) throws RemoteException {
+        return invoke(frontend -> frontend.checkClientId(id), true);
+    }
+
+    public boolean bid(int id, int price, String name, String email, String buyerId) throws RemoteException {
+        return invoke(frontend -> frontend.bid(id, price, name, email, buyerId), false);
+    }
+
+    public AuctionItem closeItem(int key) throws RemoteException {
+        return invoke(frontend -> frontend.closeItem(key), false);
+    }
+
+    public boolean checkItemNonExistent(int id) throws RemoteException {
+        return invoke(frontend -> frontend.checkItemNonExistent(id), true);
+    }
+
+    public CacheStats getCacheStats() throws RemoteException {
+        return invoke(frontend -> frontend.getCacheStats(), true);
+    }
+
+    public String[] getFrontends() throws RemoteException {
+        return invoke(frontend -> frontend.getFrontends(), true);
+    }
+
+    public void subscribeItem(int itemId, AuctionListener listener) throws RemoteException {
+        subscribe(listener, itemId, null);
+    }
+
+    public void subscribeClient(String clientId, AuctionListener listener) throws RemoteException {
+        subscribe(listener, null, clientId);
+    }
+
+    public void unsubscribe(AuctionListener listener) throws RemoteException {
+        Subscriptions subscribed = subscriptions.remove(listener);
+        if (subscribed == null) {
+            return;
+        }
+        synchronized (subscribed) {
+            Endpoint frontend = subscribed.frontend;
+            Item stub = frontend == null ? null : frontend.stub;
+            if (stub != null) {
+                try {
+                    stub.unsubscribe(listener);
+                } catch (ServerException e) {
+                    throw e;
+                } catch (RemoteException e) {
+                    // a frontend that failed calls nobody
+                    failed(frontend);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,187 @@
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class holds the open auction items of a backend, keyed by their id, as live AuctionItem objects.
+ * the items are spread over several IntObjectMaps, each with its own lock, so writes to
+ * different items rarely wait for each other and no id is boxed. a bitset of the ids
+ * lists the items in id order for pages and transfers.
+ */
+public class ItemStore implements AuctionStore {
+    private static final int STRIPES = 64; // number of maps the items are spread over, a power of two
+
+    private final IntObjectMap<AuctionItem>[] stripes; // the items, item id modulo STRIPES picks the map
+    private final BitSet ids = new BitSet();           // ids of the items, guarded by its own lock
+    private final AtomicInteger size = new AtomicInteger(); // number of items
+
+    public ItemStore() {
+        this(0);
+    }
+
+    /**
+     * @param expected the number of items the store should hold without growing
+     */
+    @SuppressWarnings("unchecked")
+    public ItemStore(int expected) {
+        stripes = (IntObjectMap<AuctionItem>[]) new IntObjectMap<?>[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new IntObjectMap<AuctionItem>(expected / STRIPES);
+        }
+    }
+
+    // ids are handed out in order, so the low bits spread them evenly over the stripes
+    private IntObjectMap<AuctionItem> stripe(int itemId) {
+        return stripes[itemId & (STRIPES - 1)];
+    }
+
+    /**
+     * @param itemId the id of the item
+     * @return the item, or null if there is no open item with this id
+     */
+    public AuctionItem get(int itemId) {
+        IntObjectMap<AuctionItem> stripe = stripe(itemId);
+        synchronized (stripe) {
+            return stripe.get(itemId);
+        }
+    }
+
+    /**
+     * @param itemId the id of the item
+     * @return true if there is an open item with this id
+     */
+    public boolean contains(int itemId) {
+        IntObjectMap<AuctionItem> stripe = stripe(itemId);
+        synchronized (stripe) {
+            return stripe.containsKey(itemId);
+        }
+    }
+
+    /**
+     * adds the item under its id, replacing the item that had the same id
+     * @param item the item to add
+     */
+    public void put(AuctionItem item) {
+        int itemId = item.getItemId();
+        IntObjectMap<AuctionItem> stripe = stripe(itemId);
+        synchronized (stripe) {
+            if (stripe.put(itemId, item) != null) {
+                return;
+            }
+        }
+        size.incrementAndGet();
+        synchronized (ids) {
+            ids.set(itemId);
+        }
+    }
+
+    /**
+     * @param itemId the id of the item to remove
+     * @return the item removed, or null if there was none
+     */
+    public AuctionItem remove(int itemId) {
+        synchronized (ids) {
+            ids.clear(itemId);
+        }
+        AuctionItem removed;
+        IntObjectMap<AuctionItem> stripe = stripe(itemId);
+        synchronized (stripe) {
+            removed = stripe.remove(itemId);
+        }
+        if (removed != null) {
+            size.decrementAndGet();
+        }
+        return removed;
+    }
+
+    /**
+     * bids on the live item, so the items already returned by get see the bid
+     */
+    public AuctionItem.HighestBid placeBidIfHigher(int itemId, int price, String name, String email, String buyerId) {
+        AuctionItem item = get(itemId);
+        return item == null ? null : item.placeBidIfHigher(price, name, email, buyerId);
+    }
+
+    public long getEndTime(int itemId) {
+        AuctionItem item = get(itemId);
+        return item == null ? 0 : item.getEndTime();
+    }
+
+    public long extendEndTime(int itemId, long endTime) {
+        AuctionItem item = get(itemId);
+        if (item == null) {
+            return 0;
+        }
+        synchronized (item) {
+            long extended = Math.max(item.getEndTime(), endTime);
+            item.setEndTime(extended);
+            return extended;
+        }
+    }
+
+    public String getSellerId(int itemId) {
+        AuctionItem item = get(itemId);
+        return item == null ? null : item.getClientId();
+    }
+
+    // return the number of items
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * removes every item, the caller has to keep writes out while it runs
+     */
+    public void clear() {
+        for (IntObjectMap<AuctionItem> stripe : stripes) {
+            synchronized (stripe) {
+                stripe.clear();
+            }
+        }
+        synchronized (ids) {
+            ids.clear();
+        }
+        size.set(0);
+    }
+
+    /**
+     * @param afterId the id to start after
+     * @return the lowest item id above afterId, or -1 if there is none
+     */
+    public int nextId(int afterId) {
+        synchronized (ids) {
+            return ids.nextSetBit(Math.max(afterId + 1, 0));
+        }
+    }
+
+    /**
+     * @return the ids of the items in increasing order
+     */
+    public int[] ids() {
+        synchronized (ids) {
+            int[] result = new int[ids.cardinality()];
+            int i = 0;
+            for (int itemId = ids.nextSetBit(0); itemId >= 0; itemId = ids.nextSetBit(itemId + 1)) {
+                result[i++] = itemId;
+            }
+            return result;
+        }
+    }
+
+    /**
+     * adds every item to the map given, keyed by its id. each stripe is copied under its own lock,
+     * the caller keeps writes out if it needs the copy to match one point in time
+     * @param map the map to fill
+     */
+    public void copyTo(Map<Integer, AuctionItem> map) {
+        for (IntObjectMap<AuctionItem> stripe : stripes) {
+            synchronized (stripe) {
+                stripe.forEachValue(item -> map.put(item.getItemId(), item));
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return size() + " items";
+    }
+}
@@ -0,0 +1,123 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class counts latencies in buckets whose width grows with the value, so every latency from
+ * a microsecond to hours is kept within 1.6% of its value in a fixed array of counters.
+ * values below 128 have a bucket each, above that every power of two is split into 64 buckets.
+ * recording is lock free and can be done by many threads at once.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKETS = 64;     // buckets each power of two is split into
+    private static final int SUB_BITS = 6;         // log2 of SUB_BUCKETS
+    private static final int BUCKETS = (63 - SUB_BITS + 1) * SUB_BUCKETS + SUB_BUCKETS; // enough for any positive long
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS); // number of values in each bucket
+    private final LongAdder sum = new LongAdder();  // sum of the values, for the mean
+    private final AtomicLong max = new AtomicLong(); // highest value recorded
+
+    // return the bucket of a value, values below 128 are their own bucket
+    private static int bucketOf(long value) {
+        if (value < 2 * SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return shift * SUB_BUCKETS + (int) (value >>> shift);
+    }
+
+    // return the highest value that falls in the bucket
+    private static long highestIn(int bucket) {
+        if (bucket < 2 * SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long sub = bucket % SUB_BUCKETS + SUB_BUCKETS;
+        return ((sub + 1) << shift) - 1;
+    }
+
+    /**
+     * @param value the latency to count, negative values are counted as 0
+     */
+    public void record(long value) {
+        value = Math.max(0, value);
+        counts.incrementAndGet(bucketOf(value));
+        sum.add(value);
+        if (value > max.get()) {
+            max.accumulateAndGet(value, Math::max);
+        }
+    }
+
+    // return the number of values recorded
+    public long count() {
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            total += counts.get(i);
+        }
+        return total;
+    }
+
+    /**
+     * @param percent the share of values, from 0 to 100
+     * @return the value that percent of the recorded values are at or below, 0 if nothing was recorded
+     */
+    public long percentile(double percent) {
+        long total = count();
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(total * percent / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(highestIn(i), max());
+            }
+        }
+        return max();
+    }
+
+    // return the highest value recorded
+    public long max() {
+        return max.get();
+    }
+
+    // return the mean of the values recorded
+    public double mean() {
+        long total = count();
+        return total == 0 ? 0 : (double) sum.sum() / total;
+    }
+
+    /**
+     * adds the values of another histogram to this one
+     * @param other the histogram to add
+     */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            long count = other.counts.get(i);
+            if (count != 0) {
+                counts.addAndGet(i, count);
+            }
+        }
+        sum.add(other.sum.sum());
+        max.accumulateAndGet(other.max(), Math::max);
+    }
+
+    /**
+     * moves the values recorded so far into a new histogram, so this one starts the next interval empty.
+     * a value recorded while it runs ends up in one interval or the next
+     * @return the values recorded since the last call
+     */
+    public LatencyHistogram snapshotAndReset() {
+        LatencyHistogram snapshot = new LatencyHistogram();
+        for (int i = 0; i < BUCKETS; i++) {
+            long count = counts.getAndSet(i, 0);
+            if (count != 0) {
+                snapshot.counts.set(i, count);
+            }
+        }
+        snapshot.sum.add(sum.sumThenReset());
+        snapshot.max.set(max.getAndSet(0));
+        return snapshot;
+    }
+}
@@ -0,0 +1,202 @@
+import java.util.*;
+
+/**
+ * This class keeps the item specs and listings a frontend has read, so the same read repeated
+ * between writes is answered without a round trip to the backends.
+ * every entry remembers the range of item ids it covers, and a write sent through this frontend
+ * only drops the entries that cover its item. writes sent by other frontends are noticed through
+ * the state version of the backends, which is checked at most once per staleness period,
+ * and drop every entry.
+ */
+public class ListingsCache {
+    private final int capacity;        // most entries kept, 0 turns the cache off
+    private final long maxStaleness;   // ms entries are served before the state version is checked again
+    private final LinkedHashMap<String, Entry> entries; // the entries in least recently used order
+
+    private long version = -1;         // state version of the backends the entries are current with
+    private long checkedAt;            // when the state version was last checked
+    private long ownWrites;            // writes sent by this frontend since the last check
+    private long generation;           // grows with every invalidation, reads that overlap one are not cached
+    private final CacheStats stats = new CacheStats(); // counters exposed to tune the cache
+
+    /**
+     * a cached value and the item ids it depends on
+     */
+    static class Entry {
+        final Object value;    // the value read, may be null
+        final int lowId;       // lowest item id covered
+        final int highId;      // highest item id covered
+        final long readAt;     // when the value was read
+
+        Entry(Object value, int lowId, int highId) {
+            this.value = value;
+            this.lowId = lowId;
+            this.highId = highId;
+            this.readAt = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * @param capacity the most entries kept, 0 turns the cache off
+     * @param maxStaleness ms entries are served before the state version is checked again
+     */
+    public ListingsCache(int capacity, long maxStaleness) {
+        this.capacity = capacity;
+        this.maxStaleness = maxStaleness;
+        this.stats.capacity = capacity;
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() > ListingsCache.this.capacity) {
+                    stats.evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @return true if the state version has to be checked before entries are served
+     */
+    public synchronized boolean needsCheck() {
+        return capacity > 0 && System.currentTimeMillis() - checkedAt > maxStaleness;
+    }
+
+    /**
+     * compares the state version of the backends with the one the entries are current with,
+     * anything beyond the writes sent by this frontend means other frontends wrote, so every entry is dropped
+     * @param clusterVersion the state version returned by the backends, or -1 if it could not be read
+     */
+    public synchronized void validate(long clusterVersion) {
+        stats.versionChecks++;
+        if (clusterVersion < 0 || clusterVersion != version + ownWrites) {
+            if (!entries.isEmpty()) {
+                stats.flushes++;
+            }
+            entries.clear();
+            generation++;
+        }
+        version = clusterVersion;
+        ownWrites = 0;
+        checkedAt = clusterVersion < 0 ? 0 : System.currentTimeMillis();
+    }
+
+    /**
+     * @param key the key of the read
+     * @return the cached entry or null if the read has to go to the backends
+     */
+    public synchronized Entry get(String key) {
+        if (capacity == 0) {
+            return null;
+        }
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            stats.misses++;
+            return null;
+        }
+        long age = System.currentTimeMillis() - entry.readAt;
+        stats.hits++;
+        stats.totalHitAgeMs += age;
+        stats.maxHitAgeMs = Math.max(stats.maxHitAgeMs, age);
+        return entry;
+    }
+
+    /**
+     * called before a read is sent to the backends
+     * @return the token to pass to put
+     */
+    public synchronized long begin() {
+        return generation;
+    }
+
+    /**
+     * caches a value read from the backends, unless a write invalidated entries while it was read
+     * @param key the key of the read
+     * @param value the value read
+     * @param lowId lowest item id the value covers
+     * @param highId highest item id the value covers
+     * @param token the value returned by begin before the read was sent
+     */
+    public synchronized void put(String key, Object value, int lowId, int highId, long token) {
+        if (capacity > 0 && token == generation) {
+            entries.put(key, new Entry(value, lowId, highId));
+        }
+    }
+
+    /**
+     * drops the entries that cover an item a write sent by this frontend has changed
+     * @param itemId the item bid on or closed
+     */
+    public synchronized void written(int itemId) {
+        ownWrites++;
+        generation++;
+        Iterator<Entry> it = entries.values().iterator();
+        while (it.hasNext()) {
+            Entry entry = it.next();
+            if (entry.lowId <= itemId && itemId <= entry.highId) {
+                it.remove();
+                stats.invalidations++;
+            }
+        }
+    }
+
+    /**
+     * drops the entries a new item can appear in, which are those open towards higher ids
+     * (new items get the highest id) and the items that were read before they existed
+     */
+    public synchronized void created() {
+        ownWrites++;
+        generation++;
+        Iterator<Entry> it = entries.values().iterator();
+        while (it.hasNext()) {
+            Entry entry = it.next();
+            if (entry.highId == Integer.MAX_VALUE || entry.value == null) {
+                it.remove();
+                stats.invalidations++;
+            }
+        }
+    }
+
+    /**
+     * counts a tick of the cluster clock this frontend sent to a shard and drops the entries
+     * that cover the auctions it closed
+     * @param closed the ids of the items the tick closed, in increasing order
+     */
+    public synchronized void ticked(int[] closed) {
+        ownWrites++;
+        if (closed.length == 0) {
+            return;
+        }
+        generation++;
+        Iterator<Entry> it = entries.values().iterator();
+        while (it.hasNext()) {
+            Entry entry = it.next();
+            // the first closed id at or above the entry tells if one falls in its range
+            int position = Arrays.binarySearch(closed, entry.lowId);
+            position = position < 0 ? -position - 1 : position;
+            if (position < closed.length && closed[position] <= entry.highId) {
+                it.remove();
+                stats.invalidations++;
+            }
+        }
+    }
+
+    /**
+     * @return a copy of the counters of this cache
+     */
+    public synchronized CacheStats getStats() {
+        CacheStats copy = new CacheStats();
+        copy.hits = stats.hits;
+        copy.misses = stats.misses;
+        copy.evictions = stats.evictions;
+        copy.invalidations = stats.invalidations;
+        copy.flushes = stats.flushes;
+        copy.versionChecks = stats.versionChecks;
+        copy.totalHitAgeMs = stats.totalHitAgeMs;
+        copy.maxHitAgeMs = stats.maxHitAgeMs;
+        copy.size = entries.size();
+        copy.capacity = capacity;
+        return copy;
+    }
+}
@@ -0,0 +1,91 @@
+import java.io.*;
+
+/**
+ * This class describes which listings a client wants to see in a page,
+ * every condition that is not set matches all items.
+ */
+public class ListingsFilter implements Externalizable {
+    private static final long serialVersionUID = 1L;
+
+    private String sellerId;                   // only items of this seller, null for any seller
+    private int minPrice = 0;                  // lowest current highest bid
+    private int maxPrice = Integer.MAX_VALUE;  // highest current highest bid
+    private boolean openOnly = true;           // false to also list the closed items of the seller
+
+    // return the seller the items must belong to
+    public String getSellerId() {
+        return sellerId;
+    }
+
+    // return the lowest current highest bid allowed
+    public int getMinPrice() {
+        return minPrice;
+    }
+
+    // return the highest current highest bid allowed
+    public int getMaxPrice() {
+        return maxPrice;
+    }
+
+    // return true if only items that are still open are listed
+    public boolean isOpenOnly() {
+        return openOnly;
+    }
+
+    // only list the items of the seller specified
+    public void setSellerId(String sellerId) {
+        this.sellerId = sellerId;
+    }
+
+    // only list items whose current highest bid is within the range specified
+    public void setPriceRange(int minPrice, int maxPrice) {
+        this.minPrice = minPrice;
+        this.maxPrice = maxPrice;
+    }
+
+    // set to false to include closed items, which are only kept for their seller so a seller id has to be set too
+    public void setOpenOnly(boolean openOnly) {
+        this.openOnly = openOnly;
+    }
+
+    @Override
+    public String toString() {
+        return sellerId + ":" + minPrice + ":" + maxPrice + ":" + openOnly;
+    }
+
+    // writes the filter in the compact WireFormat, for RMI clients and the binary gateway
+    void write(DataOutput out) throws IOException {
+        WireFormat.writeString(out, sellerId);
+        WireFormat.writeVarInt(out, minPrice);
+        WireFormat.writeVarInt(out, maxPrice);
+        out.writeBoolean(openOnly);
+    }
+
+    // reads a filter written by write
+    void read(DataInput in) throws IOException {
+        sellerId = WireFormat.readString(in);
+        minPrice = WireFormat.readVarInt(in);
+        maxPrice = WireFormat.readVarInt(in);
+        openOnly = in.readBoolean();
+    }
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        write(out);
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException {
+        read(in);
+    }
+
+    /**
+     * @param item the item to check
+     * @return true if the item meets every condition of this filter
+     */
+    public boolean matches(AuctionItem item) {
+        return (sellerId == null || sellerId.equals(item.getClientId()))
+                && item.getCurrentHighestBid() >= minPrice
+                && item.getCurrentHighestBid() <= maxPrice;
+    }
+}
@@ -0,0 +1,108 @@
+import java.io.*;
+import java.util.*;
+
+/**
+ * This class holds one page of the auction listings, ordered by item id.
+ * the cursor of a page is passed back to ask for the page that follows it.
+ * the items share one string table, so a seller or buyer on several items of the page is sent once.
+ */
+public class ListingsPage implements Externalizable {
+    private static final long serialVersionUID = 1L;
+
+    private ArrayList<AuctionItem> items;  // the items of this page in increasing id order
+    private int nextCursor;                // item id to continue after
+    private boolean more;                  // true if there may be items after this page
+
+    // used when a page is read from the wire
+    public ListingsPage() {
+        this(new ArrayList<AuctionItem>(), 0, false);
+    }
+
+    public ListingsPage(ArrayList<AuctionItem> items, int nextCursor, boolean more) {
+        this.items = items;
+        this.nextCursor = nextCursor;
+        this.more = more;
+    }
+
+    // return the items of this page
+    public List<AuctionItem> getItems() {
+        return items;
+    }
+
+    // return the cursor to pass to get the next page
+    public int getNextCursor() {
+        return nextCursor;
+    }
+
+    // return true if there may be items after this page
+    public boolean hasMore() {
+        return more;
+    }
+
+    /**
+     * used by the frontend to check that backends agree on a page
+     * @param result the page returned by another backend
+     * @return true if both pages list the same items at the same highest bids
+     */
+    public boolean sameAs(Object result) {
+        if (!(result instanceof ListingsPage)) {
+            return false;
+        }
+        ListingsPage other = (ListingsPage) result;
+        if (other.items.size() != items.size() || other.nextCursor != nextCursor || other.more != more) {
+            return false;
+        }
+        for (int i = 0; i < items.size(); i++) {
+            if (items.get(i).getItemId() != other.items.get(i).getItemId()
+                    || items.get(i).getCurrentHighestBid() != other.items.get(i).getCurrentHighestBid()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // writes the page in the compact WireFormat, for RMI clients and on the channel
+    void write(DataOutput out) throws IOException {
+        WireFormat.StringTable strings = new WireFormat.StringTable();
+        WireFormat.writeVarInt(out, items.size());
+        for (AuctionItem item : items) {
+            item.write(out, strings);
+        }
+        WireFormat.writeVarInt(out, nextCursor);
+        out.writeBoolean(more);
+    }
+
+    // reads a page written by write
+    void read(DataInput in) throws IOException {
+        WireFormat.StringTable strings = new WireFormat.StringTable();
+        int count = WireFormat.readVarInt(in);
+        items = new ArrayList<AuctionItem>(count);
+        for (int i = 0; i < count; i++) {
+            AuctionItem item = new AuctionItem();
+            item.read(in, strings);
+            items.add(item);
+        }
+        nextCursor = WireFormat.readVarInt(in);
+        more = in.readBoolean();
+    }
+
+    // return the bytes write takes
+    int size() {
+        WireFormat.StringTable strings = new WireFormat.StringTable();
+        int size = WireFormat.varIntSize(items.size()) + WireFormat.varIntSize(nextCursor) + 1;
+        for (AuctionItem item : items) {
+            size += item.size(strings);
+        }
+        return size;
+    }
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        write(out);
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException {
+        read(in);
+    }
+}
@@ -0,0 +1,386 @@
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Load generator that drives the Frontend through the Item interface the way thousands of sellers
+ * and buyers would, without anyone typing. sellers create and close items, buyers browse pages,
+ * view items and bid on them. the items bid on are picked with a zipf skew, the items closest to
+ * their end drawing the most bids, and every item gets a burst of bids just before it is closed.
+ *
+ * in open loop mode (the default) requests are started at the times a poisson arrival process gives,
+ * whether or not the earlier ones have been answered, and latency is measured from the time a request
+ * should have started. a stall in the Frontend then shows up in the latency of every request that
+ * arrived during it, instead of only slowing down the generator (coordinated omission).
+ * in closed loop mode each thread sends its next request once the previous one is answered.
+ *
+ * every "REPORT_INTERVAL" seconds and at the end it prints the throughput and p50, p99, p99.9 and max
+ * latency of each operation. the settings are read from env vars, see the README.
+ */
+public class LoadGenerator {
+    private static final String FRONTENDS = env("FRONTENDS", env("REGISTRY_HOST", "127.0.0.1") + ":1099"); // registries of the Frontends to start from
+    private static final int DURATION = Integer.parseInt(env("DURATION", "60"));       // seconds the load runs
+    private static final int SELLERS = Integer.parseInt(env("SELLERS", "1000"));       // simulated sellers
+    private static final int BUYERS = Integer.parseInt(env("BUYERS", "10000"));        // simulated buyers
+    private static final int INITIAL_ITEMS = Integer.parseInt(env("INITIAL_ITEMS", "1000")); // items created before the load starts
+    private static final double ZIPF_EXPONENT = Double.parseDouble(env("ZIPF_EXPONENT", "1.0")); // skew of the items bid on, 0 for uniform
+    private static final int BURST_BIDS = Integer.parseInt(env("BURST_BIDS", "10"));   // bids on an item just before it is closed
+    private static final int BURST_MS = Integer.parseInt(env("BURST_MS", "1000"));     // length of the burst before the close
+    private static final boolean OPEN_LOOP = !env("OPEN_LOOP", "true").equalsIgnoreCase("false");
+    private static final int THREADS = Integer.parseInt(env("LOAD_THREADS", "200"));   // threads calling the Frontend
+    private static final int REPORT_INTERVAL = Integer.parseInt(env("REPORT_INTERVAL", "5")); // seconds between reports
+
+    /**
+     * the requests sent, with the rate at which they arrive in open loop mode. in closed loop mode
+     * the rates only set how often each one is picked
+     */
+    enum Operation {
+        CREATE("createItem", "CREATE_RATE", 50),
+        BID("bid", "BID_RATE", 500),
+        BURST_BID("bid.burst", null, 0),
+        VIEW("getSpec", "VIEW_RATE", 200),
+        BROWSE("getListingsPage", "BROWSE_RATE", 50),
+        CLOSE("closeItem", "CLOSE_RATE", 20);
+
+        final String label;  // the name printed in the reports
+        final double rate;   // requests per second
+        final LatencyHistogram interval = new LatencyHistogram(); // latencies in micros since the last report
+        final LatencyHistogram total = new LatencyHistogram();    // latencies in micros of the reports so far
+        final AtomicLong rejected = new AtomicLong(); // bids not accepted and closes of items already closed
+        final AtomicLong failed = new AtomicLong();   // requests that threw
+
+        Operation(String label, String rateVar, double rate) {
+            this.label = label;
+            this.rate = rateVar == null ? rate : Double.parseDouble(env(rateVar, String.valueOf(rate)));
+        }
+    }
+
+    private final Item server;
+    private final OpenItems open = new OpenItems();
+    private final ConcurrentHashMap<Integer, AtomicInteger> prices = new ConcurrentHashMap<Integer, AtomicInteger>(); // last price bid on each open item
+    private final ThreadPoolExecutor callers; // threads making the calls in open loop mode
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(); // starts the burst bids and closes
+    private volatile String lastFailure;      // message of the last request that threw
+
+    public LoadGenerator(Item server) {
+        this.server = server;
+        callers = new ThreadPoolExecutor(THREADS, THREADS, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
+    }
+
+    /**
+     * the items that are open and not yet being closed, oldest first. the rank of an item is its
+     * place in this queue, so the item that will be closed next has rank 0
+     */
+    static class OpenItems {
+        private int[] ids = new int[1024]; // ring of item ids
+        private int head;                  // slot of the oldest item
+        private int size;                  // number of items
+
+        synchronized void add(int itemId) {
+            if (size == ids.length) {
+                int[] grown = new int[ids.length * 2];
+                for (int i = 0; i < size; i++) {
+                    grown[i] = ids[(head + i) % ids.length];
+                }
+                ids = grown;
+                head = 0;
+            }
+            ids[(head + size++) % ids.length] = itemId;
+        }
+
+        // return the oldest item and remove it, or 0 if there is none
+        synchronized int pollOldest() {
+            if (size == 0) {
+                return 0;
+            }
+            int itemId = ids[head];
+            head = (head + 1) % ids.length;
+            size--;
+            return itemId;
+        }
+
+        /**
+         * @param random a number from 0 to 1
+         * @return an item picked with the zipf skew, or 0 if there is none
+         */
+        synchronized int pick(double random) {
+            return size == 0 ? 0 : ids[(head + zipfRank(size, random)) % ids.length];
+        }
+
+        synchronized int size() {
+            return size;
+        }
+    }
+
+    /**
+     * inverts the zipf distribution over ranks 0 to n - 1, treating the rank as continuous so it
+     * takes constant time however many items are open
+     * @param n the number of ranks
+     * @param random a number from 0 to 1
+     * @return the rank, rank r being picked about 1 / (r + 1)^ZIPF_EXPONENT as often as rank 0
+     */
+    static int zipfRank(int n, double random) {
+        double rank;
+        if (Math.abs(ZIPF_EXPONENT - 1) < 1e-9) {
+            rank = Math.pow(n, random);
+        } else {
+            double power = 1 - ZIPF_EXPONENT;
+            rank = Math.pow((Math.pow(n, power) - 1) * random + 1, 1 / power);
+        }
+        return Math.min(n - 1, Math.max(0, (int) rank - 1));
+    }
+
+    /**
+     * sends one request and records its latency
+     * @param operation the request to send
+     * @param intended the System.nanoTime at which the request should have started
+     */
+    private void perform(Operation operation, long intended) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        try {
+            boolean done = true;
+            switch (operation) {
+                case CREATE:
+                    int startingPrice = 10 + random.nextInt(90);
+                    String sellerId = "Seller" + random.nextInt(SELLERS);
+                    int itemId = server.createItem(startingPrice, "item of " + sellerId, startingPrice * 2, sellerId);
+                    if (itemId > 0) {
+                        prices.put(itemId, new AtomicInteger(startingPrice));
+                        open.add(itemId);
+                    } else {
+                        done = false;
+                    }
+                    break;
+                case BID:
+                    done = bid(open.pick(random.nextDouble()), random);
+                    break;
+                case VIEW:
+                    int viewed = open.pick(random.nextDouble());
+                    done = viewed != 0 && server.getSpec(viewed) != null;
+                    break;
+                case BROWSE:
+                    // most buyers look at the first pages
+                    int page = zipfRank(Math.max(1, open.size() / 20), random.nextDouble());
+                    done = server.getListingsPage(page * 20, 20) != null;
+                    break;
+                case CLOSE:
+                    // the burst and the close are sent and measured on their own
+                    close(random);
+                    return;
+                default:
+                    break;
+            }
+            if (!done) {
+                operation.rejected.incrementAndGet();
+            }
+        } catch (Exception e) {
+            operation.failed.incrementAndGet();
+            lastFailure = operation.label + ": " + e;
+        }
+        operation.interval.record((System.nanoTime() - intended) / 1000);
+    }
+
+    // bids a little above the last price bid on the item, return true if the bid was accepted
+    private boolean bid(int itemId, ThreadLocalRandom random) throws Exception {
+        AtomicInteger price = prices.get(itemId);
+        if (price == null) {
+            return false;
+        }
+        String buyerId = "Buyer" + random.nextInt(BUYERS);
+        return server.bid(itemId, price.addAndGet(1 + random.nextInt(5)), buyerId, buyerId + "@example.com", buyerId);
+    }
+
+    /**
+     * in open loop mode this starts the burst of bids on the oldest item and schedules its close at the end
+     * of the burst, the close being measured from then. in closed loop mode it sends the burst and closes
+     * the item in turn
+     */
+    private void close(ThreadLocalRandom random) {
+        int itemId = open.pollOldest();
+        if (itemId == 0) {
+            return;
+        }
+        if (OPEN_LOOP) {
+            long now = System.nanoTime();
+            for (int i = 0; i < BURST_BIDS; i++) {
+                // the bids get closer together towards the end, as they do when buyers snipe
+                long delay = (long) (BURST_MS * 1000000L * Math.sqrt(random.nextDouble()));
+                schedule(() -> perform(Operation.BURST_BID, now + delay, itemId), delay);
+            }
+            long end = BURST_MS * 1000000L;
+            schedule(() -> perform(Operation.CLOSE, now + end, itemId), end);
+            return;
+        }
+        for (int i = 0; i < BURST_BIDS; i++) {
+            perform(Operation.BURST_BID, System.nanoTime(), itemId);
+        }
+        perform(Operation.CLOSE, System.nanoTime(), itemId);
+    }
+
+    // sends a burst bid on, or closes, an item picked earlier
+    private void perform(Operation operation, long intended, int itemId) {
+        try {
+            boolean done;
+            if (operation == Operation.CLOSE) {
+                done = server.closeItem(itemId) != null;
+                prices.remove(itemId);
+            } else {
+                done = bid(itemId, ThreadLocalRandom.current());
+            }
+            if (!done) {
+                operation.rejected.incrementAndGet();
+            }
+        } catch (Exception e) {
+            operation.failed.incrementAndGet();
+            lastFailure = operation.label + ": " + e;
+        }
+        operation.interval.record((System.nanoTime() - intended) / 1000);
+    }
+
+    // hands the task to the callers once the delay in nanoseconds has passed
+    private void schedule(Runnable task, long delay) {
+        scheduler.schedule(() -> callers.execute(task), delay, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * creates the initial items, runs the load for DURATION seconds and prints the reports
+     */
+    public void run() throws Exception {
+        System.out.println("creating " + INITIAL_ITEMS + " items");
+        for (int i = 0; i < INITIAL_ITEMS; i++) {
+            int startingPrice = 10 + i % 90;
+            String sellerId = "Seller" + i % SELLERS;
+            int itemId = server.createItem(startingPrice, "item of " + sellerId, startingPrice * 2, sellerId);
+            if (itemId > 0) {
+                prices.put(itemId, new AtomicInteger(startingPrice));
+                open.add(itemId);
+            }
+        }
+        System.out.println((OPEN_LOOP ? "open" : "closed") + " loop, " + THREADS + " threads, " + DURATION + " s");
+        long start = System.nanoTime();
+        long end = start + DURATION * 1000000000L;
+        Thread[] drivers = OPEN_LOOP ? new Thread[] { new Thread(() -> arrive(end), "arrivals") } : new Thread[THREADS];
+        for (int t = 0; t < drivers.length; t++) {
+            if (drivers[t] == null) {
+                drivers[t] = new Thread(() -> loop(end), "user-" + t);
+            }
+            drivers[t].start();
+        }
+        long lastReport = start;
+        while (System.nanoTime() < end) {
+            LockSupport.parkNanos(Math.min(lastReport + REPORT_INTERVAL * 1000000000L, end) - System.nanoTime());
+            long now = System.nanoTime();
+            report((now - start) / 1e9, (now - lastReport) / 1e9);
+            lastReport = now;
+        }
+        for (Thread driver : drivers) {
+            driver.join();
+        }
+        // the bursts and closes already started are still answered and counted
+        scheduler.shutdown();
+        scheduler.awaitTermination(BURST_MS + 1000, TimeUnit.MILLISECONDS);
+        callers.shutdown();
+        callers.awaitTermination(60, TimeUnit.SECONDS);
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        report(elapsed, 0);
+        System.out.println("total over " + String.format("%.1f", elapsed) + " s"
+                + (lastFailure == null ? "" : ", last failure " + lastFailure));
+        print(elapsed);
+    }
+
+    // open loop: starts requests at the times of a poisson process until the end
+    private void arrive(long end) {
+        double total = 0;
+        for (Operation operation : Operation.values()) {
+            total += operation.rate;
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long next = System.nanoTime();
+        while (true) {
+            next += (long) (-Math.log(1 - random.nextDouble()) / total * 1e9);
+            if (next >= end) {
+                return;
+            }
+            LockSupport.parkNanos(next - System.nanoTime());
+            Operation operation = pick(random.nextDouble() * total);
+            long intended = next;
+            callers.execute(() -> perform(operation, intended));
+        }
+    }
+
+    // closed loop: sends the next request once the previous one is answered
+    private void loop(long end) {
+        double total = 0;
+        for (Operation operation : Operation.values()) {
+            total += operation.rate;
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        while (System.nanoTime() < end) {
+            perform(pick(random.nextDouble() * total), System.nanoTime());
+        }
+    }
+
+    // return the operation the point falls on, each taking a share of the total rate
+    private static Operation pick(double point) {
+        for (Operation operation : Operation.values()) {
+            point -= operation.rate;
+            if (point < 0) {
+                return operation;
+            }
+        }
+        return Operation.VIEW;
+    }
+
+    // prints the operations of the interval that just ended and adds them to the totals
+    private void report(double elapsed, double seconds) {
+        if (seconds > 0) {
+            System.out.println(String.format("--- %.0f s, %d items open, %d requests waiting for a thread%s",
+                    elapsed, open.size(), callers.getQueue().size(),
+                    lastFailure == null ? "" : ", last failure " + lastFailure));
+            lastFailure = null;
+        }
+        for (Operation operation : Operation.values()) {
+            LatencyHistogram snapshot = operation.interval.snapshotAndReset();
+            operation.total.add(snapshot);
+            if (seconds > 0 && snapshot.count() > 0) {
+                System.out.println(line(operation.label, snapshot, seconds, "", ""));
+            }
+        }
+    }
+
+    // prints the totals of every operation
+    private void print(double elapsed) {
+        for (Operation operation : Operation.values()) {
+            if (operation.total.count() > 0) {
+                System.out.println(line(operation.label, operation.total, elapsed,
+                        " rejected " + operation.rejected.get(), " failed " + operation.failed.get()));
+            }
+        }
+    }
+
+    private static String line(String label, LatencyHistogram histogram, double seconds, String rejected, String failed) {
+        return String.format("%-16s %9d ops %9.1f ops/s  p50 %9.2f  p99 %9.2f  p99.9 %9.2f  max %9.2f ms%s%s",
+                label, histogram.count(), histogram.count() / seconds, histogram.percentile(50) / 1000.0,
+                histogram.percentile(99) / 1000.0, histogram.percentile(99.9) / 1000.0, histogram.max() / 1000.0,
+                rejected, failed);
+    }
+
+    private static String env(String name, String fallback) {
+        String value = System.getenv(name);
+        return value == null ? fallback : value;
+    }
+
+    public static void main(String[] args) {
+        try {
+            ItemProxy server = new ItemProxy(FRONTENDS);
+            new LoadGenerator(server).run();
+            System.out.println("frontends: " + server.describe());
+            System.exit(0);
+        } catch (Exception e) {
+            System.err.println("Exception:");
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+import java.util.concurrent.atomic.LongAdder;
+import org.jgroups.JChannel;
+import org.jgroups.Message;
+import org.jgroups.blocks.MethodCall;
+import org.jgroups.blocks.RpcDispatcher;
+import org.jgroups.util.Buffer;
+import org.jgroups.util.Util;
+
+/**
+ * A dispatcher that records, for each remote method, how long this member takes to run it for others
+ * and how many bytes its calls and answers take. calls are written as JGroups writes them by default,
+ * so members with and without metrics understand each other, and answers go through the marshaller given.
+ * the answer of a call is written on the thread that ran it, which is how its bytes are put down to the method.
+ */
+public class MeteredDispatcher extends RpcDispatcher {
+    private final ThreadLocal<Metrics.Rpc> running = new ThreadLocal<Metrics.Rpc>(); // the method this thread is running for a caller
+
+    /**
+     * @param channel the channel to dispatch on
+     * @param server the object whose methods are called
+     * @param metrics where to record
+     * @param responses writes the answers
+     */
+    public MeteredDispatcher(JChannel channel, Object server, Metrics metrics, RpcDispatcher.Marshaller responses) {
+        super(channel, server);
+        setRequestMarshaller(new RpcDispatcher.Marshaller() {
+            public Buffer objectToBuffer(Object call) throws Exception {
+                byte[] bytes = Util.objectToByteBuffer(call);
+                metrics.rpc(((MethodCall) call).getName()).requestBytesSent.add(bytes.length);
+                return new Buffer(bytes);
+            }
+
+            public Object objectFromBuffer(byte[] buffer, int offset, int length) throws Exception {
+                Object call = Util.objectFromByteBuffer(buffer, offset, length);
+                if (call instanceof MethodCall) {
+                    Metrics.Rpc rpc = metrics.rpc(((MethodCall) call).getName());
+                    rpc.requestBytesReceived.add(length);
+                    running.set(rpc);
+                }
+                return call;
+            }
+        });
+        // the answers received are counted together, nothing tells which call an answer belongs to when it is read
+        LongAdder received = metrics.counter("rpc.responseBytesReceived");
+        setResponseMarshaller(new RpcDispatcher.Marshaller() {
+            public Buffer objectToBuffer(Object value) throws Exception {
+                Buffer buffer = responses.objectToBuffer(value);
+                Metrics.Rpc rpc = running.get();
+                if (rpc != null) {
+                    rpc.responseBytesSent.add(buffer.getLength());
+                }
+                return buffer;
+            }
+
+            public Object objectFromBuffer(byte[] buffer, int offset, int length) throws Exception {
+                received.add(length);
+                return responses.objectFromBuffer(buffer, offset, length);
+            }
+        });
+    }
+
+    /**
+     * runs a call from another member and records how long it took under the name of its method.
+     * the method is known once the call has been read, and stays known until the answer is written
+     */
+    @Override
+    public Object handle(Message request) throws Exception {
+        long start = System.nanoTime();
+        running.remove();
+        try {
+            return super.handle(request);
+        } finally {
+            Metrics.Rpc rpc = running.get();
+            if (rpc != null) {
+                rpc.handled.record((System.nanoTime() - start) / 1000);
+            }
+        }
+    }
+}
@@ -0,0 +1,196 @@
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import javax.management.*;
+
+/**
+ * This class keeps the metrics of a frontend or a backend: latency histograms, counters and gauges, each
+ * under a name. callers look a histogram or counter up once and keep it, so recording a value only
+ * updates counters and allocates nothing. the metrics are published as the JMX MBean
+ * "auction:type=<Frontend|Backend>,name=<member>", and every "METRICS_INTERVAL" seconds (default 60, 0 for never)
+ * they are printed. latencies are in microseconds.
+ */
+public class Metrics implements DynamicMBean {
+    private static final int INTERVAL = System.getenv("METRICS_INTERVAL") == null ? 60 : Integer.parseInt(System.getenv("METRICS_INTERVAL"));
+
+    private final String component;   // "Frontend" or "Backend"
+    private final Map<String, LatencyHistogram> histograms = new ConcurrentHashMap<String, LatencyHistogram>();
+    private final Map<String, LongAdder> counters = new ConcurrentHashMap<String, LongAdder>();
+    private final Map<String, LongSupplier> gauges = new ConcurrentHashMap<String, LongSupplier>();
+    private final Map<String, Rpc> rpcs = new ConcurrentHashMap<String, Rpc>();
+
+    /**
+     * the metrics of one remote method, kept by MeteredDispatcher
+     */
+    static class Rpc {
+        final LatencyHistogram handled;                  // time this member took to run the method for others
+        final LongAdder requestBytesSent = new LongAdder();     // bytes of the calls this member sent
+        final LongAdder requestBytesReceived = new LongAdder(); // bytes of the calls this member received
+        final LongAdder responseBytesSent = new LongAdder();    // bytes of the answers this member sent
+
+        Rpc(LatencyHistogram handled) {
+            this.handled = handled;
+        }
+    }
+
+    /**
+     * @param component "Frontend" or "Backend"
+     * @param member the logical name of the member in the cluster
+     */
+    public Metrics(String component, String member) {
+        this.component = component;
+        try {
+            ObjectName name = new ObjectName("auction:type=" + component + ",name=" + ObjectName.quote(member));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+        } catch (Exception e) {
+            System.err.println("could not register the metrics MBean:");
+            e.printStackTrace();
+        }
+        if (INTERVAL > 0) {
+            ScheduledExecutorService printer = Executors.newSingleThreadScheduledExecutor(task -> {
+                Thread thread = new Thread(task, "metrics");
+                thread.setDaemon(true);
+                return thread;
+            });
+            printer.scheduleAtFixedRate(() -> System.out.println(dump()), INTERVAL, INTERVAL, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * @param name the name of the histogram
+     * @return the histogram, created empty the first time the name is used
+     */
+    public LatencyHistogram latency(String name) {
+        return histograms.computeIfAbsent(name, key -> new LatencyHistogram());
+    }
+
+    /**
+     * @param name the name of the counter
+     * @return the counter, created at 0 the first time the name is used
+     */
+    public LongAdder counter(String name) {
+        return counters.computeIfAbsent(name, key -> new LongAdder());
+    }
+
+    /**
+     * publishes a value that is read when the metrics are, such as the size of a store
+     * @param name the name of the value
+     * @param value reads the current value
+     */
+    public void gauge(String name, LongSupplier value) {
+        gauges.put(name, value);
+    }
+
+    /**
+     * @param method the name of a remote method
+     * @return its metrics, created the first time the method is called or answered
+     */
+    Rpc rpc(String method) {
+        Rpc rpc = rpcs.get(method);
+        return rpc != null ? rpc : rpcs.computeIfAbsent(method, key -> new Rpc(latency("rpc." + key)));
+    }
+
+    // return every value published, by attribute name
+    private Map<String, Object> values() {
+        Map<String, Object> values = new TreeMap<String, Object>();
+        for (Map.Entry<String, LatencyHistogram> entry : histograms.entrySet()) {
+            LatencyHistogram histogram = entry.getValue();
+            values.put(entry.getKey() + ".count", histogram.count());
+            values.put(entry.getKey() + ".meanMicros", histogram.mean());
+            values.put(entry.getKey() + ".p50Micros", histogram.percentile(50));
+            values.put(entry.getKey() + ".p99Micros", histogram.percentile(99));
+            values.put(entry.getKey() + ".p999Micros", histogram.percentile(99.9));
+            values.put(entry.getKey() + ".maxMicros", histogram.max());
+        }
+        for (Map.Entry<String, LongAdder> entry : counters.entrySet()) {
+            values.put(entry.getKey(), entry.getValue().sum());
+        }
+        for (Map.Entry<String, LongSupplier> entry : gauges.entrySet()) {
+            values.put(entry.getKey(), entry.getValue().getAsLong());
+        }
+        for (Map.Entry<String, Rpc> entry : rpcs.entrySet()) {
+            values.put("rpc." + entry.getKey() + ".requestBytesSent", entry.getValue().requestBytesSent.sum());
+            values.put("rpc." + entry.getKey() + ".requestBytesReceived", entry.getValue().requestBytesReceived.sum());
+            values.put("rpc." + entry.getKey() + ".responseBytesSent", entry.getValue().responseBytesSent.sum());
+        }
+        return values;
+    }
+
+    /**
+     * @return the metrics as text, one line per histogram, counter and gauge
+     */
+    public String dump() {
+        StringBuilder text = new StringBuilder("--- " + component + " metrics\n");
+        for (Map.Entry<String, LatencyHistogram> entry : new TreeMap<String, LatencyHistogram>(histograms).entrySet()) {
+            LatencyHistogram histogram = entry.getValue();
+            if (histogram.count() > 0) {
+                text.append(String.format("%-44s %10d calls  p50 %8d  p99 %8d  p99.9 %8d  max %8d us%n", entry.getKey(),
+                        histogram.count(), histogram.percentile(50), histogram.percentile(99), histogram.percentile(99.9), histogram.max()));
+            }
+        }
+        for (Map.Entry<String, Object> entry : values().entrySet()) {
+            if (!entry.getKey().endsWith("Micros") && !entry.getKey().endsWith(".count")) {
+                text.append(String.format("%-44s %10s%n", entry.getKey(), entry.getValue()));
+            }
+        }
+        return text.toString();
+    }
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        Object value = values().get(attribute);
+        if (value == null) {
+            throw new AttributeNotFoundException(attribute);
+        }
+        return value;
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        Map<String, Object> values = values();
+        AttributeList list = new AttributeList();
+        for (String attribute : attributes) {
+            if (values.containsKey(attribute)) {
+                list.add(new Attribute(attribute, values.get(attribute)));
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("the metrics are read only");
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String action, Object[] params, String[] signature) throws MBeanException {
+        if (action.equals("dump")) {
+            return dump();
+        }
+        throw new MBeanException(new UnsupportedOperationException(action));
+    }
+
+    // the attributes are listed anew each time, as histograms are added while the member runs
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        Map<String, Object> values = values();
+        MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[values.size()];
+        int i = 0;
+        for (Map.Entry<String, Object> entry : values.entrySet()) {
+            attributes[i++] = new MBeanAttributeInfo(entry.getKey(), entry.getValue().getClass().getName(), entry.getKey(), true, false, false);
+        }
+        MBeanOperationInfo[] operations = { new MBeanOperationInfo("dump", "the metrics as text", new MBeanParameterInfo[0], "java.lang.String", MBeanOperationInfo.INFO) };
+        return new MBeanInfo(getClass().getName(), component + " metrics", attributes, null, operations, null);
+    }
+}
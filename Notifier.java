@@ -0,0 +1,185 @@
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class keeps the clients subscribed to a frontend and passes on the events the backends publish.
+ * a subscriber of an item gets every event of the item. a subscriber of a client id gets the PRICE and
+ * CLOSED events of the items the client sells, the OUTBID events of the bids it lost and the CLOSED
+ * events of the items it won.
+ * every subscriber has a bounded queue that keeps the latest event of each kind for each item, so a burst
+ * of bids on one item reaches a slow client as its last price, and a CLOSED event replaces the events
+ * of its item still queued. a subscriber whose queue holds more than "NOTIFY_QUEUE" items (default 1000)
+ * or whose callback fails is dropped. "NOTIFY_THREADS" threads (default 4) make the callbacks, one call
+ * at a time per subscriber.
+ */
+public class Notifier {
+    private static final int QUEUE = System.getenv("NOTIFY_QUEUE") == null ? 1000 : Integer.parseInt(System.getenv("NOTIFY_QUEUE"));
+
+    private final ExecutorService senders = Executors.newFixedThreadPool( // make the callbacks
+            System.getenv("NOTIFY_THREADS") == null ? 4 : Integer.parseInt(System.getenv("NOTIFY_THREADS")));
+    private final Map<AuctionListener, Subscriber> subscribers = new ConcurrentHashMap<AuctionListener, Subscriber>(); // subscriber of each callback
+    private final Map<Integer, Set<Subscriber>> byItem = new ConcurrentHashMap<Integer, Set<Subscriber>>();   // subscribers of each item
+    private final Map<String, Set<Subscriber>> byClient = new ConcurrentHashMap<String, Set<Subscriber>>();  // subscribers of each client id
+    private final LongAdder sent;     // events passed to the callbacks
+    private final LongAdder dropped;  // subscribers dropped as too slow or failed
+
+    /**
+     * the callback of one client and the events waiting for it
+     */
+    private class Subscriber implements Runnable {
+        final AuctionListener listener;
+        final Set<Integer> items = ConcurrentHashMap.newKeySet();  // items subscribed to
+        final Set<String> clients = ConcurrentHashMap.newKeySet(); // client ids subscribed to
+        private final LinkedHashMap<Long, AuctionEvent> queue = new LinkedHashMap<Long, AuctionEvent>(); // latest event of each item and kind, oldest first
+        private boolean sending;  // true while a sender thread has this subscriber
+
+        Subscriber(AuctionListener listener) {
+            this.listener = listener;
+        }
+
+        /**
+         * @return false if the queue is full and the subscriber has to be dropped
+         */
+        synchronized boolean offer(AuctionEvent event) {
+            long item = (long) event.getItemId() << 8;
+            if (event.getType() == AuctionEvent.CLOSED) {
+                queue.remove(item | AuctionEvent.PRICE);
+                queue.remove(item | AuctionEvent.OUTBID);
+            }
+            // the event takes the place of the one it replaces at the end of the queue
+            queue.remove(item | event.getType());
+            queue.put(item | event.getType(), event);
+            if (queue.size() > QUEUE) {
+                return false;
+            }
+            if (!sending) {
+                sending = true;
+                senders.execute(this);
+            }
+            return true;
+        }
+
+        // sends the events queued in one call, and hands the subscriber back to the pool if more came meanwhile
+        public void run() {
+            ArrayList<AuctionEvent> events;
+            synchronized (this) {
+                events = new ArrayList<AuctionEvent>(queue.values());
+                queue.clear();
+            }
+            try {
+                listener.onEvents(events);
+                sent.add(events.size());
+            } catch (RemoteException e) {
+                System.err.println("dropping a subscriber whose callback failed: " + e.getMessage());
+                drop(this);
+                return;
+            }
+            synchronized (this) {
+                if (queue.isEmpty() || subscribers.get(listener) != this) {
+                    sending = false;
+                    return;
+                }
+            }
+            senders.execute(this);
+        }
+    }
+
+    /**
+     * @param metrics the metrics of the frontend, the subscribers and events sent are added to them
+     */
+    public Notifier(Metrics metrics) {
+        this.sent = metrics.counter("notify.events");
+        this.dropped = metrics.counter("notify.dropped");
+        metrics.gauge("notify.subscribers", () -> subscribers.size());
+    }
+
+    /**
+     * @param itemId the item to follow
+     * @param listener the callback of the client
+     */
+    public void subscribeItem(int itemId, AuctionListener listener) {
+        Subscriber subscriber = subscribers.computeIfAbsent(listener, Subscriber::new);
+        subscriber.items.add(itemId);
+        byItem.computeIfAbsent(itemId, key -> ConcurrentHashMap.newKeySet()).add(subscriber);
+    }
+
+    /**
+     * @param clientId the client whose sales and bids to follow
+     * @param listener the callback of the client
+     */
+    public void subscribeClient(String clientId, AuctionListener listener) {
+        Subscriber subscriber = subscribers.computeIfAbsent(listener, Subscriber::new);
+        subscriber.clients.add(clientId);
+        byClient.computeIfAbsent(clientId, key -> ConcurrentHashMap.newKeySet()).add(subscriber);
+    }
+
+    /**
+     * @param listener the callback to remove from every item and client id it follows
+     */
+    public void unsubscribe(AuctionListener listener) {
+        Subscriber subscriber = subscribers.remove(listener);
+        if (subscriber == null) {
+            return;
+        }
+        for (int itemId : subscriber.items) {
+            byItem.computeIfPresent(itemId, (key, followers) -> followers.remove(subscriber) && followers.isEmpty() ? null : followers);
+        }
+        for (String clientId : subscriber.clients) {
+            byClient.computeIfPresent(clientId, (key, followers) -> followers.remove(subscriber) && followers.isEmpty() ? null : followers);
+        }
+    }
+
+    /**
+     * passes the events a backend published to the subscribers that follow them
+     * @param events the events, in the order the backend applied their writes
+     */
+    public void dispatch(AuctionEvent[] events) {
+        if (subscribers.isEmpty()) {
+            return;
+        }
+        for (AuctionEvent event : events) {
+            deliver(byItem.get(event.getItemId()), event);
+            deliver(byClient.get(event.getSellerId()), event);
+            if (event.getType() == AuctionEvent.PRICE && event.getPreviousBuyerId() != null) {
+                deliver(byClient.get(event.getPreviousBuyerId()), event.outbid());
+            } else if (event.getType() == AuctionEvent.CLOSED) {
+                if (event.getBuyerId() != null) {
+                    deliver(byClient.get(event.getBuyerId()), event);
+                }
+                // a closed item does not change again
+                Set<Subscriber> followers = byItem.remove(event.getItemId());
+                if (followers != null) {
+                    for (Subscriber subscriber : followers) {
+                        subscriber.items.remove(event.getItemId());
+                    }
+                }
+            }
+        }
+    }
+
+    private void deliver(Set<Subscriber> followers, AuctionEvent event) {
+        if (followers == null) {
+            return;
+        }
+        for (Subscriber subscriber : followers) {
+            if (!subscriber.offer(event)) {
+                System.err.println("dropping a subscriber that fell more than " + QUEUE + " items behind");
+                drop(subscriber);
+            }
+        }
+    }
+
+    private void drop(Subscriber subscriber) {
+        if (subscribers.get(subscriber.listener) == subscriber) {
+            dropped.increment();
+            unsubscribe(subscriber.listener);
+        }
+    }
+}
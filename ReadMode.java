@@ -0,0 +1,22 @@
+/**
+ * This enum lists how many backends a frontend asks when it reads auction data.
+ * the mode of each read can be set with the READ_MODE_<METHOD> env var (e.g. READ_MODE_GETSPEC=ONE),
+ * otherwise READ_MODE is used and if that is not set either all backends are asked.
+ */
+public enum ReadMode {
+    ONE,     // a single backend, another one is tried if it fails
+    QUORUM,  // wait for a majority of the backends
+    ALL;     // wait for every backend of the shard
+
+    /**
+     * @param method the name of the read method
+     * @return the read mode configured for the method
+     */
+    public static ReadMode forMethod(String method) {
+        String mode = System.getenv("READ_MODE_" + method.toUpperCase());
+        if (mode == null) {
+            mode = System.getenv("READ_MODE");
+        }
+        return mode == null ? ALL : ReadMode.valueOf(mode.toUpperCase());
+    }
+}
@@ -0,0 +1,372 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntPredicate;
+
+/**
+ * This class is an inverted index of the descriptions of the open items of a backend, updated as items
+ * are created, closed and copied, so an item can be found by the words of its description without
+ * scanning the items. descriptions are split into lower case words of letters and digits, and each word
+ * keeps the ids of the items it appears in: a sorted int array, or a bitmap of the ids once the word is
+ * in more than one item out of 32.
+ * a query is a list of words that must all appear, a word ending with '*' matches every word it starts
+ * (the first MAX_EXPANSIONS of them in word order). the matches are walked from the newest item down by jumping
+ * each list to the next id the others could match, or, when every word is kept as a bitmap, by and-ing
+ * the bitmaps 64 ids at a time, so a query stops as soon as it has enough items.
+ */
+public class SearchIndex {
+    private static final int MAX_EXPANSIONS = 64; // most words a prefix is expanded to
+    private static final int MIN_DENSE = 1024;    // fewest ids a word needs before it is kept as a bitmap
+
+    private final TreeMap<String, Posting> words = new TreeMap<String, Posting>(); // ids of the items of each word, in word order
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock(); // updates take the write lock, queries the read lock
+
+    /**
+     * the ids of the items a word appears in
+     */
+    private static final class Posting {
+        int[] ids = new int[2];  // sorted ids while the word is sparse
+        int count;               // number of ids
+        long[] bits;             // bitmap of the ids once the word is dense, ids is dropped then
+
+        // return false if the id was already there
+        boolean add(int itemId) {
+            if (bits != null) {
+                if (contains(itemId)) {
+                    return false;
+                }
+                if (itemId >> 6 >= bits.length) {
+                    bits = Arrays.copyOf(bits, Math.max(bits.length + (bits.length >> 3), (itemId >> 6) + 1));
+                }
+                bits[itemId >> 6] |= 1L << itemId;
+                count++;
+                return true;
+            }
+            // new items get the highest ids, so this is mostly an append
+            int position = count > 0 && ids[count - 1] < itemId ? -count - 1 : Arrays.binarySearch(ids, 0, count, itemId);
+            if (position >= 0) {
+                return false;
+            }
+            position = -position - 1;
+            if (count == ids.length) {
+                ids = Arrays.copyOf(ids, count * 2);
+            }
+            System.arraycopy(ids, position, ids, position + 1, count - position);
+            ids[position] = itemId;
+            count++;
+            if (count >= MIN_DENSE && count >= ids[count - 1] / 32) {
+                bits = new long[(ids[count - 1] >> 6) + 1];
+                for (int i = 0; i < count; i++) {
+                    bits[ids[i] >> 6] |= 1L << ids[i];
+                }
+                ids = null;
+            }
+            return true;
+        }
+
+        // return false if the id was not there
+        boolean remove(int itemId) {
+            if (bits != null) {
+                if (!contains(itemId)) {
+                    return false;
+                }
+                bits[itemId >> 6] &= ~(1L << itemId);
+                count--;
+                // back to an array once the word is rare again, well below the point it became dense
+                if (count < bits.length / 2) {
+                    ids = new int[Math.max(2, count * 2)];
+                    int i = 0;
+                    for (int word = 0; word < bits.length; word++) {
+                        for (long w = bits[word]; w != 0; w &= w - 1) {
+                            ids[i++] = word << 6 | Long.numberOfTrailingZeros(w);
+                        }
+                    }
+                    bits = null;
+                }
+                return true;
+            }
+            int position = Arrays.binarySearch(ids, 0, count, itemId);
+            if (position < 0) {
+                return false;
+            }
+            System.arraycopy(ids, position + 1, ids, position, count - position - 1);
+            count--;
+            return true;
+        }
+
+        private boolean contains(int itemId) {
+            return itemId >> 6 < bits.length && (bits[itemId >> 6] & 1L << itemId) != 0;
+        }
+
+        // return the highest id at or below the one given, -1 if there is none
+        int floor(int itemId) {
+            if (itemId < 0) {
+                return -1;
+            }
+            if (bits != null) {
+                int word = Math.min(itemId >> 6, bits.length - 1);
+                // keep the bits of the first word at or below the id
+                long w = bits[word] & (word == itemId >> 6 ? -1L >>> (63 - (itemId & 63)) : -1L);
+                while (w == 0) {
+                    if (--word < 0) {
+                        return -1;
+                    }
+                    w = bits[word];
+                }
+                return word << 6 | 63 - Long.numberOfLeadingZeros(w);
+            }
+            int position = Arrays.binarySearch(ids, 0, count, itemId);
+            if (position >= 0) {
+                return itemId;
+            }
+            position = -position - 1;
+            return position == 0 ? -1 : ids[position - 1];
+        }
+
+        // return the bytes the posting takes on the heap, roughly
+        long bytes() {
+            return 32 + (bits != null ? 16 + 8L * bits.length : 16 + 4L * ids.length);
+        }
+    }
+
+    /**
+     * one word of a query, the postings of every word it matches
+     */
+    private static final class Clause {
+        final Posting[] postings;
+        final int[] floors;  // last floor found in each posting, MAX_VALUE before the first. the candidates only go down so most stay valid
+        final long count;    // ids of all its postings, to walk the rarest clause first
+        final boolean dense; // true if every posting is a bitmap
+
+        Clause(Posting[] postings) {
+            this.postings = postings;
+            this.floors = new int[postings.length];
+            Arrays.fill(floors, Integer.MAX_VALUE);
+            long total = 0;
+            boolean allDense = true;
+            for (Posting posting : postings) {
+                total += posting.count;
+                allDense &= posting.bits != null;
+            }
+            this.count = total;
+            this.dense = allDense;
+        }
+
+        // return the highest id at or below the one given in any posting, -1 if there is none
+        int floor(int itemId) {
+            int highest = -1;
+            for (int i = 0; i < postings.length; i++) {
+                if (floors[i] > itemId || floors[i] == Integer.MAX_VALUE) {
+                    floors[i] = postings[i].floor(itemId);
+                }
+                highest = Math.max(highest, floors[i]);
+            }
+            return highest;
+        }
+
+        // return the ids of the 64 at index word of the bitmaps, every posting must be dense
+        long word(int word) {
+            long w = 0;
+            for (Posting posting : postings) {
+                w |= word < posting.bits.length ? posting.bits[word] : 0;
+            }
+            return w;
+        }
+    }
+
+    /**
+     * @param text a description or a query
+     * @return the lower case words of letters and digits of the text, a word followed by '*' keeps the '*'
+     */
+    static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<String>();
+        if (text == null) {
+            return tokens;
+        }
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            char c = i < text.length() ? text.charAt(i) : ' ';
+            if (Character.isLetterOrDigit(c)) {
+                if (start < 0) {
+                    start = i;
+                }
+            } else if (start >= 0) {
+                String word = text.substring(start, i).toLowerCase(Locale.ROOT);
+                tokens.add(c == '*' ? word + "*" : word);
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * adds the words of the description of an item, adding an item twice changes nothing
+     * @param item an open item
+     */
+    public void add(AuctionItem item) {
+        List<String> tokens = tokenize(item.getItemDescription());
+        if (tokens.isEmpty()) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            for (String token : tokens) {
+                words.computeIfAbsent(token, word -> new Posting()).add(item.getItemId());
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @param item an item that was closed or moved to another shard
+     */
+    public void remove(AuctionItem item) {
+        List<String> tokens = tokenize(item.getItemDescription());
+        if (tokens.isEmpty()) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            for (String token : tokens) {
+                Posting posting = words.get(token);
+                if (posting != null && posting.remove(item.getItemId()) && posting.count == 0) {
+                    words.remove(token);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * passes the ids of the items that have every word of the query to the visitor, newest first
+     * @param query words that must all appear, a word ending with '*' is a prefix
+     * @param visitor called with each id in decreasing order, returns false to stop
+     */
+    public void query(String query, IntPredicate visitor) {
+        List<String> tokens = tokenize(query);
+        if (tokens.isEmpty()) {
+            return;
+        }
+        lock.readLock().lock();
+        try {
+            Clause[] clauses = new Clause[tokens.size()];
+            for (int i = 0; i < clauses.length; i++) {
+                clauses[i] = clause(tokens.get(i));
+                if (clauses[i] == null) {
+                    return;
+                }
+            }
+            Arrays.sort(clauses, Comparator.comparingLong(clause -> clause.count));
+            boolean dense = true;
+            for (Clause clause : clauses) {
+                dense &= clause.dense;
+            }
+            if (dense) {
+                and(clauses, visitor);
+                return;
+            }
+            // each clause in turn moves the candidate down to the next id it has, until they all have it
+            int candidate = clauses[0].floor(Integer.MAX_VALUE);
+            int agreed = 1;
+            for (int i = 1 % clauses.length; candidate >= 0; i = (i + 1) % clauses.length) {
+                if (agreed == clauses.length) {
+                    if (!visitor.test(candidate)) {
+                        return;
+                    }
+                    candidate = clauses[0].floor(candidate - 1);
+                    agreed = 1;
+                    i = 0;
+                    continue;
+                }
+                int found = clauses[i].floor(candidate);
+                if (found == candidate) {
+                    agreed++;
+                } else {
+                    candidate = found;
+                    agreed = 1;
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // walks the bitmaps of the clauses from the highest ids down, 64 ids at a time
+    private static void and(Clause[] clauses, IntPredicate visitor) {
+        int words = Integer.MAX_VALUE;
+        for (Clause clause : clauses) {
+            int length = 0;
+            for (Posting posting : clause.postings) {
+                length = Math.max(length, posting.bits.length);
+            }
+            words = Math.min(words, length);
+        }
+        for (int word = words - 1; word >= 0; word--) {
+            long w = clauses[0].word(word);
+            for (int i = 1; i < clauses.length && w != 0; i++) {
+                w &= clauses[i].word(word);
+            }
+            while (w != 0) {
+                int bit = 63 - Long.numberOfLeadingZeros(w);
+                if (!visitor.test(word << 6 | bit)) {
+                    return;
+                }
+                w &= ~(1L << bit);
+            }
+        }
+    }
+
+    // return the clause of a word of a query, null if no item has it
+    private Clause clause(String token) {
+        if (!token.endsWith("*")) {
+            Posting posting = words.get(token);
+            return posting == null ? null : new Clause(new Posting[] { posting });
+        }
+        String prefix = token.substring(0, token.length() - 1);
+        // a short prefix can start thousands of words, only the first ones are looked at so the query stays bounded
+        List<Posting> postings = new ArrayList<Posting>();
+        for (Posting posting : words.subMap(prefix, true, prefix + Character.MAX_VALUE, false).values()) {
+            if (postings.size() == MAX_EXPANSIONS) {
+                break;
+            }
+            postings.add(posting);
+        }
+        return postings.isEmpty() ? null : new Clause(postings.toArray(new Posting[0]));
+    }
+
+    /**
+     * @return the number of distinct words indexed
+     */
+    public int words() {
+        lock.readLock().lock();
+        try {
+            return words.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return an estimate of the bytes the index takes on the heap, apart from the items themselves
+     */
+    public long bytes() {
+        lock.readLock().lock();
+        try {
+            long total = 48;
+            for (Map.Entry<String, Posting> entry : words.entrySet()) {
+                // the tree entry, the word and its posting
+                total += 40 + 40 + entry.getKey().length() + entry.getValue().bytes();
+            }
+            return total;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+}
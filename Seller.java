@@ -1,5 +1,4 @@
-import java.rmi.registry.LocateRegistry;
-import java.rmi.registry.Registry;
+import java.util.Date;
 import java.util.Random;
 import java.util.Scanner;
 
@@ -11,9 +10,8 @@ public class Seller{
 
     public Seller() {
         try {
-            String name = "myserver";
-            Registry registry = LocateRegistry.getRegistry("127.0.0.1");
-            Item server = (Item) registry.lookup(name);
+            // the frontends of the "FRONTENDS" env var and the others of their cluster, each call goes to the least busy
+            Item server = ItemProxy.connect();
 
             Random r = new Random();
             // assign the seller an id which is composed of Seller string and a number
@@ -31,6 +29,7 @@ public class Seller{
                 Scanner scanner = new Scanner(System.in);
                 System.out.println("Hello there! if you want to list an item for bidding type add,"+
                                 "\nif you want to close a listed item please type close, "+
+                                "\nto see your items type mine, to see every auction you ever closed type sold, "+
                                 "\nor to exit the system type exit.");
                 // if the answer is provided in upper case, force lower case
                 String answer = scanner.nextLine().toLowerCase();
@@ -48,15 +47,19 @@ public class Seller{
                         System.out.println("Minimum price:");
                         // specify the minimum price
                         int price2 = myObj.nextInt();
+                        System.out.println("Duration in minutes (0 to close it yourself):");
+                        // specify how long the auction runs before it closes by itself
+                        int minutes = myObj.nextInt();
                         // create the item and return the id of it
-                        int id = server.createItem(price, description, price2, sellerId);
+                        int id = server.createItem(price, description, price2, sellerId, minutes * 60000L);
                         System.out.println("Item has been added with id: "+id);
                         // print the specs for the Seller to see the details
                         AuctionItem result = server.getSpec(id);
                         System.out.println("The Item id is: " + id
                                     + "\nstarting Price is: "+ result.getItemStartingPrice()
                                     + "\nDescription: "+ result.getItemDescription()
-                                    + "\nminimum price is: "+ result.getItemMinimumPrice());
+                                    + "\nminimum price is: "+ result.getItemMinimumPrice()
+                                    + (result.getEndTime() > 0 ? "\ncloses at: " + new Date(result.getEndTime()) : ""));
                         break;
                     case "close":
                         System.out.println("enter the id of the item you want to close");
@@ -68,7 +71,7 @@ public class Seller{
                         } else {
                             /* check if the Seller has the authority to close the item 
                                 and remove the item from the server using the specified key/id */
-                            if(sellerId.equals(server.getListings().get(closedItemId).getClientId())){
+                            if(sellerId.equals(server.getSpec(closedItemId).getClientId())){
                                 AuctionItem closedItem = server.closeItem(closedItemId);
                                 // print out the winner if the price is higher than minimum price else print no winner 
                                 if (closedItem.getCurrentHighestBid()>=closedItem.getItemMinimumPrice()) {
@@ -84,12 +87,40 @@ public class Seller{
                             }
                         }
                         break;
+                    case "mine":
+                        // list the items of the seller page by page, the open ones and the latest closed ones
+                        int after = 0;
+                        ListingsPage mine;
+                        do {
+                            mine = server.getClientItems(sellerId, Item.SELLING | Item.CLOSED, after, 20);
+                            for (AuctionItem item : mine.getItems()) {
+                                boolean open = !server.checkItemNonExistent(item.getItemId());
+                                System.out.println(item.getItemId() + "  //  " + item.getItemDescription() + "  //  "
+                                        + item.getCurrentHighestBid() + (open ? "  //  open" : "  //  closed"));
+                            }
+                            after = mine.getNextCursor();
+                        } while (mine.hasMore());
+                        break;
+                    case "sold":
+                        // every auction of the seller that closed, from the archive of the backends
+                        int afterSold = 0;
+                        ListingsPage sold;
+                        do {
+                            sold = server.getClosedAuctions(sellerId, Item.CLOSED, afterSold, 20);
+                            for (AuctionItem item : sold.getItems()) {
+                                boolean reached = item.getBuyerId() != null && item.getCurrentHighestBid() >= item.getItemMinimumPrice();
+                                System.out.println(item.getItemId() + "  //  " + item.getItemDescription() + "  //  "
+                                        + (reached ? "sold at " + item.getCurrentHighestBid() + " to " + item.getName() + " (" + item.getEmail() + ")" : "not sold"));
+                            }
+                            afterSold = sold.getNextCursor();
+                        } while (sold.hasMore());
+                        break;
                     case"exit":  
                         // stop the program if the user wants to exit
                         System.exit(1);
                     default:
-                        // if the user enters something other than the three options (add, close, and exit) ask again
-                        System.out.println("please enter either add, close, or exit");
+                        // if the user enters something other than the five options (add, close, mine, sold and exit) ask again
+                        System.out.println("please enter either add, close, mine, sold, or exit");
                         break;
                 }
             }
@@ -0,0 +1,158 @@
+import java.io.Serializable;
+import java.util.*;
+
+/**
+ * This class remembers which writes a backend has already applied.
+ * every write sent by a frontend carries the id of that frontend (origin) and a sequence number
+ * that grows by one with each write it sends, so a backend can tell if a write it receives is
+ * already part of its data, e.g. because it was copied from another backend.
+ * writes to different items are applied by several threads at once, so every method is synchronized.
+ */
+public class SequenceTracker implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private static final int MAX_AHEAD = 4096; // writes kept beyond a gap before the other backends are asked for the missing ones
+
+    private final HashMap<String, Long> contiguous = new HashMap<String, Long>(); // every sequence up to this value is applied
+    private final HashMap<String, TreeSet<Long>> ahead = new HashMap<String, TreeSet<Long>>(); // sequences applied after a gap
+
+    /**
+     * @param origin the frontend that sent the write
+     * @param sequence the sequence number of the write
+     * @return true if the write has already been applied
+     */
+    public synchronized boolean contains(String origin, long sequence) {
+        Long upTo = contiguous.get(origin);
+        if (upTo != null && sequence <= upTo) {
+            return true;
+        }
+        TreeSet<Long> later = ahead.get(origin);
+        return later != null && later.contains(sequence);
+    }
+
+    /**
+     * marks the write given as applied. a write that is missing is never marked applied here, when too many
+     * writes wait behind it the caller asks the other backends for it (see skipStaleGaps)
+     * @param origin the frontend that sent the write
+     * @param sequence the sequence number of the write
+     * @return true if more than MAX_AHEAD writes of the origin wait behind a gap
+     */
+    public synchronized boolean add(String origin, long sequence) {
+        long upTo = contiguous.containsKey(origin) ? contiguous.get(origin) : 0;
+        if (sequence <= upTo) {
+            return false;
+        }
+        TreeSet<Long> later = ahead.get(origin);
+        if (sequence == upTo + 1) {
+            upTo = sequence;
+        } else {
+            // writes of one frontend can arrive out of order, remember this one until the gap is filled
+            if (later == null) {
+                later = new TreeSet<Long>();
+                ahead.put(origin, later);
+            }
+            later.add(sequence);
+        }
+        // move up past the writes that were waiting for this one
+        while (later != null && !later.isEmpty() && later.first() <= upTo + 1) {
+            upTo = Math.max(upTo, later.pollFirst());
+        }
+        if (later != null && later.isEmpty()) {
+            ahead.remove(origin);
+        }
+        contiguous.put(origin, upTo);
+        return later != null && later.size() > MAX_AHEAD;
+    }
+
+    /**
+     * gives up on the gaps that more than MAX_AHEAD writes wait behind. only called once the other backends
+     * were asked for the missing writes and none had them, so no backend applied them
+     * @return the number of missing writes skipped
+     */
+    public synchronized long skipStaleGaps() {
+        long skipped = 0;
+        Iterator<Map.Entry<String, TreeSet<Long>>> origins = ahead.entrySet().iterator();
+        while (origins.hasNext()) {
+            Map.Entry<String, TreeSet<Long>> entry = origins.next();
+            TreeSet<Long> later = entry.getValue();
+            long upTo = getContiguous(entry.getKey());
+            while (later.size() > MAX_AHEAD) {
+                long next = later.pollFirst();
+                skipped += next - upTo - 1;
+                upTo = next;
+            }
+            while (!later.isEmpty() && later.first() == upTo + 1) {
+                upTo = later.pollFirst();
+            }
+            contiguous.put(entry.getKey(), upTo);
+            if (later.isEmpty()) {
+                origins.remove();
+            }
+        }
+        return skipped;
+    }
+
+    /**
+     * marks every write of the origin up to the sequence given as applied
+     * @param origin the frontend that sent the writes
+     * @param sequence the highest sequence number applied without a gap
+     */
+    public synchronized void skipTo(String origin, long sequence) {
+        if (sequence > getContiguous(origin)) {
+            contiguous.put(origin, sequence - 1);
+            add(origin, sequence);
+        }
+    }
+
+    /**
+     * @param origin the frontend to check
+     * @return the highest sequence number of the origin up to which every write is applied
+     */
+    public synchronized long getContiguous(String origin) {
+        return contiguous.containsKey(origin) ? contiguous.get(origin) : 0;
+    }
+
+    /**
+     * @return a copy of the frontends that this tracker has seen writes from
+     */
+    public synchronized Set<String> getOrigins() {
+        return new HashSet<String>(contiguous.keySet());
+    }
+
+    /**
+     * @param origin the frontend to check
+     * @return a copy of the sequence numbers of the origin applied after a gap, in increasing order
+     */
+    public synchronized SortedSet<Long> getAhead(String origin) {
+        return ahead.containsKey(origin) ? new TreeSet<Long>(ahead.get(origin)) : new TreeSet<Long>();
+    }
+
+    /**
+     * @return the number of writes applied, the same on every backend that applied the same writes
+     */
+    public synchronized long count() {
+        long total = 0;
+        for (Map.Entry<String, Long> origin : contiguous.entrySet()) {
+            TreeSet<Long> applied = ahead.get(origin.getKey());
+            total += origin.getValue() + (applied == null ? 0 : applied.size());
+        }
+        return total;
+    }
+
+    /**
+     * @return a copy that is not affected by later writes to this tracker
+     */
+    public synchronized SequenceTracker copy() {
+        SequenceTracker copy = new SequenceTracker();
+        copy.contiguous.putAll(contiguous);
+        for (Map.Entry<String, TreeSet<Long>> later : ahead.entrySet()) {
+            copy.ahead.put(later.getKey(), new TreeSet<Long>(later.getValue()));
+        }
+        return copy;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "applied up to " + contiguous + (ahead.isEmpty() ? "" : " and " + ahead);
+    }
+}
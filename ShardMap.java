@@ -0,0 +1,195 @@
+import java.util.*;
+
+import org.jgroups.Address;
+import org.jgroups.View;
+import org.jgroups.util.UUID;
+
+/**
+ * This class tells which shard owns an item. item ids fall into a fixed number of buckets (the id modulo
+ * BUCKETS) and every bucket is owned by one shard, picked by rendezvous hashing: each shard gets a
+ * pseudo random weight for the bucket and the heaviest one wins. when a shard is added, it only takes
+ * the buckets it wins, about 1/n of them, and when one is removed only its buckets move, each to its
+ * next heaviest shard. the other buckets stay where they are.
+ * a backend is put in a shard by the "SHARD" env var (default 0) and the shard is part of its logical
+ * name, "backend3-..." for shard 3 and "backend-..." for shard 0, so every member works out the same
+ * map from the view. the backends of a shard are replicas of each other, so the replication factor
+ * of a shard is the number of backends started with its id.
+ */
+public class ShardMap {
+    public static final int BUCKETS = 1024;   // buckets the item ids are spread over, a power of two
+    private static final int MASK = BUCKETS - 1;
+
+    private final int[] shards;  // ids of the shards, in increasing order
+    private final int[] owners;  // shard that owns each bucket
+
+    /**
+     * @param shards the ids of the shards, at least one
+     */
+    public ShardMap(Collection<Integer> shards) {
+        this.shards = new TreeSet<Integer>(shards).stream().mapToInt(Integer::intValue).toArray();
+        this.owners = new int[BUCKETS];
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            long heaviest = Long.MIN_VALUE;
+            for (int shard : this.shards) {
+                long weight = weight(shard, bucket);
+                if (weight > heaviest) {
+                    heaviest = weight;
+                    owners[bucket] = shard;
+                }
+            }
+        }
+    }
+
+    /**
+     * @param shards the ids of the shards, as returned by shards()
+     * @return the map of those shards
+     */
+    public static ShardMap of(int[] shards) {
+        List<Integer> ids = new ArrayList<Integer>(shards.length);
+        for (int shard : shards) {
+            ids.add(shard);
+        }
+        return new ShardMap(ids);
+    }
+
+    /**
+     * @param view the view of the cluster
+     * @return the map of the shards that have at least one backend in the view, shard 0 alone if there is none
+     */
+    public static ShardMap of(View view) {
+        return of(view, null);
+    }
+
+    /**
+     * @param view the view of the cluster
+     * @param without a member to leave out, the map is then the one the other members had before it joined
+     * @return the map of the shards that have at least one backend in the view, shard 0 alone if there is none
+     */
+    public static ShardMap of(View view, Address without) {
+        Set<Integer> shards = new TreeSet<Integer>();
+        for (Address member : view.getMembers()) {
+            String name = UUID.get(member);
+            if (isBackend(name) && !member.equals(without)) {
+                shards.add(shardOf(name));
+            }
+        }
+        if (shards.isEmpty()) {
+            shards.add(0);
+        }
+        return new ShardMap(shards);
+    }
+
+    // the weight of a shard for a bucket, a 64 bit mix of both so the winners are spread evenly
+    private static long weight(int shard, int bucket) {
+        long x = ((long) shard << 32 | bucket) * 0x9E3779B97F4A7C15L;
+        x ^= x >>> 31;
+        x *= 0xBF58476D1CE4E5B9L;
+        x ^= x >>> 27;
+        x *= 0x94D049BB133111EBL;
+        return x ^ (x >>> 31);
+    }
+
+    /**
+     * @param name the logical name of a member
+     * @return true if the member is a backend
+     */
+    public static boolean isBackend(String name) {
+        return name != null && name.startsWith("backend");
+    }
+
+    /**
+     * @param name the logical name of a backend, "backend<shard>-..." or "backend-..." for shard 0
+     * @return the shard of the backend
+     */
+    public static int shardOf(String name) {
+        int end = name.indexOf('-');
+        String digits = name.substring("backend".length(), end < 0 ? name.length() : end);
+        return digits.isEmpty() ? 0 : Integer.parseInt(digits);
+    }
+
+    /**
+     * @param shard the shard of a backend
+     * @return the role to connect the backend with, so its logical name carries the shard
+     */
+    public static String role(int shard) {
+        return shard == 0 ? "backend" : "backend" + shard;
+    }
+
+    public static int bucketOf(int itemId) {
+        return itemId & MASK;
+    }
+
+    public int ownerOf(int bucket) {
+        return owners[bucket];
+    }
+
+    /**
+     * @param itemId the id of an item
+     * @return the shard that owns the item
+     */
+    public int shardOfItem(int itemId) {
+        return owners[bucketOf(itemId)];
+    }
+
+    /**
+     * @return the ids of the shards, in increasing order
+     */
+    public int[] shards() {
+        return shards.clone();
+    }
+
+    public boolean contains(int shard) {
+        return Arrays.binarySearch(shards, shard) >= 0;
+    }
+
+    /**
+     * @param shard the shard that creates an item
+     * @param after the highest id the shard has used
+     * @return the lowest id above the one given that falls in a bucket of the shard
+     */
+    public int nextOwnedId(int shard, int after) {
+        if (!contains(shard)) {
+            return after + 1;
+        }
+        int itemId = after + 1;
+        while (owners[bucketOf(itemId)] != shard) {
+            itemId++;
+        }
+        return itemId;
+    }
+
+    /**
+     * @param before the map the shard had before
+     * @param shard the shard to compare for
+     * @return for each shard that owned them before, the buckets this shard owns now and did not own then
+     */
+    public Map<Integer, List<Integer>> gainedFrom(ShardMap before, int shard) {
+        Map<Integer, List<Integer>> gained = new TreeMap<Integer, List<Integer>>();
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            if (owners[bucket] == shard && before.owners[bucket] != shard) {
+                gained.computeIfAbsent(before.owners[bucket], previous -> new ArrayList<Integer>()).add(bucket);
+            }
+        }
+        return gained;
+    }
+
+    /**
+     * @return true if both maps have the same shards, and so the same owners
+     */
+    public boolean sameShards(ShardMap other) {
+        return other != null && Arrays.equals(shards, other.shards);
+    }
+
+    /**
+     * @param ids shard ids in increasing order
+     * @return true if the map is the one of those shards
+     */
+    public boolean hasShards(int[] ids) {
+        return Arrays.equals(shards, ids);
+    }
+
+    @Override
+    public String toString() {
+        return "shards " + Arrays.toString(shards);
+    }
+}
@@ -0,0 +1,24 @@
+import java.io.Serializable;
+import java.util.*;
+
+/**
+ * This class carries one bounded part of the auction data of a backend to a backend that
+ * has just joined the cluster. The first chunk of a transfer only describes it (the session,
+ * the id counter, the clock and the writes already applied), the following chunks hold the items and then
+ * the clients, in the order they were listed when the transfer started.
+ */
+public class StateChunk implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    int session;                       // id of the transfer on the donor
+    int id;                            // the item id counter of the donor when the transfer started
+    long clock;                        // the cluster time of the donor when the transfer started
+    SequenceTracker applied;           // the writes the donor had applied when the transfer started
+    int totalItems;                    // number of items listed when the transfer started
+    int totalClients;                  // number of clients listed when the transfer started
+    int nextOffset;                    // offset to ask for in the next chunk
+    boolean last;                      // true if there is nothing left to send
+    ArrayList<AuctionItem> items = new ArrayList<AuctionItem>();  // copies of the items in this chunk
+    LinkedHashMap<String, ClientIndex.Record> clients = new LinkedHashMap<String, ClientIndex.Record>(); // copies of the activity of the clients in this chunk
+    HashMap<Integer, String[]> bidders = new HashMap<Integer, String[]>(); // clients that bid on each item of a bucket copied to another shard
+}
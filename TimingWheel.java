@@ -0,0 +1,190 @@
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * This class keeps the end times of the timed auctions of a backend in a hierarchical timing wheel,
+ * so a deadline is scheduled or cancelled in constant time whatever the number of auctions, and moving
+ * the clock forward only looks at the deadlines that are due, never at the items that are not.
+ * the wheel has LEVELS levels of 64 slots, a slot of level 0 spans 1 ms and a slot of level n spans
+ * 64^n ms, so the levels cover 2^36 ms (about two years) ahead of the clock. a deadline goes to the
+ * lowest level where it falls in the same slot as the clock on every level above, and moves down a level
+ * when the clock reaches the start of its slot, so it is moved at most LEVELS times before it is due.
+ * deadlines further ahead wait in an overflow list. the wheel has no clock of its own, it is moved
+ * by advance, so backends that advance it to the same times see the same deadlines expire.
+ */
+public class TimingWheel {
+    private static final int SLOT_BITS = 6;                // log2 of the slots of a level
+    private static final int SLOTS = 1 << SLOT_BITS;       // slots of a level
+    private static final int LEVELS = 6;                   // levels of the wheel
+    private static final int SPAN_BITS = SLOT_BITS * LEVELS; // log2 of the ms the levels cover
+    private static final int DUE = LEVELS * SLOTS;         // list of the deadlines that passed, returned by the next advance
+    private static final int OVERFLOW = DUE + 1;           // list of the deadlines beyond the levels
+
+    private final Timer[] lists = new Timer[OVERFLOW + 1]; // first timer of each slot, then the due and overflow lists
+    private final long[] occupied = new long[LEVELS];      // bit n is set if slot n of the level has timers
+    private final HashMap<Integer, Timer> timers = new HashMap<Integer, Timer>(); // timer of each item, to cancel it
+    private long now;                                      // every deadline up to this time has been returned
+
+    // the deadline of one item, linked into the list of its slot
+    private static final class Timer {
+        final int itemId;   // the item that ends
+        final long deadline; // when it ends, in ms
+        int list;           // the list it is in
+        Timer prev;
+        Timer next;
+
+        Timer(int itemId, long deadline) {
+            this.itemId = itemId;
+            this.deadline = deadline;
+        }
+    }
+
+    /**
+     * @param now the time the wheel starts at, deadlines up to it are returned by the first advance
+     */
+    public TimingWheel(long now) {
+        this.now = now;
+    }
+
+    /**
+     * schedules the end of an item, replacing the one it had
+     * @param itemId the item
+     * @param deadline when the item ends, in ms
+     */
+    public synchronized void schedule(int itemId, long deadline) {
+        Timer old = timers.get(itemId);
+        if (old != null) {
+            if (old.deadline == deadline) {
+                return;
+            }
+            unlink(old);
+        }
+        Timer timer = new Timer(itemId, deadline);
+        timers.put(itemId, timer);
+        place(timer);
+    }
+
+    /**
+     * @param itemId the item whose end is no longer needed, because it was closed or moved to another shard
+     */
+    public synchronized void cancel(int itemId) {
+        Timer timer = timers.remove(itemId);
+        if (timer != null) {
+            unlink(timer);
+        }
+    }
+
+    /**
+     * moves the clock of the wheel to the time given, earlier times are ignored
+     * @param time the new time, in ms
+     * @return the ids of the items whose deadline is at or before the time, in increasing order
+     */
+    public synchronized int[] advance(long time) {
+        while (true) {
+            int level = 0;
+            while (level < LEVELS && occupied[level] == 0) {
+                level++;
+            }
+            if (level == LEVELS) {
+                // nothing on the levels, jump to the block of 2^36 ms of the time or of the first overflowing deadline
+                if (lists[OVERFLOW] == null) {
+                    break;
+                }
+                long earliest = time;
+                for (Timer timer = lists[OVERFLOW]; timer != null; timer = timer.next) {
+                    earliest = Math.min(earliest, timer.deadline);
+                }
+                long boundary = Math.max((now >>> SPAN_BITS) + 1, earliest >>> SPAN_BITS) << SPAN_BITS;
+                if (boundary > time) {
+                    break;
+                }
+                now = boundary;
+                replace(OVERFLOW);
+                continue;
+            }
+            // the slots of the lowest level in use all start before any slot of the levels above
+            int slot = Long.numberOfTrailingZeros(occupied[level]);
+            int shift = SLOT_BITS * level;
+            long start = (now & -(1L << (shift + SLOT_BITS))) | ((long) slot << shift);
+            if (start > time) {
+                break;
+            }
+            now = start;
+            replace(level * SLOTS + slot);
+        }
+        now = Math.max(now, time);
+        int count = 0;
+        for (Timer timer = lists[DUE]; timer != null; timer = timer.next) {
+            count++;
+        }
+        int[] expired = new int[count];
+        int i = 0;
+        for (Timer timer = lists[DUE]; timer != null; timer = timer.next) {
+            expired[i++] = timer.itemId;
+            timers.remove(timer.itemId);
+        }
+        lists[DUE] = null;
+        Arrays.sort(expired);
+        return expired;
+    }
+
+    /**
+     * @return the number of deadlines scheduled
+     */
+    public synchronized int size() {
+        return timers.size();
+    }
+
+    // puts the timer in the list its deadline belongs to from the current time
+    private void place(Timer timer) {
+        int list;
+        if (timer.deadline <= now) {
+            list = DUE;
+        } else {
+            // the highest bit the deadline and the clock differ in tells the level
+            int level = (63 - Long.numberOfLeadingZeros(timer.deadline ^ now)) / SLOT_BITS;
+            if (level >= LEVELS) {
+                list = OVERFLOW;
+            } else {
+                int slot = (int) (timer.deadline >>> (SLOT_BITS * level)) & (SLOTS - 1);
+                list = level * SLOTS + slot;
+                occupied[level] |= 1L << slot;
+            }
+        }
+        timer.list = list;
+        timer.prev = null;
+        timer.next = lists[list];
+        if (timer.next != null) {
+            timer.next.prev = timer;
+        }
+        lists[list] = timer;
+    }
+
+    private void unlink(Timer timer) {
+        if (timer.prev != null) {
+            timer.prev.next = timer.next;
+        } else {
+            lists[timer.list] = timer.next;
+        }
+        if (timer.next != null) {
+            timer.next.prev = timer.prev;
+        }
+        if (timer.list < DUE && lists[timer.list] == null) {
+            occupied[timer.list / SLOTS] &= ~(1L << (timer.list % SLOTS));
+        }
+    }
+
+    // takes the timers out of a list and places them again from the current time, a level lower or due
+    private void replace(int list) {
+        Timer timer = lists[list];
+        lists[list] = null;
+        if (list < DUE) {
+            occupied[list / SLOTS] &= ~(1L << (list % SLOTS));
+        }
+        while (timer != null) {
+            Timer next = timer.next;
+            place(timer);
+            timer = next;
+        }
+    }
+}
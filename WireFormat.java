@@ -0,0 +1,291 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.Map;
+import org.jgroups.blocks.RpcDispatcher;
+import org.jgroups.conf.ClassConfigurator;
+import org.jgroups.util.Buffer;
+import org.jgroups.util.ByteArrayDataInputStream;
+import org.jgroups.util.ByteArrayDataOutputStream;
+import org.jgroups.util.Util;
+
+/**
+ * This class holds the pieces of the compact format auction data is sent in, in place of java serialization.
+ * AuctionItem, ListingsPage and ListingsFilter write it for RMI clients (Externalizable), and the
+ * ResponseMarshaller writes items, pages and listings in it on the JGroups channel. WriteBatch, which
+ * only travels between members, is a JGroups SizeStreamable.
+ * ints and longs are written as varints, 7 bits a byte, so ids and prices mostly take one to three bytes.
+ * strings are written as their UTF-8 length and bytes. strings that repeat inside one message, such as
+ * seller, buyer and frontend ids, go through a StringTable and are sent once, then referred to by number.
+ */
+public class WireFormat {
+    private static final short WRITE_BATCH = 2001; // id JGroups writes in place of the class name of WriteBatch
+
+    private static boolean registered; // true once the ids are known to JGroups
+
+    /**
+     * gives the JGroups messages of this format short ids, called before the channel connects.
+     * a member that has not registered them still reads them, by class name
+     */
+    public static synchronized void register() {
+        if (registered) {
+            return;
+        }
+        ClassConfigurator.add(WRITE_BATCH, WriteBatch.class);
+        registered = true;
+    }
+
+    /**
+     * writes the values backends return in the compact format: items, pages and the listings hashtable.
+     * anything else is written the way JGroups writes it by default. the frontend and the backends
+     * all set it as the response marshaller of their dispatcher, the first byte says which form follows
+     */
+    static class ResponseMarshaller implements RpcDispatcher.Marshaller {
+        private static final byte OTHER = 0;    // written by JGroups
+        private static final byte ITEM = 1;     // an AuctionItem
+        private static final byte PAGE = 2;     // a ListingsPage
+        private static final byte LISTINGS = 3; // a hashtable of items keyed by their id
+
+        @Override
+        public Buffer objectToBuffer(Object value) throws Exception {
+            if (value instanceof AuctionItem) {
+                AuctionItem item = (AuctionItem) value;
+                ByteArrayDataOutputStream out = new ByteArrayDataOutputStream(1 + item.size(null), true);
+                out.writeByte(ITEM);
+                item.write(out, null);
+                return out.getBuffer();
+            }
+            if (value instanceof ListingsPage) {
+                ListingsPage page = (ListingsPage) value;
+                ByteArrayDataOutputStream out = new ByteArrayDataOutputStream(1 + page.size(), true);
+                out.writeByte(PAGE);
+                page.write(out);
+                return out.getBuffer();
+            }
+            if (value instanceof Hashtable && isListings((Hashtable<?, ?>) value)) {
+                @SuppressWarnings("unchecked")
+                Hashtable<Integer, AuctionItem> listings = (Hashtable<Integer, AuctionItem>) value;
+                ByteArrayDataOutputStream out = new ByteArrayDataOutputStream(64 + listings.size() * 48, true);
+                StringTable strings = new StringTable();
+                out.writeByte(LISTINGS);
+                writeVarInt(out, listings.size());
+                for (AuctionItem item : listings.values()) {
+                    item.write(out, strings);
+                }
+                return out.getBuffer();
+            }
+            byte[] bytes = Util.objectToByteBuffer(value);
+            ByteArrayDataOutputStream out = new ByteArrayDataOutputStream(1 + bytes.length, true);
+            out.writeByte(OTHER);
+            out.write(bytes);
+            return out.getBuffer();
+        }
+
+        @Override
+        public Object objectFromBuffer(byte[] buffer, int offset, int length) throws Exception {
+            ByteArrayDataInputStream in = new ByteArrayDataInputStream(buffer, offset, length);
+            switch (in.readByte()) {
+                case ITEM:
+                    AuctionItem item = new AuctionItem();
+                    item.read(in, null);
+                    return item;
+                case PAGE:
+                    ListingsPage page = new ListingsPage();
+                    page.read(in);
+                    return page;
+                case LISTINGS:
+                    StringTable strings = new StringTable();
+                    int count = readVarInt(in);
+                    Hashtable<Integer, AuctionItem> listings = new Hashtable<Integer, AuctionItem>(Math.max(11, count * 4 / 3 + 1));
+                    for (int i = 0; i < count; i++) {
+                        AuctionItem listed = new AuctionItem();
+                        listed.read(in, strings);
+                        listings.put(listed.getItemId(), listed);
+                    }
+                    return listings;
+                default:
+                    return Util.objectFromByteBuffer(buffer, offset + 1, length - 1);
+            }
+        }
+
+        // return true if every entry is an item under its own id, so the keys need not be sent
+        private static boolean isListings(Hashtable<?, ?> table) {
+            for (Map.Entry<?, ?> entry : table.entrySet()) {
+                if (!(entry.getValue() instanceof AuctionItem)
+                        || !Integer.valueOf(((AuctionItem) entry.getValue()).getItemId()).equals(entry.getKey())) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    static void writeVarInt(DataOutput out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    static int readVarInt(DataInput in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = in.readByte();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IOException("malformed varint");
+    }
+
+    // return the bytes writeVarInt takes for the value, negative values take 5
+    static int varIntSize(int value) {
+        int size = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    static void writeVarLong(DataOutput out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    static long readVarLong(DataInput in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 70; shift += 7) {
+            byte b = in.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IOException("malformed varint");
+    }
+
+    static int varLongSize(long value) {
+        int size = 1;
+        while ((value & ~0x7FL) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    /**
+     * writes the string as its UTF-8 length plus one, 0 for null, followed by its bytes
+     * @param out where to write
+     * @param value the string, may be null
+     */
+    static void writeString(DataOutput out, String value) throws IOException {
+        if (value == null) {
+            out.writeByte(0);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(out, bytes.length + 1);
+        out.write(bytes);
+    }
+
+    static String readString(DataInput in) throws IOException {
+        int length = readVarInt(in) - 1;
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static int stringSize(String value) {
+        if (value == null) {
+            return 1;
+        }
+        int length = utf8Length(value);
+        return varIntSize(length + 1) + length;
+    }
+
+    // return the number of bytes of the string in UTF-8, without encoding it
+    private static int utf8Length(String value) {
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * the strings already sent in one message. a string is written in full the first time and as
+     * its number after that: 0 is null, 1 is followed by a new string, n above 1 is the string n - 2.
+     * the writer and the reader each use a table of their own and fill it in the same order
+     */
+    static class StringTable {
+        private final HashMap<String, Integer> numbers = new HashMap<String, Integer>(); // number of each string written
+        private final ArrayList<String> strings = new ArrayList<String>();               // strings read, by number
+
+        void write(DataOutput out, String value) throws IOException {
+            if (value == null) {
+                out.writeByte(0);
+                return;
+            }
+            Integer number = numbers.get(value);
+            if (number != null) {
+                writeVarInt(out, number + 2);
+                return;
+            }
+            numbers.put(value, numbers.size());
+            out.writeByte(1);
+            writeString(out, value);
+        }
+
+        String read(DataInput in) throws IOException {
+            int code = readVarInt(in);
+            if (code == 0) {
+                return null;
+            }
+            if (code > 1) {
+                if (code - 2 >= strings.size()) {
+                    throw new IOException("unknown string " + (code - 2));
+                }
+                return strings.get(code - 2);
+            }
+            String value = readString(in);
+            strings.add(value);
+            return value;
+        }
+
+        // return the bytes write takes for the string, counting it as written
+        int size(String value) {
+            if (value == null) {
+                return 1;
+            }
+            Integer number = numbers.get(value);
+            if (number != null) {
+                return varIntSize(number + 2);
+            }
+            numbers.put(value, numbers.size());
+            return 1 + stringSize(value);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+import java.io.*;
+import java.util.ArrayList;
+import org.jgroups.util.SizeStreamable;
+
+/**
+ * A list of writes sent between members in one message, the bids of a bidBatch or the writes a
+ * backend missed. the records are written in the compact WireFormat and share one string table,
+ * so the frontend id and the buyers that repeat across the records are sent once.
+ */
+public class WriteBatch implements SizeStreamable {
+    private ArrayList<WriteRecord> records; // the writes in the order to apply them
+
+    // used when a batch is read from the wire
+    public WriteBatch() {
+        this(new ArrayList<WriteRecord>());
+    }
+
+    public WriteBatch(ArrayList<WriteRecord> records) {
+        this.records = records;
+    }
+
+    // return the writes in the order to apply them
+    public ArrayList<WriteRecord> getRecords() {
+        return records;
+    }
+
+    @Override
+    public void writeTo(DataOutput out) throws IOException {
+        WireFormat.StringTable strings = new WireFormat.StringTable();
+        WireFormat.writeVarInt(out, records.size());
+        for (WriteRecord record : records) {
+            record.write(out, strings);
+        }
+    }
+
+    @Override
+    public void readFrom(DataInput in) throws IOException {
+        WireFormat.StringTable strings = new WireFormat.StringTable();
+        int count = WireFormat.readVarInt(in);
+        records = new ArrayList<WriteRecord>(count);
+        for (int i = 0; i < count; i++) {
+            records.add(WriteRecord.read(in, strings));
+        }
+    }
+
+    @Override
+    public int size() {
+        WireFormat.StringTable strings = new WireFormat.StringTable();
+        int size = WireFormat.varIntSize(records.size());
+        for (WriteRecord record : records) {
+            size += record.size(strings);
+        }
+        return size;
+    }
+}
@@ -0,0 +1,142 @@
+import java.io.*;
+
+/**
+ * This class describes one write applied by a backend (a created item, a bid, a closed item or a tick
+ * of the cluster clock) together with the frontend and sequence number it came from. The same record is appended to
+ * the log on disk, kept in the ring of recent writes and sent to replicas that missed it.
+ */
+public class WriteRecord implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    static final byte CREATE = 1;  // written by createItem
+    static final byte BID = 2;     // written by bid
+    static final byte CLOSE = 3;   // written by closeItem
+    static final byte TICK = 4;    // written by tick
+
+    final byte type;          // kind of write
+    final String origin;      // frontend that sent the write
+    final long sequence;      // sequence number of the write in its frontend
+    final int itemId;         // the item created, bid on or closed, 0 for a tick
+    int price;                // starting price of a created item or the price of a bid
+    int minimumPrice;         // minimum price of a created item
+    String description;       // description of a created item
+    String name;              // name of the buyer of a bid
+    String email;             // email of the buyer of a bid
+    String clientId;          // seller of a created item or buyer of a bid
+    long time;                // end time of a created item (0 if it has none) or the cluster time of a tick
+
+    private WriteRecord(byte type, String origin, long sequence, int itemId) {
+        this.type = type;
+        this.origin = origin;
+        this.sequence = sequence;
+        this.itemId = itemId;
+    }
+
+    // return the record of a created item
+    static WriteRecord create(String origin, long sequence, int itemId, int startingPrice, String description, int minimumPrice, String sellerId, long endTime) {
+        WriteRecord record = new WriteRecord(CREATE, origin, sequence, itemId);
+        record.price = startingPrice;
+        record.description = description;
+        record.minimumPrice = minimumPrice;
+        record.clientId = sellerId;
+        record.time = endTime;
+        return record;
+    }
+
+    // return the record of a bid
+    static WriteRecord bid(String origin, long sequence, int itemId, int price, String name, String email, String buyerId) {
+        WriteRecord record = new WriteRecord(BID, origin, sequence, itemId);
+        record.price = price;
+        record.name = name;
+        record.email = email;
+        record.clientId = buyerId;
+        return record;
+    }
+
+    // return the record of a closed item
+    static WriteRecord close(String origin, long sequence, int itemId) {
+        return new WriteRecord(CLOSE, origin, sequence, itemId);
+    }
+
+    // return the record of a tick of the cluster clock
+    static WriteRecord tick(String origin, long sequence, long time) {
+        WriteRecord record = new WriteRecord(TICK, origin, sequence, 0);
+        record.time = time;
+        return record;
+    }
+
+    /**
+     * writes the record in the compact WireFormat, used by WriteBatch
+     * @param out where to write
+     * @param strings the strings already written in the batch, the frontend id repeats in every record
+     */
+    void write(DataOutput out, WireFormat.StringTable strings) throws IOException {
+        out.writeByte(type);
+        strings.write(out, origin);
+        WireFormat.writeVarLong(out, sequence);
+        WireFormat.writeVarInt(out, itemId);
+        if (type == CREATE) {
+            WireFormat.writeVarInt(out, price);
+            WireFormat.writeVarInt(out, minimumPrice);
+            WireFormat.writeString(out, description);
+            strings.write(out, clientId);
+            WireFormat.writeVarLong(out, time);
+        } else if (type == BID) {
+            WireFormat.writeVarInt(out, price);
+            strings.write(out, name);
+            strings.write(out, email);
+            strings.write(out, clientId);
+        } else if (type == TICK) {
+            WireFormat.writeVarLong(out, time);
+        }
+    }
+
+    // return a record written by write
+    static WriteRecord read(DataInput in, WireFormat.StringTable strings) throws IOException {
+        byte type = in.readByte();
+        String origin = strings.read(in);
+        long sequence = WireFormat.readVarLong(in);
+        int itemId = WireFormat.readVarInt(in);
+        switch (type) {
+            case CREATE:
+                int startingPrice = WireFormat.readVarInt(in);
+                int minimumPrice = WireFormat.readVarInt(in);
+                String description = WireFormat.readString(in);
+                String sellerId = strings.read(in);
+                return create(origin, sequence, itemId, startingPrice, description, minimumPrice, sellerId, WireFormat.readVarLong(in));
+            case BID:
+                int price = WireFormat.readVarInt(in);
+                String name = strings.read(in);
+                String email = strings.read(in);
+                return bid(origin, sequence, itemId, price, name, email, strings.read(in));
+            case CLOSE:
+                return close(origin, sequence, itemId);
+            case TICK:
+                return tick(origin, sequence, WireFormat.readVarLong(in));
+            default:
+                throw new IOException("unknown write type " + type);
+        }
+    }
+
+    // return the bytes write takes
+    int size(WireFormat.StringTable strings) {
+        int size = 1 + strings.size(origin) + WireFormat.varLongSize(sequence) + WireFormat.varIntSize(itemId);
+        if (type == CREATE) {
+            size += WireFormat.varIntSize(price) + WireFormat.varIntSize(minimumPrice)
+                    + WireFormat.stringSize(description) + strings.size(clientId) + WireFormat.varLongSize(time);
+        } else if (type == BID) {
+            size += WireFormat.varIntSize(price) + strings.size(name) + strings.size(email) + strings.size(clientId);
+        } else if (type == TICK) {
+            size += WireFormat.varLongSize(time);
+        }
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        if (type == TICK) {
+            return "tick " + time + " (" + origin + "#" + sequence + ")";
+        }
+        return (type == CREATE ? "create " : type == BID ? "bid " : "close ") + itemId + " (" + origin + "#" + sequence + ")";
+    }
+}
@@ -0,0 +1,93 @@
+import java.util.*;
+
+/**
+ * This class keeps the most recent writes applied by a backend in a fixed size ring.
+ * A replica that dropped out for a moment asks another backend for the writes it is missing,
+ * and as long as they are all still in the ring only those few writes cross the network
+ * instead of a copy of every item.
+ */
+public class WriteRing {
+    private final WriteRecord[] records;  // the ring, oldest record at 'head'
+    private int head;                     // position of the oldest record
+    private int size;                     // number of records in the ring
+    private final HashMap<String, Long> coveredFrom = new HashMap<String, Long>(); // per frontend, the lowest sequence from which every applied write is in the ring
+
+    /**
+     * @param capacity the maximum number of writes kept
+     */
+    public WriteRing(int capacity) {
+        this.records = new WriteRecord[capacity];
+    }
+
+    /**
+     * empties the ring, used when the data came from a snapshot or a copy that the ring knows nothing about
+     * @param applied the writes that are part of the data at this point
+     */
+    public synchronized void startAt(SequenceTracker applied) {
+        Arrays.fill(records, null);
+        head = 0;
+        size = 0;
+        coveredFrom.clear();
+        for (String origin : applied.getOrigins()) {
+            coveredFrom.put(origin, applied.getContiguous(origin) + 1);
+        }
+    }
+
+    /**
+     * adds a write that was just applied, dropping the oldest one if the ring is full
+     * @param record the write
+     */
+    public synchronized void add(WriteRecord record) {
+        if (size == records.length) {
+            WriteRecord oldest = records[head];
+            // writes of that frontend up to the dropped one can no longer be served from the ring
+            Long from = coveredFrom.get(oldest.origin);
+            coveredFrom.put(oldest.origin, Math.max(from == null ? 1 : from, oldest.sequence + 1));
+            records[head] = record;
+            head = (head + 1) % records.length;
+        } else {
+            records[(head + size) % records.length] = record;
+            size++;
+        }
+    }
+
+    /**
+     * @param have the writes the lagging replica has applied
+     * @param applied the writes this backend has applied
+     * @return the writes the replica is missing in the order they were applied here,
+     *         or null if some of them are older than the ring
+     */
+    public synchronized ArrayList<WriteRecord> missedBy(SequenceTracker have, SequenceTracker applied) {
+        for (String origin : applied.getOrigins()) {
+            long from = coveredFrom.containsKey(origin) ? coveredFrom.get(origin) : 1;
+            long haveUpTo = have.getContiguous(origin);
+            if (haveUpTo + 1 >= from) {
+                continue;
+            }
+            // some writes of this frontend are older than the ring, the replica must have all that were applied here
+            if (applied.getContiguous(origin) > haveUpTo) {
+                return null;
+            }
+            for (long sequence : applied.getAhead(origin).subSet(haveUpTo + 1, from)) {
+                if (!have.contains(origin, sequence)) {
+                    return null;
+                }
+            }
+        }
+        ArrayList<WriteRecord> missed = new ArrayList<WriteRecord>();
+        for (int i = 0; i < size; i++) {
+            WriteRecord record = records[(head + i) % records.length];
+            if (!have.contains(record.origin, record.sequence)) {
+                missed.add(record);
+            }
+        }
+        return missed;
+    }
+
+    /**
+     * @return the number of writes in the ring
+     */
+    public synchronized int size() {
+        return size;
+    }
+}